@@ -7,6 +7,7 @@ import org.jbenchx.annotations.DivideBy;
 import org.jbenchx.annotations.MemoryBench;
 import org.povworld.collection.CollectionUtil;
 import org.povworld.collection.List;
+import org.povworld.collection.immutable.FilteredContainer;
 import org.povworld.collection.immutable.ImmutableCollections;
 import org.povworld.collection.mutable.ArrayList;
 import org.povworld.collection.mutable.HashSet;
@@ -19,6 +20,10 @@ public abstract class AbstractHashSetBench<E> {
     
     private final HashSet<E> set;
     
+    private final FilteredContainer<E> bloomFilteredSet;
+    
+    private final FilteredContainer<E> xorFilteredSet;
+    
     private final List<E> elements;
     
     private final List<E> nonElements;
@@ -32,18 +37,24 @@ public abstract class AbstractHashSetBench<E> {
             nonElementBuilder.add(elementProducer.produce());
         }
         this.set = set;
+        this.bloomFilteredSet = FilteredContainer.withBloomFilter(set);
+        this.xorFilteredSet = FilteredContainer.withXorFilter(set);
         this.elements = ImmutableCollections.asList(CollectionUtil.shuffle(ImmutableCollections.asList(set), random));
         this.nonElements = ImmutableCollections.asList(CollectionUtil.shuffle(nonElementBuilder.build(), random));
     }
     
     protected HashSet<E> empty() {
-        return new HashSet<E>();
+        return empty(0);
+    }
+    
+    protected HashSet<E> empty(int expectedSize) {
+        return new HashSet<E>(expectedSize);
     }
     
     @MemoryBench
 //  @Ignore
     public Object memory() throws InterruptedException {
-        HashSet<E> result = new HashSet<E>(elements.size());
+        HashSet<E> result = empty(elements.size());
         for (E element: set) {
             result.add(element);
         }
@@ -69,6 +80,24 @@ public abstract class AbstractHashSetBench<E> {
         return this;
     }
     
+    @Bench
+//  @Ignore
+    public Object getNotContainedKeyBloomFiltered() {
+        for (E nonElement: nonElements) {
+            if (bloomFilteredSet.contains(nonElement)) return null;
+        }
+        return this;
+    }
+    
+    @Bench
+//  @Ignore
+    public Object getNotContainedKeyXorFiltered() {
+        for (E nonElement: nonElements) {
+            if (xorFilteredSet.contains(nonElement)) return null;
+        }
+        return this;
+    }
+    
     @Bench
 //  @Ignore
     public Object addExistingElement() {
@@ -81,7 +110,7 @@ public abstract class AbstractHashSetBench<E> {
     @Bench
 //  @Ignore
     public Object addNewElement() {
-        HashSet<E> newSet = new HashSet<>(set.size());
+        HashSet<E> newSet = empty(set.size());
         for (E element: elements) {
             newSet.add(element);
         }
@@ -0,0 +1,25 @@
+package bench.org.povworld.collection.mutable;
+
+import org.jbenchx.annotations.DivideBy;
+import org.jbenchx.annotations.ForEachInt;
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.mutable.HashSet;
+import org.povworld.collection.mutable.HashTableLayout;
+
+import bench.org.povworld.collection.StringProducer;
+
+/**
+ * Compare with {@link HashSetStringBench} which uses the default layout.
+ */
+public class GroupedHashSetStringBench extends AbstractHashSetBench<String> {
+    
+    public GroupedHashSetStringBench(
+            @DivideBy @ForEachInt({0, 1, 10, 100, 1000, 10000, 100000, 1000000}) int elementCount) {
+        super(elementCount, StringProducer.createDefaultElementProducer());
+    }
+    
+    @Override
+    protected HashSet<String> empty(int expectedSize) {
+        return new HashSet<String>(CollectionUtil.getObjectIdentificator(), expectedSize, HashTableLayout.GROUPED);
+    }
+}
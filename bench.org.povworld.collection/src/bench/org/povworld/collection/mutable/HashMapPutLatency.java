@@ -0,0 +1,52 @@
+package bench.org.povworld.collection.mutable;
+
+import java.util.Arrays;
+
+import org.povworld.collection.mutable.HashMap;
+import org.povworld.collection.mutable.HashTableLayout;
+
+/**
+ * Measures the latency of single {@link HashMap#put(Object, Object)} calls while the map grows, comparing
+ * rehashing at once with incremental resizing. Throughput benchmarks only show the average, which hides the
+ * pauses of large rehashes.
+ */
+public class HashMapPutLatency {
+    
+    private static final int KEY_COUNT = 4000000;
+    
+    private static final int ROUNDS = 5;
+    
+    private static long[] measure(HashTableLayout layout, Integer[] keys) {
+        long[] latencies = new long[keys.length];
+        HashMap<Integer, Integer> map = new HashMap<>(0, layout);
+        for (int i = 0; i < keys.length; ++i) {
+            long start = System.nanoTime();
+            map.put(keys[i], keys[i]);
+            latencies[i] = System.nanoTime() - start;
+        }
+        if (map.keyCount() != keys.length) throw new IllegalStateException();
+        Arrays.sort(latencies);
+        return latencies;
+    }
+    
+    private static long percentile(long[] sortedLatencies, double percentile) {
+        return sortedLatencies[(int)Math.min(sortedLatencies.length - 1, sortedLatencies.length * percentile / 100)];
+    }
+    
+    public static void main(String[] args) {
+        Integer[] keys = new Integer[KEY_COUNT];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = i * 31;
+        }
+        for (int round = 0; round < ROUNDS; ++round) {
+            // The first rounds warm up the JIT.
+            for (HashTableLayout layout: new HashTableLayout[] {HashTableLayout.LINEAR_PROBING,
+                    HashTableLayout.INCREMENTAL_LINEAR_PROBING}) {
+                long[] latencies = measure(layout, keys);
+                System.out.printf("%-26s p50: %6dns  p99.9: %8dns  max: %10dns%n", layout, percentile(latencies, 50),
+                        percentile(latencies, 99.9), latencies[latencies.length - 1]);
+            }
+        }
+    }
+    
+}
@@ -6,6 +6,7 @@ import org.povworld.collection.CollectionUtil;
 import org.povworld.collection.List;
 import org.povworld.collection.immutable.ImmutableCollections;
 import org.povworld.collection.mutable.ArrayList;
+import org.povworld.collection.mutable.HashList;
 import org.povworld.collection.mutable.HashSet;
 
 public class ShortListVsSet {
@@ -14,20 +15,29 @@ public class ShortListVsSet {
     
     private HashSet<String> set;
     
+    private HashList<String> scannedHashList;
+    
+    private HashList<String> setHashList;
+    
     private List<String> test;
     
-    public ShortListVsSet(@ForEachInt({0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10}) int size) {
+    // Covers the default set threshold of the HashList to find the crossover of the scan and the set.
+    public ShortListVsSet(@ForEachInt({0, 5, 10, 15, 20, 25, 30, 35, 40, 45, 50}) int size) {
         this.list = new ArrayList<>(size);
         this.set = new HashSet<>(size);
+        this.scannedHashList = new HashList<>(size, Integer.MAX_VALUE);
+        this.setHashList = new HashList<>(size, 0);
         
         List<String> fruits = ImmutableCollections.listOf("apple", "orange", "peach", "coconut", "strawberry", "kiwi", "banana", "blueberry",
                 "ananas", "pomegrade");
         for (int i = 0; i < size; ++i) {
-            String s = fruits.get(i);
+            String s = fruits.get(i % fruits.size()) + (i / fruits.size());
             list.add(s);
             set.add(s);
+            scannedHashList.add(s);
+            setHashList.add(s);
         }
-        test = ImmutableCollections.listOf("foo", "bar", "bogus", "apple", "banana", "ananas");
+        test = ImmutableCollections.listOf("foo", "bar", "bogus", "apple0", "banana1", "ananas4");
     }
     
     @Bench
@@ -66,4 +76,22 @@ public class ShortListVsSet {
 //        return count;
 //    }
 //    
+    
+    @Bench
+    public int containsScannedHashList() {
+        int count = 0;
+        for (String s: test) {
+            count += scannedHashList.contains(s) ? 1 : 0;
+        }
+        return count;
+    }
+    
+    @Bench
+    public int containsSetHashList() {
+        int count = 0;
+        for (String s: test) {
+            count += setHashList.contains(s) ? 1 : 0;
+        }
+        return count;
+    }
 }
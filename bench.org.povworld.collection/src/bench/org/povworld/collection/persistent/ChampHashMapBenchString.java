@@ -0,0 +1,22 @@
+package bench.org.povworld.collection.persistent;
+
+import org.jbenchx.annotations.DivideBy;
+import org.jbenchx.annotations.ForEachInt;
+import org.povworld.collection.persistent.ChampHashMap;
+import org.povworld.collection.persistent.PersistentMap;
+
+/**
+ * Benchmarks for {@link ChampHashMap}, to be compared with {@link PersistentHashMapBenchString}.
+ */
+public class ChampHashMapBenchString extends PersistentMapBenchString {
+    
+    public ChampHashMapBenchString(
+            @DivideBy @ForEachInt({0, 1, 10, 100, 1000, 10000, 100000, 1000000}) int keyCount) {
+        super(keyCount);
+    }
+    
+    @Override
+    protected PersistentMap<String, String> empty() {
+        return ChampHashMap.empty();
+    }
+}
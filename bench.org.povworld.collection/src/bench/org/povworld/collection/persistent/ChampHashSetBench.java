@@ -0,0 +1,25 @@
+package bench.org.povworld.collection.persistent;
+
+import org.jbenchx.annotations.DivideBy;
+import org.jbenchx.annotations.ForEachInt;
+import org.povworld.collection.CollectionBuilder;
+import org.povworld.collection.persistent.ChampHashSet;
+import org.povworld.collection.persistent.PersistentSet;
+
+import bench.org.povworld.collection.StringProducer;
+
+/**
+ * Benchmark for {@link ChampHashSet}, to be compared with {@link PersistentHashSetBench}.
+ */
+public class ChampHashSetBench extends PersistentSetBench<String> {
+    
+    public ChampHashSetBench(
+            @DivideBy @ForEachInt({0, 1, 10, 100, 1000, 10000, 100000, 1000000}) int elementCount) {
+        super(elementCount, StringProducer.createDefaultElementProducer(), false);
+    }
+    
+    @Override
+    protected CollectionBuilder<String, ? extends PersistentSet<String>> newBuilder() {
+        return ChampHashSet.<String>newBuilder();
+    }
+}
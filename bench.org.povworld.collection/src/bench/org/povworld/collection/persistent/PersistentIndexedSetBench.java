@@ -0,0 +1,52 @@
+package bench.org.povworld.collection.persistent;
+
+import org.jbenchx.BenchmarkContext;
+import org.jbenchx.BenchmarkRunner;
+import org.jbenchx.annotations.Bench;
+import org.jbenchx.annotations.DivideBy;
+import org.jbenchx.annotations.ForEachInt;
+import org.jbenchx.monitor.ConsoleProgressMonitor;
+import org.povworld.collection.persistent.PersistentIndexedSet;
+import org.povworld.collection.persistent.PersistentIndexedSetImpl;
+import org.povworld.collection.persistent.PersistentOrderedSet;
+
+import bench.org.povworld.collection.StringProducer;
+
+public class PersistentIndexedSetBench extends PersistentOrderedSetBench<String> {
+    
+    public PersistentIndexedSetBench(
+            @DivideBy @ForEachInt({0, 1, 10, 100, 1000, 10000, 100000, 1000000}) int elementCount) {
+        super(elementCount, StringProducer.createDefaultElementProducer());
+    }
+    
+    @Override
+    protected PersistentOrderedSet<String> empty() {
+        return PersistentIndexedSetImpl.empty();
+    }
+    
+    @Bench
+    public Object insertNewElementAtRandomIndex() {
+        PersistentIndexedSet<String> indexedSet = (PersistentIndexedSet<String>)set;
+        for (String nonElement: nonElements) {
+            if (indexedSet.with(nonElement, random.nextInt(indexedSet.size() + 1)) == null) return null;
+        }
+        return this;
+    }
+    
+    @Bench
+    public Object indexOfContainedElement() {
+        PersistentIndexedSetImpl<String> indexedSet = (PersistentIndexedSetImpl<String>)set;
+        int sum = 0;
+        for (String element: elements) {
+            sum += indexedSet.indexOf(element);
+        }
+        return sum;
+    }
+    
+    public static void main(String[] args) {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        runner.add(PersistentIndexedSetBench.class);
+        runner.run(BenchmarkContext.create(new ConsoleProgressMonitor()));
+    }
+    
+}
@@ -28,6 +28,7 @@ public class PersistentIntervalMapBench {
     
     private final List<Interval> intervals;
     private final List<Interval> newIntervals;
+    private final PersistentIntervalMap<String> newEntries;
     
     private final String nonElement;
     
@@ -40,17 +41,21 @@ public class PersistentIntervalMapBench {
         PersistentIntervalMap<String> map = PersistentIntervalMap.empty();
         ArrayList<Interval> intervals = new ArrayList<>(intervalCount);
         ArrayList<Interval> newIntervals = new ArrayList<>(intervalCount);
+        PersistentIntervalMap.Builder<String> newEntries = PersistentIntervalMap.newBuilder();
         for (int i = 0; i < intervalCount; ++i) {
             Interval interval = randomInterval(maxStart, maxLength);
             intervals.push(interval);
             String element = stringProducer.produce();
             map = map.with(interval, element);
             
-            newIntervals.push(randomInterval(maxStart, maxLength));
+            Interval newInterval = randomInterval(maxStart, maxLength);
+            newIntervals.push(newInterval);
+            newEntries.add(newInterval, nonElement);
         }
         this.map = map;
         this.intervals = intervals;
         this.newIntervals = newIntervals;
+        this.newEntries = newEntries.build();
     }
     
     private Interval randomInterval(int maxStart, int maxLength) {
@@ -70,6 +75,18 @@ public class PersistentIntervalMapBench {
         return result;
     }
     
+    @MemoryBench
+    // @Ignore
+    public Object memoryBulkLoaded() throws InterruptedException {
+        return PersistentIntervalMap.<String>newBuilder().addAll(map.entryIterator()).build();
+    }
+    
+    @Bench
+    // @Ignore
+    public Object bulkLoad() {
+        return PersistentIntervalMap.<String>newBuilder().addAll(map.entryIterator()).build();
+    }
+    
     @Bench
     // @Ignore
     public Object getOverlappers() {
@@ -99,4 +116,16 @@ public class PersistentIntervalMapBench {
         return this;
     }
     
+    @Bench
+    // @Ignore
+    public Object putNewIntervalsBatched() {
+        return map.withAll(newEntries.entryIterator());
+    }
+    
+    @Bench
+    // @Ignore
+    public Object removeIntervalsBatched() {
+        return map.withoutAll(map.entryIterator());
+    }
+    
 }
@@ -0,0 +1,19 @@
+package org.povworld.collection.common;
+
+/**
+ * Callback for interval queries that do not want to allocate a result collection or an {@link Interval}
+ * object per hit. The interval is passed as its half-open boundaries {@code [start, end)}.
+ *
+ * @param <V> the value type
+ */
+@FunctionalInterface
+public interface IntervalVisitor<V> {
+    
+    /**
+     * Called for every interval found by the query.
+     * 
+     * @return true to continue the query, false to stop it
+     */
+    public boolean visit(int start, int end, V value);
+    
+}
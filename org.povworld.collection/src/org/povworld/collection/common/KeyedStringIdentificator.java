@@ -0,0 +1,115 @@
+package org.povworld.collection.common;
+
+import java.security.SecureRandom;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.Immutable;
+
+import org.povworld.collection.Identificator;
+
+/**
+ * Identificator for strings which computes the hash code with SipHash-1-3 keyed by a 128 bit key, applied to
+ * the UTF-16 code units of the string.
+ * <p>
+ * Unlike {@link String#hashCode()}, colliding strings cannot be constructed without knowing the key. Use it
+ * for hash tables with keys from untrusted sources, e.g., client requests, to prevent that many colliding keys
+ * degrade the table. Hashing is slower than {@link String#hashCode()}, which is cached by the string.
+ */
+@Immutable
+public class KeyedStringIdentificator implements Identificator<String> {
+    
+    private static final SecureRandom KEY_GENERATOR = new SecureRandom();
+    
+    private final long key0;
+    
+    private final long key1;
+    
+    public KeyedStringIdentificator(long key0, long key1) {
+        this.key0 = key0;
+        this.key1 = key1;
+    }
+    
+    /**
+     * Creates an instance with a key from a secure random number generator.
+     */
+    public static KeyedStringIdentificator withRandomKey() {
+        return new KeyedStringIdentificator(KEY_GENERATOR.nextLong(), KEY_GENERATOR.nextLong());
+    }
+    
+    @Override
+    public boolean isIdentifiable(Object object) {
+        return object instanceof String;
+    }
+    
+    @Override
+    public boolean equals(String object1, String object2) {
+        return object1.equals(object2);
+    }
+    
+    @Override
+    public int hashCode(String object) {
+        long v0 = key0 ^ 0x736F6D6570736575L;
+        long v1 = key1 ^ 0x646F72616E646F6DL;
+        long v2 = key0 ^ 0x6C7967656E657261L;
+        long v3 = key1 ^ 0x7465646279746573L;
+        int length = object.length();
+        int i = 0;
+        // Every word takes four chars, the last word the remaining chars and the length.
+        long word;
+        for (boolean last = false; !last;) {
+            if (i + 4 <= length) {
+                word = object.charAt(i) | (long)object.charAt(i + 1) << 16 | (long)object.charAt(i + 2) << 32
+                        | (long)object.charAt(i + 3) << 48;
+                i += 4;
+            } else {
+                word = (long)(length & 0xFFFF) << 48;
+                for (int shift = 0; i < length; ++i, shift += 16) {
+                    word |= (long)object.charAt(i) << shift;
+                }
+                last = true;
+            }
+            v3 ^= word;
+            // One compression round.
+            v0 += v1;
+            v1 = Long.rotateLeft(v1, 13) ^ v0;
+            v0 = Long.rotateLeft(v0, 32);
+            v2 += v3;
+            v3 = Long.rotateLeft(v3, 16) ^ v2;
+            v0 += v3;
+            v3 = Long.rotateLeft(v3, 21) ^ v0;
+            v2 += v1;
+            v1 = Long.rotateLeft(v1, 17) ^ v2;
+            v2 = Long.rotateLeft(v2, 32);
+            v0 ^= word;
+        }
+        v2 ^= 0xFF;
+        for (int round = 0; round < 3; ++round) {
+            v0 += v1;
+            v1 = Long.rotateLeft(v1, 13) ^ v0;
+            v0 = Long.rotateLeft(v0, 32);
+            v2 += v3;
+            v3 = Long.rotateLeft(v3, 16) ^ v2;
+            v0 += v3;
+            v3 = Long.rotateLeft(v3, 21) ^ v0;
+            v2 += v1;
+            v1 = Long.rotateLeft(v1, 17) ^ v2;
+            v2 = Long.rotateLeft(v2, 32);
+        }
+        long hash = v0 ^ v1 ^ v2 ^ v3;
+        return (int)(hash ^ (hash >>> 32));
+    }
+    
+    // Methods inherited from Object
+    
+    @Override
+    public boolean equals(@CheckForNull Object object) {
+        KeyedStringIdentificator other = ObjectUtil.castOrNull(object, KeyedStringIdentificator.class);
+        return (other != null) && key0 == other.key0 && key1 == other.key1;
+    }
+    
+    @Override
+    public int hashCode() {
+        return Long.hashCode(key0 ^ key1);
+    }
+    
+}
@@ -0,0 +1,80 @@
+package org.povworld.collection.common;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Half-open interval {@code [start, end)} with {@code long} boundaries.
+ * 
+ * @see Interval
+ */
+public class LongInterval {
+    private final long start;
+    private final long end;
+    
+    public LongInterval(long start, long end) {
+        PreConditions.conditionCheck("start > end", start <= end);
+        this.start = start;
+        this.end = end;
+    }
+    
+    public boolean contains(long point) {
+        return (start <= point) && (point < end);
+    }
+    
+    public long getStart() {
+        return start;
+    }
+    
+    public long getEnd() {
+        return end;
+    }
+    
+    public long length() {
+        return end - start;
+    }
+    
+    public boolean overlaps(LongInterval interval) {
+        return (start < interval.end) && (end > interval.start);
+    }
+    
+    @CheckForNull
+    public static LongInterval intersect(@CheckForNull LongInterval i1, @CheckForNull LongInterval i2) {
+        if (i1 == null || i2 == null) {
+            return null;
+        }
+        long newStart = Math.max(i1.start, i2.start);
+        long newEnd = Math.min(i1.end, i2.end);
+        if (newStart > newEnd) {
+            return null;
+        }
+        return new LongInterval(newStart, newEnd);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Long.hashCode(start) + 31 * Long.hashCode(end);
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || !(obj instanceof LongInterval)) {
+            return false;
+        }
+        LongInterval other = (LongInterval)obj;
+        if (end != other.end) {
+            return false;
+        }
+        if (start != other.start) {
+            return false;
+        }
+        return true;
+    }
+    
+    @Override
+    public String toString() {
+        return "[" + start + "," + end + ")";
+    }
+}
@@ -0,0 +1,19 @@
+package org.povworld.collection.common;
+
+/**
+ * Variant of {@link IntervalVisitor} for intervals with {@code long} boundaries.
+ *
+ * @param <V> the value type
+ * @see LongInterval
+ */
+@FunctionalInterface
+public interface LongIntervalVisitor<V> {
+    
+    /**
+     * Called for every interval found by the query.
+     * 
+     * @return true to continue the query, false to stop it
+     */
+    public boolean visit(long start, long end, V value);
+    
+}
@@ -43,4 +43,17 @@ public class MathUtil {
         return permutation;
     }
     
+    /**
+     * Spreads the bits of a 32 bit hash code over a 64 bit value using the finalizer of MurmurHash3, such that
+     * every input bit affects all output bits.
+     */
+    public static long mix64(int hash) {
+        long x = hash * 0x9E3779B97F4A7C15L;
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        x *= 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+    
 }
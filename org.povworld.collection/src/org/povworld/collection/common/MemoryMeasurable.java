@@ -0,0 +1,14 @@
+package org.povworld.collection.common;
+
+/**
+ * Implemented by collections which can estimate their own memory footprint.
+ */
+public interface MemoryMeasurable {
+    
+    /**
+     * Walks the structure of the collection and estimates its memory footprint. Takes time linear in the
+     * size of the collection.
+     */
+    MemoryStats estimateFootprint();
+    
+}
@@ -0,0 +1,271 @@
+package org.povworld.collection.common;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.povworld.collection.mutable.ArrayList;
+import org.povworld.collection.tree.TreeNode;
+
+/**
+ * Memory footprint of a collection, estimated by walking its structure.
+ * <p>
+ * Sizes assume a 64-bit JVM with compressed references: object headers of {@value #OBJECT_HEADER_BYTES} bytes,
+ * array headers of {@value #ARRAY_HEADER_BYTES} bytes, references of {@value #REFERENCE_BYTES} bytes and
+ * objects aligned to {@value #ALIGNMENT} bytes. The retained bytes cover the collection object and the nodes
+ * and arrays it owns, but not the contained elements, which may be shared with other collections.
+ * <p>
+ * The depth histogram counts the entries by the number of steps needed to reach them: the probe distance from
+ * the home slot in hash tables, the level of the node in trees and the level of the bucket in hash tries.
+ *
+ * @see MemoryMeasurable
+ */
+@Immutable
+public final class MemoryStats {
+    
+    public static final int OBJECT_HEADER_BYTES = 12;
+    
+    public static final int ARRAY_HEADER_BYTES = 16;
+    
+    public static final int REFERENCE_BYTES = 4;
+    
+    public static final int ALIGNMENT = 8;
+    
+    private static final ClassValue<Long> SHALLOW_SIZES = new ClassValue<Long>() {
+        @Override
+        protected Long computeValue(Class<?> type) {
+            long bytes = OBJECT_HEADER_BYTES;
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field field: c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        bytes += fieldBytes(field.getType());
+                    }
+                }
+            }
+            return align(bytes);
+        }
+    };
+    
+    private final long retainedBytes;
+    
+    private final long nodeCount;
+    
+    private final double loadFactor;
+    
+    private final long[] depthHistogram;
+    
+    private MemoryStats(long retainedBytes, long nodeCount, double loadFactor, long[] depthHistogram) {
+        this.retainedBytes = retainedBytes;
+        this.nodeCount = nodeCount;
+        this.loadFactor = loadFactor;
+        this.depthHistogram = depthHistogram;
+    }
+    
+    /**
+     * @return the estimated number of bytes which would be freed if the collection became unreachable,
+     *         excluding the elements
+     */
+    public long getRetainedBytes() {
+        return retainedBytes;
+    }
+    
+    /**
+     * @return the number of objects and arrays making up the structure, including the collection object
+     */
+    public long getNodeCount() {
+        return nodeCount;
+    }
+    
+    /**
+     * @return the ratio of entries to allocated entry slots, or {@link Double#NaN} if the structure allocates
+     *         one node per entry
+     */
+    public double getLoadFactor() {
+        return loadFactor;
+    }
+    
+    /**
+     * @return the largest depth of any entry, or -1 if there are no entries
+     */
+    public int getMaxDepth() {
+        return depthHistogram.length - 1;
+    }
+    
+    /**
+     * @return the number of entries at the given {@code depth}
+     */
+    public long getEntryCountAtDepth(int depth) {
+        PreConditions.paramCheck(depth, "negative depth", depth >= 0);
+        return (depth < depthHistogram.length) ? depthHistogram[depth] : 0;
+    }
+    
+    /**
+     * @return the average depth of the entries, or 0 if there are no entries
+     */
+    public double getAverageDepth() {
+        long entries = 0;
+        long depthSum = 0;
+        for (int depth = 0; depth < depthHistogram.length; ++depth) {
+            entries += depthHistogram[depth];
+            depthSum += depth * depthHistogram[depth];
+        }
+        return (entries == 0) ? 0 : (double)depthSum / entries;
+    }
+    
+    @Override
+    public String toString() {
+        return "MemoryStats[retainedBytes=" + retainedBytes + ", nodeCount=" + nodeCount + ", loadFactor=" + loadFactor
+                + ", depthHistogram=" + Arrays.toString(depthHistogram) + "]";
+    }
+    
+    private static int fieldBytes(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE_BYTES;
+    }
+    
+    private static long align(long bytes) {
+        return (bytes + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+    
+    /**
+     * @return the size of the given object without the objects it references
+     */
+    public static long shallowBytes(Object object) {
+        return SHALLOW_SIZES.get(object.getClass());
+    }
+    
+    /**
+     * @return the size of an array of the given {@code length} whose elements take {@code elementBytes}
+     */
+    public static long arrayBytes(int length, int elementBytes) {
+        return align(ARRAY_HEADER_BYTES + (long)length * elementBytes);
+    }
+    
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+    
+    /**
+     * Accumulates the footprint of a structure.
+     */
+    @NotThreadSafe
+    public static final class Builder {
+        
+        private long retainedBytes = 0;
+        
+        private long nodeCount = 0;
+        
+        private long entries = 0;
+        
+        private long slots = 0;
+        
+        private long[] depthHistogram = new long[0];
+        
+        private Builder() {}
+        
+        /**
+         * Adds the shallow size of the given {@code object}, if it is not null.
+         */
+        public Builder addObject(@CheckForNull Object object) {
+            if (object != null) {
+                retainedBytes += shallowBytes(object);
+                nodeCount++;
+            }
+            return this;
+        }
+        
+        /**
+         * Adds the given array of references, if it is not null.
+         */
+        public Builder addArray(@CheckForNull Object[] array) {
+            if (array != null) {
+                addArray(array.length, REFERENCE_BYTES);
+            }
+            return this;
+        }
+        
+        public Builder addArray(int length, int elementBytes) {
+            retainedBytes += arrayBytes(length, elementBytes);
+            nodeCount++;
+            return this;
+        }
+        
+        /**
+         * Adds an entry reached in {@code depth} steps.
+         */
+        public Builder addEntry(int depth) {
+            return addEntries(depth, 1);
+        }
+        
+        public Builder addEntries(int depth, long count) {
+            if (depth >= depthHistogram.length) {
+                depthHistogram = Arrays.copyOf(depthHistogram, depth + 1);
+            }
+            depthHistogram[depth] += count;
+            entries += count;
+            return this;
+        }
+        
+        /**
+         * Adds allocated entry slots, which are used for the {@link MemoryStats#getLoadFactor() load factor}.
+         */
+        public Builder addSlots(long count) {
+            slots += count;
+            return this;
+        }
+        
+        /**
+         * Adds all nodes of the given tree and one entry per node, the root being at depth {@code rootDepth}.
+         */
+        public <N extends TreeNode<N>> Builder addTree(@CheckForNull N root, int rootDepth) {
+            if (root == null) {
+                return this;
+            }
+            ArrayList<N> nodes = new ArrayList<>();
+            ArrayList<Integer> depths = new ArrayList<>();
+            nodes.push(root);
+            depths.push(rootDepth);
+            while (!nodes.isEmpty()) {
+                N node = nodes.pop();
+                int depth = depths.pop();
+                addObject(node);
+                addEntry(depth);
+                if (node.getLeft() != null) {
+                    nodes.push(node.getLeft());
+                    depths.push(depth + 1);
+                }
+                if (node.getRight() != null) {
+                    nodes.push(node.getRight());
+                    depths.push(depth + 1);
+                }
+            }
+            return this;
+        }
+        
+        /**
+         * Adds the bytes and nodes of the given {@code stats}, but not its entries.
+         */
+        public Builder addRetained(MemoryStats stats) {
+            retainedBytes += stats.retainedBytes;
+            nodeCount += stats.nodeCount;
+            return this;
+        }
+        
+        public MemoryStats build() {
+            double loadFactor = (slots == 0) ? Double.NaN : (double)entries / slots;
+            return new MemoryStats(retainedBytes, nodeCount, loadFactor, depthHistogram.clone());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.povworld.collection.common;
+
+import java.security.SecureRandom;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.Immutable;
+
+import org.povworld.collection.Identificator;
+
+/**
+ * Identificator which spreads the hash codes of another identificator with a seeded mixing function. Equality
+ * is delegated. Two instances are only equal if they have the same seed, as their hash codes differ otherwise.
+ * <p>
+ * The mixing spreads poorly distributed hash codes, e.g., hash codes which only differ in their upper bits, over
+ * all bits. With a random seed, colliding table positions cannot be predicted from the hash codes, which
+ * protects hash tables against keys chosen to collide. Keys with equal hash codes of the wrapped identificator
+ * still collide, use a {@link KeyedStringIdentificator} for strings from untrusted sources.
+ *
+ * @param <T> the type for which the identify relation is defined
+ */
+@Immutable
+public class SeededIdentificator<T> implements Identificator<T> {
+    
+    private static final SecureRandom SEED_GENERATOR = new SecureRandom();
+    
+    private final Identificator<T> identificator;
+    
+    private final int seed;
+    
+    public SeededIdentificator(Identificator<T> identificator, int seed) {
+        this.identificator = PreConditions.paramNotNull(identificator);
+        this.seed = seed;
+    }
+    
+    /**
+     * Creates an instance with a seed from a secure random number generator.
+     */
+    public static <T> SeededIdentificator<T> withRandomSeed(Identificator<T> identificator) {
+        return new SeededIdentificator<>(identificator, SEED_GENERATOR.nextInt());
+    }
+    
+    @Override
+    public boolean isIdentifiable(Object object) {
+        return identificator.isIdentifiable(object);
+    }
+    
+    @Override
+    public boolean equals(T object1, T object2) {
+        return identificator.equals(object1, object2);
+    }
+    
+    @Override
+    public int hashCode(T object) {
+        return (int)MathUtil.mix64(identificator.hashCode(object) ^ seed);
+    }
+    
+    // Methods inherited from Object
+    
+    @Override
+    public boolean equals(@CheckForNull Object object) {
+        SeededIdentificator<?> other = ObjectUtil.castOrNull(object, SeededIdentificator.class);
+        return (other != null) && (seed == other.seed) && identificator.equals(other.identificator);
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * identificator.hashCode() + seed;
+    }
+    
+}
@@ -1,11 +1,19 @@
 package org.povworld.collection.common;
 
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
 import org.povworld.collection.Collection;
 import org.povworld.collection.CollectionBuilder;
-import org.povworld.collection.EntryIterator;
+import org.povworld.collection.List;
 import org.povworld.collection.mutable.ArrayList;
 import org.povworld.collection.mutable.HashMap;
-import org.povworld.collection.mutable.LinkedSequence;
 
 /**
  * Class to topologically sort structures.
@@ -14,12 +22,19 @@ import org.povworld.collection.mutable.LinkedSequence;
  * that for any element 'a' that is a parent of element 'b', 'a' comes
  * before 'b' in the result.
  * <p>
- * If the topology contains cycles, the result is undefined. 
- * 
+ * The graph is discovered iteratively from the roots, each element's parents are retrieved exactly once.
+ * Elements are numbered in discovery order and the edges are stored in flat {@code int} arrays, so that
+ * large graphs neither overflow the stack nor require an object per edge.
+ * <p>
+ * The elements are grouped into levels: Level 0 contains the elements without parents, level n+1 the
+ * elements whose parents are all in the levels up to n. Elements which form a cycle, i.e., a strongly
+ * connected component, are placed together into the level after all of their parents outside the cycle.
+ * The cycles can be retrieved with {@link #getCycles()}. A parent equal to its child is ignored.
+ *
  * @param <T>
  *            Element type.
  */
-public class TopologySorter<T, C extends Collection<T>> {
+public class TopologySorter<T> {
     
     public interface Topology<T> {
         /**
@@ -28,100 +43,434 @@ public class TopologySorter<T, C extends Collection<T>> {
         public Iterable<T> getParents(T child);
     }
     
+    /**
+     * Thrown by operations which require the topology to be free of cycles.
+     */
+    public static class CyclicTopologyException extends RuntimeException {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final List<? extends List<?>> cycles;
+        
+        public CyclicTopologyException(List<? extends List<?>> cycles) {
+            super("Topology contains " + cycles.size() + " cycle(s)");
+            this.cycles = cycles;
+        }
+        
+        /**
+         * @return the elements of each cycle in discovery order
+         */
+        public List<? extends List<?>> getCycles() {
+            return cycles;
+        }
+    }
+    
+    /**
+     * Sorts the elements reachable from the given {@code roots}.
+     */
     public static <T, C extends Collection<T>> C sort(Topology<T> topology, Iterable<T> roots,
             CollectionBuilder<T, C> collectionBuilder) {
-        return new TopologySorter<T, C>(topology, collectionBuilder).sort(roots);
+        return create(topology, roots).sort(collectionBuilder);
     }
     
-    private final class Entry {
-        
-        ArrayList<T> list = new ArrayList<T>();
-        
-        int parentCount;
-        
+    /**
+     * Discovers all elements reachable from the given {@code roots} and orders them.
+     */
+    public static <T> TopologySorter<T> create(Topology<T> topology, Iterable<T> roots) {
+        return new TopologySorter<T>(topology, roots);
     }
     
-    private final HashMap<T, Entry> dependencies = new HashMap<T, Entry>();
+    private final ArrayList<T> elements = new ArrayList<T>();
+    
+    private final HashMap<T, Integer> ids = new HashMap<T, Integer>();
+    
+    // The parents of element i are parentIds[parentOffsets[i]] to parentIds[parentOffsets[i + 1] - 1].
+    private int[] parentOffsets;
+    
+    private int[] parentIds;
+    
+    private int[] childOffsets;
     
-    private final LinkedSequence<T> freeNodes = new LinkedSequence<T>();
+    private int[] childIds;
     
-    private final Topology<T> topology;
+    // Strongly connected component of each element.
+    private int[] components;
     
-    private final CollectionBuilder<T, C> resultBuilder;
+    private int componentCount;
     
-    private TopologySorter(Topology<T> topology, CollectionBuilder<T, C> resultBuilder) {
-        this.topology = topology;
-        this.resultBuilder = resultBuilder;
+    // Element ids in level order, the level n starts at order[levelOffsets[n]].
+    private int[] order;
+    
+    private int[] levelOffsets;
+    
+    private int levelCount;
+    
+    private final ArrayList<List<T>> cycles = new ArrayList<List<T>>();
+    
+    private TopologySorter(Topology<T> topology, Iterable<T> roots) {
+        discover(topology, roots);
+        linkChildren();
+        findComponents();
+        schedule();
     }
     
-    public C sort(Iterable<T> roots) {
+    private int getOrAddId(T element) {
+        Integer id = ids.get(element);
+        if (id == null) {
+            id = elements.size();
+            ids.put(element, id);
+            elements.push(element);
+        }
+        return id;
+    }
+    
+    private void discover(Topology<T> topology, Iterable<T> roots) {
         for (T root: roots) {
-            process(root);
+            getOrAddId(root);
         }
-        
-        while (!dependencies.isEmpty()) {
-            
-            while (freeNodes.isEmpty()) {
-                resolveCycle();
-            }
-            
-            T node = freeNodes.removeFirst();
-            Entry entry = ObjectUtil.checkNotNull(dependencies.remove(node));
-            resultBuilder.add(node);
-            for (T dependee: entry.list) {
-                if (--get(dependee).parentCount == 0) {
-                    freeNodes.insertBack(dependee);
+        int[] offsets = new int[Math.max(16, elements.size() + 1)];
+        int[] parents = new int[16];
+        int edgeCount = 0;
+        // Elements discovered while iterating get appended to the list and are processed later on.
+        for (int i = 0; i < elements.size(); ++i) {
+            T element = elements.get(i);
+            offsets = ensureLength(offsets, i + 2);
+            offsets[i] = edgeCount;
+            for (T parent: topology.getParents(element)) {
+                if (parent.equals(element)) {
+                    continue;
                 }
+                parents = ensureLength(parents, edgeCount + 1);
+                parents[edgeCount++] = getOrAddId(parent);
             }
-            
         }
-        return resultBuilder.build();
+        offsets[elements.size()] = edgeCount;
+        parentOffsets = offsets;
+        parentIds = parents;
+    }
+    
+    private static int[] ensureLength(int[] array, int length) {
+        if (array.length >= length) {
+            return array;
+        }
+        return Arrays.copyOf(array, Math.max(length, 2 * array.length));
     }
     
-    private void resolveCycle() {
-        EntryIterator<T, Entry> dependencyIterator = dependencies.entryIterator();
-        while (dependencyIterator.next()) {
-            if (--dependencyIterator.getCurrentValue().parentCount == 0) {
-                freeNodes.insertBack(dependencyIterator.getCurrentKey());
+    private void linkChildren() {
+        int count = elements.size();
+        int edgeCount = parentOffsets[count];
+        childOffsets = new int[count + 1];
+        childIds = new int[edgeCount];
+        for (int e = 0; e < edgeCount; ++e) {
+            childOffsets[parentIds[e] + 1]++;
+        }
+        for (int i = 0; i < count; ++i) {
+            childOffsets[i + 1] += childOffsets[i];
+        }
+        int[] fill = Arrays.copyOf(childOffsets, count);
+        for (int child = 0; child < count; ++child) {
+            for (int e = parentOffsets[child]; e < parentOffsets[child + 1]; ++e) {
+                childIds[fill[parentIds[e]]++] = child;
             }
         }
     }
     
-    private void process(T node) {
-        if (dependencies.containsKey(node))
-            return;
+    /**
+     * Tarjan's algorithm with an explicit call stack.
+     */
+    private void findComponents() {
+        int count = elements.size();
+        components = new int[count];
+        int[] index = new int[count];
+        Arrays.fill(index, -1);
+        int[] lowLink = new int[count];
+        boolean[] onStack = new boolean[count];
+        int[] stack = new int[count];
+        int stackSize = 0;
+        int[] callStack = new int[count];
+        int[] edgePositions = new int[count];
+        int callDepth = 0;
+        int nextIndex = 0;
+        for (int start = 0; start < count; ++start) {
+            if (index[start] != -1) {
+                continue;
+            }
+            index[start] = lowLink[start] = nextIndex++;
+            stack[stackSize++] = start;
+            onStack[start] = true;
+            callStack[callDepth] = start;
+            edgePositions[callDepth++] = parentOffsets[start];
+            while (callDepth > 0) {
+                int v = callStack[callDepth - 1];
+                int e = edgePositions[callDepth - 1];
+                if (e < parentOffsets[v + 1]) {
+                    edgePositions[callDepth - 1]++;
+                    int w = parentIds[e];
+                    if (index[w] == -1) {
+                        index[w] = lowLink[w] = nextIndex++;
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        callStack[callDepth] = w;
+                        edgePositions[callDepth++] = parentOffsets[w];
+                    } else if (onStack[w]) {
+                        lowLink[v] = Math.min(lowLink[v], index[w]);
+                    }
+                    continue;
+                }
+                callDepth--;
+                if (callDepth > 0) {
+                    int caller = callStack[callDepth - 1];
+                    lowLink[caller] = Math.min(lowLink[caller], lowLink[v]);
+                }
+                if (lowLink[v] == index[v]) {
+                    int w;
+                    do {
+                        w = stack[--stackSize];
+                        onStack[w] = false;
+                        components[w] = componentCount;
+                    } while (w != v);
+                    componentCount++;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Kahn's algorithm on the graph of the strongly connected components.
+     */
+    private void schedule() {
+        int count = elements.size();
+        // Component members in discovery order.
+        int[] memberOffsets = new int[componentCount + 1];
+        for (int i = 0; i < count; ++i) {
+            memberOffsets[components[i] + 1]++;
+        }
+        for (int c = 0; c < componentCount; ++c) {
+            memberOffsets[c + 1] += memberOffsets[c];
+        }
+        int[] members = new int[count];
+        int[] fill = Arrays.copyOf(memberOffsets, componentCount);
+        for (int i = 0; i < count; ++i) {
+            members[fill[components[i]]++] = i;
+        }
         
-        Entry entry = new Entry();
-        dependencies.put(node, entry);
+        int[] remainingParents = new int[componentCount];
+        for (int child = 0; child < count; ++child) {
+            for (int e = parentOffsets[child]; e < parentOffsets[child + 1]; ++e) {
+                if (components[parentIds[e]] != components[child]) {
+                    remainingParents[components[child]]++;
+                }
+            }
+        }
         
-        int parentCount = processParents(node);
+        // Components which became free, each level is a contiguous range.
+        int[] queue = new int[componentCount];
+        int queueSize = 0;
+        boolean[] queued = new boolean[componentCount];
+        for (int i = 0; i < count; ++i) {
+            int c = components[i];
+            if (remainingParents[c] == 0 && !queued[c]) {
+                queued[c] = true;
+                queue[queueSize++] = c;
+            }
+        }
         
-        if (parentCount == 0) {
-            freeNodes.insertBack(node);
+        order = new int[count];
+        int orderSize = 0;
+        int[] offsets = new int[16];
+        levelCount = 0;
+        int levelStart = 0;
+        while (levelStart < queueSize) {
+            int levelEnd = queueSize;
+            offsets = ensureLength(offsets, levelCount + 2);
+            offsets[levelCount++] = orderSize;
+            for (int q = levelStart; q < levelEnd; ++q) {
+                int c = queue[q];
+                for (int m = memberOffsets[c]; m < memberOffsets[c + 1]; ++m) {
+                    int element = members[m];
+                    order[orderSize++] = element;
+                    for (int e = childOffsets[element]; e < childOffsets[element + 1]; ++e) {
+                        int childComponent = components[childIds[e]];
+                        if (childComponent != c && --remainingParents[childComponent] == 0) {
+                            queue[queueSize++] = childComponent;
+                        }
+                    }
+                }
+                if (memberOffsets[c + 1] - memberOffsets[c] > 1) {
+                    ArrayList<T> cycle = new ArrayList<T>(memberOffsets[c + 1] - memberOffsets[c]);
+                    for (int m = memberOffsets[c]; m < memberOffsets[c + 1]; ++m) {
+                        cycle.push(elements.get(members[m]));
+                    }
+                    cycles.push(cycle);
+                }
+            }
+            levelStart = levelEnd;
         }
-        entry.parentCount = parentCount;
+        Assert.assertEquals(count, orderSize);
+        offsets = ensureLength(offsets, levelCount + 1);
+        offsets[levelCount] = orderSize;
+        levelOffsets = offsets;
     }
     
-    private int processParents(T node) {
-        int parentCount = 0;
-        for (T parent: topology.getParents(node)) {
-            if (parent.equals(node))
-                continue;
-            parentCount++;
-            process(parent);
-            get(parent).list.push(node);
+    /**
+     * @return the number of elements reachable from the roots
+     */
+    public int size() {
+        return elements.size();
+    }
+    
+    /**
+     * @return true if the topology contains at least one cycle
+     */
+    public boolean hasCycles() {
+        return !cycles.isEmpty();
+    }
+    
+    /**
+     * @return the strongly connected components with more than one element, each in discovery order
+     */
+    public List<List<T>> getCycles() {
+        return cycles;
+    }
+    
+    private void checkAcyclic() {
+        if (hasCycles()) {
+            throw new CyclicTopologyException(cycles);
         }
-        return parentCount;
     }
     
-    private Entry get(T parent) {
-        Entry result = dependencies.get(parent);
-        if (result == null) {
-            // Parent dependency has already been removed. This only happens
-            // when there are cycles.
-            return new Entry();
+    /**
+     * Adds all elements level by level to the given builder.
+     */
+    public <C extends Collection<T>> C sort(CollectionBuilder<T, C> collectionBuilder) {
+        for (int element: order) {
+            collectionBuilder.add(elements.get(element));
+        }
+        return collectionBuilder.build();
+    }
+    
+    /**
+     * @return the elements grouped by level
+     * @throws CyclicTopologyException if the topology contains cycles
+     */
+    public List<List<T>> getLevels() {
+        checkAcyclic();
+        ArrayList<List<T>> levels = new ArrayList<List<T>>(levelCount);
+        for (int level = 0; level < levelCount; ++level) {
+            ArrayList<T> list = new ArrayList<T>(levelOffsets[level + 1] - levelOffsets[level]);
+            for (int i = levelOffsets[level]; i < levelOffsets[level + 1]; ++i) {
+                list.push(elements.get(order[i]));
+            }
+            levels.push(list);
+        }
+        return levels;
+    }
+    
+    /**
+     * Same as {@link #execute(Consumer, Executor)} using the common {@link ForkJoinPool}.
+     */
+    public void execute(Consumer<? super T> action) throws InterruptedException {
+        execute(action, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Runs the {@code action} for each element on the given {@code executor}. The action for an element is
+     * started as soon as the actions of all its parents have finished, independently of the levels.
+     * <p>
+     * If an action fails, no further actions are started and the failure is rethrown once the running actions
+     * have finished.
+     *
+     * @throws CyclicTopologyException if the topology contains cycles
+     */
+    public void execute(Consumer<? super T> action, Executor executor) throws InterruptedException {
+        PreConditions.paramNotNull(action);
+        PreConditions.paramNotNull(executor);
+        checkAcyclic();
+        if (elements.isEmpty()) {
+            return;
+        }
+        Execution execution = new Execution(action, executor);
+        execution.start();
+        execution.done.await();
+        Throwable failure = execution.failure.get();
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException)failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error)failure;
+        }
+        Assert.assertTrue(failure == null, "unexpected failure");
+    }
+    
+    private final class Execution {
+        
+        private final Consumer<? super T> action;
+        
+        private final Executor executor;
+        
+        private final AtomicIntegerArray remainingParents;
+        
+        // Number of submitted actions which have not finished yet.
+        private final AtomicInteger pending = new AtomicInteger();
+        
+        private final CountDownLatch done = new CountDownLatch(1);
+        
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        
+        Execution(Consumer<? super T> action, Executor executor) {
+            this.action = action;
+            this.executor = executor;
+            int count = elements.size();
+            remainingParents = new AtomicIntegerArray(count);
+            for (int i = 0; i < count; ++i) {
+                remainingParents.set(i, parentOffsets[i + 1] - parentOffsets[i]);
+            }
+        }
+        
+        void start() {
+            int[] initial = Arrays.copyOf(order, levelOffsets[1]);
+            // Count all initial actions up front, so that pending does not drop to zero in between.
+            pending.set(initial.length + 1);
+            for (int element: initial) {
+                submit(element);
+            }
+            finish();
+        }
+        
+        private void submit(int element) {
+            try {
+                executor.execute(() -> run(element));
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+                finish();
+            }
+        }
+        
+        private void run(int element) {
+            try {
+                if (failure.get() != null) {
+                    return;
+                }
+                action.accept(elements.get(element));
+                for (int e = childOffsets[element]; e < childOffsets[element + 1]; ++e) {
+                    int child = childIds[e];
+                    if (remainingParents.decrementAndGet(child) == 0) {
+                        pending.incrementAndGet();
+                        submit(child);
+                    }
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                finish();
+            }
+        }
+        
+        private void finish() {
+            if (pending.decrementAndGet() == 0) {
+                done.countDown();
+            }
         }
-        return result;
     }
     
 }
@@ -0,0 +1,101 @@
+package org.povworld.collection.immutable;
+
+import javax.annotation.concurrent.Immutable;
+
+import org.povworld.collection.Container;
+import org.povworld.collection.Identificator;
+import org.povworld.collection.common.MathUtil;
+import org.povworld.collection.common.PreConditions;
+
+/**
+ * Blocked Bloom filter. All bits of an element lie in the same 512 bit block, i.e., one cache line, so a
+ * lookup touches a single cache line. This costs a slightly higher false positive rate than a standard
+ * Bloom filter with the same number of bits, e.g., about 1% with 10 bits per element.
+ *
+ * @param <E> the element type
+ */
+@Immutable
+public class BloomFilter<E> implements MembershipFilter<E> {
+    
+    public static final int DEFAULT_BITS_PER_ELEMENT = 10;
+    
+    private static final int BLOCK_LONGS = 8;
+    
+    private final Identificator<? super E> identificator;
+    
+    private final long[] bits;
+    
+    private final int blockCount;
+    
+    private final int hashCount;
+    
+    private BloomFilter(Identificator<? super E> identificator, int expectedSize, int bitsPerElement) {
+        this.identificator = identificator;
+        long bitCount = Math.max((long)expectedSize * bitsPerElement, 1);
+        this.blockCount = (int)Math.min((bitCount + 511) / 512, Integer.MAX_VALUE / BLOCK_LONGS);
+        this.bits = new long[blockCount * BLOCK_LONGS];
+        this.hashCount = Math.max(1, Math.min(16, (int)Math.round(bitsPerElement * Math.log(2))));
+    }
+    
+    /**
+     * Creates a filter for the elements of the given {@code container} using {@link #DEFAULT_BITS_PER_ELEMENT}.
+     */
+    public static <E> BloomFilter<E> of(Container<E> container) {
+        return of(container, DEFAULT_BITS_PER_ELEMENT);
+    }
+    
+    public static <E> BloomFilter<E> of(Container<E> container, int bitsPerElement) {
+        PreConditions.paramCheck(bitsPerElement, "bitsPerElement must be positive", bitsPerElement > 0);
+        BloomFilter<E> filter = new BloomFilter<>(container.getIdentificator(), container.size(), bitsPerElement);
+        for (E element: container) {
+            filter.set(element);
+        }
+        return filter;
+    }
+    
+    private void set(E element) {
+        long hash = MathUtil.mix64(identificator.hashCode(element));
+        int offset = blockOffset(hash);
+        // The lower bits are independent of the block chosen by the upper bits.
+        long bitHash = hash * 0x9E3779B97F4A7C15L;
+        int hash1 = (int)(bitHash >>> 32);
+        int hash2 = (int)bitHash | 1;
+        for (int i = 0; i < hashCount; ++i) {
+            int bit = (hash1 + i * hash2) >>> 23;
+            bits[offset + (bit >>> 6)] |= 1L << bit;
+        }
+    }
+    
+    private int blockOffset(long hash) {
+        // Maps the upper bits uniformly to the blocks without division.
+        return (int)(((hash >>> 32) * blockCount) >>> 32) * BLOCK_LONGS;
+    }
+    
+    @Override
+    public boolean mightContain(E element) {
+        long hash = MathUtil.mix64(identificator.hashCode(element));
+        int offset = blockOffset(hash);
+        // The lower bits are independent of the block chosen by the upper bits.
+        long bitHash = hash * 0x9E3779B97F4A7C15L;
+        int hash1 = (int)(bitHash >>> 32);
+        int hash2 = (int)bitHash | 1;
+        for (int i = 0; i < hashCount; ++i) {
+            int bit = (hash1 + i * hash2) >>> 23;
+            if ((bits[offset + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public Identificator<? super E> getIdentificator() {
+        return identificator;
+    }
+    
+    @Override
+    public long getSizeInBytes() {
+        return 8L * bits.length;
+    }
+    
+}
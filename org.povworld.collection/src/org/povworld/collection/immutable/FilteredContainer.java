@@ -0,0 +1,90 @@
+package org.povworld.collection.immutable;
+
+import java.util.Iterator;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.Immutable;
+
+import org.povworld.collection.Container;
+import org.povworld.collection.Identificator;
+import org.povworld.collection.common.PreConditions;
+
+/**
+ * {@link Container} which answers {@link #contains(Object)} and {@link #findEqualOrNull(Object)} from a
+ * {@link MembershipFilter} if the element is definitely not contained and only queries the wrapped container
+ * otherwise. This pays off if most lookups are misses and the wrapped container is large or slow to access.
+ * <p>
+ * The filter is built once, so the wrapped container must not be changed afterwards. It must use the identificator
+ * of the container, as it would otherwise reject elements which the container considers equal to a contained one.
+ *
+ * @param <E> the element type
+ */
+@Immutable
+public class FilteredContainer<E> implements Container<E> {
+    
+    private final Container<E> container;
+    
+    private final MembershipFilter<? super E> filter;
+    
+    public FilteredContainer(Container<E> container, MembershipFilter<? super E> filter) {
+        this.container = PreConditions.paramNotNull(container);
+        this.filter = PreConditions.paramNotNull(filter);
+        PreConditions.paramCheck(filter, "Filter must use the identificator of the container",
+                filter.getIdentificator().equals(container.getIdentificator()));
+    }
+    
+    public static <E> FilteredContainer<E> withBloomFilter(Container<E> container) {
+        return new FilteredContainer<>(container, BloomFilter.of(container));
+    }
+    
+    public static <E> FilteredContainer<E> withXorFilter(Container<E> container) {
+        return new FilteredContainer<>(container, XorFilter.of(container));
+    }
+    
+    public MembershipFilter<? super E> getFilter() {
+        return filter;
+    }
+    
+    @Override
+    public boolean contains(E element) {
+        return filter.mightContain(element) && container.contains(element);
+    }
+    
+    @Override
+    @CheckForNull
+    public E findEqualOrNull(E element) {
+        return filter.mightContain(element) ? container.findEqualOrNull(element) : null;
+    }
+    
+    @Override
+    public int size() {
+        return container.size();
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return container.isEmpty();
+    }
+    
+    @Override
+    @CheckForNull
+    public E getFirstOrNull() {
+        return container.getFirstOrNull();
+    }
+    
+    @Override
+    public Identificator<? super E> getIdentificator() {
+        return container.getIdentificator();
+    }
+    
+    @Override
+    public Iterator<E> iterator() {
+        return container.iterator();
+    }
+    
+    @Override
+    public String toString() {
+        return container.toString();
+    }
+    
+}
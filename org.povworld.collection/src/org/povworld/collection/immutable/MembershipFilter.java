@@ -0,0 +1,36 @@
+package org.povworld.collection.immutable;
+
+import javax.annotation.concurrent.Immutable;
+
+import org.povworld.collection.Container;
+import org.povworld.collection.Identificator;
+
+/**
+ * Approximate membership test for the elements of a {@link Container}, using considerably less memory than
+ * the container itself.
+ * <p>
+ * A filter has no false negatives: If {@link #mightContain(Object)} returns false, the element is definitely
+ * not contained. It may return true for elements which are not contained with a small probability.
+ *
+ * @param <E> the element type
+ * @see FilteredContainer
+ */
+@Immutable
+public interface MembershipFilter<E> {
+    
+    /**
+     * @return false if the {@code element} is not contained, true if it is probably contained
+     */
+    public boolean mightContain(E element);
+    
+    /**
+     * @return the identificator whose hash codes are used to test elements
+     */
+    public Identificator<? super E> getIdentificator();
+    
+    /**
+     * @return the number of bytes used by the filter
+     */
+    public long getSizeInBytes();
+    
+}
@@ -0,0 +1,146 @@
+package org.povworld.collection.immutable;
+
+import java.util.Arrays;
+
+import javax.annotation.concurrent.Immutable;
+
+import org.povworld.collection.Container;
+import org.povworld.collection.Identificator;
+import org.povworld.collection.common.MathUtil;
+
+/**
+ * Xor filter storing an 8 bit fingerprint in one of three slots per element. It takes about 9.8 bits per
+ * element for a false positive rate of about 0.4%, which is less memory than a {@link BloomFilter} with the
+ * same rate, and a lookup reads exactly three bytes.
+ * <p>
+ * The filter is constructed by peeling the 3-hypergraph of the element hashes, which fails with a small
+ * probability and is then retried with another seed.
+ *
+ * @param <E> the element type
+ */
+@Immutable
+public class XorFilter<E> implements MembershipFilter<E> {
+    
+    private final Identificator<? super E> identificator;
+    
+    private final long seed;
+    
+    private final int blockLength;
+    
+    private final byte[] fingerprints;
+    
+    private XorFilter(Identificator<? super E> identificator, long seed, byte[] fingerprints) {
+        this.identificator = identificator;
+        this.seed = seed;
+        this.blockLength = fingerprints.length / 3;
+        this.fingerprints = fingerprints;
+    }
+    
+    public static <E> XorFilter<E> of(Container<E> container) {
+        long[] keys = new long[container.size()];
+        int count = 0;
+        for (E element: container) {
+            keys[count++] = MathUtil.mix64(container.getIdentificator().hashCode(element));
+        }
+        // Equal keys would form an edge which cannot be peeled.
+        Arrays.sort(keys);
+        int distinct = 0;
+        for (int i = 0; i < keys.length; ++i) {
+            if (i == 0 || keys[i] != keys[i - 1]) {
+                keys[distinct++] = keys[i];
+            }
+        }
+        
+        int blockLength = (32 + (int)Math.ceil(1.23 * distinct)) / 3;
+        int[] counts = new int[3 * blockLength];
+        long[] hashXors = new long[3 * blockLength];
+        int[] queue = new int[3 * blockLength];
+        long[] stackHashes = new long[distinct];
+        int[] stackSlots = new int[distinct];
+        for (long attempt = 1;; ++attempt) {
+            long seed = mix(attempt);
+            Arrays.fill(counts, 0);
+            Arrays.fill(hashXors, 0);
+            for (int i = 0; i < distinct; ++i) {
+                long hash = mix(keys[i] + seed);
+                for (int j = 0; j < 3; ++j) {
+                    int slot = slot(hash, j, blockLength);
+                    counts[slot]++;
+                    hashXors[slot] ^= hash;
+                }
+            }
+            
+            int queueSize = 0;
+            for (int slot = 0; slot < counts.length; ++slot) {
+                if (counts[slot] == 1) {
+                    queue[queueSize++] = slot;
+                }
+            }
+            int stackSize = 0;
+            while (queueSize > 0) {
+                int slot = queue[--queueSize];
+                if (counts[slot] != 1) {
+                    continue;
+                }
+                long hash = hashXors[slot];
+                stackHashes[stackSize] = hash;
+                stackSlots[stackSize++] = slot;
+                for (int j = 0; j < 3; ++j) {
+                    int other = slot(hash, j, blockLength);
+                    counts[other]--;
+                    hashXors[other] ^= hash;
+                    if (counts[other] == 1) {
+                        queue[queueSize++] = other;
+                    }
+                }
+            }
+            if (stackSize < distinct) {
+                continue;
+            }
+            
+            // Assigns the fingerprints in reverse peeling order, the slot of each element is still free then.
+            byte[] fingerprints = new byte[3 * blockLength];
+            for (int i = stackSize - 1; i >= 0; --i) {
+                long hash = stackHashes[i];
+                fingerprints[stackSlots[i]] = (byte)(fingerprint(hash) ^ fingerprints[slot(hash, 0, blockLength)]
+                        ^ fingerprints[slot(hash, 1, blockLength)] ^ fingerprints[slot(hash, 2, blockLength)]);
+            }
+            return new XorFilter<>(container.getIdentificator(), seed, fingerprints);
+        }
+    }
+    
+    private static long mix(long key) {
+        key = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL;
+        key = (key ^ (key >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return key ^ (key >>> 33);
+    }
+    
+    private static int slot(long hash, int index, int blockLength) {
+        long bits = Long.rotateLeft(hash, 21 * index) & 0xFFFFFFFFL;
+        // Maps the bits uniformly to the block without division.
+        return (int)((bits * blockLength) >>> 32) + index * blockLength;
+    }
+    
+    private static byte fingerprint(long hash) {
+        return (byte)(hash ^ (hash >>> 32));
+    }
+    
+    @Override
+    public boolean mightContain(E element) {
+        long hash = mix(MathUtil.mix64(identificator.hashCode(element)) + seed);
+        byte fingerprint = (byte)(fingerprints[slot(hash, 0, blockLength)] ^ fingerprints[slot(hash, 1, blockLength)]
+                ^ fingerprints[slot(hash, 2, blockLength)]);
+        return fingerprint == fingerprint(hash);
+    }
+    
+    @Override
+    public Identificator<? super E> getIdentificator() {
+        return identificator;
+    }
+    
+    @Override
+    public long getSizeInBytes() {
+        return fingerprints.length;
+    }
+    
+}
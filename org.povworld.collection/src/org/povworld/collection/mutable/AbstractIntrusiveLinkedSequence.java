@@ -261,6 +261,19 @@ public abstract class AbstractIntrusiveLinkedSequence<L extends AbstractIntrusiv
         size++;
     }
     
+    /**
+     * Inserts given {@code link} directly after the {@code position} link, which must be part of this list.
+     * 
+     * @param position the link after which to insert
+     * @param link new link to insert
+     */
+    public void insertAfter(L position, L link) {
+        PreConditions.paramCheck(position, "Position is not part of a list!", !position.isDetached());
+        PreConditions.paramCheck(link, "Link is already part of a list!", link.isDetached());
+        link.attach(position, link, position.next);
+        size++;
+    }
+    
     /**
      * Removes the first element from the collection and returns it.
      * 
@@ -1,11 +1,11 @@
 package org.povworld.collection.mutable;
 
+import java.util.Arrays;
 import java.util.Iterator;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.concurrent.NotThreadSafe;
 
-import org.povworld.collection.CollectionUtil;
 import org.povworld.collection.Container;
 import org.povworld.collection.common.AbstractOrderedCollection;
 import org.povworld.collection.common.PreConditions;
@@ -15,6 +15,13 @@ import org.povworld.collection.common.PreConditions;
  * <p>
  * This allows for both accessing elements by index and fast containment queries.
  * <p>
+ * Small collections do not create the set. Instead, the hash codes of the elements are cached in an array
+ * which is scanned before calling {@link Object#equals(Object)} on elements with a matching hash code. The
+ * set is created once the size reaches the set threshold, which defaults to {@link #DEFAULT_SET_THRESHOLD}.
+ * Since the scan only compares hash codes, the crossover mostly depends on the number of elements; a higher
+ * threshold saves memory, a lower one may pay off if {@link Object#equals(Object)} is expensive and hash
+ * codes collide often.
+ * <p>
  * Does not support removal of individual elements as this would be expensive. 
  * If removal is required, use a {@link TreeList}.
  * 
@@ -23,26 +30,49 @@ import org.povworld.collection.common.PreConditions;
 @NotThreadSafe
 abstract class AbstractListSetCollection<E> extends AbstractOrderedCollection<E> implements Container<E> {
     
-    protected static final int USE_SET_MIN_SIZE = 28;
+    static final int DEFAULT_SET_THRESHOLD = 28;
+    
+    private static final int[] EMPTY_HASHES = new int[0];
     
     protected final ArrayList<E> list;
     
     @CheckForNull
     protected HashSet<E> set = null;
     
+    private final int setThreshold;
+    
+    // Hash codes of the list elements while there is no set.
+    private int[] hashes = EMPTY_HASHES;
+    
     private int hashCode = 0;
     
     protected AbstractListSetCollection() {
-        list = new ArrayList<E>();
+        this(0, DEFAULT_SET_THRESHOLD);
     }
     
     protected AbstractListSetCollection(int capacity) {
+        this(capacity, DEFAULT_SET_THRESHOLD);
+    }
+    
+    /**
+     * @param setThreshold the size from which on the set is used for containment queries, zero to always use
+     *            the set and {@link Integer#MAX_VALUE} to never use it
+     */
+    protected AbstractListSetCollection(int capacity, int setThreshold) {
+        PreConditions.paramCheck(setThreshold, "negative threshold", setThreshold >= 0);
+        this.setThreshold = setThreshold;
         list = new ArrayList<E>(capacity);
-        if (capacity >= USE_SET_MIN_SIZE) {
+        if (capacity >= setThreshold) {
             set = new HashSet<E>(capacity);
+        } else if (capacity > 0) {
+            hashes = new int[capacity];
         }
     }
     
+    public int getSetThreshold() {
+        return setThreshold;
+    }
+    
     protected void modified() {
         hashCode = 0;
     }
@@ -55,15 +85,55 @@ abstract class AbstractListSetCollection<E> extends AbstractOrderedCollection<E>
     }
     
     protected final void addElementToSet(E element) {
-        if (set == null && list.size() >= USE_SET_MIN_SIZE) {
-            set = new HashSet<E>(USE_SET_MIN_SIZE);
+        if (set == null && list.size() >= setThreshold) {
+            set = new HashSet<E>(list.size());
             set.addAll(list);
+            hashes = EMPTY_HASHES;
+            return;
         }
         if (set != null) {
             set.add(element);
+        } else {
+            int index = list.size() - 1;
+            if (index == hashes.length) {
+                hashes = Arrays.copyOf(hashes, Math.min(Math.max(2 * index, 4), setThreshold));
+            }
+            hashes[index] = element.hashCode();
         }
     }
     
+    /**
+     * Replaces the element at the given {@code index} in the list and the set.
+     * 
+     * @return the replaced element
+     */
+    protected final E replace(int index, E element) {
+        E old = list.set(index, element);
+        if (set != null) {
+            set.remove(old);
+            set.add(element);
+        } else {
+            hashes[index] = element.hashCode();
+        }
+        modified();
+        return old;
+    }
+    
+    /**
+     * @return the index of the first element equal to the given {@code element}, -1 if there is none 
+     */
+    private int scan(E element) {
+        int hash = element.hashCode();
+        int size = list.size();
+        int[] hashes = this.hashes;
+        for (int i = 0; i < size; ++i) {
+            if (hashes[i] == hash && element.equals(list.get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
     @Override
     public int size() {
         return list.size();
@@ -76,12 +146,23 @@ abstract class AbstractListSetCollection<E> extends AbstractOrderedCollection<E>
     
     @Override
     public boolean contains(E element) {
-        return (set != null) ? set.contains(element) : CollectionUtil.contains(list, element);
+        if (set != null) {
+            return set.contains(element);
+        }
+        return element != null && scan(element) >= 0;
     }
     
     @Override
+    @CheckForNull
     public E findEqualOrNull(E element) {
-        return (set != null) ? set.findEqualOrNull(element) : CollectionUtil.firstEqualOrNull(list, element);
+        if (set != null) {
+            return set.findEqualOrNull(element);
+        }
+        if (element == null) {
+            return null;
+        }
+        int index = scan(element);
+        return (index < 0) ? null : list.get(index);
     }
     
     public E get(int index) {
@@ -116,6 +197,7 @@ abstract class AbstractListSetCollection<E> extends AbstractOrderedCollection<E>
     public void clear() {
         list.clear();
         set = null;
+        hashes = EMPTY_HASHES;
         modified();
     }
     
@@ -14,6 +14,8 @@ import org.povworld.collection.List;
 import org.povworld.collection.common.AbstractCollectionBuilder;
 import org.povworld.collection.common.AbstractOrderedCollection;
 import org.povworld.collection.common.ArrayUtil;
+import org.povworld.collection.common.MemoryMeasurable;
+import org.povworld.collection.common.MemoryStats;
 import org.povworld.collection.common.ObjectUtil;
 import org.povworld.collection.common.PreConditions;
 import org.povworld.collection.common.ReverseListIterator;
@@ -28,7 +30,7 @@ import org.povworld.collection.common.ReverseListIterator;
  * @param <E> the element type
  */
 @NotThreadSafe
-public class ArrayList<E> extends AbstractOrderedCollection<E> implements List<E> {
+public class ArrayList<E> extends AbstractOrderedCollection<E> implements List<E>, MemoryMeasurable {
     
     private static final int DEFAULT_SIZE = 12;
     
@@ -69,6 +71,12 @@ public class ArrayList<E> extends AbstractOrderedCollection<E> implements List<E
         return size;
     }
     
+    @Override
+    public MemoryStats estimateFootprint() {
+        return MemoryStats.newBuilder().addObject(this).addArray(elements).addSlots(elements.length).addEntries(0, size)
+                .build();
+    }
+    
     @Override
     @CheckForNull
     public E getFirstOrNull() {
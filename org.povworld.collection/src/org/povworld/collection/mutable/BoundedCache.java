@@ -0,0 +1,425 @@
+package org.povworld.collection.mutable;
+
+import java.util.Iterator;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.povworld.collection.Identificator;
+import org.povworld.collection.common.Assert;
+import org.povworld.collection.common.PreConditions;
+
+/**
+ * Cache which holds a bounded number (or weight) of entries and evicts entries according to an
+ * {@link EvictionPolicy} if the bound is exceeded.
+ * <p>
+ * Entries are intrusive links which are stored in a hash set that identifies them by their keys, so the
+ * cache references each key only once. The links are kept in frequency buckets, so that recording an
+ * access and evicting an entry take constant time for both policies. With
+ * {@link EvictionPolicy#LEAST_RECENTLY_USED} all entries live in a single bucket.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+@NotThreadSafe
+public class BoundedCache<K, V> {
+    
+    public enum EvictionPolicy {
+        /**
+         * Evicts the entry which has not been accessed for the longest time.
+         */
+        LEAST_RECENTLY_USED,
+        
+        /**
+         * Evicts the entry which has been accessed least often. Amongst entries with the same access
+         * count, the least recently used one is evicted first.
+         */
+        LEAST_FREQUENTLY_USED
+    }
+    
+    /**
+     * Calculates the weight of cache entries. The weight of an entry must not change while it is
+     * in the cache.
+     */
+    @FunctionalInterface
+    public interface Weigher<K, V> {
+        public int weigh(K key, V value);
+    }
+    
+    /**
+     * Gets notified about entries which got evicted because the cache exceeded its bounds. Explicit
+     * removals and replaced values are not reported.
+     */
+    @FunctionalInterface
+    public interface EvictionListener<K, V> {
+        public void evicted(K key, V value);
+    }
+    
+    private static final class Entry<K, V> extends AbstractIntrusiveLinkedSequence.AbstractLink<Entry<K, V>> {
+        private final K key;
+        
+        private V value;
+        
+        private int weight;
+        
+        private FrequencyBucket<K, V> bucket;
+        
+        Entry(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+    
+    /**
+     * Identifies entries by their keys. A key is equal to the entry which holds it, so entries can be looked
+     * up by key.
+     */
+    private static final class EntryIdentificator implements Identificator<Object> {
+        
+        static final EntryIdentificator INSTANCE = new EntryIdentificator();
+        
+        private static Object key(Object object) {
+            return (object instanceof Entry) ? ((Entry<?, ?>)object).key : object;
+        }
+        
+        @Override
+        public boolean isIdentifiable(Object object) {
+            return true;
+        }
+        
+        @Override
+        public boolean equals(Object object1, Object object2) {
+            return key(object1).equals(key(object2));
+        }
+        
+        @Override
+        public int hashCode(Object object) {
+            return key(object).hashCode();
+        }
+    }
+    
+    private static final class FrequencyBucket<K, V> extends AbstractIntrusiveLinkedSequence.AbstractLink<FrequencyBucket<K, V>> {
+        private final long frequency;
+        
+        // Entries in least recently used first order.
+        private final IntrusiveLinkedSequence<Entry<K, V>> entries = new IntrusiveLinkedSequence<>();
+        
+        FrequencyBucket(long frequency) {
+            this.frequency = frequency;
+        }
+    }
+    
+    private final EvictionPolicy policy;
+    
+    private final int maximumSize;
+    
+    private final long maximumWeight;
+    
+    @CheckForNull
+    private final Weigher<? super K, ? super V> weigher;
+    
+    @CheckForNull
+    private EvictionListener<? super K, ? super V> evictionListener = null;
+    
+    // Contains the entries, which are looked up by key.
+    private final HashSet<Object> entries = new HashSet<>(EntryIdentificator.INSTANCE);
+    
+    // Buckets in ascending frequency order.
+    private final IntrusiveLinkedSequence<FrequencyBucket<K, V>> buckets = new IntrusiveLinkedSequence<>();
+    
+    private long weight = 0;
+    
+    private long hitCount = 0;
+    
+    private long missCount = 0;
+    
+    private long evictionCount = 0;
+    
+    /**
+     * Creates a cache holding at most {@code maximumSize} entries.
+     */
+    public BoundedCache(EvictionPolicy policy, int maximumSize) {
+        PreConditions.conditionCheck("maximumSize < 0", maximumSize >= 0);
+        this.policy = PreConditions.paramNotNull(policy);
+        this.maximumSize = maximumSize;
+        this.maximumWeight = Long.MAX_VALUE;
+        this.weigher = null;
+    }
+    
+    /**
+     * Creates a cache whose entries weigh at most {@code maximumWeight} in total.
+     */
+    public BoundedCache(EvictionPolicy policy, long maximumWeight, Weigher<? super K, ? super V> weigher) {
+        PreConditions.conditionCheck("maximumWeight < 0", maximumWeight >= 0);
+        this.policy = PreConditions.paramNotNull(policy);
+        this.maximumSize = Integer.MAX_VALUE;
+        this.maximumWeight = maximumWeight;
+        this.weigher = PreConditions.paramNotNull(weigher);
+    }
+    
+    public void setEvictionListener(@CheckForNull EvictionListener<? super K, ? super V> evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+    
+    public EvictionPolicy getEvictionPolicy() {
+        return policy;
+    }
+    
+    /**
+     * Returns the value cached for given {@code key} and records an access to the entry. Updates the
+     * hit or miss count.
+     *
+     * @return the cached value or {@code null} if the key is not cached
+     */
+    @CheckForNull
+    public V get(K key) {
+        Entry<K, V> entry = lookup(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        recordAccess(entry);
+        return entry.value;
+    }
+    
+    /**
+     * Returns the value cached for given {@code key} without recording an access or updating the statistics.
+     *
+     * @return the cached value or {@code null} if the key is not cached
+     */
+    @CheckForNull
+    public V peek(K key) {
+        Entry<K, V> entry = lookup(key);
+        return (entry == null) ? null : entry.value;
+    }
+    
+    public boolean containsKey(K key) {
+        return entries.contains(key);
+    }
+    
+    /**
+     * Associates the {@code value} with the {@code key} and records an access to the entry. If the cache
+     * exceeds its bounds afterwards, entries get evicted. An entry which is heavier than the maximum weight on
+     * its own is evicted right away, the other entries are kept.
+     *
+     * @return the value previously cached for the key or {@code null} if there was none
+     */
+    @CheckForNull
+    public V put(K key, V value) {
+        PreConditions.paramNotNull(value);
+        int newWeight = weigh(key, value);
+        if (newWeight > maximumWeight) {
+            // The previous value is replaced, which is not reported to the listener.
+            V oldValue = remove(key);
+            evicted(key, value);
+            return oldValue;
+        }
+        Entry<K, V> entry = lookup(key);
+        V oldValue = null;
+        if (entry != null) {
+            oldValue = entry.value;
+            weight += newWeight - entry.weight;
+            entry.value = value;
+            entry.weight = newWeight;
+            recordAccess(entry);
+        } else {
+            // Make room first, so that the new entry is not the first eviction candidate itself.
+            evictIfNecessary(1, newWeight);
+            entry = new Entry<>(key, value, newWeight);
+            entries.add(entry);
+            weight += newWeight;
+            insertIntoFirstBucket(entry);
+        }
+        // Only required if an update increased the weight of the entry.
+        evictIfNecessary(0, 0);
+        return oldValue;
+    }
+    
+    /**
+     * Removes the entry for given {@code key} without notifying the eviction listener.
+     *
+     * @return the value previously cached for the key or {@code null} if there was none
+     */
+    @CheckForNull
+    public V remove(K key) {
+        @SuppressWarnings("unchecked")
+        Entry<K, V> entry = (Entry<K, V>)entries.removeAndReturnRemoved(key);
+        if (entry == null) {
+            return null;
+        }
+        unlink(entry);
+        weight -= entry.weight;
+        return entry.value;
+    }
+    
+    /**
+     * Removes all entries without notifying the eviction listener. The statistics are kept.
+     */
+    public void clear() {
+        entries.clear();
+        while (!buckets.isEmpty()) {
+            buckets.removeHead().entries.clear();
+        }
+        weight = 0;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @CheckForNull
+    private Entry<K, V> lookup(K key) {
+        return (Entry<K, V>)entries.findEqualOrNull(key);
+    }
+    
+    private int weigh(K key, V value) {
+        if (weigher == null) {
+            return 1;
+        }
+        int entryWeight = weigher.weigh(key, value);
+        PreConditions.conditionCheck("negative weight", entryWeight >= 0);
+        return entryWeight;
+    }
+    
+    private void insertIntoFirstBucket(Entry<K, V> entry) {
+        FrequencyBucket<K, V> first = buckets.getFirstOrNull();
+        if (first == null || first.frequency != 1) {
+            first = new FrequencyBucket<>(1);
+            buckets.insertFront(first);
+        }
+        entry.bucket = first;
+        first.entries.insertBack(entry);
+    }
+    
+    private void recordAccess(Entry<K, V> entry) {
+        FrequencyBucket<K, V> bucket = entry.bucket;
+        if (policy == EvictionPolicy.LEAST_RECENTLY_USED) {
+            bucket.entries.moveToBack(entry);
+            return;
+        }
+        // The successor of the last bucket is the sentinel, which must not be accessed as a bucket.
+        FrequencyBucket<K, V> next = (bucket == buckets.getLastOrNull()) ? null : bucket.next;
+        if (next == null || next.frequency != bucket.frequency + 1) {
+            next = new FrequencyBucket<>(bucket.frequency + 1);
+            buckets.insertAfter(bucket, next);
+        }
+        unlink(entry);
+        entry.bucket = next;
+        next.entries.insertBack(entry);
+    }
+    
+    private void unlink(Entry<K, V> entry) {
+        FrequencyBucket<K, V> bucket = entry.bucket;
+        bucket.entries.remove(entry);
+        if (bucket.entries.isEmpty()) {
+            buckets.remove(bucket);
+        }
+        entry.bucket = null;
+    }
+    
+    private void evictIfNecessary(int additionalCount, long additionalWeight) {
+        while (!entries.isEmpty()
+                && (entries.size() + additionalCount > maximumSize || weight + additionalWeight > maximumWeight)) {
+            Entry<K, V> victim = buckets.getFirst().entries.getFirst();
+            unlink(victim);
+            entries.remove(victim);
+            weight -= victim.weight;
+            evicted(victim.key, victim.value);
+        }
+    }
+    
+    private void evicted(K key, V value) {
+        evictionCount++;
+        if (evictionListener != null) {
+            evictionListener.evicted(key, value);
+        }
+    }
+    
+    /**
+     * @return the keys in the order in which they would be evicted
+     */
+    public Iterable<K> keysInEvictionOrder() {
+        return new Iterable<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new Iterator<K>() {
+                    private final Iterator<FrequencyBucket<K, V>> bucketIterator = buckets.iterator();
+                    
+                    @CheckForNull
+                    private Iterator<Entry<K, V>> entryIterator = null;
+                    
+                    @Override
+                    public boolean hasNext() {
+                        while (entryIterator == null || !entryIterator.hasNext()) {
+                            if (!bucketIterator.hasNext()) {
+                                return false;
+                            }
+                            entryIterator = bucketIterator.next().entries.iterator();
+                        }
+                        return true;
+                    }
+                    
+                    @Override
+                    public K next() {
+                        hasNext();
+                        return entryIterator.next().key;
+                    }
+                };
+            }
+        };
+    }
+    
+    public int size() {
+        return entries.size();
+    }
+    
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+    
+    /**
+     * @return the total weight of all entries, which is the number of entries if no {@link Weigher} is used
+     */
+    public long getWeight() {
+        return weight;
+    }
+    
+    public long getHitCount() {
+        return hitCount;
+    }
+    
+    public long getMissCount() {
+        return missCount;
+    }
+    
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+    
+    public void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+    }
+    
+    /**
+     * For test-purposes only.
+     */
+    public void testInvariants() {
+        int count = 0;
+        long totalWeight = 0;
+        long previousFrequency = 0;
+        for (FrequencyBucket<K, V> bucket: buckets) {
+            Assert.assertTrue(bucket.frequency > previousFrequency, "Buckets not ordered by frequency");
+            Assert.assertFalse(bucket.entries.isEmpty(), "Empty bucket");
+            for (Entry<K, V> entry: bucket.entries) {
+                Assert.assertTrue(entry.bucket == bucket, "Wrong bucket");
+                Assert.assertTrue(lookup(entry.key) == entry, "Entry not in set");
+                totalWeight += entry.weight;
+                count++;
+            }
+            previousFrequency = bucket.frequency;
+        }
+        Assert.assertEquals(entries.size(), count);
+        Assert.assertEquals(weight, totalWeight);
+    }
+}
@@ -0,0 +1,996 @@
+package org.povworld.collection.mutable;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongSupplier;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.Identificator;
+import org.povworld.collection.common.Assert;
+import org.povworld.collection.common.MathUtil;
+import org.povworld.collection.common.PreConditions;
+import org.povworld.collection.mutable.BoundedCache.EvictionListener;
+
+/**
+ * Thread-safe cache with a bounded number of entries using the W-TinyLFU eviction policy.
+ * <p>
+ * Keys are compared with an {@link Identificator}. The entries are stored in a lock-striped hash table.
+ * Reads do not take any lock: The table is traversed optimistically and only a miss is re-validated.
+ * The table nodes are at the same time the intrusive links of the eviction policy and the timer wheel,
+ * so every entry is a single allocation.
+ * <p>
+ * Instead of updating the policy on every access, reads are recorded in striped, lossy ring buffers and
+ * writes in a write buffer. Both are drained in batches by whichever thread obtains the eviction lock.
+ * The policy consists of a small LRU admission window and a segmented LRU main space. An entry leaving
+ * the window only enters the main space if a count-min frequency sketch estimates that it is used more
+ * often than the entry it would replace. Optionally, entries expire a fixed time after their last write
+ * and/or access, driven by a hierarchical timer wheel.
+ * <p>
+ * Eviction listeners are called while the eviction lock is held, so they should be fast.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+@ThreadSafe
+public class ConcurrentBoundedCache<K, V> {
+    
+    private static final int SEGMENT_COUNT = 16;
+    
+    private static final int SEGMENT_SHIFT = 32 - MathUtil.log2(SEGMENT_COUNT);
+    
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    
+    private static final int READ_BUFFER_SIZE = 16;
+    
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    
+    private static final int MAX_READ_BUFFERS = 64;
+    
+    private static final int STATE_ALIVE = 0;
+    
+    // Removed from the hash table, but possibly still part of the policy.
+    private static final int STATE_RETIRED = 1;
+    
+    // Removed from the hash table and the policy.
+    private static final int STATE_DEAD = 2;
+    
+    private static final byte QUEUE_NONE = 0;
+    
+    private static final byte QUEUE_WINDOW = 1;
+    
+    private static final byte QUEUE_PROBATION = 2;
+    
+    private static final byte QUEUE_PROTECTED = 3;
+    
+    private static final class Node<K, V> extends AbstractIntrusiveLinkedSequence.AbstractLink<Node<K, V>> {
+        @CheckForNull
+        final K key;
+        
+        final int hash;
+        
+        volatile V value;
+        
+        // Next node in the hash table bucket.
+        @CheckForNull
+        volatile Node<K, V> chainNext;
+        
+        volatile int state = STATE_ALIVE;
+        
+        volatile long writeTime;
+        
+        volatile long accessTime;
+        
+        // The following fields are only accessed while holding the eviction lock.
+        
+        byte queue = QUEUE_NONE;
+        
+        long expirationTime;
+        
+        @CheckForNull
+        Node<K, V> timerPrevious;
+        
+        @CheckForNull
+        Node<K, V> timerNext;
+        
+        Node(K key, int hash, V value, long now) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+            this.writeTime = now;
+            this.accessTime = now;
+        }
+        
+        /**
+         * Creates a sentinel for a timer wheel bucket.
+         */
+        Node() {
+            this.key = null;
+            this.hash = 0;
+            this.timerPrevious = this;
+            this.timerNext = this;
+        }
+    }
+    
+    /**
+     * Hash table segment. Modifications are done under the write lock. Readers traverse the buckets without
+     * locking, nodes are never copied so a concurrent rehash can at worst hide a node from a reader. This
+     * is detected by validating the optimistic read stamp.
+     */
+    private static final class Segment<K, V> extends StampedLock {
+        private static final long serialVersionUID = 1L;
+        
+        volatile AtomicReferenceArray<Node<K, V>> table = new AtomicReferenceArray<>(INITIAL_SEGMENT_CAPACITY);
+        
+        volatile int count = 0;
+        
+        @CheckForNull
+        Node<K, V> find(Identificator<? super K> identificator, K key, int hash) {
+            AtomicReferenceArray<Node<K, V>> currentTable = table;
+            Node<K, V> node = currentTable.get(hash & (currentTable.length() - 1));
+            while (node != null) {
+                if (node.hash == hash && identificator.equals(key, node.key)) {
+                    return node;
+                }
+                node = node.chainNext;
+            }
+            return null;
+        }
+        
+        void insert(Node<K, V> node) {
+            if (count >= table.length() - (table.length() >>> 2)) {
+                rehash();
+            }
+            int index = node.hash & (table.length() - 1);
+            node.chainNext = table.get(index);
+            table.set(index, node);
+            count++;
+        }
+        
+        boolean remove(Node<K, V> node) {
+            int index = node.hash & (table.length() - 1);
+            Node<K, V> previous = null;
+            Node<K, V> current = table.get(index);
+            while (current != null && current != node) {
+                previous = current;
+                current = current.chainNext;
+            }
+            if (current == null) {
+                return false;
+            }
+            // The next pointer of the removed node is kept for readers currently standing on it.
+            if (previous == null) {
+                table.set(index, node.chainNext);
+            } else {
+                previous.chainNext = node.chainNext;
+            }
+            node.state = STATE_RETIRED;
+            count--;
+            return true;
+        }
+        
+        private void rehash() {
+            AtomicReferenceArray<Node<K, V>> oldTable = table;
+            AtomicReferenceArray<Node<K, V>> newTable = new AtomicReferenceArray<>(2 * oldTable.length());
+            int mask = newTable.length() - 1;
+            for (int i = 0; i < oldTable.length(); ++i) {
+                Node<K, V> node = oldTable.get(i);
+                while (node != null) {
+                    Node<K, V> next = node.chainNext;
+                    int index = node.hash & mask;
+                    node.chainNext = newTable.get(index);
+                    newTable.set(index, node);
+                    node = next;
+                }
+            }
+            table = newTable;
+        }
+    }
+    
+    /**
+     * Lossy ring buffer recording reads. Producers claim slots by CAS; if the buffer is full or the CAS
+     * fails, the read is dropped. The buffer is only drained under the eviction lock.
+     */
+    private static final class ReadBuffer<K, V> {
+        final AtomicLong writeCounter = new AtomicLong();
+        
+        volatile long readCounter = 0;
+        
+        final AtomicReferenceArray<Node<K, V>> buffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        
+        /**
+         * @return false if the buffer is full
+         */
+        boolean offer(Node<K, V> node) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            if (tail - head >= READ_BUFFER_SIZE) {
+                return false;
+            }
+            if (writeCounter.compareAndSet(tail, tail + 1)) {
+                buffer.lazySet((int)(tail & READ_BUFFER_MASK), node);
+            }
+            return true;
+        }
+    }
+    
+    private final Segment<K, V>[] segments;
+    
+    private final ReadBuffer<K, V>[] readBuffers;
+    
+    private final ConcurrentLinkedQueue<Runnable> writeBuffer = new ConcurrentLinkedQueue<>();
+    
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    
+    private final Identificator<? super K> keyIdentificator;
+    
+    private final LongSupplier ticker;
+    
+    private final long startTime;
+    
+    private final long expireAfterWriteNanos;
+    
+    private final long expireAfterAccessNanos;
+    
+    @CheckForNull
+    private final EvictionListener<? super K, ? super V> evictionListener;
+    
+    private final LongAdder hitCount = new LongAdder();
+    
+    private final LongAdder missCount = new LongAdder();
+    
+    private final LongAdder evictionCount = new LongAdder();
+    
+    // The following fields are only accessed while holding the eviction lock.
+    
+    private final FrequencySketch sketch;
+    
+    private final TimerWheel<K, V> timerWheel;
+    
+    private final IntrusiveLinkedSequence<Node<K, V>> window = new IntrusiveLinkedSequence<>();
+    
+    private final IntrusiveLinkedSequence<Node<K, V>> probation = new IntrusiveLinkedSequence<>();
+    
+    private final IntrusiveLinkedSequence<Node<K, V>> protectedQueue = new IntrusiveLinkedSequence<>();
+    
+    private final int windowMaximum;
+    
+    private final int mainMaximum;
+    
+    private final int protectedMaximum;
+    
+    private int windowSize = 0;
+    
+    private int mainSize = 0;
+    
+    private int protectedSize = 0;
+    
+    @SuppressWarnings("unchecked")
+    private ConcurrentBoundedCache(Builder<K, V> builder) {
+        int maximumSize = builder.maximumSize;
+        this.keyIdentificator = builder.keyIdentificator;
+        this.ticker = builder.ticker;
+        this.startTime = ticker.getAsLong();
+        this.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+        this.expireAfterAccessNanos = builder.expireAfterAccessNanos;
+        this.evictionListener = builder.evictionListener;
+        
+        segments = (Segment<K, V>[])new Segment<?, ?>[SEGMENT_COUNT];
+        for (int i = 0; i < segments.length; ++i) {
+            segments[i] = new Segment<>();
+        }
+        int readBufferCount = Math.min(MathUtil.nextPowerOfTwo(Runtime.getRuntime().availableProcessors()),
+                MAX_READ_BUFFERS);
+        readBuffers = (ReadBuffer<K, V>[])new ReadBuffer<?, ?>[readBufferCount];
+        for (int i = 0; i < readBuffers.length; ++i) {
+            readBuffers[i] = new ReadBuffer<>();
+        }
+        
+        windowMaximum = (maximumSize == 0) ? 0 : Math.max(1, maximumSize / 100);
+        mainMaximum = maximumSize - windowMaximum;
+        protectedMaximum = (int)(mainMaximum * 4L / 5);
+        sketch = new FrequencySketch(maximumSize);
+        timerWheel = new TimerWheel<>(this);
+    }
+    
+    public static <K, V> Builder<K, V> newBuilder() {
+        return new Builder<>();
+    }
+    
+    @NotThreadSafe
+    public static final class Builder<K, V> {
+        
+        private int maximumSize = -1;
+        
+        private long expireAfterWriteNanos = -1;
+        
+        private long expireAfterAccessNanos = -1;
+        
+        private Identificator<? super K> keyIdentificator = CollectionUtil.getObjectIdentificator();
+        
+        private LongSupplier ticker = System::nanoTime;
+        
+        @CheckForNull
+        private EvictionListener<? super K, ? super V> evictionListener = null;
+        
+        private Builder() {}
+        
+        public Builder<K, V> maximumSize(int maximumSize) {
+            PreConditions.conditionCheck("maximumSize < 0", maximumSize >= 0);
+            this.maximumSize = maximumSize;
+            return this;
+        }
+        
+        public Builder<K, V> expireAfterWrite(long duration, TimeUnit unit) {
+            PreConditions.conditionCheck("duration <= 0", duration > 0);
+            this.expireAfterWriteNanos = unit.toNanos(duration);
+            return this;
+        }
+        
+        public Builder<K, V> expireAfterAccess(long duration, TimeUnit unit) {
+            PreConditions.conditionCheck("duration <= 0", duration > 0);
+            this.expireAfterAccessNanos = unit.toNanos(duration);
+            return this;
+        }
+        
+        public Builder<K, V> keyIdentificator(Identificator<? super K> keyIdentificator) {
+            this.keyIdentificator = PreConditions.paramNotNull(keyIdentificator);
+            return this;
+        }
+        
+        /**
+         * Sets the time source in nanoseconds, which defaults to {@link System#nanoTime()}.
+         */
+        public Builder<K, V> ticker(LongSupplier ticker) {
+            this.ticker = PreConditions.paramNotNull(ticker);
+            return this;
+        }
+        
+        public Builder<K, V> evictionListener(@CheckForNull EvictionListener<? super K, ? super V> evictionListener) {
+            this.evictionListener = evictionListener;
+            return this;
+        }
+        
+        public ConcurrentBoundedCache<K, V> build() {
+            PreConditions.conditionCheck("maximumSize not set", maximumSize >= 0);
+            return new ConcurrentBoundedCache<>(this);
+        }
+    }
+    
+    private int hash(K key) {
+        int hash = keyIdentificator.hashCode(key);
+        hash = (hash ^ (hash >>> 16)) * 0x45d9f3b;
+        return hash ^ (hash >>> 16);
+    }
+    
+    private Segment<K, V> segmentFor(int hash) {
+        return segments[hash >>> SEGMENT_SHIFT];
+    }
+    
+    private long now() {
+        return ticker.getAsLong() - startTime;
+    }
+    
+    private boolean expires() {
+        return expireAfterWriteNanos > 0 || expireAfterAccessNanos > 0;
+    }
+    
+    private boolean isExpired(Node<K, V> node, long now) {
+        return (expireAfterWriteNanos > 0 && now - node.writeTime >= expireAfterWriteNanos)
+                || (expireAfterAccessNanos > 0 && now - node.accessTime >= expireAfterAccessNanos);
+    }
+    
+    private long getExpirationTime(Node<K, V> node) {
+        long expirationTime = Long.MAX_VALUE;
+        if (expireAfterWriteNanos > 0) {
+            expirationTime = node.writeTime + expireAfterWriteNanos;
+        }
+        if (expireAfterAccessNanos > 0) {
+            expirationTime = Math.min(expirationTime, node.accessTime + expireAfterAccessNanos);
+        }
+        return expirationTime;
+    }
+    
+    @CheckForNull
+    private Node<K, V> findNode(K key, int hash) {
+        Segment<K, V> segment = segmentFor(hash);
+        long stamp = segment.tryOptimisticRead();
+        Node<K, V> node = segment.find(keyIdentificator, key, hash);
+        if ((node != null && node.state == STATE_ALIVE) || (node == null && segment.validate(stamp))) {
+            return node;
+        }
+        stamp = segment.readLock();
+        try {
+            return segment.find(keyIdentificator, key, hash);
+        } finally {
+            segment.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Returns the value cached for given {@code key} and records an access to the entry.
+     *
+     * @return the cached value or {@code null} if the key is not cached or has expired
+     */
+    @CheckForNull
+    public V get(K key) {
+        PreConditions.paramNotNull(key);
+        Node<K, V> node = findNode(key, hash(key));
+        if (node == null) {
+            missCount.increment();
+            return null;
+        }
+        if (expires()) {
+            long now = now();
+            if (isExpired(node, now)) {
+                missCount.increment();
+                scheduleDrain();
+                return null;
+            }
+            if (expireAfterAccessNanos > 0) {
+                node.accessTime = now;
+            }
+        }
+        V value = node.value;
+        hitCount.increment();
+        afterRead(node);
+        return value;
+    }
+    
+    /**
+     * Associates the {@code value} with the {@code key}.
+     *
+     * @return the value previously cached for the key or {@code null} if there was none
+     */
+    @CheckForNull
+    public V put(K key, V value) {
+        PreConditions.paramNotNull(key);
+        PreConditions.paramNotNull(value);
+        int hash = hash(key);
+        Segment<K, V> segment = segmentFor(hash);
+        long now = expires() ? now() : 0;
+        Node<K, V> node;
+        boolean added = false;
+        V oldValue = null;
+        long stamp = segment.writeLock();
+        try {
+            node = segment.find(keyIdentificator, key, hash);
+            if (node == null) {
+                node = new Node<>(key, hash, value, now);
+                segment.insert(node);
+                added = true;
+            } else {
+                if (!isExpired(node, now)) {
+                    oldValue = node.value;
+                }
+                node.value = value;
+                node.writeTime = now;
+                node.accessTime = now;
+            }
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+        Node<K, V> writtenNode = node;
+        if (added) {
+            afterWrite(() -> onAdd(writtenNode));
+        } else {
+            afterWrite(() -> onUpdate(writtenNode));
+        }
+        return oldValue;
+    }
+    
+    /**
+     * Removes the entry for the given {@code key} without notifying the eviction listener.
+     *
+     * @return the value previously cached for the key or {@code null} if there was none
+     */
+    @CheckForNull
+    public V remove(K key) {
+        PreConditions.paramNotNull(key);
+        int hash = hash(key);
+        Segment<K, V> segment = segmentFor(hash);
+        Node<K, V> node;
+        long stamp = segment.writeLock();
+        try {
+            node = segment.find(keyIdentificator, key, hash);
+            if (node == null) {
+                return null;
+            }
+            segment.remove(node);
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+        Node<K, V> removedNode = node;
+        afterWrite(() -> onRemove(removedNode));
+        return isExpired(node, expires() ? now() : 0) ? null : node.value;
+    }
+    
+    /**
+     * @return the number of entries in the cache, which may temporarily exceed the maximum size or include
+     *         expired entries until the pending maintenance work is done
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment: segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+    
+    /**
+     * Performs all pending maintenance work, i.e., applies buffered reads and writes to the policy and evicts
+     * and expires entries as necessary.
+     */
+    public void cleanUp() {
+        evictionLock.lock();
+        try {
+            maintenance();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+    
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+    
+    public long getMissCount() {
+        return missCount.sum();
+    }
+    
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+    
+    private void afterRead(Node<K, V> node) {
+        long id = Thread.currentThread().getId();
+        int index = (int)((id * 0x9E3779B97F4A7C15L) >>> 32) & (readBuffers.length - 1);
+        if (!readBuffers[index].offer(node)) {
+            scheduleDrain();
+        }
+    }
+    
+    private void afterWrite(Runnable task) {
+        writeBuffer.add(task);
+        scheduleDrain();
+    }
+    
+    private void scheduleDrain() {
+        if (evictionLock.isHeldByCurrentThread()) {
+            // Called from an eviction listener.
+            return;
+        }
+        // If the lock is held by another thread, that thread will see our write after releasing the lock.
+        do {
+            if (!evictionLock.tryLock()) {
+                return;
+            }
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+        } while (!writeBuffer.isEmpty());
+    }
+    
+    private void maintenance() {
+        drainReadBuffers();
+        drainWriteBuffer();
+        if (expires()) {
+            timerWheel.advance(now());
+        }
+    }
+    
+    private void drainReadBuffers() {
+        for (ReadBuffer<K, V> readBuffer: readBuffers) {
+            long head = readBuffer.readCounter;
+            long tail = readBuffer.writeCounter.get();
+            for (; head < tail; ++head) {
+                int index = (int)(head & READ_BUFFER_MASK);
+                Node<K, V> node = readBuffer.buffer.get(index);
+                if (node == null) {
+                    // Slot claimed but not yet published.
+                    break;
+                }
+                readBuffer.buffer.lazySet(index, null);
+                onAccess(node);
+            }
+            readBuffer.readCounter = head;
+        }
+    }
+    
+    private void drainWriteBuffer() {
+        Runnable task;
+        while ((task = writeBuffer.poll()) != null) {
+            task.run();
+        }
+    }
+    
+    private void onAdd(Node<K, V> node) {
+        if (node.state != STATE_ALIVE || node.queue != QUEUE_NONE) {
+            return;
+        }
+        sketch.increment(node.hash);
+        window.insertBack(node);
+        node.queue = QUEUE_WINDOW;
+        windowSize++;
+        if (expires()) {
+            node.expirationTime = getExpirationTime(node);
+            timerWheel.schedule(node);
+        }
+        evictFromWindow();
+    }
+    
+    private void onUpdate(Node<K, V> node) {
+        if (node.state != STATE_ALIVE) {
+            return;
+        }
+        if (node.queue == QUEUE_NONE) {
+            // The node is not in any queue yet, i.e., the update is handled before the add. The node is added now
+            // and the later add is ignored.
+            onAdd(node);
+            return;
+        }
+        onAccess(node);
+        if (expires()) {
+            node.expirationTime = getExpirationTime(node);
+            timerWheel.reschedule(node);
+        }
+    }
+    
+    private void onRemove(Node<K, V> node) {
+        unlinkFromPolicy(node);
+        node.state = STATE_DEAD;
+    }
+    
+    private void onAccess(Node<K, V> node) {
+        if (node.state != STATE_ALIVE || node.queue == QUEUE_NONE) {
+            return;
+        }
+        sketch.increment(node.hash);
+        switch (node.queue) {
+            case QUEUE_WINDOW:
+                window.moveToBack(node);
+                break;
+            case QUEUE_PROBATION:
+                probation.remove(node);
+                protectedQueue.insertBack(node);
+                node.queue = QUEUE_PROTECTED;
+                protectedSize++;
+                while (protectedSize > protectedMaximum) {
+                    Node<K, V> demoted = protectedQueue.removeHead();
+                    protectedSize--;
+                    probation.insertBack(demoted);
+                    demoted.queue = QUEUE_PROBATION;
+                }
+                break;
+            case QUEUE_PROTECTED:
+                protectedQueue.moveToBack(node);
+                break;
+            default:
+                throw Assert.fail("unexpected queue: " + node.queue);
+        }
+        if (expireAfterAccessNanos > 0) {
+            node.expirationTime = getExpirationTime(node);
+            timerWheel.reschedule(node);
+        }
+    }
+    
+    /**
+     * Moves entries from the window to the main space. If the main space is full, the frequency sketch decides
+     * whether the candidate from the window or the victim from the main space is evicted.
+     */
+    private void evictFromWindow() {
+        while (windowSize > windowMaximum) {
+            Node<K, V> candidate = window.removeHead();
+            windowSize--;
+            candidate.queue = QUEUE_NONE;
+            if (mainSize < mainMaximum) {
+                addToProbation(candidate);
+                continue;
+            }
+            Node<K, V> victim = probation.getFirstOrNull();
+            if (victim == null) {
+                victim = protectedQueue.getFirstOrNull();
+            }
+            if (victim != null && sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+                evict(victim);
+                addToProbation(candidate);
+            } else {
+                evict(candidate);
+            }
+        }
+    }
+    
+    private void addToProbation(Node<K, V> node) {
+        probation.insertBack(node);
+        node.queue = QUEUE_PROBATION;
+        mainSize++;
+    }
+    
+    private void unlinkFromPolicy(Node<K, V> node) {
+        switch (node.queue) {
+            case QUEUE_NONE:
+                break;
+            case QUEUE_WINDOW:
+                window.remove(node);
+                windowSize--;
+                break;
+            case QUEUE_PROBATION:
+                probation.remove(node);
+                mainSize--;
+                break;
+            case QUEUE_PROTECTED:
+                protectedQueue.remove(node);
+                protectedSize--;
+                mainSize--;
+                break;
+            default:
+                throw Assert.fail("unexpected queue: " + node.queue);
+        }
+        node.queue = QUEUE_NONE;
+        timerWheel.deschedule(node);
+    }
+    
+    /**
+     * Removes the given node from the hash table and the policy and notifies the eviction listener.
+     */
+    void evict(Node<K, V> node) {
+        Segment<K, V> segment = segmentFor(node.hash);
+        boolean removed;
+        long stamp = segment.writeLock();
+        try {
+            removed = segment.remove(node);
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+        unlinkFromPolicy(node);
+        if (!removed) {
+            // Removed concurrently, the pending removal task finishes the job.
+            return;
+        }
+        node.state = STATE_DEAD;
+        evictionCount.increment();
+        if (evictionListener != null) {
+            evictionListener.evicted(node.key, node.value);
+        }
+    }
+    
+    /**
+     * Called by the timer wheel for nodes whose timer fired.
+     */
+    void onTimer(Node<K, V> node, long now) {
+        if (node.state != STATE_ALIVE) {
+            return;
+        }
+        // Reads may have been dropped from the read buffers, so the entry may not have expired yet.
+        long expirationTime = getExpirationTime(node);
+        if (expirationTime > now) {
+            node.expirationTime = expirationTime;
+            timerWheel.schedule(node);
+        } else {
+            evict(node);
+        }
+    }
+    
+    /**
+     * For test-purposes only. Must be called while no other thread uses the cache.
+     */
+    public void testInvariants() {
+        cleanUp();
+        Assert.assertEquals(windowSize, window.size());
+        Assert.assertEquals(mainSize, probation.size() + protectedQueue.size());
+        Assert.assertEquals(protectedSize, protectedQueue.size());
+        Assert.assertTrue(windowSize <= windowMaximum, "window too large");
+        Assert.assertTrue(mainSize <= mainMaximum, "main space too large");
+        Assert.assertEquals(size(), windowSize + mainSize);
+        for (Segment<K, V> segment: segments) {
+            int count = 0;
+            for (int i = 0; i < segment.table.length(); ++i) {
+                for (Node<K, V> node = segment.table.get(i); node != null; node = node.chainNext) {
+                    Assert.assertEquals(STATE_ALIVE, node.state);
+                    Assert.assertTrue(node.queue != QUEUE_NONE, "node not in policy");
+                    count++;
+                }
+            }
+            Assert.assertEquals(segment.count, count);
+        }
+    }
+    
+    /**
+     * Count-min sketch with 4-bit counters estimating the access frequency of keys. The counters are halved
+     * periodically so that the estimation adapts to changing access patterns.
+     */
+    @NotThreadSafe
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+                0xcbf29ce484222325L};
+                
+        private static final long RESET_MASK = 0x7777777777777777L;
+        
+        private static final long ONE_MASK = 0x1111111111111111L;
+        
+        private static final int MAX_TABLE_SIZE = 1 << 20;
+        
+        private final long[] table;
+        
+        private final int sampleSize;
+        
+        private int size = 0;
+        
+        FrequencySketch(int maximumSize) {
+            int tableSize = MathUtil.nextPowerOfTwo(Math.min(Math.max(maximumSize, 8), MAX_TABLE_SIZE));
+            table = new long[tableSize];
+            sampleSize = (int)Math.min(10L * Math.max(maximumSize, 1), Integer.MAX_VALUE);
+        }
+        
+        private int indexOf(int hash, int depth) {
+            long index = (hash + SEEDS[depth]) * SEEDS[depth];
+            index += index >>> 32;
+            return (int)index & (table.length - 1);
+        }
+        
+        int frequency(int hash) {
+            // Each of the four counters of an item lives in another long at another 4-bit position.
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; ++i) {
+                int count = (int)((table[indexOf(hash, i)] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+        
+        void increment(int hash) {
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; ++i) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+            if (added && ++size >= sampleSize) {
+                reset();
+            }
+        }
+        
+        private boolean incrementAt(int index, int counter) {
+            int offset = counter << 2;
+            long mask = 0xfL << offset;
+            if ((table[index] & mask) == mask) {
+                return false;
+            }
+            table[index] += 1L << offset;
+            return true;
+        }
+        
+        private void reset() {
+            int oddCounters = 0;
+            for (int i = 0; i < table.length; ++i) {
+                oddCounters += Long.bitCount(table[i] & ONE_MASK);
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            size = (size - (oddCounters >>> 2)) >>> 1;
+        }
+    }
+    
+    /**
+     * Hierarchical timer wheel. Each level has buckets spanning a power of two nanoseconds. Timers in the
+     * higher levels are cascaded to lower levels when their bucket is expired, so scheduling and expiring a
+     * timer takes amortized constant time.
+     */
+    @NotThreadSafe
+    private static final class TimerWheel<K, V> {
+        private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+        
+        // About 1 second, 1 minute, 1 hour, 1.6 days, 6.5 days
+        private static final long[] SPANS = {1L << 30, 1L << 36, 1L << 42, 1L << 47, 1L << 49, 1L << 49};
+        
+        private static final int[] SHIFTS = {30, 36, 42, 47, 49};
+        
+        private final ConcurrentBoundedCache<K, V> cache;
+        
+        private final Node<K, V>[][] wheel;
+        
+        private long time = 0;
+        
+        TimerWheel(ConcurrentBoundedCache<K, V> cache) {
+            this.cache = cache;
+            wheel = newWheel();
+            for (int i = 0; i < BUCKETS.length; ++i) {
+                for (int j = 0; j < BUCKETS[i]; ++j) {
+                    wheel[i][j] = new Node<>();
+                }
+            }
+        }
+        
+        @SuppressWarnings("unchecked")
+        private static <K, V> Node<K, V>[][] newWheel() {
+            Node<K, V>[][] wheel = (Node<K, V>[][])new Node<?, ?>[BUCKETS.length][];
+            for (int i = 0; i < BUCKETS.length; ++i) {
+                wheel[i] = (Node<K, V>[])new Node<?, ?>[BUCKETS[i]];
+            }
+            return wheel;
+        }
+        
+        void advance(long now) {
+            long previous = time;
+            time = now;
+            for (int i = 0; i < SHIFTS.length; ++i) {
+                long previousTicks = previous >>> SHIFTS[i];
+                long currentTicks = now >>> SHIFTS[i];
+                if (currentTicks - previousTicks <= 0) {
+                    break;
+                }
+                expire(i, previousTicks, currentTicks);
+            }
+        }
+        
+        private void expire(int level, long previousTicks, long currentTicks) {
+            Node<K, V>[] buckets = wheel[level];
+            int mask = buckets.length - 1;
+            int steps = (int)Math.min(currentTicks - previousTicks + 1, buckets.length);
+            int start = (int)(previousTicks & mask);
+            for (int i = start; i < start + steps; ++i) {
+                Node<K, V> sentinel = buckets[i & mask];
+                Node<K, V> node = sentinel.timerNext;
+                sentinel.timerPrevious = sentinel;
+                sentinel.timerNext = sentinel;
+                while (node != sentinel) {
+                    Node<K, V> next = node.timerNext;
+                    node.timerPrevious = null;
+                    node.timerNext = null;
+                    if (node.expirationTime - time > 0) {
+                        schedule(node);
+                    } else {
+                        cache.onTimer(node, time);
+                    }
+                    node = next;
+                }
+            }
+        }
+        
+        void schedule(Node<K, V> node) {
+            Node<K, V> sentinel = findBucket(node.expirationTime);
+            node.timerPrevious = sentinel.timerPrevious;
+            node.timerNext = sentinel;
+            sentinel.timerPrevious.timerNext = node;
+            sentinel.timerPrevious = node;
+        }
+        
+        void reschedule(Node<K, V> node) {
+            deschedule(node);
+            schedule(node);
+        }
+        
+        void deschedule(Node<K, V> node) {
+            if (node.timerNext == null) {
+                return;
+            }
+            node.timerNext.timerPrevious = node.timerPrevious;
+            node.timerPrevious.timerNext = node.timerNext;
+            node.timerNext = null;
+            node.timerPrevious = null;
+        }
+        
+        private Node<K, V> findBucket(long expirationTime) {
+            // Timers which are already due are put into the current bucket and fire on the next advance.
+            expirationTime = Math.max(expirationTime, time);
+            long duration = expirationTime - time;
+            int last = wheel.length - 1;
+            for (int i = 0; i < last; ++i) {
+                if (duration < SPANS[i + 1]) {
+                    long ticks = expirationTime >>> SHIFTS[i];
+                    return wheel[i][(int)(ticks & (wheel[i].length - 1))];
+                }
+            }
+            return wheel[last][0];
+        }
+    }
+}
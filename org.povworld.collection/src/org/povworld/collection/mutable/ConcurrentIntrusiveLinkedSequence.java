@@ -238,6 +238,13 @@ public class ConcurrentIntrusiveLinkedSequence<L extends ConcurrentIntrusiveLink
         }
     }
     
+    @Override
+    public void insertAfter(L position, L link) {
+        synchronized (sentinel) {
+            super.insertAfter(position, link);
+        }
+    }
+    
     /**
      * Atomically clears all elements of the list. This guarantees that all iterators
      * created before calling {@code clear()} will reach the end of the iteration in
@@ -0,0 +1,136 @@
+package org.povworld.collection.mutable;
+
+import java.util.Arrays;
+
+import org.povworld.collection.common.MathUtil;
+
+/**
+ * Helpers for the {@link HashTableLayout#GROUPED} layout.
+ * <p>
+ * The control bytes of a group of {@link #GROUP_SIZE} slots are packed into a long, the byte {@code i} holding
+ * the state of slot {@code i}: {@link #EMPTY}, {@link #DELETED} or the lower seven bits of the hash for full
+ * slots. A probe for an element stops at the first group containing an empty slot. Removing an element from a
+ * group without empty slots leaves a deleted marker, so probes for elements inserted after this group do not
+ * stop early.
+ */
+final class ControlGroups {
+    
+    static final int GROUP_SIZE = 8;
+    
+    static final int GROUP_SHIFT = 3;
+    
+    static final int EMPTY = 0x80;
+    
+    static final int DELETED = 0xFE;
+    
+    /**
+     * Number of slots per group which may be filled, i.e., the maximal load factor is 7/8.
+     */
+    static final int LOAD_NUMERATOR = 7;
+    
+    private static final long LSB = 0x0101010101010101L;
+    
+    private static final long MSB = 0x8080808080808080L;
+    
+    private ControlGroups() {}
+    
+    /**
+     * @return the smallest capacity, which is a power of two, with room for {@code size} elements
+     */
+    static int capacityFor(int size) {
+        int capacity = GROUP_SIZE;
+        while (growthLimit(capacity) < size) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+    
+    static int growthLimit(int capacity) {
+        return (capacity / GROUP_SIZE) * LOAD_NUMERATOR;
+    }
+    
+    static long[] newControl(int capacity) {
+        long[] control = new long[capacity >>> GROUP_SHIFT];
+        Arrays.fill(control, LSB * EMPTY);
+        return control;
+    }
+    
+    static long mix(int hash) {
+        return MathUtil.mix64(hash);
+    }
+    
+    /**
+     * @return the first group to probe for the mixed hash
+     */
+    static int group(long mixedHash, int groupMask) {
+        return (int)(mixedHash >>> 32) & groupMask;
+    }
+    
+    /**
+     * @return the number of groups probed after the first one to reach the slot {@code index}
+     */
+    static int probeDistance(int hash, int index, int mask) {
+        int groupMask = mask >>> GROUP_SHIFT;
+        int group = group(mix(hash), groupMask);
+        int probe = 0;
+        while (group != (index >>> GROUP_SHIFT)) {
+            probe++;
+            group = (group + probe) & groupMask;
+        }
+        return probe;
+    }
+    
+    /**
+     * @return the seven bits of the mixed hash stored in the control byte
+     */
+    static int tag(long mixedHash) {
+        return (int)mixedHash & 0x7F;
+    }
+    
+    /**
+     * @return a mask with the highest bit set in every byte which equals the {@code tag}, may also report bytes
+     *         following a matching byte, so matches must be verified
+     */
+    static long matchTag(long group, int tag) {
+        long x = group ^ (LSB * tag);
+        return (x - LSB) & ~x & MSB;
+    }
+    
+    static long matchEmpty(long group) {
+        // Only EMPTY has the highest bit set and the second lowest bit cleared.
+        return group & (~group << 6) & MSB;
+    }
+    
+    static long matchEmptyOrDeleted(long group) {
+        return group & MSB;
+    }
+    
+    /**
+     * @return the slot index of the lowest byte in the given match mask
+     */
+    static int slot(int group, long match) {
+        return (group << GROUP_SHIFT) + (Long.numberOfTrailingZeros(match) >>> 3);
+    }
+    
+    static int getControl(long[] control, int slot) {
+        return (int)(control[slot >>> GROUP_SHIFT] >>> ((slot & (GROUP_SIZE - 1)) << 3)) & 0xFF;
+    }
+    
+    static void setControl(long[] control, int slot, int value) {
+        int shift = (slot & (GROUP_SIZE - 1)) << 3;
+        int group = slot >>> GROUP_SHIFT;
+        control[group] = (control[group] & ~(0xFFL << shift)) | ((long)value << shift);
+    }
+    
+    /**
+     * Marks the given slot as removed.
+     * 
+     * @return true if the slot became empty, false if it has been marked as deleted
+     */
+    static boolean remove(long[] control, int slot) {
+        boolean empty = matchEmpty(control[slot >>> GROUP_SHIFT]) != 0;
+        setControl(control, slot, empty ? EMPTY : DELETED);
+        return empty;
+    }
+    
+}
@@ -0,0 +1,175 @@
+package org.povworld.collection.mutable;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.povworld.collection.Map;
+import org.povworld.collection.common.PreConditions;
+import org.povworld.collection.persistent.PersistentHashMap;
+import org.povworld.collection.persistent.PersistentMap;
+
+/**
+ * Thread-safe map for read-mostly use which is backed by a {@link PersistentMap}.
+ * <p>
+ * Reads are wait-free: They read the current version of the persistent map from a volatile field, and
+ * {@link #snapshot()} returns it as an immutable view. Concurrent updates are combined: One writer applies all
+ * pending updates at once, putting a run of {@link #put(Object, Object)}s with {@link PersistentMap#withAll(Map)},
+ * and publishes the new version once. Writers therefore do not retry against each other under write bursts.
+ * <p>
+ * {@link #remove(Object)}s are not combined into a bulk update, as {@link PersistentMap} has no bulk removal: The
+ * combiner applies them one by one, but still publishes them together with the other pending updates.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+@ThreadSafe
+public class CopyOnWriteHashMap<K, V> {
+    
+    private enum Kind {
+        PUT,
+        REMOVE,
+        PUT_ALL,
+        CLEAR
+    }
+    
+    private static final class MapOperation<K, V> extends FlatCombiner.Operation {
+        
+        final Kind kind;
+        
+        @CheckForNull
+        final K key;
+        
+        @CheckForNull
+        final V value;
+        
+        @CheckForNull
+        final Map<? extends K, ? extends V> entries;
+        
+        // Set by the combiner.
+        @CheckForNull
+        V previous = null;
+        
+        MapOperation(Kind kind, @CheckForNull K key, @CheckForNull V value,
+                @CheckForNull Map<? extends K, ? extends V> entries) {
+            this.kind = kind;
+            this.key = key;
+            this.value = value;
+            this.entries = entries;
+        }
+    }
+    
+    private final FlatCombiner<PersistentMap<K, V>, MapOperation<K, V>> combiner;
+    
+    public CopyOnWriteHashMap() {
+        this(PersistentHashMap.<K, V>empty());
+    }
+    
+    /**
+     * Creates a map which initially contains the entries of the given persistent {@code map}. Its type and
+     * identificators are kept by all later versions.
+     */
+    public CopyOnWriteHashMap(PersistentMap<K, V> map) {
+        this.combiner = new FlatCombiner<>(map, CopyOnWriteHashMap::apply);
+    }
+    
+    /**
+     * @return the current version of the map, which is not affected by later updates
+     */
+    public PersistentMap<K, V> snapshot() {
+        return combiner.getRoot();
+    }
+    
+    @CheckForNull
+    public V get(K key) {
+        return combiner.getRoot().get(key);
+    }
+    
+    public boolean containsKey(K key) {
+        return combiner.getRoot().containsKey(key);
+    }
+    
+    public int keyCount() {
+        return combiner.getRoot().keyCount();
+    }
+    
+    public boolean isEmpty() {
+        return combiner.getRoot().isEmpty();
+    }
+    
+    /**
+     * Associates the {@code value} with the {@code key}.
+     * @return the value previously associated with the {@code key} or null if there was none
+     */
+    @CheckForNull
+    public V put(K key, V value) {
+        PreConditions.paramNotNull(key);
+        PreConditions.paramNotNull(value);
+        return execute(new MapOperation<K, V>(Kind.PUT, key, value, null));
+    }
+    
+    /**
+     * Removes the {@code key}.
+     * @return the value previously associated with the {@code key} or null if there was none
+     */
+    @CheckForNull
+    public V remove(K key) {
+        PreConditions.paramNotNull(key);
+        return execute(new MapOperation<K, V>(Kind.REMOVE, key, null, null));
+    }
+    
+    /**
+     * Puts all given {@code entries} atomically.
+     */
+    public void putAll(Map<? extends K, ? extends V> entries) {
+        PreConditions.paramNotNull(entries);
+        execute(new MapOperation<K, V>(Kind.PUT_ALL, null, null, entries));
+    }
+    
+    public void clear() {
+        execute(new MapOperation<K, V>(Kind.CLEAR, null, null, null));
+    }
+    
+    @CheckForNull
+    private V execute(MapOperation<K, V> operation) {
+        combiner.execute(operation);
+        return operation.previous;
+    }
+    
+    private static <K, V> PersistentMap<K, V> apply(PersistentMap<K, V> root, ArrayList<MapOperation<K, V>> batch) {
+        PersistentMap<K, V> map = root;
+        int start = 0;
+        while (start < batch.size()) {
+            if (batch.get(start).kind != Kind.PUT) {
+                map = applySingle(map, batch.get(start));
+                start++;
+                continue;
+            }
+            // Collects a run of puts, of which the last one wins for each key.
+            PersistentMap<K, V> run = map.cleared();
+            while (start < batch.size() && batch.get(start).kind == Kind.PUT) {
+                MapOperation<K, V> operation = batch.get(start);
+                V previous = run.get(operation.key);
+                operation.previous = (previous == null) ? map.get(operation.key) : previous;
+                run = run.with(operation.key, operation.value);
+                start++;
+            }
+            map = map.withAll(run);
+        }
+        return map;
+    }
+    
+    private static <K, V> PersistentMap<K, V> applySingle(PersistentMap<K, V> map, MapOperation<K, V> operation) {
+        switch (operation.kind) {
+            case REMOVE:
+                operation.previous = map.get(operation.key);
+                return map.without(operation.key);
+            case PUT_ALL:
+                return map.withAll(operation.entries);
+            case CLEAR:
+                return map.cleared();
+            default:
+                throw new IllegalStateException("Unknown operation: " + operation.kind);
+        }
+    }
+    
+}
@@ -0,0 +1,180 @@
+package org.povworld.collection.mutable;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.povworld.collection.common.PreConditions;
+import org.povworld.collection.persistent.PersistentHashSet;
+import org.povworld.collection.persistent.PersistentSet;
+
+/**
+ * Thread-safe set for read-mostly use which is backed by a {@link PersistentSet}.
+ * <p>
+ * Reads are wait-free: They read the current version of the persistent set from a volatile field, and
+ * {@link #snapshot()} returns it as an immutable view. Concurrent updates are combined: One writer applies all
+ * pending updates at once, adding a run of {@link #add(Object)}s with {@link PersistentSet#withAll(Iterable)} and a
+ * run of {@link #remove(Object)}s with {@link PersistentSet#withoutAll(Iterable)}, and publishes the new version
+ * once. Writers therefore do not retry against each other under write bursts.
+ *
+ * @param <E> the element type
+ */
+@ThreadSafe
+public class CopyOnWriteHashSet<E> {
+    
+    private enum Kind {
+        ADD,
+        REMOVE,
+        ADD_ALL,
+        REMOVE_ALL,
+        CLEAR
+    }
+    
+    private static final class SetOperation<E> extends FlatCombiner.Operation {
+        
+        final Kind kind;
+        
+        @CheckForNull
+        final E element;
+        
+        @CheckForNull
+        final Iterable<? extends E> elements;
+        
+        // Set by the combiner: 1 if the element has been added or removed, or the number of added or removed elements.
+        int changed = 0;
+        
+        SetOperation(Kind kind, @CheckForNull E element, @CheckForNull Iterable<? extends E> elements) {
+            this.kind = kind;
+            this.element = element;
+            this.elements = elements;
+        }
+    }
+    
+    private final FlatCombiner<PersistentSet<E>, SetOperation<E>> combiner;
+    
+    public CopyOnWriteHashSet() {
+        this(PersistentHashSet.<E>empty());
+    }
+    
+    /**
+     * Creates a set which initially contains the elements of the given persistent {@code set}. Its type and
+     * identificator are kept by all later versions.
+     */
+    public CopyOnWriteHashSet(PersistentSet<E> set) {
+        this.combiner = new FlatCombiner<>(set, CopyOnWriteHashSet::apply);
+    }
+    
+    /**
+     * @return the current version of the set, which is not affected by later updates
+     */
+    public PersistentSet<E> snapshot() {
+        return combiner.getRoot();
+    }
+    
+    public boolean contains(E element) {
+        return combiner.getRoot().contains(element);
+    }
+    
+    public int size() {
+        return combiner.getRoot().size();
+    }
+    
+    public boolean isEmpty() {
+        return combiner.getRoot().isEmpty();
+    }
+    
+    /**
+     * Adds the given {@code element} if not present.
+     * @return true iff the element has not been present
+     */
+    public boolean add(E element) {
+        PreConditions.paramNotNull(element);
+        return execute(new SetOperation<E>(Kind.ADD, element, null)) > 0;
+    }
+    
+    /**
+     * Removes the given {@code element} if present.
+     * @return true iff the element has been present
+     */
+    public boolean remove(E element) {
+        PreConditions.paramNotNull(element);
+        return execute(new SetOperation<E>(Kind.REMOVE, element, null)) > 0;
+    }
+    
+    /**
+     * Adds all given {@code elements} atomically.
+     * @return number of elements added
+     */
+    public int addAll(Iterable<? extends E> elements) {
+        PreConditions.paramNotNull(elements);
+        return execute(new SetOperation<E>(Kind.ADD_ALL, null, elements));
+    }
+    
+    /**
+     * Removes all given {@code elements} atomically.
+     * @return number of elements removed
+     */
+    public int removeAll(Iterable<? extends E> elements) {
+        PreConditions.paramNotNull(elements);
+        return execute(new SetOperation<E>(Kind.REMOVE_ALL, null, elements));
+    }
+    
+    public void clear() {
+        execute(new SetOperation<E>(Kind.CLEAR, null, null));
+    }
+    
+    private int execute(SetOperation<E> operation) {
+        combiner.execute(operation);
+        return operation.changed;
+    }
+    
+    private static <E> PersistentSet<E> apply(PersistentSet<E> root, ArrayList<SetOperation<E>> batch) {
+        PersistentSet<E> set = root;
+        int start = 0;
+        while (start < batch.size()) {
+            SetOperation<E> first = batch.get(start);
+            int end = start + 1;
+            if (first.kind == Kind.ADD || first.kind == Kind.REMOVE) {
+                while (end < batch.size() && batch.get(end).kind == first.kind) {
+                    end++;
+                }
+            }
+            set = applyRun(set, batch, start, end);
+            start = end;
+        }
+        return set;
+    }
+    
+    private static <E> PersistentSet<E> applyRun(PersistentSet<E> set, ArrayList<SetOperation<E>> batch, int start,
+            int end) {
+        SetOperation<E> first = batch.get(start);
+        switch (first.kind) {
+            case ADD:
+            case REMOVE:
+                // Collects the distinct elements of the run, the first operation on each element changes the set.
+                PersistentSet<E> run = set.cleared();
+                for (int i = start; i < end; ++i) {
+                    SetOperation<E> operation = batch.get(i);
+                    E element = operation.element;
+                    boolean present = set.contains(element);
+                    operation.changed = (!run.contains(element) && (present == (first.kind == Kind.REMOVE))) ? 1 : 0;
+                    run = run.with(element);
+                }
+                return (first.kind == Kind.ADD) ? set.withAll(run) : set.withoutAll(run);
+            case ADD_ALL: {
+                PersistentSet<E> result = set.withAll(first.elements);
+                first.changed = result.size() - set.size();
+                return result;
+            }
+            case REMOVE_ALL: {
+                PersistentSet<E> result = set.withoutAll(first.elements);
+                first.changed = set.size() - result.size();
+                return result;
+            }
+            case CLEAR:
+                return set.cleared();
+            default:
+                throw new IllegalStateException("Unknown operation: " + first.kind);
+        }
+    }
+    
+}
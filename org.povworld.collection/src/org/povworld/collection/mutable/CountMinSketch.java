@@ -0,0 +1,244 @@
+package org.povworld.collection.mutable;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.Identificator;
+import org.povworld.collection.common.MathUtil;
+import org.povworld.collection.common.PreConditions;
+
+/**
+ * Count-Min sketch estimating how often elements have been added, using memory independent of the number
+ * of distinct elements.
+ * <p>
+ * The sketch consists of {@code depth} rows of {@code width} counters. Each element is counted in one counter
+ * per row and its count is estimated as the minimum of these counters. The estimation never underestimates;
+ * with a probability of at least {@code 1 - e^(-depth)} it overestimates by at most
+ * {@code e / width * getTotalCount()}.
+ * <p>
+ * The counters are addressed by the {@link Identificator#hashCode(Object) hash codes} of the given
+ * identificator, so elements with equal hash codes are not distinguished. Sketches with the same dimensions
+ * can be {@link #merge(CountMinSketch) merged}, e.g., after counting the partitions of a stream in different
+ * threads.
+ *
+ * @param <E> the element type
+ * @see HashBag for exact counts
+ * @see HyperLogLog for estimating the number of distinct elements
+ */
+@NotThreadSafe
+public class CountMinSketch<E> {
+    
+    private static final byte FORMAT_VERSION = 1;
+    
+    private final Identificator<? super E> identificator;
+    
+    private final int depth;
+    
+    private final int width;
+    
+    // Row-major counters, the counter j of row i is at index i * width + j.
+    private final long[] counters;
+    
+    private long totalCount = 0;
+    
+    /**
+     * Creates a sketch using the default object identificator.
+     *
+     * @param depth number of rows
+     * @param width number of counters per row, rounded up to the next power of two
+     */
+    public CountMinSketch(int depth, int width) {
+        this(CollectionUtil.getObjectIdentificator(), depth, width);
+    }
+    
+    public CountMinSketch(Identificator<? super E> identificator, int depth, int width) {
+        PreConditions.paramCheck(depth, "depth must be positive", depth > 0);
+        PreConditions.paramCheck(width, "width must be positive", width > 0);
+        PreConditions.paramCheck(width, "width too large",
+                width <= (1 << 30) && (long)depth * MathUtil.nextPowerOfTwo(width) <= Integer.MAX_VALUE);
+        this.identificator = PreConditions.paramNotNull(identificator);
+        this.depth = depth;
+        this.width = MathUtil.nextPowerOfTwo(width);
+        this.counters = new long[depth * this.width];
+    }
+    
+    /**
+     * Creates a sketch which overestimates counts by at most {@code epsilon * getTotalCount()} with the given
+     * {@code confidence}.
+     */
+    public static <E> CountMinSketch<E> withErrorBounds(Identificator<? super E> identificator, double epsilon,
+            double confidence) {
+        PreConditions.paramCheck(epsilon, "epsilon must be in (0, 1)", epsilon > 0 && epsilon < 1);
+        PreConditions.paramCheck(confidence, "confidence must be in (0, 1)", confidence > 0 && confidence < 1);
+        int width = (int)Math.ceil(Math.E / epsilon);
+        int depth = (int)Math.ceil(Math.log(1 / (1 - confidence)));
+        return new CountMinSketch<>(identificator, depth, width);
+    }
+    
+    public int getDepth() {
+        return depth;
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * @return the sum of all counts added
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+    
+    public boolean isEmpty() {
+        return totalCount == 0;
+    }
+    
+    public void add(E element) {
+        add(element, 1);
+    }
+    
+    /**
+     * Adds the given {@code element} {@code count} times.
+     */
+    public void add(E element, long count) {
+        PreConditions.paramNotNull(element);
+        PreConditions.paramCheck(count, "negative count", count >= 0);
+        long hash = MathUtil.mix64(identificator.hashCode(element));
+        // Double hashing derives the row indices from two halves of one hash value.
+        int hash1 = (int)hash;
+        int hash2 = (int)(hash >>> 32) | 1;
+        int mask = width - 1;
+        for (int row = 0; row < depth; ++row) {
+            counters[row * width + ((hash1 + row * hash2) & mask)] += count;
+        }
+        totalCount += count;
+    }
+    
+    public void addAll(Iterable<? extends E> elements) {
+        for (E element: elements) {
+            add(element);
+        }
+    }
+    
+    /**
+     * @return the estimated number of times the given {@code element} has been added, which is never smaller
+     *         than the actual count
+     */
+    public long getCount(E element) {
+        long hash = MathUtil.mix64(identificator.hashCode(element));
+        int hash1 = (int)hash;
+        int hash2 = (int)(hash >>> 32) | 1;
+        int mask = width - 1;
+        long count = Long.MAX_VALUE;
+        for (int row = 0; row < depth; ++row) {
+            count = Math.min(count, counters[row * width + ((hash1 + row * hash2) & mask)]);
+        }
+        return count;
+    }
+    
+    /**
+     * Adds all counts of the {@code other} sketch to this sketch. Both must have the same dimensions and
+     * should use the same identificator.
+     */
+    public void merge(CountMinSketch<? extends E> other) {
+        PreConditions.conditionCheck("sketch dimensions differ", depth == other.depth && width == other.width);
+        for (int i = 0; i < counters.length; ++i) {
+            counters[i] += other.counters[i];
+        }
+        totalCount += other.totalCount;
+    }
+    
+    /**
+     * Removes all counts.
+     */
+    public void clear() {
+        Arrays.fill(counters, 0);
+        totalCount = 0;
+    }
+    
+    /**
+     * Serializes the sketch. The counters are variable-length encoded, so sparsely filled sketches and small
+     * counts take few bytes.
+     *
+     * @see #fromByteArray(byte[], Identificator)
+     */
+    public byte[] toByteArray() {
+        int length = 1 + 4 + 4 + varLongLength(totalCount);
+        for (long counter: counters) {
+            length += varLongLength(counter);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(FORMAT_VERSION);
+        buffer.putInt(depth);
+        buffer.putInt(width);
+        writeVarLong(buffer, totalCount);
+        for (long counter: counters) {
+            writeVarLong(buffer, counter);
+        }
+        return buffer.array();
+    }
+    
+    /**
+     * Restores a sketch serialized with {@link #toByteArray()}. The {@code identificator} must be the one used
+     * for the serialized sketch.
+     *
+     * @throws IllegalArgumentException if the bytes do not contain a valid sketch
+     */
+    public static <E> CountMinSketch<E> fromByteArray(byte[] bytes, Identificator<? super E> identificator) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            byte version = buffer.get();
+            PreConditions.paramCheck(version, "unknown format version", version == FORMAT_VERSION);
+            int depth = buffer.getInt();
+            int width = buffer.getInt();
+            PreConditions.paramCheck(width, "width not a power of two", width > 0 && (width & (width - 1)) == 0);
+            PreConditions.paramCheck(depth, "depth must be positive", depth > 0);
+            // Check the size before allocating the counters, every counter takes at least one byte.
+            long counterCount = (long)depth * width;
+            PreConditions.paramCheck(counterCount, "truncated sketch", counterCount < buffer.remaining());
+            CountMinSketch<E> sketch = new CountMinSketch<>(identificator, depth, width);
+            sketch.totalCount = readVarLong(buffer);
+            for (int i = 0; i < sketch.counters.length; ++i) {
+                sketch.counters[i] = readVarLong(buffer);
+            }
+            PreConditions.paramCheck(buffer.remaining(), "trailing bytes", !buffer.hasRemaining());
+            return sketch;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated sketch", e);
+        }
+    }
+    
+    private static int varLongLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+    
+    private static void writeVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte)value);
+    }
+    
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long)(b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed counter");
+    }
+}
@@ -0,0 +1,124 @@
+package org.povworld.collection.mutable;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Holds the root of an immutable collection which is updated by flat combining: Writers enqueue their operations and
+ * whichever writer gets the combiner lock applies all pending operations to the root and publishes the result with a
+ * single volatile write. The other writers wait until their operation has been applied, so concurrent writers do not
+ * retry against each other. Readers only read the volatile root.
+ *
+ * @param <C> the type of the immutable collection
+ * @param <O> the operation type
+ */
+@ThreadSafe
+final class FlatCombiner<C, O extends FlatCombiner.Operation> {
+    
+    // Bounds the time a combiner spends on the operations of other threads.
+    private static final int MAX_BATCH_SIZE = 1024;
+    
+    /**
+     * Pending update of the root. The combiner stores the result in the operation before it is marked as done.
+     */
+    abstract static class Operation {
+        
+        volatile boolean done = false;
+        
+        @CheckForNull
+        RuntimeException failure = null;
+    }
+    
+    /**
+     * Applies a batch of operations in the given order. If it throws, the batch is applied again one operation at a
+     * time, so it must set the results of all operations it applies.
+     */
+    interface BatchFunction<C, O> {
+        
+        /**
+         * @return the new root
+         */
+        C apply(C root, ArrayList<O> batch);
+    }
+    
+    private final BatchFunction<C, O> function;
+    
+    private final ConcurrentLinkedQueue<O> pending = new ConcurrentLinkedQueue<>();
+    
+    private final ReentrantLock combinerLock = new ReentrantLock();
+    
+    private volatile C root;
+    
+    FlatCombiner(C root, BatchFunction<C, O> function) {
+        this.root = root;
+        this.function = function;
+    }
+    
+    C getRoot() {
+        return root;
+    }
+    
+    /**
+     * Returns after the {@code operation} has been applied by this or another thread.
+     *
+     * @throws RuntimeException if applying the {@code operation} failed, in which case it has no effect on the root
+     */
+    void execute(O operation) {
+        pending.add(operation);
+        while (!operation.done) {
+            if (combinerLock.tryLock()) {
+                try {
+                    combine();
+                } finally {
+                    combinerLock.unlock();
+                }
+            } else {
+                Thread.yield();
+            }
+        }
+        if (operation.failure != null) {
+            throw operation.failure;
+        }
+    }
+    
+    private void combine() {
+        ArrayList<O> batch = new ArrayList<>();
+        O operation;
+        while (batch.size() < MAX_BATCH_SIZE && (operation = pending.poll()) != null) {
+            batch.push(operation);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            root = function.apply(root, batch);
+        } catch (RuntimeException e) {
+            applySingly(batch);
+            return;
+        }
+        for (O applied: batch) {
+            applied.done = true;
+        }
+    }
+    
+    /**
+     * Applies the operations of a failed batch one at a time, so only the operations which fail by themselves fail.
+     */
+    private void applySingly(ArrayList<O> batch) {
+        ArrayList<O> single = new ArrayList<>(1);
+        for (O operation: batch) {
+            single.clear();
+            single.push(operation);
+            try {
+                root = function.apply(root, single);
+            } catch (RuntimeException e) {
+                operation.failure = e;
+            }
+            operation.done = true;
+        }
+    }
+    
+}
@@ -1,285 +1,557 @@
-package org.povworld.collection.mutable;
-
-import java.util.Arrays;
-import java.util.Iterator;
-import java.util.NoSuchElementException;
-
-import javax.annotation.Nullable;
-import javax.annotation.concurrent.NotThreadSafe;
-
-import org.povworld.collection.Bag;
-import org.povworld.collection.Collection;
-import org.povworld.collection.EntryIterator;
-import org.povworld.collection.Identificator;
-import org.povworld.collection.common.AbstractCollectionBuilder;
-import org.povworld.collection.common.AbstractUnOrderedCollection;
-
-/**
- * Bag implementation that uses a hash map where the elements are the key and the number 
- * of occurrence of the element is the value.
- *
- * @param <E> the element type
- */
-@NotThreadSafe
-public class HashBag<E> extends AbstractUnOrderedCollection<E> implements Bag<E> {
-    
-    private static class Count {
-        
-        private int value;
-        
-        public Count(int initialValue) {
-            value = initialValue;
-        }
-        
-        /**
-         * @return current value
-         */
-        public int getValue() {
-            return value;
-        }
-        
-        /**
-         * @return new value
-         */
-        public int increment() {
-            return ++value;
-        }
-        
-        /**
-         * @return new value
-         */
-        public int decrement() {
-            return --value;
-        }
-        
-        @Override
-        public String toString() {
-            return Integer.toString(value);
-        }
-    }
-    
-    private final HashMap<E, Count> countMap;
-    
-    private int size;
-    
-    public HashBag() {
-        countMap = new HashMap<>();
-        size = 0;
-    }
-    
-    public HashBag(int initialCapacity) {
-        countMap = new HashMap<>(initialCapacity);
-    }
-    
-    public HashBag(Collection<? extends E> collection) {
-        this(collection, collection.size());
-    }
-    
-    @SafeVarargs
-    public HashBag(E... elements) {
-        this(Arrays.asList(elements), elements.length);
-    }
-    
-    public HashBag(Iterable<? extends E> initialElements, int initialCapacity) {
-        this(new HashMap<E, Count>(/*TODO initialCapacity*/), initialElements);
-    }
-    
-    private HashBag(HashMap<E, Count> map, Iterable<? extends E> initialElements) {
-        countMap = map;
-        addAll(initialElements);
-    }
-    
-    /**
-     * Adds the given {@code element} to the bag.
-     * 
-     * @return number of occurrences after adding
-     */
-    public int add(E element) {
-        size++;
-        Count count = countMap.get(element);
-        if (count != null) {
-            return count.increment();
-        }
-        countMap.put(element, new Count(1));
-        return 1;
-    }
-    
-    /**
-     * Removes the given {@code element} to the bag.
-     *
-     * @return number of occurrences of the element left after removing one or -1 if 
-     *         {@code value} was not contained in the bag 
-     */
-    public int remove(E element) {
-        Count count = countMap.get(element);
-        if (count == null) return -1;
-        int valuesLeft = count.decrement();
-        if (valuesLeft == 0) countMap.remove(element);
-        size--;
-        return valuesLeft;
-    }
-    
-    /**
-     * Adds all the elements in the {@code iterable} to the bag.
-     */
-    public void addAll(Iterable<? extends E> iterable) {
-        for (E value: iterable) {
-            add(value);
-        }
-    }
-    
-    /**
-     * Removes all the elements in the {@code iterable} from the bag.
-     * @return the number of elements removed
-     */
-    public int removeAll(Iterable<? extends E> values) {
-        int removed = 0;
-        for (E value: values) {
-            if (remove(value) != -1) {
-                removed++;
-            }
-        }
-        return removed;
-    }
-    
-    /**
-     * Removes all occurrences of the given {@code element} from the bag.
-     * @return the number of elements removed.
-     */
-    public int removeAllOccurrences(E element) {
-        Count count = countMap.remove(element);
-        if (count == null) {
-            return 0;
-        }
-        size -= count.getValue();
-        return count.getValue();
-    }
-    
-    /**
-     * Removes all elements from the bag.
-     */
-    public void clear() {
-        countMap.clear();
-        size = 0;
-    }
-    
-    @Override
-    public int getCount(E element) {
-        Count count = countMap.get(element);
-        if (count == null) return 0;
-        return count.getValue();
-    }
-    
-    @Override
-    public boolean contains(E element) {
-        return countMap.containsKey(element);
-    }
-    
-    @Override
-    public E findEqualOrNull(E element) {
-        return countMap.keys().findEqualOrNull(element);
-    }
-    
-    public int getNumberOfDifferentElements() {
-        return countMap.keyCount();
-    }
-    
-    @Override
-    public boolean isEmpty() {
-        return countMap.isEmpty();
-    }
-    
-    @Override
-    public int size() {
-        return size;
-    }
-    
-    @Override
-    public E getFirstOrNull() {
-        return countMap.keys().getFirstOrNull();
-    }
-    
-    @Override
-    public Iterator<E> iterator() {
-        return new HashBagIterator();
-    }
-    
-    // TODO add modifyingIterator()
-    
-    private class HashBagIterator implements Iterator<E> {
-        
-        private final EntryIterator<E, Count> hashSetIterator = countMap.entryIterator();
-        
-        private int elementsLeftInCurrent = 0;
-        
-        public HashBagIterator() {
-            findNext();
-        }
-        
-        @Override
-        public boolean hasNext() {
-            return elementsLeftInCurrent > 0;
-        }
-        
-        @Override
-        public E next() {
-            if (elementsLeftInCurrent <= 0) {
-                throw new NoSuchElementException();
-            }
-            E current = hashSetIterator.getCurrentKey();
-            elementsLeftInCurrent--;
-            if (elementsLeftInCurrent == 0) {
-                findNext();
-            }
-            return current;
-        }
-        
-        private void findNext() {
-            if (hashSetIterator.next()) {
-                elementsLeftInCurrent = hashSetIterator.getCurrentValue().getValue();
-            }
-        }
-        
-    }
-    
-    public static <E> HashBag.Builder<E> newBuilder() {
-        return new Builder<E>();
-    }
-    
-    @NotThreadSafe
-    public static final class Builder<E> extends AbstractCollectionBuilder<E, HashBag<E>> {
-        @Nullable
-        private HashBag<E> hashBag = new HashBag<>();
-        
-        @Override
-        protected void _add(E element) {
-            hashBag.add(element);
-        }
-        
-        @Override
-        protected HashBag<E> _createCollection() {
-            HashBag<E> result = hashBag;
-            hashBag = null;
-            return result;
-        }
-        
-        @Override
-        protected void _reset() {
-            hashBag = new HashBag<>();
-        }
-    }
-    
-    @Override
-    public int hashCode() {
-        // Optimized implementation: Multiply element's hash code by it's occurrence count
-        // instead of adding the same value multiple times.
-        final Identificator<? super E> identificator = getIdentificator();
-        int result = 0;
-        EntryIterator<E, Count> iterator = countMap.entryIterator();
-        while (iterator.next()) {
-            result += iterator.getCurrentValue().value * identificator.hashCode(iterator.getCurrentKey());
-        }
-        return result;
-    }
-    
-}
+package org.povworld.collection.mutable;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.povworld.collection.Bag;
+import org.povworld.collection.Collection;
+import org.povworld.collection.EntryIterator;
+import org.povworld.collection.Identificator;
+import org.povworld.collection.List;
+import org.povworld.collection.common.AbstractCollectionBuilder;
+import org.povworld.collection.common.AbstractUnOrderedCollection;
+import org.povworld.collection.common.ArrayUtil;
+import org.povworld.collection.common.Assert;
+import org.povworld.collection.common.PreConditions;
+
+/**
+ * Bag implementation that uses an open addressing hash table for the elements and stores the number
+ * of occurrences of each element inline in a parallel {@code int} array.
+ * <p>
+ * Collisions are resolved by linear probing, removals shift the following entries back so that no
+ * tombstones are needed. Besides the two arrays, no objects are allocated per element.
+ *
+ * @param <E> the element type
+ */
+@NotThreadSafe
+public class HashBag<E> extends AbstractUnOrderedCollection<E> implements Bag<E> {
+    
+    private E[] elements;
+    
+    private int[] counts;
+    
+    private int mask;
+    
+    private int distinctCount = 0;
+    
+    private int size = 0;
+    
+    public HashBag() {
+        this(1);
+    }
+    
+    public HashBag(int initialCapacity) {
+        init(getCapacityFor(initialCapacity));
+    }
+    
+    public HashBag(Collection<? extends E> collection) {
+        this(collection, collection.size());
+    }
+    
+    @SafeVarargs
+    public HashBag(E... elements) {
+        this(Arrays.asList(elements), elements.length);
+    }
+    
+    public HashBag(Iterable<? extends E> initialElements, int initialCapacity) {
+        this(initialCapacity);
+        addAll(initialElements);
+    }
+    
+    private void init(int capacity) {
+        elements = ArrayUtil.unsafeCastedNewArray(capacity);
+        counts = new int[capacity];
+        mask = capacity - 1;
+    }
+    
+    private static int getCapacityFor(int distinctCount) {
+        int capacity = 1;
+        while (capacity < distinctCount * 2) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+    
+    private int hash(E element) {
+        int hash = getIdentificator().hashCode(element) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+    
+    private int findIndex(E element) {
+        int index = hash(element) & mask;
+        Identificator<? super E> identificator = getIdentificator();
+        while (elements[index] != null) {
+            if (elements[index] == element || identificator.equals(elements[index], element)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+    
+    /**
+     * Adds the given {@code element} to the bag.
+     *
+     * @return number of occurrences after adding
+     */
+    public int add(E element) {
+        return add(element, 1);
+    }
+    
+    /**
+     * Adds the given {@code element} {@code count} times to the bag.
+     *
+     * @return number of occurrences after adding
+     * @throws ArithmeticException if the number of occurrences or the size of the bag would overflow, in which case
+     *         the bag is not changed
+     */
+    public int add(E element, int count) {
+        PreConditions.paramNotNull(element);
+        PreConditions.paramCheck(count, "negative count", count >= 0);
+        int index = hash(element) & mask;
+        Identificator<? super E> identificator = getIdentificator();
+        while (elements[index] != null) {
+            if (elements[index] == element || identificator.equals(elements[index], element)) {
+                int newCount = Math.addExact(counts[index], count);
+                size = Math.addExact(size, count);
+                counts[index] = newCount;
+                return newCount;
+            }
+            index = (index + 1) & mask;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        int newSize = Math.addExact(size, count);
+        if (counts.length < (distinctCount + 1) * 2) {
+            rehash(getCapacityFor(distinctCount + 1));
+            index = findFreeIndex(element);
+        }
+        elements[index] = element;
+        counts[index] = count;
+        distinctCount++;
+        size = newSize;
+        return count;
+    }
+    
+    private int findFreeIndex(E element) {
+        int index = hash(element) & mask;
+        while (elements[index] != null) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+    
+    private void rehash(int capacity) {
+        Assert.assertTrue((capacity & (capacity - 1)) == 0, "Table size must be a power of two!");
+        E[] oldElements = elements;
+        int[] oldCounts = counts;
+        init(capacity);
+        for (int i = 0; i < oldElements.length; ++i) {
+            E element = oldElements[i];
+            if (element != null) {
+                int index = findFreeIndex(element);
+                elements[index] = element;
+                counts[index] = oldCounts[i];
+            }
+        }
+    }
+    
+    /**
+     * Removes the given {@code element} to the bag.
+     *
+     * @return number of occurrences of the element left after removing one or -1 if
+     *         {@code value} was not contained in the bag
+     */
+    public int remove(E element) {
+        int index = findIndex(element);
+        if (index == -1) return -1;
+        size--;
+        int valuesLeft = --counts[index];
+        if (valuesLeft == 0) removeIndex(index);
+        return valuesLeft;
+    }
+    
+    private void removeIndex(int index) {
+        int hole = index;
+        elements[hole] = null;
+        counts[hole] = 0;
+        int current = hole;
+        while (true) {
+            current = (current + 1) & mask;
+            E element = elements[current];
+            if (element == null) {
+                break;
+            }
+            int home = hash(element) & mask;
+            // Move the element into the hole unless the hole lies outside its probe sequence.
+            if (((current - home) & mask) >= ((current - hole) & mask)) {
+                elements[hole] = element;
+                counts[hole] = counts[current];
+                elements[current] = null;
+                counts[current] = 0;
+                hole = current;
+            }
+        }
+        distinctCount--;
+        if (counts.length > 5 * distinctCount && counts.length > 8) {
+            rehash(getCapacityFor(distinctCount));
+        }
+    }
+    
+    /**
+     * Adds all the elements in the {@code iterable} to the bag.
+     */
+    public void addAll(Iterable<? extends E> iterable) {
+        for (E value: iterable) {
+            add(value);
+        }
+    }
+    
+    /**
+     * Adds each key of the given {@code entries} as often as given by the value.
+     */
+    public void addAll(EntryIterator<? extends E, Integer> entries) {
+        while (entries.next()) {
+            add(entries.getCurrentKey(), entries.getCurrentValue());
+        }
+    }
+    
+    /**
+     * Adds all occurrences of all elements of the {@code other} bag to this bag.
+     */
+    public void merge(HashBag<? extends E> other) {
+        int requiredCapacity = getCapacityFor(distinctCount + other.distinctCount);
+        if (counts.length < requiredCapacity) {
+            rehash(requiredCapacity);
+        }
+        for (int i = 0; i < other.elements.length; ++i) {
+            E element = other.elements[i];
+            if (element != null) {
+                add(element, other.counts[i]);
+            }
+        }
+    }
+    
+    /**
+     * Removes all the elements in the {@code iterable} from the bag.
+     * @return the number of elements removed
+     */
+    public int removeAll(Iterable<? extends E> values) {
+        int removed = 0;
+        for (E value: values) {
+            if (remove(value) != -1) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+    
+    /**
+     * Removes all occurrences of the given {@code element} from the bag.
+     * @return the number of elements removed.
+     */
+    public int removeAllOccurrences(E element) {
+        int index = findIndex(element);
+        if (index == -1) {
+            return 0;
+        }
+        int count = counts[index];
+        size -= count;
+        removeIndex(index);
+        return count;
+    }
+    
+    /**
+     * Removes all elements from the bag.
+     */
+    public void clear() {
+        init(1);
+        distinctCount = 0;
+        size = 0;
+    }
+    
+    @Override
+    public int getCount(E element) {
+        int index = findIndex(element);
+        return (index == -1) ? 0 : counts[index];
+    }
+    
+    @Override
+    public boolean contains(E element) {
+        return findIndex(element) != -1;
+    }
+    
+    @Override
+    public E findEqualOrNull(E element) {
+        int index = findIndex(element);
+        return (index == -1) ? null : elements[index];
+    }
+    
+    public int getNumberOfDifferentElements() {
+        return distinctCount;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    @CheckForNull
+    public E getFirstOrNull() {
+        for (E element: elements) {
+            if (element != null) {
+                return element;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Returns the (at most) {@code k} elements with the highest counts in descending order of their count.
+     * Elements with equal counts are ordered arbitrarily.
+     */
+    public List<E> topK(int k) {
+        PreConditions.paramCheck(k, "negative k", k >= 0);
+        // Min-heap of table indices ordered by count, its root is the smallest of the k largest counts.
+        int[] heap = new int[Math.min(k, distinctCount)];
+        int heapSize = 0;
+        for (int i = 0; i < elements.length && heap.length > 0; ++i) {
+            if (elements[i] == null) {
+                continue;
+            }
+            if (heapSize < heap.length) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++);
+            } else if (counts[i] > counts[heap[0]]) {
+                heap[0] = i;
+                siftDown(heap, heapSize);
+            }
+        }
+        E[] result = ArrayUtil.unsafeCastedNewArray(heapSize);
+        while (heapSize > 0) {
+            result[--heapSize] = elements[heap[0]];
+            heap[0] = heap[heapSize];
+            siftDown(heap, heapSize);
+        }
+        return ArrayList.of(result);
+    }
+    
+    private void siftUp(int[] heap, int position) {
+        int index = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[index]) {
+                break;
+            }
+            heap[position] = heap[parent];
+            position = parent;
+        }
+        heap[position] = index;
+    }
+    
+    private void siftDown(int[] heap, int heapSize) {
+        if (heapSize == 0) {
+            return;
+        }
+        int index = heap[0];
+        int position = 0;
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && counts[heap[child + 1]] < counts[heap[child]]) {
+                child++;
+            }
+            if (counts[index] <= counts[heap[child]]) {
+                break;
+            }
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = index;
+    }
+    
+    /**
+     * Returns an iterator over the distinct elements and their counts in unspecified order. The bag must not
+     * be modified while iterating.
+     */
+    public EntryIterator<E, Integer> entryIterator() {
+        int[] indices = new int[distinctCount];
+        int count = 0;
+        for (int i = 0; i < elements.length; ++i) {
+            if (elements[i] != null) {
+                indices[count++] = i;
+            }
+        }
+        return new CountIterator(indices);
+    }
+    
+    /**
+     * Returns an iterator over the distinct elements and their counts in descending order of their count. The
+     * bag must not be modified while iterating.
+     */
+    public EntryIterator<E, Integer> entriesByCount() {
+        // Sorts (count, index) pairs packed into longs, which avoids boxing.
+        long[] packed = new long[distinctCount];
+        int count = 0;
+        for (int i = 0; i < elements.length; ++i) {
+            if (elements[i] != null) {
+                packed[count++] = ((long)counts[i] << 32) | i;
+            }
+        }
+        Arrays.sort(packed);
+        int[] indices = new int[count];
+        for (int i = 0; i < count; ++i) {
+            indices[i] = (int)packed[count - 1 - i];
+        }
+        return new CountIterator(indices);
+    }
+    
+    private final class CountIterator implements EntryIterator<E, Integer> {
+        
+        private final E[] iteratingElements = elements;
+        
+        private final int[] indices;
+        
+        private int position = -1;
+        
+        CountIterator(int[] indices) {
+            this.indices = indices;
+        }
+        
+        @Override
+        public boolean next() {
+            if (position < indices.length) {
+                position++;
+            }
+            if (iteratingElements != elements) {
+                throw new ConcurrentModificationException();
+            }
+            return position < indices.length;
+        }
+        
+        private int currentIndex() {
+            if (position < 0 || position >= indices.length) {
+                throw new NoSuchElementException();
+            }
+            return indices[position];
+        }
+        
+        @Override
+        public E getCurrentKey() throws NoSuchElementException {
+            return elements[currentIndex()];
+        }
+        
+        @Override
+        public Integer getCurrentValue() throws NoSuchElementException {
+            return counts[currentIndex()];
+        }
+    }
+    
+    @Override
+    public Iterator<E> iterator() {
+        return new HashBagIterator();
+    }
+    
+    // TODO add modifyingIterator()
+    
+    private class HashBagIterator implements Iterator<E> {
+        
+        private final E[] iteratingElements = elements;
+        
+        private int index = -1;
+        
+        private int elementsLeftInCurrent = 0;
+        
+        public HashBagIterator() {
+            findNext();
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return elementsLeftInCurrent > 0;
+        }
+        
+        @Override
+        public E next() {
+            if (elementsLeftInCurrent <= 0) {
+                throw new NoSuchElementException();
+            }
+            E current = iteratingElements[index];
+            if (current == null) {
+                throw new ConcurrentModificationException();
+            }
+            elementsLeftInCurrent--;
+            if (elementsLeftInCurrent == 0) {
+                findNext();
+            }
+            return current;
+        }
+        
+        private void findNext() {
+            do {
+                index++;
+            } while (index < iteratingElements.length && iteratingElements[index] == null);
+            if (index < iteratingElements.length) {
+                elementsLeftInCurrent = counts[index];
+            }
+        }
+        
+    }
+    
+    public static <E> HashBag.Builder<E> newBuilder() {
+        return new Builder<E>();
+    }
+    
+    @NotThreadSafe
+    public static final class Builder<E> extends AbstractCollectionBuilder<E, HashBag<E>> {
+        @Nullable
+        private HashBag<E> hashBag = new HashBag<>();
+        
+        @Override
+        protected void _add(E element) {
+            hashBag.add(element);
+        }
+        
+        @Override
+        protected HashBag<E> _createCollection() {
+            HashBag<E> result = hashBag;
+            hashBag = null;
+            return result;
+        }
+        
+        @Override
+        protected void _reset() {
+            hashBag = new HashBag<>();
+        }
+    }
+    
+    @Override
+    public int hashCode() {
+        // Optimized implementation: Multiply element's hash code by it's occurrence count
+        // instead of adding the same value multiple times.
+        final Identificator<? super E> identificator = getIdentificator();
+        int result = 0;
+        for (int i = 0; i < elements.length; ++i) {
+            if (elements[i] != null) {
+                result += counts[i] * identificator.hashCode(elements[i]);
+            }
+        }
+        return result;
+    }
+    
+}
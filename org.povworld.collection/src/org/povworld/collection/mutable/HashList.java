@@ -28,6 +28,14 @@ public class HashList<E> extends AbstractListSetCollection<E> implements List<E>
         super(initialCapacity);
     }
     
+    /**
+     * @param setThreshold the size from which on a hash set is used for containment queries, the other
+     *            constructors use 28
+     */
+    public HashList(int initialCapacity, int setThreshold) {
+        super(initialCapacity, setThreshold);
+    }
+    
     public void add(E element) {
         addToListAndSet(element);
     }
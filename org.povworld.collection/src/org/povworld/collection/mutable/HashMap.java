@@ -2,6 +2,7 @@ package org.povworld.collection.mutable;
 
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.concurrent.NotThreadSafe;
@@ -17,48 +18,62 @@ import org.povworld.collection.common.AbstractMap;
 import org.povworld.collection.common.ArrayUtil;
 import org.povworld.collection.common.Assert;
 import org.povworld.collection.common.EntryValueIterator;
+import org.povworld.collection.common.MathUtil;
+import org.povworld.collection.common.MemoryMeasurable;
+import org.povworld.collection.common.MemoryStats;
 import org.povworld.collection.common.PreConditions;
 
 /**
  * Map implementations that uses the key's hash value to find elements.
+ * <p>
+ * The table layout can be chosen per instance, see {@link HashTableLayout}. Like the {@link HashSet}, the table
+ * is rebuilt once with randomly seeded hash codes if an insertion probes more than
+ * {@value HashSet#MAX_PROBE_LENGTH} slots. Keys with equal hash codes still collide; for keys chosen to collide,
+ * use a key identificator like {@link org.povworld.collection.common.KeyedStringIdentificator}. With
+ * {@link HashTableLayout#INCREMENTAL_LINEAR_PROBING}, large tables are resized incrementally while new keys are put.
  *
  * @param <K> the key type
  * @param <V> the value type
  */
 @NotThreadSafe
-public class HashMap<K, V> extends AbstractMap<K, V> {
+public class HashMap<K, V> extends AbstractMap<K, V> implements MemoryMeasurable {
     
     private class HashMapIterator implements EntryIterator<K, V> {
         
         private int current = -1;
         
         private void findNextElement() {
-            if (current == keys.length) return;
+            if (current == endIndex()) return;
             current = nextKeyIndex(current);
         }
         
         @Override
         public K getCurrentKey() throws NoSuchElementException {
-            if (current == -1 || current == keys.length) throw new NoSuchElementException();
-            return keys[current];
+            if (current == -1 || current == endIndex()) throw new NoSuchElementException();
+            return getKey(current);
         }
         
         @Override
         public V getCurrentValue() throws NoSuchElementException {
-            if (current == -1 || current == keys.length) throw new NoSuchElementException();
+            if (current == -1 || current == endIndex()) throw new NoSuchElementException();
             return get(current);
         }
         
         @Override
         public boolean next() {
             findNextElement();
-            return current < keys.length;
+            return current < endIndex();
         }
         
     }
     
     private static final int FULL_SIZE = 2;
     
+    // Marks migrated and removed keys in the old table, so probing the remaining keys still works.
+    private static final Object MOVED = new Object();
+    
+    private final Identificator<? super K> keyIdentificator;
+    
     private K keys[];
     
     private V values[];
@@ -67,15 +82,60 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
     
     private int mask;
     
+    private final HashTableLayout layout;
+    
+    // Control bytes of the grouped layout, null for linear probing.
+    @CheckForNull
+    private long[] control = null;
+    
+    // Number of empty slots which may still be filled in the grouped layout.
+    private int growthLeft;
+    
+    // Longest probe sequence of any key in the grouped layout, counted in groups.
+    private int maxProbe;
+    
+    // Seed for mixing the hash codes, zero while they are used unchanged.
+    private int hashSeed = 0;
+    
+    // Table being migrated by an incremental resize, null if there is none. Indices from keys.length on refer
+    // to this table.
+    @CheckForNull
+    private K[] oldKeys = null;
+    
+    private V[] oldValues;
+    
+    private int oldMask;
+    
+    // Slots of the old table below this index have been migrated.
+    private int migrated;
+    
     public HashMap() {
-        keys = ArrayUtil.unsafeCastedNewArray(FULL_SIZE);
-        values = ArrayUtil.unsafeCastedNewArray(FULL_SIZE);
-        mask = 0;
+        this(0, HashTableLayout.LINEAR_PROBING);
     }
     
     public HashMap(int initialCapacity) {
-        this();
-        // TODO initialize larger arrays
+        this(initialCapacity, HashTableLayout.LINEAR_PROBING);
+    }
+    
+    public HashMap(int initialCapacity, HashTableLayout layout) {
+        this(CollectionUtil.getObjectIdentificator(), initialCapacity, layout);
+    }
+    
+    public HashMap(Identificator<? super K> keyIdentificator) {
+        this(keyIdentificator, 0, HashTableLayout.LINEAR_PROBING);
+    }
+    
+    public HashMap(Identificator<? super K> keyIdentificator, int initialCapacity, HashTableLayout layout) {
+        this.keyIdentificator = PreConditions.paramNotNull(keyIdentificator);
+        this.layout = PreConditions.paramNotNull(layout);
+        if (layout == HashTableLayout.GROUPED) {
+            initGroups(ControlGroups.capacityFor(initialCapacity));
+        } else {
+            // TODO initialize larger arrays
+            keys = ArrayUtil.unsafeCastedNewArray(FULL_SIZE);
+            values = ArrayUtil.unsafeCastedNewArray(FULL_SIZE);
+            mask = 0;
+        }
     }
     
     public HashMap(Map<K, V> map) {
@@ -83,9 +143,22 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
         putAll(map);
     }
     
+    public HashTableLayout getLayout() {
+        return layout;
+    }
+    
+    private void initGroups(int capacity) {
+        keys = ArrayUtil.unsafeCastedNewArray(capacity);
+        values = ArrayUtil.unsafeCastedNewArray(capacity);
+        mask = capacity - 1;
+        control = ControlGroups.newControl(capacity);
+        growthLeft = ControlGroups.growthLimit(capacity);
+        maxProbe = 0;
+    }
+    
     @Override
     public Identificator<? super K> getKeyIdentificator() {
-        return CollectionUtil.getObjectIdentificator();
+        return keyIdentificator;
     }
     
     @Override
@@ -95,7 +168,8 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
     
     private int keyHash(K key) {
         PreConditions.paramNotNull(key);
-        return getKeyIdentificator().hashCode(key);
+        int hash = getKeyIdentificator().hashCode(key);
+        return (hashSeed == 0) ? hash : (int)MathUtil.mix64(hash ^ hashSeed);
     }
     
     private boolean keyEquals(K key1, K key2) {
@@ -105,6 +179,9 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
     }
     
     private int findElementByHash(K element, int hash) {
+        if (control != null) {
+            return findElementInGroups(element, hash);
+        }
         int idx = hash & mask;
         for (;;) {
             if (keys[idx] == null) return -1;
@@ -113,6 +190,23 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
         }
     }
     
+    private int findElementInGroups(K element, int hash) {
+        long mixedHash = ControlGroups.mix(hash);
+        int tag = ControlGroups.tag(mixedHash);
+        int groupMask = mask >>> ControlGroups.GROUP_SHIFT;
+        int group = ControlGroups.group(mixedHash, groupMask);
+        for (int probe = 0;;) {
+            long groupControl = control[group];
+            for (long match = ControlGroups.matchTag(groupControl, tag); match != 0; match &= match - 1) {
+                int idx = ControlGroups.slot(group, match);
+                if (keyEquals(element, keys[idx])) return idx;
+            }
+            if (ControlGroups.matchEmpty(groupControl) != 0 || probe == maxProbe) return -1;
+            probe++;
+            group = (group + probe) & groupMask;
+        }
+    }
+    
     private int findElementFullSearch(K element) {
         for (int idx = 0; idx < FULL_SIZE; ++idx) {
             if (keys[idx] != null && keyEquals(element, keys[idx])) {
@@ -123,10 +217,66 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
     }
     
     private int findElement(K element, int hash) {
-        if (size <= FULL_SIZE) {
+        if (isFullSearch()) {
+            return findElementFullSearch(element);
+        }
+        int idx = findElementByHash(element, hash);
+        if (idx == -1 && oldKeys != null) {
+            int oldIdx = findElementInOldTable(element, hash);
+            return (oldIdx == -1) ? -1 : keys.length + oldIdx;
+        }
+        return idx;
+    }
+    
+    private int findElement(K element) {
+        if (isFullSearch()) {
             return findElementFullSearch(element);
         }
-        return findElementByHash(element, hash);
+        return findElement(element, keyHash(element));
+    }
+    
+    private int findElementInOldTable(K element, int hash) {
+        int idx = hash & oldMask;
+        for (;;) {
+            K key = oldKeys[idx];
+            if (key == null) return -1;
+            if (key != MOVED && keyEquals(element, key)) return idx;
+            idx = (idx + 1) & oldMask;
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private K moved() {
+        return (K)MOVED;
+    }
+    
+    /**
+     * Migrates the next {@code count} slots of the old table.
+     */
+    private void migrate(int count) {
+        int end = Math.min(migrated + count, oldKeys.length);
+        for (; migrated < end; ++migrated) {
+            K key = oldKeys[migrated];
+            if (key != null && key != MOVED) {
+                internalInsert(key, oldValues[migrated], keyHash(key));
+                oldKeys[migrated] = moved();
+                oldValues[migrated] = null;
+            }
+        }
+        if (migrated == oldKeys.length) {
+            oldKeys = null;
+            oldValues = null;
+        }
+    }
+    
+    private void finishMigration() {
+        if (oldKeys != null) {
+            migrate(oldKeys.length);
+        }
+    }
+    
+    private boolean isFullSearch() {
+        return control == null && size <= FULL_SIZE;
     }
     
     private int increment(int idx) {
@@ -140,16 +290,30 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
         V oldElement = null;
         if (idx != -1) {
             oldElement = get(idx);
-            keys[idx] = key;
-            values[idx] = value;
+            if (idx < keys.length) {
+                keys[idx] = key;
+                values[idx] = value;
+            } else {
+                oldKeys[idx - keys.length] = key;
+                oldValues[idx - keys.length] = value;
+            }
         } else {
             
             ensureCapacityFor(size + 1);
-            if (size < FULL_SIZE) {
+            if (control == null && size < FULL_SIZE) {
                 keys[size] = key;
                 values[size] = value;
             } else {
-                internalInsert(key, value, hash);
+                int probeLength = internalInsert(key, value, hash);
+                if (oldKeys != null) {
+                    migrate(HashSet.MIGRATION_STEP);
+                }
+                if (probeLength > HashSet.MAX_PROBE_LENGTH && hashSeed == 0) {
+                    // The old table has been hashed with the current seed.
+                    finishMigration();
+                    hashSeed = ThreadLocalRandom.current().nextInt() | 1;
+                    buildHashTable(keys, values, keys.length);
+                }
             }
             size++;
         }
@@ -167,42 +331,28 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
     @Override
     @CheckForNull
     public V get(K key) {
-        int idx;
-        if (size <= FULL_SIZE) {
-            idx = findElementFullSearch(key);
-        } else {
-            int hash = keyHash(key);
-            idx = findElementByHash(key, hash);
-        }
+        int idx = findElement(key);
         return (idx == -1) ? null : get(idx);
     }
     
     @Override
     public boolean containsKey(K key) {
-        int idx;
-        if (size <= FULL_SIZE) {
-            idx = findElementFullSearch(key);
-        } else {
-            int hash = keyHash(key);
-            idx = findElementByHash(key, hash);
-        }
+        int idx = findElement(key);
         return idx != -1;
     }
     
     @CheckForNull
     public K findEqualKeyOrNull(K key) {
-        int index;
-        if (size <= FULL_SIZE) {
-            index = findElementFullSearch(key);
-        } else {
-            int hash = keyHash(key);
-            index = findElementByHash(key, hash);
-        }
-        return index == -1 ? null : keys[index];
+        int index = findElement(key);
+        return index == -1 ? null : getKey(index);
+    }
+    
+    private K getKey(int idx) {
+        return (idx < keys.length) ? keys[idx] : oldKeys[idx - keys.length];
     }
     
     private V get(int idx) {
-        return values[idx];
+        return (idx < keys.length) ? values[idx] : oldValues[idx - keys.length];
     }
     
     /**
@@ -211,13 +361,7 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
      */
     @CheckForNull
     public V remove(K key) {
-        int idx;
-        if (size <= FULL_SIZE) {
-            idx = findElementFullSearch(key);
-        } else {
-            int hash = keyHash(key);
-            idx = findElementByHash(key, hash);
-        }
+        int idx = findElement(key);
         
         if (idx == -1) {
             return null;
@@ -225,9 +369,23 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
         
         V oldValue = get(idx);
         
+        if (idx >= keys.length) {
+            oldKeys[idx - keys.length] = moved();
+            oldValues[idx - keys.length] = null;
+            size--;
+            checkEmptySpace();
+            return oldValue;
+        }
+        
         keys[idx] = null;
         values[idx] = null;
-        plugHole(idx);
+        if (control != null) {
+            if (ControlGroups.remove(control, idx)) {
+                growthLeft++;
+            }
+        } else {
+            plugHole(idx);
+        }
         size--;
         checkEmptySpace();
         return oldValue;
@@ -237,6 +395,13 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
      * Removes all mappings.
      */
     public void clear() {
+        if (control != null) {
+            initGroups(ControlGroups.capacityFor(0));
+            size = 0;
+            return;
+        }
+        oldKeys = null;
+        oldValues = null;
         keys = ArrayUtil.unsafeCastedNewArray(FULL_SIZE);
         values = ArrayUtil.unsafeCastedNewArray(FULL_SIZE);
         mask = 0;
@@ -264,16 +429,53 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
         }
     }
     
-    private void internalInsert(K key, V value, int hash) {
+    /**
+     * @return the number of occupied slots probed
+     */
+    private int internalInsert(K key, V value, int hash) {
+        if (control != null) {
+            return insertIntoGroups(key, value, hash);
+        }
         int idx = hash & mask;
+        int probeLength = 0;
         while (keys[idx] != null) {
             idx = increment(idx);
+            probeLength++;
         }
         keys[idx] = key;
         values[idx] = value;
+        return probeLength;
+    }
+    
+    private int insertIntoGroups(K key, V value, int hash) {
+        long mixedHash = ControlGroups.mix(hash);
+        int groupMask = mask >>> ControlGroups.GROUP_SHIFT;
+        int group = ControlGroups.group(mixedHash, groupMask);
+        int probe = 0;
+        long match;
+        while ((match = ControlGroups.matchEmptyOrDeleted(control[group])) == 0) {
+            probe++;
+            group = (group + probe) & groupMask;
+        }
+        int idx = ControlGroups.slot(group, match);
+        if (ControlGroups.getControl(control, idx) == ControlGroups.EMPTY) {
+            growthLeft--;
+        }
+        ControlGroups.setControl(control, idx, ControlGroups.tag(mixedHash));
+        keys[idx] = key;
+        values[idx] = value;
+        maxProbe = Math.max(maxProbe, probe);
+        return probe * ControlGroups.GROUP_SIZE;
     }
     
     private void ensureCapacityFor(int size) {
+        if (control != null) {
+            if (growthLeft == 0) {
+                // Also drops the deleted markers if they take most of the slots.
+                buildHashTable(keys, values, ControlGroups.capacityFor(2 * size));
+            }
+            return;
+        }
         if (mask == 0 && size <= FULL_SIZE) {
             return;
         }
@@ -287,10 +489,36 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
             newCapacity *= 2;
         }
         
-        buildHashTable(keys, values, newCapacity);
+        if (layout == HashTableLayout.INCREMENTAL_LINEAR_PROBING && keys.length >= HashSet.INCREMENTAL_MIN_CAPACITY) {
+            startMigration(newCapacity);
+        } else {
+            buildHashTable(keys, values, newCapacity);
+        }
+    }
+    
+    private void startMigration(int newCapacity) {
+        finishMigration();
+        oldKeys = keys;
+        oldValues = values;
+        oldMask = mask;
+        migrated = 0;
+        keys = ArrayUtil.unsafeCastedNewArray(newCapacity);
+        values = ArrayUtil.unsafeCastedNewArray(newCapacity);
+        mask = newCapacity - 1;
     }
     
     private void checkEmptySpace() {
+        if (control != null) {
+            if (keys.length > size * 8 && keys.length > ControlGroups.GROUP_SIZE) {
+                buildHashTable(keys, values, ControlGroups.capacityFor(2 * size));
+            }
+            return;
+        }
+        if (oldKeys != null) {
+            // Shrinking waits for the migration, unless the full table is needed.
+            if (size > FULL_SIZE) return;
+            finishMigration();
+        }
         if (size <= FULL_SIZE) {
             if (keys.length != FULL_SIZE) {
                 buildFullTable();
@@ -325,9 +553,13 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
     
     private void buildHashTable(K[] keys, V[] values, int tableSize) {
         Assert.assertTrue((tableSize & (tableSize - 1)) == 0, "Table size must be a power of two!");
-        this.keys = ArrayUtil.unsafeCastedNewArray(tableSize);
-        this.values = ArrayUtil.unsafeCastedNewArray(tableSize);
-        mask = tableSize - 1;
+        if (control != null) {
+            initGroups(tableSize);
+        } else {
+            this.keys = ArrayUtil.unsafeCastedNewArray(tableSize);
+            this.values = ArrayUtil.unsafeCastedNewArray(tableSize);
+            mask = tableSize - 1;
+        }
         for (int i = 0; i < keys.length; ++i) {
             K key = keys[i];
             if (key == null) continue;
@@ -336,7 +568,7 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
     }
     
     /**
-     * @return the next index with non-empty key or {@code keys.length} if the end of the array is reached
+     * @return the next index with non-empty key or {@link #endIndex()} if the end of the array is reached
      */
     private int nextKeyIndex(int startIndex) {
         int index = startIndex;
@@ -344,14 +576,60 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
         while (index < keys.length && keys[index] == null) {
             index++;
         }
+        if (index < keys.length || oldKeys == null) {
+            return index;
+        }
+        while (index < endIndex() && (oldKeys[index - keys.length] == null || oldKeys[index - keys.length] == MOVED)) {
+            index++;
+        }
         return index;
     }
     
+    /**
+     * @return the index after the last slot of the table and, while migrating, the old table
+     */
+    private int endIndex() {
+        return (oldKeys == null) ? keys.length : keys.length + oldKeys.length;
+    }
+    
     @Override
     public int keyCount() {
         return size;
     }
     
+    @Override
+    public MemoryStats estimateFootprint() {
+        MemoryStats.Builder stats = MemoryStats.newBuilder().addObject(this).addArray(keys).addArray(values)
+                .addSlots(keys.length);
+        if (control != null) {
+            stats.addArray(control.length, 8);
+        }
+        for (int i = 0; i < keys.length; ++i) {
+            K key = keys[i];
+            if (key == null) {
+                continue;
+            }
+            if (control != null) {
+                stats.addEntry(ControlGroups.probeDistance(keyHash(key), i, mask));
+            } else if (mask == 0) {
+                // The small table is searched linearly.
+                stats.addEntry(i);
+            } else {
+                stats.addEntry((i - keyHash(key)) & mask);
+            }
+        }
+        if (oldKeys != null) {
+            stats.addArray(oldKeys).addArray(oldValues).addSlots(oldKeys.length);
+            for (int i = 0; i < oldKeys.length; ++i) {
+                K key = oldKeys[i];
+                if (key != null && key != MOVED) {
+                    stats.addEntry((i - keyHash(key)) & oldMask);
+                }
+            }
+        }
+        return stats.build();
+    }
+    
     @Override
     public EntryIterator<K, V> entryIterator() {
         return new HashMapIterator();
@@ -360,10 +638,10 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
     @Override
     public K getFirstKeyOrNull() {
         int firstIndex = nextKeyIndex(-1);
-        if (firstIndex == keys.length) {
+        if (firstIndex == endIndex()) {
             return null;
         }
-        return keys[firstIndex];
+        return getKey(firstIndex);
     }
     
     @Override
@@ -405,10 +683,10 @@ public class HashMap<K, V> extends AbstractMap<K, V> {
         @CheckForNull
         public V getFirstOrNull() {
             int firstIndex = nextKeyIndex(-1);
-            if (firstIndex == keys.length) {
+            if (firstIndex == endIndex()) {
                 return null;
             }
-            return values[firstIndex];
+            return get(firstIndex);
         }
         
         @Override
@@ -3,6 +3,7 @@ package org.povworld.collection.mutable;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
@@ -16,15 +17,38 @@ import org.povworld.collection.common.AbstractCollectionBuilder;
 import org.povworld.collection.common.AbstractUnOrderedCollection;
 import org.povworld.collection.common.ArrayUtil;
 import org.povworld.collection.common.Assert;
+import org.povworld.collection.common.MathUtil;
+import org.povworld.collection.common.MemoryMeasurable;
+import org.povworld.collection.common.MemoryStats;
 import org.povworld.collection.common.PreConditions;
 
 /**
  * Implementation of {@link Set} that uses the element's hash value to find them.
+ * <p>
+ * The table layout can be chosen per instance, see {@link HashTableLayout}.
+ * <p>
+ * If an insertion has to probe more than {@value #MAX_PROBE_LENGTH} slots, the hash codes are badly
+ * distributed and the table is rebuilt once with the hash codes mixed with a random seed. Elements with equal
+ * hash codes still collide; for keys chosen to collide, use an identificator like
+ * {@link org.povworld.collection.common.KeyedStringIdentificator}.
  *
  * @param <E> the element type
  */
 @NotThreadSafe
-public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E> {
+public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>, MemoryMeasurable {
+    
+    public static final int MAX_PROBE_LENGTH = 128;
+    
+    /**
+     * Smallest table which grows incrementally with {@link HashTableLayout#INCREMENTAL_LINEAR_PROBING}.
+     */
+    static final int INCREMENTAL_MIN_CAPACITY = 1024;
+    
+    /**
+     * Number of old table slots migrated per insertion, the migration is finished before the new table has to
+     * grow again.
+     */
+    static final int MIGRATION_STEP = 4;
     
     private Identificator<? super E> identificator;
     
@@ -36,6 +60,33 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
     
     private int mask;
     
+    private final HashTableLayout layout;
+    
+    // Control bytes of the grouped layout, null for linear probing.
+    @CheckForNull
+    private long[] control = null;
+    
+    // Number of empty slots which may still be filled in the grouped layout.
+    private int growthLeft;
+    
+    // Longest probe sequence of any element in the grouped layout, counted in groups.
+    private int maxProbe;
+    
+    // Seed for mixing the hash codes, zero while they are used unchanged.
+    private int hashSeed = 0;
+    
+    // Table being migrated by an incremental resize, null if there is none. Migrated and removed elements are
+    // set to null but keep their prefix, so probing the remaining elements still works.
+    @CheckForNull
+    private E[] oldTable = null;
+    
+    private byte[] oldHashPrefix;
+    
+    private int oldMask;
+    
+    // Slots of the old table below this index have been migrated.
+    private int migrated;
+    
     public HashSet() {
         this(CollectionUtil.getObjectIdentificator());
     }
@@ -49,7 +100,12 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
     }
     
     public HashSet(Identificator<? super E> identificator, int expectedSize) {
+        this(identificator, expectedSize, HashTableLayout.LINEAR_PROBING);
+    }
+    
+    public HashSet(Identificator<? super E> identificator, int expectedSize, HashTableLayout layout) {
         this.identificator = identificator;
+        this.layout = PreConditions.paramNotNull(layout);
         init(getCapacityFor(expectedSize));
     }
     
@@ -64,13 +120,26 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
         return identificator;
     }
     
+    public HashTableLayout getLayout() {
+        return layout;
+    }
+    
     private void init(int capacity) {
         table = ArrayUtil.unsafeCastedNewArray(capacity);
-        hashPrefix = new byte[capacity];
         mask = capacity - 1;
+        if (layout == HashTableLayout.GROUPED) {
+            control = ControlGroups.newControl(capacity);
+            growthLeft = ControlGroups.growthLimit(capacity);
+            maxProbe = 0;
+        } else {
+            hashPrefix = new byte[capacity];
+        }
     }
     
-    private static int getCapacityFor(int size) {
+    private int getCapacityFor(int size) {
+        if (layout == HashTableLayout.GROUPED) {
+            return ControlGroups.capacityFor(size);
+        }
         int capacity = 1;
         while (capacity < size * 2) {
             capacity *= 2;
@@ -82,7 +151,15 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
         return hashPrefix[index] == 0;
     }
     
+    private int hash(E element) {
+        int hash = identificator.hashCode(element);
+        return (hashSeed == 0) ? hash : (int)MathUtil.mix64(hash ^ hashSeed);
+    }
+    
     private int findElementByHash(E element, int hash) {
+        if (control != null) {
+            return findElementInGroups(element, hash);
+        }
         int index = hash & mask;
         while (!isEmptyTableIndex(index)) {
             if (readPrefix(index) == prefix(hash) && ((table[index] == element) || identificator.equals(table[index], element))) {
@@ -96,6 +173,27 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
         return -1;
     }
     
+    private int findElementInGroups(E element, int hash) {
+        long mixedHash = ControlGroups.mix(hash);
+        int tag = ControlGroups.tag(mixedHash);
+        int groupMask = mask >>> ControlGroups.GROUP_SHIFT;
+        int group = ControlGroups.group(mixedHash, groupMask);
+        for (int probe = 0;;) {
+            long groupControl = control[group];
+            for (long match = ControlGroups.matchTag(groupControl, tag); match != 0; match &= match - 1) {
+                int index = ControlGroups.slot(group, match);
+                if ((table[index] == element) || identificator.equals(table[index], element)) {
+                    return index;
+                }
+            }
+            if (ControlGroups.matchEmpty(groupControl) != 0 || probe == maxProbe) {
+                return -1;
+            }
+            probe++;
+            group = (group + probe) & groupMask;
+        }
+    }
+    
     private static byte prefix(int hash) {
         return (byte)(hash >>> 26);
     }
@@ -117,14 +215,23 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
     
     public boolean add(E element) {
         PreConditions.paramNotNull(element);
-        int hash = identificator.hashCode(element);
-        if (findElementByHash(element, hash) != -1) {
+        int hash = hash(element);
+        if (findElementByHash(element, hash) != -1 || findElementInOldTable(element, hash) != -1) {
             return false;
         }
         
         ensureCapacityFor(size + 1);
-        internalInsert(element, hash); // TODO double iteration, we did this already in findElementByHash
+        int probeLength = internalInsert(element, hash); // TODO double iteration, we did this already in findElementByHash
         size++;
+        if (oldTable != null) {
+            migrate(MIGRATION_STEP);
+        }
+        if (probeLength > MAX_PROBE_LENGTH && hashSeed == 0) {
+            // The old table has been hashed with the current seed.
+            finishMigration();
+            hashSeed = ThreadLocalRandom.current().nextInt() | 1;
+            buildHashTable(table, table.length);
+        }
         return true;
     }
     
@@ -138,18 +245,84 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
     
     @Override
     public boolean contains(E element) {
-        return findElementIndex(element) != -1;
+        return findEqual(element) != null;
     }
     
     @Override
     public E findEqualOrNull(E element) {
-        int index = findElementIndex(element);
-        return index == -1 ? null : table[index];
+        return findEqual(element);
     }
     
-    private int findElementIndex(E element) {
-        int hash = identificator.hashCode(element);
-        return findElementByHash(element, hash);
+    @CheckForNull
+    private E findEqual(E element) {
+        int hash = hash(element);
+        int index = findElementByHash(element, hash);
+        if (index != -1) {
+            return table[index];
+        }
+        if (oldTable != null) {
+            index = findElementInOldTable(element, hash);
+            if (index != -1) {
+                return oldTable[index];
+            }
+        }
+        return null;
+    }
+    
+    private int findElementInOldTable(E element, int hash) {
+        if (oldTable == null) {
+            return -1;
+        }
+        int index = hash & oldMask;
+        while (oldHashPrefix[index] != 0) {
+            E current = oldTable[index];
+            if (current != null && ((oldHashPrefix[index] & 0xFF) >> 2) == prefix(hash)
+                    && ((current == element) || identificator.equals(current, element))) {
+                return index;
+            }
+            if ((oldHashPrefix[index] & 1) == 0) {
+                break;
+            }
+            index = (index + 1) & oldMask;
+        }
+        return -1;
+    }
+    
+    /**
+     * Removes the element at the given index of the old table, leaving its prefix to keep probe sequences.
+     * 
+     * @return the removed element
+     */
+    private E removeFromOldTable(int index) {
+        E current = oldTable[index];
+        oldTable[index] = null;
+        size--;
+        return current;
+    }
+    
+    /**
+     * Migrates the next {@code count} slots of the old table.
+     */
+    private void migrate(int count) {
+        E[] elements = oldTable;
+        int end = Math.min(migrated + count, elements.length);
+        for (; migrated < end; ++migrated) {
+            E element = elements[migrated];
+            if (element != null) {
+                elements[migrated] = null;
+                internalInsert(element, hash(element));
+            }
+        }
+        if (migrated == elements.length) {
+            oldTable = null;
+            oldHashPrefix = null;
+        }
+    }
+    
+    private void finishMigration() {
+        if (oldTable != null) {
+            migrate(oldTable.length);
+        }
     }
     
     /**
@@ -158,9 +331,7 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
      */
     @CheckForNull
     public E getCurrentOrNull(E element) {
-        int index = findElementIndex(element);
-        if (index == -1) return null;
-        return table[index];
+        return findEqual(element);
     }
     
     /**
@@ -172,8 +343,12 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
      */
     @CheckForNull
     public E removeAndReturnRemoved(E element) {
-        int index = findElementIndex(element);
-        if (index == -1) return null;
+        int hash = hash(element);
+        int index = findElementByHash(element, hash);
+        if (index == -1) {
+            index = findElementInOldTable(element, hash);
+            return (index == -1) ? null : removeFromOldTable(index);
+        }
         E current = table[index];
         removeIndex(index);
         return current;
@@ -184,10 +359,7 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
      * @return true iff the element has been present
      */
     public boolean remove(E element) {
-        int index = findElementIndex(element);
-        if (index == -1) return false;
-        removeIndex(index);
-        return true;
+        return removeAndReturnRemoved(element) != null;
     }
     
     /**
@@ -205,6 +377,15 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
     }
     
     private void removeIndex(int index) {
+        if (control != null) {
+            if (ControlGroups.remove(control, index)) {
+                growthLeft++;
+            }
+            table[index] = null;
+            size--;
+            checkEmptySpace();
+            return;
+        }
         boolean isCollision = isCollisionBitSet(index);
         table[index] = null;
         hashPrefix[index] = 0;
@@ -222,7 +403,9 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
         if (size == 0) {
             return;
         }
-        init(1);
+        init(getCapacityFor(0));
+        oldTable = null;
+        oldHashPrefix = null;
         size = 0;
     }
     
@@ -233,20 +416,49 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
             boolean collision = isCollisionBitSet(index);
             table[index] = null;
             hashPrefix[index] = 0;
-            internalInsert(elementToReinsert, identificator.hashCode(elementToReinsert));
+            internalInsert(elementToReinsert, hash(elementToReinsert));
             if (!collision) break;
             index = increment(index);
         }
     }
     
-    private void internalInsert(E element, int hash) {
+    /**
+     * @return the number of occupied slots probed
+     */
+    private int internalInsert(E element, int hash) {
+        if (control != null) {
+            return insertIntoGroups(element, hash);
+        }
         int index = hash & mask;
+        int probeLength = 0;
         while (!isEmptyTableIndex(index)) {
             setCollisionBit(index);
             index = increment(index);
+            probeLength++;
         }
         table[index] = element;
         storePrefix(index, hash);
+        return probeLength;
+    }
+    
+    private int insertIntoGroups(E element, int hash) {
+        long mixedHash = ControlGroups.mix(hash);
+        int groupMask = mask >>> ControlGroups.GROUP_SHIFT;
+        int group = ControlGroups.group(mixedHash, groupMask);
+        int probe = 0;
+        long match;
+        while ((match = ControlGroups.matchEmptyOrDeleted(control[group])) == 0) {
+            probe++;
+            group = (group + probe) & groupMask;
+        }
+        int index = ControlGroups.slot(group, match);
+        if (ControlGroups.getControl(control, index) == ControlGroups.EMPTY) {
+            growthLeft--;
+        }
+        ControlGroups.setControl(control, index, ControlGroups.tag(mixedHash));
+        table[index] = element;
+        maxProbe = Math.max(maxProbe, probe);
+        return probe * ControlGroups.GROUP_SIZE;
     }
     
     private void setCollisionBit(int index) {
@@ -258,14 +470,37 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
     }
     
     private void ensureCapacityFor(int size) {
+        if (control != null) {
+            if (growthLeft == 0) {
+                // Also drops the deleted markers if they take most of the slots.
+                buildHashTable(table, ControlGroups.capacityFor(2 * size));
+            }
+            return;
+        }
         if (table.length >= size * 2) {
             return;
         }
+        if (layout == HashTableLayout.INCREMENTAL_LINEAR_PROBING && table.length >= INCREMENTAL_MIN_CAPACITY) {
+            finishMigration();
+            oldTable = table;
+            oldHashPrefix = hashPrefix;
+            oldMask = mask;
+            migrated = 0;
+            init(getCapacityFor(size));
+            return;
+        }
         buildHashTable(table, getCapacityFor(size));
     }
     
     private void checkEmptySpace() {
-        if (table.length <= size * 5 || table.length < 5) return;
+        if (control != null) {
+            if (table.length > size * 8 && table.length > ControlGroups.GROUP_SIZE) {
+                buildHashTable(table, ControlGroups.capacityFor(2 * size));
+            }
+            return;
+        }
+        // Shrinking waits for a running migration to finish.
+        if (table.length <= size * 5 || table.length < 5 || oldTable != null) return;
         
         int newCapacity = table.length;
         while ((newCapacity > size * 5) && (newCapacity > 1)) {
@@ -280,7 +515,7 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
         init(tableSize);
         for (E element: elements) {
             if (element == null) continue;
-            internalInsert(element, identificator.hashCode(element));
+            internalInsert(element, hash(element));
         }
     }
     
@@ -293,25 +528,31 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
         return new HashSetIterator() {
             @Override
             public void remove() {
-                if (current == -1) {
+                if (current == null) {
                     throw new IllegalStateException();
                 }
-                HashSet.this.remove(iteratingTable[current]);
-                current = -1;
+                HashSet.this.remove(current);
+                current = null;
             }
         };
     }
     
     private class HashSetIterator implements Iterator<E> {
         
-        protected final E[] iteratingTable;
+        private E[] iteratingTable;
+        
+        // The old table of a running migration, iterated after the table.
+        @CheckForNull
+        private E[] remainingTable;
         
-        protected int next = -1;
+        private int next = -1;
         
-        protected int current = -1;
+        @CheckForNull
+        protected E current = null;
         
         HashSetIterator() {
             iteratingTable = table;
+            remainingTable = oldTable;
             findNextElement();
         }
         
@@ -327,16 +568,24 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
             if (result == null) {
                 throw new ConcurrentModificationException();
             }
-            current = next;
+            current = result;
             findNextElement();
             return result;
         }
         
         private void findNextElement() {
-            do {
+            while (true) {
                 next++;
-                if (next >= iteratingTable.length) break;
-            } while (iteratingTable[next] == null);
+                if (next < iteratingTable.length) {
+                    if (iteratingTable[next] != null) return;
+                } else if (remainingTable != null) {
+                    iteratingTable = remainingTable;
+                    remainingTable = null;
+                    next = -1;
+                } else {
+                    return;
+                }
+            }
         }
         
     }
@@ -346,15 +595,51 @@ public class HashSet<E> extends AbstractUnOrderedCollection<E> implements Set<E>
         return size;
     }
     
+    @Override
+    public MemoryStats estimateFootprint() {
+        MemoryStats.Builder stats = MemoryStats.newBuilder().addObject(this).addArray(table).addSlots(table.length);
+        if (control != null) {
+            stats.addArray(control.length, 8);
+        } else {
+            stats.addArray(hashPrefix.length, 1);
+        }
+        for (int i = 0; i < table.length; ++i) {
+            if (table[i] != null) {
+                stats.addEntry(probeDistance(i, hash(table[i])));
+            }
+        }
+        if (oldTable != null) {
+            stats.addArray(oldTable).addArray(oldHashPrefix.length, 1).addSlots(oldTable.length);
+            for (int i = 0; i < oldTable.length; ++i) {
+                if (oldTable[i] != null) {
+                    stats.addEntry((i - hash(oldTable[i])) & oldMask);
+                }
+            }
+        }
+        return stats.build();
+    }
+    
+    /**
+     * @return the number of slots, respectively groups, probed after the first one to reach the given {@code index}
+     */
+    private int probeDistance(int index, int hash) {
+        if (control == null) {
+            return (index - hash) & mask;
+        }
+        return ControlGroups.probeDistance(hash, index, mask);
+    }
+    
     @Override
     public E getFirstOrNull() {
         if (isEmpty()) return null;
-        int i = 0;
-        // As the set is non-empty there must be at least one non-null index.
-        while (isEmptyTableIndex(i)) {
-            i++;
+        for (E element: table) {
+            if (element != null) return element;
+        }
+        // The remaining elements have not been migrated yet.
+        for (E element: oldTable) {
+            if (element != null) return element;
         }
-        return table[i];
+        throw Assert.fail("no element found in non-empty set");
     }
     
     public static <E> Builder<E> newBuilder() {
@@ -0,0 +1,29 @@
+package org.povworld.collection.mutable;
+
+/**
+ * Table layouts supported by {@link HashSet} and {@link HashMap}.
+ */
+public enum HashTableLayout {
+    
+    /**
+     * Linear probing over single slots. Uses the least memory for small tables and is the default.
+     */
+    LINEAR_PROBING,
+    
+    /**
+     * Slots are grouped by eight with one control byte per slot holding seven bits of the hash. A lookup
+     * compares the control bytes of a whole group at once and only calls {@link Object#equals(Object)} on
+     * slots with matching bits. Probing visits groups quadratically and stops after the longest displacement
+     * of any contained element. Keeps lookups fast in large tables with many misses.
+     */
+    GROUPED,
+    
+    /**
+     * Linear probing like {@link #LINEAR_PROBING}, but large tables grow incrementally: The old table is kept
+     * and a bounded number of its slots is migrated to the new table with each insertion. Lookups search both
+     * tables until the migration is finished. This bounds the latency of single insertions at the cost of
+     * slower operations while a migration is in progress.
+     */
+    INCREMENTAL_LINEAR_PROBING;
+    
+}
@@ -4,9 +4,8 @@ import org.povworld.collection.Identificator;
 import org.povworld.collection.common.IdentityIdentificator;
 
 public class IdentityHashMap<K, V> extends HashMap<K, V> {
-    @Override
-    public Identificator<? super K> getKeyIdentificator() {
-        return IdentityIdentificator.<K>getInstance();
+    public IdentityHashMap() {
+        super(IdentityIdentificator.<K>getInstance());
     }
     
     @Override
@@ -27,6 +27,14 @@ public final class IndexedHashSet<E> extends AbstractListSetCollection<E> implem
         super(initialCapacity);
     }
     
+    /**
+     * @param setThreshold the size from which on a hash set is used for containment queries, the other
+     *            constructors use 28
+     */
+    public IndexedHashSet(int initialCapacity, int setThreshold) {
+        super(initialCapacity, setThreshold);
+    }
+    
     public boolean add(E element) {
         PreConditions.paramNotNull(element);
         if (contains(element)) {
@@ -60,13 +68,7 @@ public final class IndexedHashSet<E> extends AbstractListSetCollection<E> implem
     }
     
     private E uncheckedSet(int index, E element) {
-        E old = list.set(index, element);
-        if (set != null) {
-            set.remove(old);
-            set.add(element);
-        }
-        modified();
-        return old;
+        return replace(index, element);
     }
     
     // TODO is this faster than CollectionUtil.sort?
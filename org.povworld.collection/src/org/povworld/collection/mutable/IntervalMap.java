@@ -10,6 +10,7 @@ import org.povworld.collection.CollectionUtil;
 import org.povworld.collection.Comparator;
 import org.povworld.collection.EntryIterator;
 import org.povworld.collection.common.Interval;
+import org.povworld.collection.common.IntervalVisitor;
 import org.povworld.collection.common.PreConditions;
 import org.povworld.collection.tree.AbstractAvlTreeNode;
 import org.povworld.collection.tree.AvlTree;
@@ -80,8 +81,9 @@ public class IntervalMap<V> {
         
         @Override
         public int hashCode(IntervalNode<V> node) {
-            // This comparator is never publicly exposed and internally we do not use hash codes.
-            throw new UnsupportedOperationException();
+            // Consistent with compare(): Equal nodes have equal intervals and values which are equal for the value
+            // comparator.
+            return 31 * node.interval.hashCode() + valueComparator.hashCode(node.value);
         }
         
         @Override
@@ -122,6 +124,156 @@ public class IntervalMap<V> {
         return new Overlappers(interval);
     }
     
+    /**
+     * Calls the {@code visitor} for every interval containing the given {@code point} in order of ascending
+     * interval start until the visitor returns false.
+     * 
+     * @return false if the visitor stopped the iteration, true otherwise
+     */
+    public boolean visitOverlappers(int point, IntervalVisitor<? super V> visitor) {
+        return visitOverlappers(tree.getRoot(), point, point + 1, visitor);
+    }
+    
+    /**
+     * Calls the {@code visitor} for every interval overlapping the given {@code interval} in order of ascending
+     * interval start until the visitor returns false.
+     * 
+     * @return false if the visitor stopped the iteration, true otherwise
+     */
+    public boolean visitOverlappers(Interval interval, IntervalVisitor<? super V> visitor) {
+        return visitOverlappers(tree.getRoot(), interval.getStart(), interval.getEnd(), visitor);
+    }
+    
+    private static <V> boolean visitOverlappers(@CheckForNull IntervalNode<V> root, int start, int end,
+            IntervalVisitor<? super V> visitor) {
+        IntervalNode<V> node = root;
+        while (node != null && node.max > start) {
+            if (!visitOverlappers(node.getLeft(), start, end, visitor)) {
+                return false;
+            }
+            Interval interval = node.interval;
+            if (interval.getStart() >= end) {
+                // All nodes in the right sub-tree start even later.
+                return true;
+            }
+            if (interval.getEnd() > start && !visitor.visit(interval.getStart(), interval.getEnd(), node.value)) {
+                return false;
+            }
+            node = node.getRight();
+        }
+        return true;
+    }
+    
+    public int countOverlapping(int point) {
+        return countOverlapping(tree.getRoot(), point, point + 1);
+    }
+    
+    public int countOverlapping(Interval interval) {
+        return countOverlapping(tree.getRoot(), interval.getStart(), interval.getEnd());
+    }
+    
+    private static int countOverlapping(@CheckForNull IntervalNode<?> root, int start, int end) {
+        int count = 0;
+        IntervalNode<?> node = root;
+        while (node != null && node.max > start) {
+            count += countOverlapping(node.getLeft(), start, end);
+            if (node.interval.getStart() >= end) {
+                break;
+            }
+            if (node.interval.getEnd() > start) {
+                count++;
+            }
+            node = node.getRight();
+        }
+        return count;
+    }
+    
+    /**
+     * Calls the {@code visitor} for the interval nearest to the given {@code point}. If the point is
+     * contained in some interval, this is an interval containing the point. Otherwise, it is the interval
+     * with the smallest distance between the point and one of its boundaries. On ties, the interval before the
+     * point is preferred. The return value of the visitor is ignored.
+     * 
+     * @return true if an interval has been visited, false if the map is empty
+     */
+    public boolean visitNearest(int point, IntervalVisitor<? super V> visitor) {
+        IntervalNode<V> before = findMaxEndStartingAtOrBefore(tree.getRoot(), point);
+        IntervalNode<V> after = findFirstStartingAfter(tree.getRoot(), point);
+        IntervalNode<V> nearest;
+        if (before == null) {
+            nearest = after;
+        } else if (after == null) {
+            nearest = before;
+        } else {
+            long distanceBefore = (long)point - before.interval.getEnd() + 1;
+            long distanceAfter = (long)after.interval.getStart() - point;
+            nearest = (distanceBefore <= distanceAfter) ? before : after;
+        }
+        if (nearest == null) {
+            return false;
+        }
+        visitor.visit(nearest.interval.getStart(), nearest.interval.getEnd(), nearest.value);
+        return true;
+    }
+    
+    @CheckForNull
+    private static <V> IntervalNode<V> findMaxEndStartingAtOrBefore(@CheckForNull IntervalNode<V> root, int point) {
+        // Find the maximum end of all intervals starting at or before the point: Those are the
+        // nodes on the search path with start <= point together with their left sub-trees.
+        IntervalNode<V> best = null;
+        int bestEnd = Integer.MIN_VALUE;
+        boolean bestIsSubTree = false;
+        IntervalNode<V> node = root;
+        while (node != null) {
+            if (node.interval.getStart() > point) {
+                node = node.getLeft();
+                continue;
+            }
+            if (best == null || node.interval.getEnd() > bestEnd) {
+                best = node;
+                bestEnd = node.interval.getEnd();
+                bestIsSubTree = false;
+            }
+            IntervalNode<V> left = node.getLeft();
+            if (left != null && left.max > bestEnd) {
+                best = left;
+                bestEnd = left.max;
+                bestIsSubTree = true;
+            }
+            node = node.getRight();
+        }
+        if (!bestIsSubTree) {
+            return best;
+        }
+        // Descend into the sub-tree to locate the node holding the maximum.
+        node = best;
+        while (true) {
+            IntervalNode<V> left = node.getLeft();
+            if (left != null && left.max == bestEnd) {
+                node = left;
+            } else if (node.interval.getEnd() == bestEnd) {
+                return node;
+            } else {
+                node = node.getRight();
+            }
+        }
+    }
+    
+    @CheckForNull
+    private static <V> IntervalNode<V> findFirstStartingAfter(@CheckForNull IntervalNode<V> root, int point) {
+        IntervalNode<V> result = null;
+        IntervalNode<V> node = root;
+        while (node != null) {
+            if (node.interval.getStart() > point) {
+                result = node;
+                node = node.getLeft();
+            } else {
+                node = node.getRight();
+            }
+        }
+        return result;
+    }
+    
     private class Overlappers implements Iterable<V> {
         
         private final Interval interval;
@@ -47,6 +47,17 @@ public class IntrusiveLinkedSequence<L extends IntrusiveLinkedSequence.AbstractL
         link.internalAttach(sentinel, link, sentinel.next);
     }
     
+    /**
+     * Moves the given {@code link} to the back of the list. The link must be already 
+     * part of this collection. 
+     * @pre !isDetached()
+     */
+    public void moveToBack(L link) {
+        PreConditions.paramCheck(link, "Must not be detached!", !link.isDetached());
+        link.internalDetach();
+        link.internalAttach(sentinel.previous, link, sentinel);
+    }
+    
     public static <L extends AbstractLink<L>> Builder<L> newBuilder() {
         return new Builder<>();
     }
@@ -0,0 +1,430 @@
+package org.povworld.collection.mutable;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.CheckReturnValue;
+
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.Comparator;
+import org.povworld.collection.EntryIterator;
+import org.povworld.collection.common.LongInterval;
+import org.povworld.collection.common.LongIntervalVisitor;
+import org.povworld.collection.common.PreConditions;
+import org.povworld.collection.tree.AbstractAvlTreeNode;
+import org.povworld.collection.tree.AvlTree;
+import org.povworld.collection.tree.AvlTreeNode;
+import org.povworld.collection.tree.TreeUtil;
+
+/**
+ * Variant of {@link IntervalMap} for intervals with {@code long} boundaries.
+ *
+ * @param <V> the value type
+ */
+public class LongIntervalMap<V> {
+    
+    private static final class IntervalNode<V> extends AbstractAvlTreeNode<IntervalNode<V>> {
+        final LongInterval interval;
+        final V value;
+        long max;
+        
+        IntervalNode(LongInterval interval, V value) {
+            super(null, null);
+            this.interval = interval;
+            this.value = value;
+            max = interval.getEnd();
+        }
+        
+        @Override
+        public void setLeft(IntervalNode<V> left) {
+            super.setLeft(left);
+            updateMax();
+        }
+        
+        @Override
+        public void setRight(IntervalNode<V> right) {
+            super.setRight(right);
+            updateMax();
+        }
+        
+        private void updateMax() {
+            max = Math.max(interval.getEnd(), getMax(left, right));
+        }
+    }
+    
+    private static long getMax(@CheckForNull IntervalNode<?> left, @CheckForNull IntervalNode<?> right) {
+        if (left == null) {
+            if (right == null) {
+                return Long.MIN_VALUE;
+            }
+            return right.max;
+        }
+        if (right == null) {
+            return left.max;
+        }
+        return Math.max(left.max, right.max);
+    }
+    
+    private static class KeyValueComparator<V> implements Comparator<IntervalNode<V>> {
+        private final Comparator<? super V> valueComparator;
+        
+        KeyValueComparator(Comparator<? super V> valueComparator) {
+            this.valueComparator = valueComparator;
+        }
+        
+        @Override
+        public boolean isIdentifiable(Object object) {
+            return object instanceof IntervalNode;
+        }
+        
+        @Override
+        public boolean equals(IntervalNode<V> node1, IntervalNode<V> node2) {
+            return compare(node1, node2) == 0;
+        }
+        
+        @Override
+        public int hashCode(IntervalNode<V> node) {
+            // Consistent with compare(): Equal nodes have equal intervals and values which are equal for the value
+            // comparator.
+            return 31 * node.interval.hashCode() + valueComparator.hashCode(node.value);
+        }
+        
+        @Override
+        public int compare(IntervalNode<V> node1, IntervalNode<V> node2) {
+            int cmp = compare(node1.interval, node2.interval);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return valueComparator.compare(node1.value, node2.value);
+        }
+        
+        private static int compare(LongInterval interval1, LongInterval interval2) {
+            if (interval1.getStart() != interval2.getStart()) {
+                return Long.compare(interval1.getStart(), interval2.getStart());
+            }
+            // Compare the end in reverse order:
+            return Long.compare(interval2.getEnd(), interval1.getEnd());
+        }
+    }
+    
+    private final AvlTree<IntervalNode<V>, IntervalNode<V>> tree;
+    private int size = 0;
+    
+    public LongIntervalMap(Comparator<? super V> valueComparator) {
+        this.tree = AvlTree.<IntervalNode<V>>create(new KeyValueComparator<>(valueComparator));
+    }
+    
+    public static <V extends Comparable<V>> LongIntervalMap<V> create(Class<V> clazz) {
+        return new LongIntervalMap<>(CollectionUtil.getDefaultComparator(clazz));
+    }
+    
+    public Iterable<V> getOverlappers(long point) {
+        return getOverlappers(new LongInterval(point, point + 1));
+    }
+    
+    public Iterable<V> getOverlappers(LongInterval interval) {
+        return new Overlappers(interval);
+    }
+    
+    /**
+     * Calls the {@code visitor} for every interval containing the given {@code point} in order of ascending
+     * interval start until the visitor returns false.
+     * 
+     * @return false if the visitor stopped the iteration, true otherwise
+     */
+    public boolean visitOverlappers(long point, LongIntervalVisitor<? super V> visitor) {
+        return visitOverlappers(tree.getRoot(), point, point + 1, visitor);
+    }
+    
+    /**
+     * Calls the {@code visitor} for every interval overlapping the given {@code interval} in order of ascending
+     * interval start until the visitor returns false.
+     * 
+     * @return false if the visitor stopped the iteration, true otherwise
+     */
+    public boolean visitOverlappers(LongInterval interval, LongIntervalVisitor<? super V> visitor) {
+        return visitOverlappers(tree.getRoot(), interval.getStart(), interval.getEnd(), visitor);
+    }
+    
+    private static <V> boolean visitOverlappers(@CheckForNull IntervalNode<V> root, long start, long end,
+            LongIntervalVisitor<? super V> visitor) {
+        IntervalNode<V> node = root;
+        while (node != null && node.max > start) {
+            if (!visitOverlappers(node.getLeft(), start, end, visitor)) {
+                return false;
+            }
+            LongInterval interval = node.interval;
+            if (interval.getStart() >= end) {
+                // All nodes in the right sub-tree start even later.
+                return true;
+            }
+            if (interval.getEnd() > start && !visitor.visit(interval.getStart(), interval.getEnd(), node.value)) {
+                return false;
+            }
+            node = node.getRight();
+        }
+        return true;
+    }
+    
+    public int countOverlapping(long point) {
+        return countOverlapping(tree.getRoot(), point, point + 1);
+    }
+    
+    public int countOverlapping(LongInterval interval) {
+        return countOverlapping(tree.getRoot(), interval.getStart(), interval.getEnd());
+    }
+    
+    private static int countOverlapping(@CheckForNull IntervalNode<?> root, long start, long end) {
+        int count = 0;
+        IntervalNode<?> node = root;
+        while (node != null && node.max > start) {
+            count += countOverlapping(node.getLeft(), start, end);
+            if (node.interval.getStart() >= end) {
+                break;
+            }
+            if (node.interval.getEnd() > start) {
+                count++;
+            }
+            node = node.getRight();
+        }
+        return count;
+    }
+    
+    /**
+     * Calls the {@code visitor} for the interval nearest to the given {@code point}. If the point is
+     * contained in some interval, this is an interval containing the point. Otherwise, it is the interval
+     * with the smallest distance between the point and one of its boundaries. On ties, the interval before the
+     * point is preferred. The return value of the visitor is ignored.
+     * 
+     * @return true if an interval has been visited, false if the map is empty
+     */
+    public boolean visitNearest(long point, LongIntervalVisitor<? super V> visitor) {
+        IntervalNode<V> before = findMaxEndStartingAtOrBefore(tree.getRoot(), point);
+        IntervalNode<V> after = findFirstStartingAfter(tree.getRoot(), point);
+        IntervalNode<V> nearest;
+        if (before == null) {
+            nearest = after;
+        } else if (after == null || before.interval.getEnd() > point) {
+            nearest = before;
+        } else {
+            // Both distances (reduced by one) are non-negative but may exceed Long.MAX_VALUE.
+            long distanceBefore = point - before.interval.getEnd();
+            long distanceAfter = after.interval.getStart() - point - 1;
+            nearest = (Long.compareUnsigned(distanceBefore, distanceAfter) <= 0) ? before : after;
+        }
+        if (nearest == null) {
+            return false;
+        }
+        visitor.visit(nearest.interval.getStart(), nearest.interval.getEnd(), nearest.value);
+        return true;
+    }
+    
+    @CheckForNull
+    private static <V> IntervalNode<V> findMaxEndStartingAtOrBefore(@CheckForNull IntervalNode<V> root, long point) {
+        // Find the maximum end of all intervals starting at or before the point: Those are the
+        // nodes on the search path with start <= point together with their left sub-trees.
+        IntervalNode<V> best = null;
+        long bestEnd = Long.MIN_VALUE;
+        boolean bestIsSubTree = false;
+        IntervalNode<V> node = root;
+        while (node != null) {
+            if (node.interval.getStart() > point) {
+                node = node.getLeft();
+                continue;
+            }
+            if (best == null || node.interval.getEnd() > bestEnd) {
+                best = node;
+                bestEnd = node.interval.getEnd();
+                bestIsSubTree = false;
+            }
+            IntervalNode<V> left = node.getLeft();
+            if (left != null && left.max > bestEnd) {
+                best = left;
+                bestEnd = left.max;
+                bestIsSubTree = true;
+            }
+            node = node.getRight();
+        }
+        if (!bestIsSubTree) {
+            return best;
+        }
+        // Descend into the sub-tree to locate the node holding the maximum.
+        node = best;
+        while (true) {
+            IntervalNode<V> left = node.getLeft();
+            if (left != null && left.max == bestEnd) {
+                node = left;
+            } else if (node.interval.getEnd() == bestEnd) {
+                return node;
+            } else {
+                node = node.getRight();
+            }
+        }
+    }
+    
+    @CheckForNull
+    private static <V> IntervalNode<V> findFirstStartingAfter(@CheckForNull IntervalNode<V> root, long point) {
+        IntervalNode<V> result = null;
+        IntervalNode<V> node = root;
+        while (node != null) {
+            if (node.interval.getStart() > point) {
+                result = node;
+                node = node.getLeft();
+            } else {
+                node = node.getRight();
+            }
+        }
+        return result;
+    }
+    
+    private class Overlappers implements Iterable<V> {
+        
+        private final LongInterval interval;
+        
+        public Overlappers(LongInterval interval) {
+            this.interval = interval;
+        }
+        
+        @Override
+        public Iterator<V> iterator() {
+            return new OverlapperIterator<>(interval, tree.getRoot());
+        }
+    }
+    
+    private static class OverlapperIterator<V> implements Iterator<V> {
+        // Invariant: The left subtrees of the stack top has already been visited
+        private final LongInterval interval;
+        private final ArrayList<IntervalNode<V>> stack;
+        
+        public OverlapperIterator(LongInterval interval, @CheckForNull IntervalNode<V> root) {
+            this.stack = new ArrayList<>(AvlTreeNode.getHeight(root));
+            this.interval = interval;
+            pushLeftSubTrees(root);
+            findNext();
+        }
+        
+        @CheckForNull
+        private V current = null;
+        
+        private boolean needsVisiting(@CheckForNull IntervalNode<V> subTree) {
+            return subTree != null && subTree.max > interval.getStart();
+        }
+        
+        private void pushLeftSubTrees(@CheckForNull IntervalNode<V> root) {
+            IntervalNode<V> subTree = root;
+            while (needsVisiting(subTree)) {
+                stack.push(subTree);
+                subTree = subTree.getLeft();
+            }
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return current != null;
+        }
+        
+        private void findNext() {
+            current = null;
+            while (!stack.isEmpty() && current == null) {
+                IntervalNode<V> subTree = stack.peek();
+                if (subTree.interval.overlaps(interval)) {
+                    current = subTree.value;
+                }
+                if (!needsVisiting(subTree.getRight())) {
+                    do {
+                        subTree = stack.pop();
+                        if (stack.isEmpty()) {
+                            return;
+                        }
+                    } while (subTree == stack.peek().getRight());
+                } else {
+                    pushLeftSubTrees(subTree.getRight());
+                    // We could check following more often to strictly avoid visiting any node that 
+                    // starts after the search interval. But it is more efficient to do this here only.
+                    if (stack.peek().interval.getStart() >= interval.getEnd()) {
+                        stack.clear();
+                    }
+                }
+            }
+        }
+        
+        @Override
+        public V next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            V result = current;
+            findNext();
+            return result;
+        }
+        
+    }
+    
+    private static class IntervalEntryIterator<V> implements EntryIterator<LongInterval, V> {
+        
+        private final Iterator<IntervalNode<V>> subTreeIterator;
+        
+        public IntervalEntryIterator(@CheckForNull IntervalNode<V> root) {
+            subTreeIterator = TreeUtil.iterateNodes(root);
+        }
+        
+        @CheckForNull
+        private IntervalNode<V> current = null;
+        
+        @Override
+        public boolean next() {
+            if (!subTreeIterator.hasNext()) {
+                return false;
+            }
+            current = subTreeIterator.next();
+            return true;
+        }
+        
+        @Override
+        public LongInterval getCurrentKey() throws NoSuchElementException {
+            if (current == null) {
+                throw new NoSuchElementException();
+            }
+            return current.interval;
+        }
+        
+        @Override
+        public V getCurrentValue() throws NoSuchElementException {
+            if (current == null) {
+                throw new NoSuchElementException();
+            }
+            return current.value;
+        }
+    }
+    
+    @CheckReturnValue
+    public EntryIterator<LongInterval, V> entryIterator() {
+        return new IntervalEntryIterator<V>(tree.getRoot());
+    }
+    
+    public boolean add(LongInterval interval, V value) {
+        PreConditions.paramNotNull(value);
+        if (!tree.insertIfNotPresent(new IntervalNode<>(interval, value))) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+    
+    public boolean remove(LongInterval interval, V value) {
+        if (tree.remove(new IntervalNode<>(interval, value)) == null) {
+            return false; 
+        }
+        size--;
+        return true;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
@@ -17,7 +17,9 @@ import org.povworld.collection.common.Assert;
 import org.povworld.collection.common.PreConditions;
 
 /**
- * Map that keeps insertion order of values.
+ * Map that keeps insertion order of values. Optionally, the map keeps the access order instead, where
+ * each {@link #get(Object)} and {@link #put(Object, Object)} moves the accessed entry to the back. In 
+ * this mode the first key is always the least recently used one.
  * 
  * @param <K> the key type
  * @param <V> the value type
@@ -42,13 +44,23 @@ public class OrderedHashMap<K, V> extends AbstractMap<K, V> {
     
     private IntrusiveLinkedSequence<Link<K, V>> linkedList;
     
+    private final boolean accessOrder;
+    
     public OrderedHashMap() {
         this(DEFAULT_INITIAL_SIZE);
     }
     
     public OrderedHashMap(int initialSize) {
+        this(initialSize, false);
+    }
+    
+    /**
+     * @param accessOrder true to keep the entries in access order, false to keep them in insertion order
+     */
+    public OrderedHashMap(int initialSize, boolean accessOrder) {
         linkedList = new IntrusiveLinkedSequence<>();
         map = new HashMap<>(initialSize);
+        this.accessOrder = accessOrder;
     }
     
     public void put(K key, V value) {
@@ -56,6 +68,9 @@ public class OrderedHashMap<K, V> extends AbstractMap<K, V> {
         Link<K, V> link = map.get(key);
         if (link != null) {
             link.value = value;
+            if (accessOrder) {
+                linkedList.moveToBack(link);
+            }
         } else {
             link = new Link<>(key, value);
             map.put(key, link);
@@ -71,7 +86,31 @@ public class OrderedHashMap<K, V> extends AbstractMap<K, V> {
     @CheckForNull
     public V get(K key) {
         Link<K, V> link = map.get(key);
-        return (link == null) ? null : link.value;
+        if (link == null) {
+            return null;
+        }
+        if (accessOrder) {
+            linkedList.moveToBack(link);
+        }
+        return link.value;
+    }
+    
+    /**
+     * Removes the {@code key} from the map.
+     * @return the value previously associated with the key or {@code null} if the key was not present
+     */
+    @CheckForNull
+    public V remove(K key) {
+        Link<K, V> link = map.remove(key);
+        if (link == null) {
+            return null;
+        }
+        linkedList.remove(link);
+        return link.value;
+    }
+    
+    public boolean isAccessOrder() {
+        return accessOrder;
     }
     
     /**
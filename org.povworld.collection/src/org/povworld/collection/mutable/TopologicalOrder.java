@@ -0,0 +1,386 @@
+package org.povworld.collection.mutable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.povworld.collection.common.AbstractOrderedCollection;
+import org.povworld.collection.common.Assert;
+import org.povworld.collection.common.PreConditions;
+import org.povworld.collection.common.TopologySorter;
+import org.povworld.collection.common.TopologySorter.CyclicTopologyException;
+
+/**
+ * Directed acyclic graph whose elements are kept in topological order while edges are added and removed.
+ * <p>
+ * Iterating the collection yields every parent before all of its children. Adding an edge which would
+ * close a cycle is rejected with a {@link CyclicTopologyException}.
+ * <p>
+ * Uses the algorithm of Pearce and Kelly: If a new edge contradicts the current order, only the elements
+ * positioned between the child and the parent which are reachable from the child, respectively reach the
+ * parent, are reordered. All other elements keep their positions. Removing edges never changes the order.
+ * Removed elements leave a gap in the order which is compacted once there are more gaps than elements.
+ * <p>
+ * Use the {@link TopologySorter} for sorting a static graph given by a {@link TopologySorter.Topology}.
+ *
+ * @param <E> the element type
+ */
+@NotThreadSafe
+public class TopologicalOrder<E> extends AbstractOrderedCollection<E> {
+    
+    private static final int INITIAL_CAPACITY = 16;
+    
+    private static final class Node<E> {
+        private final E element;
+        
+        private int position;
+        
+        private final HashSet<Node<E>> parents = new HashSet<>();
+        
+        private final HashSet<Node<E>> children = new HashSet<>();
+        
+        // Search state, valid if visit equals the current visit number.
+        private int visit = 0;
+        
+        @CheckForNull
+        private Node<E> via = null;
+        
+        Node(E element, int position) {
+            this.element = element;
+            this.position = position;
+        }
+    }
+    
+    private final HashMap<E, Node<E>> nodes = new HashMap<>();
+    
+    // Nodes by position, removed nodes leave a null gap.
+    private Node<E>[] order;
+    
+    private int end = 0;
+    
+    private int visit = 0;
+    
+    public TopologicalOrder() {
+        order = newNodeArray(INITIAL_CAPACITY);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <E> Node<E>[] newNodeArray(int length) {
+        return (Node<E>[])new Node<?>[length];
+    }
+    
+    @Override
+    public int size() {
+        return nodes.keyCount();
+    }
+    
+    public boolean contains(E element) {
+        return nodes.containsKey(element);
+    }
+    
+    /**
+     * Adds the given element without any edges after all other elements.
+     *
+     * @return false if the element was already contained
+     */
+    public boolean add(E element) {
+        PreConditions.paramNotNull(element);
+        if (nodes.containsKey(element)) {
+            return false;
+        }
+        getOrAddNode(element);
+        return true;
+    }
+    
+    private Node<E> getOrAddNode(E element) {
+        Node<E> node = nodes.get(element);
+        if (node == null) {
+            if (end == order.length) {
+                if (2 * nodes.keyCount() < end) {
+                    compact();
+                } else {
+                    order = Arrays.copyOf(order, 2 * order.length);
+                }
+            }
+            node = new Node<>(element, end);
+            order[end++] = node;
+            nodes.put(element, node);
+        }
+        return node;
+    }
+    
+    /**
+     * Removes the given element and all its edges.
+     *
+     * @return false if the element was not contained
+     */
+    public boolean remove(E element) {
+        Node<E> node = nodes.remove(element);
+        if (node == null) {
+            return false;
+        }
+        for (Node<E> parent: node.parents) {
+            parent.children.remove(node);
+        }
+        for (Node<E> child: node.children) {
+            child.parents.remove(node);
+        }
+        order[node.position] = null;
+        while (end > 0 && order[end - 1] == null) {
+            end--;
+        }
+        return true;
+    }
+    
+    private void compact() {
+        int position = 0;
+        for (int i = 0; i < end; ++i) {
+            Node<E> node = order[i];
+            if (node != null) {
+                node.position = position;
+                order[position++] = node;
+            }
+        }
+        Arrays.fill(order, position, end, null);
+        end = position;
+    }
+    
+    public boolean containsEdge(E parent, E child) {
+        Node<E> parentNode = nodes.get(parent);
+        Node<E> childNode = nodes.get(child);
+        return parentNode != null && childNode != null && parentNode.children.contains(childNode);
+    }
+    
+    /**
+     * Adds an edge from {@code parent} to {@code child}, adding the elements if they are not contained yet.
+     * Afterwards, the {@code parent} comes before the {@code child} in the order.
+     *
+     * @return false if the edge was already contained
+     * @throws CyclicTopologyException if the child is an ancestor of the parent, the graph remains unchanged in
+     *             this case
+     */
+    public boolean addEdge(E parent, E child) {
+        PreConditions.paramNotNull(parent);
+        PreConditions.paramNotNull(child);
+        if (nodes.getKeyIdentificator().equals(parent, child)) {
+            throw new CyclicTopologyException(ArrayList.of(ArrayList.of(parent)));
+        }
+        Node<E> parentNode = getOrAddNode(parent);
+        Node<E> childNode = getOrAddNode(child);
+        if (parentNode.children.contains(childNode)) {
+            return false;
+        }
+        if (childNode.position < parentNode.position) {
+            reorder(parentNode, childNode);
+        }
+        parentNode.children.add(childNode);
+        childNode.parents.add(parentNode);
+        return true;
+    }
+    
+    /**
+     * Removes the edge from {@code parent} to {@code child}. The order is not changed.
+     *
+     * @return false if there was no such edge
+     */
+    public boolean removeEdge(E parent, E child) {
+        Node<E> parentNode = nodes.get(parent);
+        Node<E> childNode = nodes.get(child);
+        if (parentNode == null || childNode == null || !parentNode.children.remove(childNode)) {
+            return false;
+        }
+        childNode.parents.remove(parentNode);
+        return true;
+    }
+    
+    /**
+     * Moves the descendants of {@code child} and the ancestors of {@code parent} which lie between the two
+     * positions such that the ancestors come first, reusing the positions of both sets.
+     */
+    private void reorder(Node<E> parent, Node<E> child) {
+        int lowerBound = child.position;
+        int upperBound = parent.position;
+        visit++;
+        
+        ArrayList<Node<E>> forward = new ArrayList<>();
+        ArrayList<Node<E>> stack = new ArrayList<>();
+        child.visit = visit;
+        child.via = null;
+        stack.push(child);
+        while (!stack.isEmpty()) {
+            Node<E> node = stack.pop();
+            forward.push(node);
+            for (Node<E> next: node.children) {
+                if (next == parent) {
+                    next.via = node;
+                    throw new CyclicTopologyException(ArrayList.of(cyclePath(parent)));
+                }
+                if (next.visit != visit && next.position < upperBound) {
+                    next.visit = visit;
+                    next.via = node;
+                    stack.push(next);
+                }
+            }
+        }
+        
+        ArrayList<Node<E>> backward = new ArrayList<>();
+        parent.visit = visit;
+        stack.push(parent);
+        while (!stack.isEmpty()) {
+            Node<E> node = stack.pop();
+            backward.push(node);
+            for (Node<E> previous: node.parents) {
+                // Ancestors of the parent cannot be descendants of the child, otherwise there would be a cycle.
+                if (previous.visit != visit && previous.position > lowerBound) {
+                    previous.visit = visit;
+                    stack.push(previous);
+                }
+            }
+        }
+        
+        Node<E>[] backwardNodes = sortByPosition(backward);
+        Node<E>[] forwardNodes = sortByPosition(forward);
+        int[] positions = new int[backwardNodes.length + forwardNodes.length];
+        int count = 0;
+        for (Node<E> node: backwardNodes) {
+            positions[count++] = node.position;
+        }
+        for (Node<E> node: forwardNodes) {
+            positions[count++] = node.position;
+        }
+        Arrays.sort(positions);
+        count = 0;
+        for (Node<E> node: backwardNodes) {
+            place(node, positions[count++]);
+        }
+        for (Node<E> node: forwardNodes) {
+            place(node, positions[count++]);
+        }
+    }
+    
+    private void place(Node<E> node, int position) {
+        node.position = position;
+        order[position] = node;
+    }
+    
+    private Node<E>[] sortByPosition(ArrayList<Node<E>> list) {
+        Node<E>[] array = newNodeArray(list.size());
+        int i = 0;
+        for (Node<E> node: list) {
+            array[i++] = node;
+        }
+        Arrays.sort(array, (node1, node2) -> Integer.compare(node1.position, node2.position));
+        return array;
+    }
+    
+    /**
+     * @return the elements from the child of the rejected edge to the given parent following the search path
+     */
+    private ArrayList<E> cyclePath(Node<E> parent) {
+        ArrayList<E> reversed = new ArrayList<>();
+        for (Node<E> node = parent; node != null; node = node.via) {
+            reversed.push(node.element);
+        }
+        ArrayList<E> path = new ArrayList<>(reversed.size());
+        for (int i = reversed.size() - 1; i >= 0; --i) {
+            path.push(reversed.get(i));
+        }
+        return path;
+    }
+    
+    /**
+     * @return true if {@code element1} comes before {@code element2} in the current order
+     */
+    public boolean isBefore(E element1, E element2) {
+        Node<E> node1 = nodes.get(element1);
+        Node<E> node2 = nodes.get(element2);
+        PreConditions.conditionCheck("element not contained", node1 != null && node2 != null);
+        return node1.position < node2.position;
+    }
+    
+    @Override
+    @CheckForNull
+    public E getFirstOrNull() {
+        for (int i = 0; i < end; ++i) {
+            if (order[i] != null) {
+                return order[i].element;
+            }
+        }
+        return null;
+    }
+    
+    @Override
+    @CheckForNull
+    public E getLastOrNull() {
+        return (end == 0) ? null : order[end - 1].element;
+    }
+    
+    @Override
+    public Iterator<E> iterator() {
+        return new OrderIterator(true);
+    }
+    
+    @Override
+    public Iterator<E> reverseIterator() {
+        return new OrderIterator(false);
+    }
+    
+    private final class OrderIterator implements Iterator<E> {
+        private final boolean forward;
+        
+        private int position;
+        
+        OrderIterator(boolean forward) {
+            this.forward = forward;
+            this.position = forward ? 0 : end - 1;
+            skipGaps();
+        }
+        
+        private void skipGaps() {
+            while (position >= 0 && position < end && order[position] == null) {
+                position += forward ? 1 : -1;
+            }
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return position >= 0 && position < end;
+        }
+        
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            E element = order[position].element;
+            position += forward ? 1 : -1;
+            skipGaps();
+            return element;
+        }
+    }
+    
+    /**
+     * For test-purposes only.
+     */
+    public void checkInvariants() {
+        int count = 0;
+        for (int i = 0; i < end; ++i) {
+            Node<E> node = order[i];
+            if (node == null) {
+                continue;
+            }
+            count++;
+            Assert.assertEquals(i, node.position);
+            Assert.assertTrue(nodes.get(node.element) == node, "node not in map");
+            for (Node<E> child: node.children) {
+                Assert.assertTrue(node.position < child.position, "child before parent");
+                Assert.assertTrue(child.parents.contains(node), "missing back link");
+            }
+        }
+        Assert.assertEquals(size(), count);
+        Assert.assertTrue(end == 0 || order[end - 1] != null, "gap at the end");
+    }
+}
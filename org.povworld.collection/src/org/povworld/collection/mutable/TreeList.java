@@ -13,6 +13,8 @@ import org.povworld.collection.Container;
 import org.povworld.collection.List;
 import org.povworld.collection.common.AbstractCollectionBuilder;
 import org.povworld.collection.common.AbstractOrderedCollection;
+import org.povworld.collection.common.MemoryMeasurable;
+import org.povworld.collection.common.MemoryStats;
 import org.povworld.collection.common.PreConditions;
 import org.povworld.collection.tree.AbstractAvlTreeNode;
 import org.povworld.collection.tree.AvlTreeUtil;
@@ -32,7 +34,7 @@ import org.povworld.collection.tree.TreeUtil;
  * @param <E> the element type
  */
 @NotThreadSafe
-public class TreeList<E> extends AbstractOrderedCollection<E> implements Container<E>, List<E> {
+public class TreeList<E> extends AbstractOrderedCollection<E> implements Container<E>, List<E>, MemoryMeasurable {
     
     /**
      * Tree nodes used for storing the elements according to their index.
@@ -419,6 +421,21 @@ public class TreeList<E> extends AbstractOrderedCollection<E> implements Contain
         return size;
     }
     
+    /**
+     * The depths are the ones in the index tree. Each node of the index tree has a node in the tree of its
+     * element, these trees are looked up in a {@link HashMap}.
+     */
+    @Override
+    public MemoryStats estimateFootprint() {
+        MemoryStats.Builder stats = MemoryStats.newBuilder().addObject(this).addTree(indexTree, 0)
+                .addRetained(elementIndexTreeNodeMap.estimateFootprint());
+        Iterator<TreeListNode<E>> nodes = TreeUtil.iterateNodes(indexTree);
+        while (nodes.hasNext()) {
+            stats.addObject(nodes.next().getElementIndexTreeNode());
+        }
+        return stats.build();
+    }
+    
     @Override
     public boolean contains(E element) {
         return elementIndexTreeNodeMap.containsKey(element);
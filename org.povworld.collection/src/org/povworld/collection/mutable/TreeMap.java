@@ -14,6 +14,8 @@ import org.povworld.collection.Map;
 import org.povworld.collection.OrderedSet;
 import org.povworld.collection.common.AbstractMap;
 import org.povworld.collection.common.AbstractOrderedCollection;
+import org.povworld.collection.common.MemoryMeasurable;
+import org.povworld.collection.common.MemoryStats;
 import org.povworld.collection.common.PreConditions;
 import org.povworld.collection.tree.AbstractAvlTreeNode;
 import org.povworld.collection.tree.AvlTree;
@@ -32,7 +34,7 @@ import org.povworld.collection.tree.TreeUtil;
  * @param <V>
  *            value type
  */
-public class TreeMap<K, V> extends AbstractMap<K, V> {
+public class TreeMap<K, V> extends AbstractMap<K, V> implements MemoryMeasurable {
     
     private static class TreeMapNode<K, V> extends AbstractAvlTreeNode<TreeMapNode<K, V>> {
         
@@ -99,6 +101,11 @@ public class TreeMap<K, V> extends AbstractMap<K, V> {
         return entries;
     }
     
+    @Override
+    public MemoryStats estimateFootprint() {
+        return MemoryStats.newBuilder().addObject(this).addObject(tree).addTree(tree.getRoot(), 0).build();
+    }
+    
     @Override
     public boolean isEmpty() {
         return entries == 0;
@@ -13,6 +13,8 @@ import org.povworld.collection.Identificator;
 import org.povworld.collection.OrderedSet;
 import org.povworld.collection.common.AbstractCollectionBuilder;
 import org.povworld.collection.common.AbstractOrderedCollection;
+import org.povworld.collection.common.MemoryMeasurable;
+import org.povworld.collection.common.MemoryStats;
 import org.povworld.collection.common.PreConditions;
 import org.povworld.collection.tree.AvlTree;
 import org.povworld.collection.tree.ElementTreeNode;
@@ -22,7 +24,7 @@ import org.povworld.collection.tree.ElementTreeNode;
  *
  * @param <E> element type
  */
-public class TreeSet<E> extends AbstractOrderedCollection<E> implements OrderedSet<E> {
+public class TreeSet<E> extends AbstractOrderedCollection<E> implements OrderedSet<E>, MemoryMeasurable {
     
     private final Identificator<? super E> identificator;
     private final AvlTree<E, ElementTreeNode<E>> tree;
@@ -60,6 +62,11 @@ public class TreeSet<E> extends AbstractOrderedCollection<E> implements OrderedS
         return size;
     }
     
+    @Override
+    public MemoryStats estimateFootprint() {
+        return MemoryStats.newBuilder().addObject(this).addObject(tree).addTree(tree.getRoot(), 0).build();
+    }
+    
     @Override
     @CheckForNull
     public E getFirstOrNull() {
@@ -2,9 +2,11 @@ package org.povworld.collection.persistent;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
 
 import org.povworld.collection.tree.AbstractAvlTreeBuilder;
 import org.povworld.collection.tree.AbstractImmutableAvlTreeNode;
+import org.povworld.collection.tree.AvlTreeNode;
 import org.povworld.collection.tree.ImmutableTreeMapNode;
 import org.povworld.collection.tree.ImmutableTreeNode;
 
@@ -17,17 +19,51 @@ import org.povworld.collection.tree.ImmutableTreeNode;
 class AvlTreeMapBuilder<K, V> extends AbstractAvlTreeBuilder<AvlTreeMapBuilder.AvlTreeMapNode<K, V>> implements
         TreeMapBuilder<K, V, AvlTreeMapBuilder.AvlTreeMapNode<K, V>> {
     
+    private static final AvlTreeMapBuilder<?, ?> EDITING = new AvlTreeMapBuilder<Object, Object>(true);
+    
+    private final boolean editing;
+    
+    AvlTreeMapBuilder() {
+        this(false);
+    }
+    
+    private AvlTreeMapBuilder(boolean editing) {
+        this.editing = editing;
+    }
+    
     @Override
     public AvlTreeMapNode<K, V> createSubTree(AvlTreeMapNode<K, V> left,
             AvlTreeMapNode<K, V> top, AvlTreeMapNode<K, V> right) {
+        if (editing && (top instanceof EditableAvlTreeMapNode)) {
+            ((EditableAvlTreeMapNode<K, V>)top).setChildren(left, right);
+            return top;
+        }
         return createNode(left, right, top.key, top.value);
     }
     
     @Override
     public AvlTreeMapNode<K, V> createNode(AvlTreeMapNode<K, V> left, AvlTreeMapNode<K, V> right, K key, V value) {
+        if (editing) {
+            return new EditableAvlTreeMapNode<K, V>(key, value, left, right);
+        }
         return new AvlTreeMapNode<K, V>(key, value, left, right);
     }
     
+    @SuppressWarnings("unchecked")
+    @Override
+    public TreeMapBuilder<K, V, AvlTreeMapNode<K, V>> editing() {
+        return (AvlTreeMapBuilder<K, V>)EDITING;
+    }
+    
+    @Override
+    @CheckForNull
+    public AvlTreeMapNode<K, V> freeze(@CheckForNull AvlTreeMapNode<K, V> tree) {
+        if (!(tree instanceof EditableAvlTreeMapNode)) {
+            return tree;
+        }
+        return new AvlTreeMapNode<K, V>(tree.key, tree.value, freeze(tree.getLeft()), freeze(tree.getRight()));
+    }
+    
     /**
      * AVL implementation of {@link ImmutableTreeNode} that has a key and a value in each node.
      */
@@ -46,33 +82,66 @@ class AvlTreeMapBuilder<K, V> extends AbstractAvlTreeBuilder<AvlTreeMapBuilder.A
         }
         
         @Override
-        public AvlTreeMapNode<K, V> getLeft() {
-            return left;
+        public K getKey() {
+            return key;
         }
         
         @Override
-        public AvlTreeMapNode<K, V> getRight() {
-            return right;
+        public V getValue() {
+            return value;
         }
         
         @Override
-        public int getHeight() {
-            return height;
+        public String toString() {
+            return "[" + getLeft() + "," + key + "=" + value + "," + getRight() + "]";
+        }
+    }
+    
+    /**
+     * Node of an edit session whose children are replaced in place. It is only reachable from the editor and
+     * {@link AvlTreeMapBuilder#freeze(AvlTreeMapNode)} copies it into an immutable node before the tree is shared.
+     */
+    @NotThreadSafe
+    private static final class EditableAvlTreeMapNode<K, V> extends AvlTreeMapNode<K, V> {
+        
+        @CheckForNull
+        private AvlTreeMapNode<K, V> editableLeft;
+        
+        @CheckForNull
+        private AvlTreeMapNode<K, V> editableRight;
+        
+        private int editableHeight;
+        
+        private EditableAvlTreeMapNode(K key, V value, @CheckForNull AvlTreeMapNode<K, V> left,
+                @CheckForNull AvlTreeMapNode<K, V> right) {
+            super(key, value, null, null);
+            setChildren(left, right);
+        }
+        
+        void setChildren(@CheckForNull AvlTreeMapNode<K, V> left, @CheckForNull AvlTreeMapNode<K, V> right) {
+            this.editableLeft = left;
+            this.editableRight = right;
+            this.editableHeight = Math.max(AvlTreeNode.getHeight(left), AvlTreeNode.getHeight(right)) + 1;
         }
         
         @Override
-        public K getKey() {
-            return key;
+        public AvlTreeMapNode<K, V> getLeft() {
+            return editableLeft;
         }
         
         @Override
-        public V getValue() {
-            return value;
+        public AvlTreeMapNode<K, V> getRight() {
+            return editableRight;
         }
         
         @Override
-        public String toString() {
-            return "[" + left + "," + key + "=" + value + "," + right + "]";
+        public int getHeight() {
+            return editableHeight;
+        }
+        
+        @Override
+        public int getBalance() {
+            return AvlTreeNode.getHeight(editableRight) - AvlTreeNode.getHeight(editableLeft);
         }
     }
 }
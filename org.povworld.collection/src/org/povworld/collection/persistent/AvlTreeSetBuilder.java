@@ -2,10 +2,12 @@ package org.povworld.collection.persistent;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
 
 import org.povworld.collection.common.PreConditions;
 import org.povworld.collection.tree.AbstractAvlTreeBuilder;
 import org.povworld.collection.tree.AbstractImmutableAvlTreeNode;
+import org.povworld.collection.tree.AvlTreeNode;
 import org.povworld.collection.tree.ImmutableTreeSetNode;
 
 /**
@@ -16,16 +18,53 @@ import org.povworld.collection.tree.ImmutableTreeSetNode;
 class AvlTreeSetBuilder<E> extends AbstractAvlTreeBuilder<AvlTreeSetBuilder.AvlTreeSetNode<E>> implements
         TreeSetBuilder<E, AvlTreeSetBuilder.AvlTreeSetNode<E>> {
     
+    private static final AvlTreeSetBuilder<?> EDITING = new AvlTreeSetBuilder<Object>(true);
+    
+    private final boolean editing;
+    
+    AvlTreeSetBuilder() {
+        this(false);
+    }
+    
+    private AvlTreeSetBuilder(boolean editing) {
+        this.editing = editing;
+    }
+    
     @Override
     public AvlTreeSetNode<E> createSubTree(AvlTreeSetNode<E> left, AvlTreeSetNode<E> top, AvlTreeSetNode<E> right) {
+        if (editing) {
+            if (top instanceof EditableAvlTreeSetNode) {
+                ((EditableAvlTreeSetNode<E>)top).setChildren(left, right);
+                return top;
+            }
+            return new EditableAvlTreeSetNode<E>(left, right, top.getElement());
+        }
         return new AvlTreeSetNode<E>(left, right, top.getElement());
     }
     
     @Override
     public AvlTreeSetNode<E> createNode(E element) {
+        if (editing) {
+            return new EditableAvlTreeSetNode<E>(null, null, element);
+        }
         return new AvlTreeSetNode<E>(element);
     }
     
+    @SuppressWarnings("unchecked")
+    @Override
+    public TreeSetBuilder<E, AvlTreeSetNode<E>> editing() {
+        return (AvlTreeSetBuilder<E>)EDITING;
+    }
+    
+    @Override
+    @CheckForNull
+    public AvlTreeSetNode<E> freeze(@CheckForNull AvlTreeSetNode<E> tree) {
+        if (!(tree instanceof EditableAvlTreeSetNode)) {
+            return tree;
+        }
+        return new AvlTreeSetNode<E>(freeze(tree.getLeft()), freeze(tree.getRight()), tree.getElement());
+    }
+    
     @Immutable
     static class AvlTreeSetNode<E> extends AbstractImmutableAvlTreeNode<AvlTreeSetNode<E>> implements ImmutableTreeSetNode<E, AvlTreeSetNode<E>> {
         
@@ -48,7 +87,55 @@ class AvlTreeSetBuilder<E> extends AbstractAvlTreeBuilder<AvlTreeSetBuilder.AvlT
         
         @Override
         public String toString() {
-            return "[" + left + "," + element + "," + right + "]";
+            return "[" + getLeft() + "," + element + "," + getRight() + "]";
+        }
+    }
+    
+    /**
+     * Node of an edit session whose children are replaced in place. It is only reachable from the editor and
+     * {@link AvlTreeSetBuilder#freeze(AvlTreeSetNode)} copies it into an immutable node before the tree is shared.
+     */
+    @NotThreadSafe
+    private static final class EditableAvlTreeSetNode<E> extends AvlTreeSetNode<E> {
+        
+        @CheckForNull
+        private AvlTreeSetNode<E> editableLeft;
+        
+        @CheckForNull
+        private AvlTreeSetNode<E> editableRight;
+        
+        private int editableHeight;
+        
+        private EditableAvlTreeSetNode(@CheckForNull AvlTreeSetNode<E> left, @CheckForNull AvlTreeSetNode<E> right,
+                E element) {
+            super(element);
+            setChildren(left, right);
+        }
+        
+        void setChildren(@CheckForNull AvlTreeSetNode<E> left, @CheckForNull AvlTreeSetNode<E> right) {
+            this.editableLeft = left;
+            this.editableRight = right;
+            this.editableHeight = Math.max(AvlTreeNode.getHeight(left), AvlTreeNode.getHeight(right)) + 1;
+        }
+        
+        @Override
+        public AvlTreeSetNode<E> getLeft() {
+            return editableLeft;
+        }
+        
+        @Override
+        public AvlTreeSetNode<E> getRight() {
+            return editableRight;
+        }
+        
+        @Override
+        public int getHeight() {
+            return editableHeight;
+        }
+        
+        @Override
+        public int getBalance() {
+            return AvlTreeNode.getHeight(editableRight) - AvlTreeNode.getHeight(editableLeft);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,311 @@
+package org.povworld.collection.persistent;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.Immutable;
+
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.EntryIterator;
+import org.povworld.collection.Identificator;
+import org.povworld.collection.Map;
+import org.povworld.collection.common.AbstractKeySet;
+import org.povworld.collection.common.AbstractMap;
+import org.povworld.collection.common.EntryValueIterator;
+import org.povworld.collection.common.MemoryMeasurable;
+import org.povworld.collection.common.MemoryStats;
+import org.povworld.collection.common.PreConditions;
+import org.povworld.collection.immutable.ImmutableCollection;
+import org.povworld.collection.immutable.ImmutableSet;
+
+/**
+ * Persistent map stored in a compressed hash-array mapped prefix-tree (CHAMP).
+ *
+ * <p>In contrast to {@link PersistentHashMap} all nodes have the same layout: The keys and values of the entries
+ * which are unique in their hash fragment are stored inline in one array, next to the sub-nodes. Removals restore
+ * the canonical layout, so the tree only depends on the contained entries. Maps with the same identificators are
+ * compared node by node, skipping shared sub-trees.
+ */
+@Immutable
+public class ChampHashMap<K, V> extends AbstractMap<K, V> implements PersistentMap<K, V>, MemoryMeasurable {
+    
+    static final int WIDTH = 2;
+    
+    private static final ChampHashMap<?, ?> EMPTY_MAP = new ChampHashMap<>(0, ChampNode.EMPTY,
+            CollectionUtil.getObjectIdentificator(), CollectionUtil.getObjectIdentificator());
+            
+    private final int size;
+    
+    private final ChampNode root;
+    
+    private final Identificator<? super K> keyIdentificator;
+    
+    private final Identificator<? super V> valueIdentificator;
+    
+    private ChampHashMap(int size, ChampNode root, Identificator<? super K> keyIdentificator,
+            Identificator<? super V> valueIdentificator) {
+        this.size = size;
+        this.root = root;
+        this.keyIdentificator = keyIdentificator;
+        this.valueIdentificator = valueIdentificator;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public static <K, V> ChampHashMap<K, V> empty() {
+        return (ChampHashMap<K, V>)EMPTY_MAP;
+    }
+    
+    public static <K, V> ChampHashMap<K, V> empty(
+            Identificator<? super K> keyIdentificator,
+            Identificator<? super V> valueIdentificator) {
+        if (keyIdentificator.equals(EMPTY_MAP.keyIdentificator) &&
+                valueIdentificator.equals(EMPTY_MAP.valueIdentificator)) {
+            return empty();
+        }
+        return new ChampHashMap<>(0, ChampNode.EMPTY, keyIdentificator, valueIdentificator);
+    }
+    
+    public static <K, V> ChampHashMap<K, V> copyOf(Map<K, V> map) {
+        if (map instanceof ChampHashMap) {
+            return (ChampHashMap<K, V>)map;
+        }
+        return ChampHashMap.<K, V>empty().withAll(map);
+    }
+    
+    private ChampHashMap<K, V> create(int size, ChampNode root) {
+        return new ChampHashMap<>(size, root, keyIdentificator, valueIdentificator);
+    }
+    
+    ChampNode getRoot() {
+        return root;
+    }
+    
+    @Override
+    public Identificator<? super K> getKeyIdentificator() {
+        return keyIdentificator;
+    }
+    
+    @Override
+    public Identificator<? super V> getValueIdentificator() {
+        return valueIdentificator;
+    }
+    
+    @Override
+    public int keyCount() {
+        return size;
+    }
+    
+    /**
+     * The depth of an entry is the level of the node storing it. Nodes shared with other versions of the map are
+     * included.
+     */
+    @Override
+    public MemoryStats estimateFootprint() {
+        MemoryStats.Builder stats = MemoryStats.newBuilder().addObject(this);
+        root.addFootprint(stats, 0, WIDTH);
+        return stats.build();
+    }
+    
+    @Override
+    public boolean containsKey(K key) {
+        return findKey(key) != null;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @CheckForNull
+    private K findKey(K key) {
+        return (K)root.find(keyIdentificator, key, keyIdentificator.hashCode(key), WIDTH, 0);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    @CheckForNull
+    public V get(K key) {
+        return (V)root.find(keyIdentificator, key, keyIdentificator.hashCode(key), WIDTH, 1);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    @CheckForNull
+    public K getFirstKeyOrNull() {
+        return (K)root.firstKey(WIDTH);
+    }
+    
+    @Override
+    public ChampHashMap<K, V> with(K key, V value) {
+        PreConditions.paramNotNull(key);
+        PreConditions.paramNotNull(value);
+        ChampNode.AddCounter added = new ChampNode.AddCounter();
+        ChampNode newRoot = put(root, key, value, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return create(size + added.count, newRoot);
+    }
+    
+    private ChampNode put(ChampNode node, K key, V value, ChampNode.AddCounter added) {
+        return node.updated(keyIdentificator, valueIdentificator, key, value, keyIdentificator.hashCode(key), 0, WIDTH,
+                added);
+    }
+    
+    @Override
+    public ChampHashMap<K, V> withAll(Map<? extends K, ? extends V> map) {
+        ChampNode.AddCounter added = new ChampNode.AddCounter();
+        ChampNode newRoot = root;
+        EntryIterator<? extends K, ? extends V> iter = map.entryIterator();
+        while (iter.next()) {
+            K key = PreConditions.paramNotNull(iter.getCurrentKey());
+            V value = PreConditions.paramNotNull(iter.getCurrentValue());
+            newRoot = put(newRoot, key, value, added);
+        }
+        if (newRoot == root) {
+            return this;
+        }
+        return create(size + added.count, newRoot);
+    }
+    
+    @Override
+    public ChampHashMap<K, V> without(K key) {
+        PreConditions.paramNotNull(key);
+        ChampNode newRoot = root.removed(keyIdentificator, key, keyIdentificator.hashCode(key), 0, WIDTH);
+        if (newRoot == root) {
+            return this;
+        }
+        return create(size - 1, newRoot);
+    }
+    
+    @Override
+    public ChampHashMap<K, V> cleared() {
+        if (isEmpty()) {
+            return this;
+        }
+        return create(0, ChampNode.EMPTY);
+    }
+    
+    /**
+     * Returns an equal map which shares its nodes with the equal sub-trees of the other maps interned by the given
+     * {@code interner}. The layout only depends on the entries, so equal interned maps share their root and are
+     * compared in constant time.
+     */
+    public ChampHashMap<K, V> interned(NodeInterner interner) {
+        ChampNode newRoot = root.intern(interner, new ChampNode.Interning(keyIdentificator, valueIdentificator, WIDTH));
+        if (newRoot == root) {
+            return this;
+        }
+        return create(size, newRoot);
+    }
+    
+    @Override
+    public ImmutableSet<K> keys() {
+        return new KeySet<>(this);
+    }
+    
+    @Override
+    public ImmutableCollection<V> values() {
+        return new Values<>(this);
+    }
+    
+    @Override
+    public EntryIterator<K, V> entryIterator() {
+        return new MapEntryIterator<>(root);
+    }
+    
+    /**
+     * Compares other {@link ChampHashMap}s with the same identificators structurally.
+     */
+    @Override
+    public boolean equals(@CheckForNull Object obj) {
+        if (obj instanceof ChampHashMap) {
+            ChampHashMap<?, ?> other = (ChampHashMap<?, ?>)obj;
+            if (keyIdentificator.equals(other.keyIdentificator) && valueIdentificator.equals(other.valueIdentificator)) {
+                return size == other.size && root.equivalent(other.root, keyIdentificator, valueIdentificator, WIDTH);
+            }
+        }
+        return super.equals(obj);
+    }
+    
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+    
+    private static class MapEntryIterator<K, V> implements EntryIterator<K, V> {
+        
+        private final ChampNode.Cursor cursor;
+        
+        MapEntryIterator(ChampNode root) {
+            cursor = new ChampNode.Cursor(root, WIDTH);
+        }
+        
+        @Override
+        public boolean next() {
+            return cursor.advance();
+        }
+        
+        @SuppressWarnings("unchecked")
+        @Override
+        public K getCurrentKey() {
+            if (!cursor.hasCurrent()) throw new NoSuchElementException();
+            return (K)cursor.currentKey();
+        }
+        
+        @SuppressWarnings("unchecked")
+        @Override
+        public V getCurrentValue() {
+            if (!cursor.hasCurrent()) throw new NoSuchElementException();
+            return (V)cursor.currentValue();
+        }
+        
+    }
+    
+    private static class KeySet<K> extends AbstractKeySet<K> implements ImmutableSet<K> {
+        
+        private final ChampHashMap<K, ?> map;
+        
+        KeySet(ChampHashMap<K, ?> map) {
+            super(map);
+            this.map = map;
+        }
+        
+        @Override
+        public Identificator<? super K> getIdentificator() {
+            return map.keyIdentificator;
+        }
+        
+        @Override
+        @CheckForNull
+        public K findEqualOrNull(K element) {
+            return map.findKey(element);
+        }
+        
+    }
+    
+    private static class Values<V> implements ImmutableCollection<V> {
+        
+        private final ChampHashMap<?, V> map;
+        
+        Values(ChampHashMap<?, V> map) {
+            this.map = map;
+        }
+        
+        @Override
+        public int size() {
+            return map.keyCount();
+        }
+        
+        @Override
+        public Iterator<V> iterator() {
+            return new EntryValueIterator<V>(map.entryIterator());
+        }
+        
+        @Override
+        @CheckForNull
+        public V getFirstOrNull() {
+            EntryIterator<?, V> iterator = map.entryIterator();
+            return iterator.next() ? iterator.getCurrentValue() : null;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,266 @@
+package org.povworld.collection.persistent;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.povworld.collection.Collection;
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.Identificator;
+import org.povworld.collection.common.AbstractCollectionBuilder;
+import org.povworld.collection.common.AbstractUnOrderedCollection;
+import org.povworld.collection.common.MemoryMeasurable;
+import org.povworld.collection.common.MemoryStats;
+import org.povworld.collection.common.PreConditions;
+import org.povworld.collection.mutable.HashSet;
+
+/**
+ * Persistent set stored in a compressed hash-array mapped prefix-tree (CHAMP).
+ *
+ * <p>In contrast to {@link PersistentHashSet} there are no leaf buckets: Each node stores the elements which are
+ * unique in their hash fragment inline, next to its sub-nodes. Removals restore the canonical layout, so the tree
+ * only depends on the contained elements. Iteration visits the elements of a node in one run, and sets with the
+ * same identificator are compared node by node, skipping shared sub-trees.
+ */
+@Immutable
+public class ChampHashSet<E> extends AbstractUnOrderedCollection<E> implements PersistentSet<E>, MemoryMeasurable {
+    
+    private static final int WIDTH = 1;
+    
+    private static final ChampHashSet<?> EMPTY_SET =
+            new ChampHashSet<>(0, ChampNode.EMPTY, CollectionUtil.getObjectIdentificator());
+            
+    private final int size;
+    
+    private final ChampNode root;
+    
+    private final Identificator<? super E> identificator;
+    
+    private ChampHashSet(int size, ChampNode root, Identificator<? super E> identificator) {
+        this.size = size;
+        this.root = root;
+        this.identificator = identificator;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public static <E> ChampHashSet<E> empty() {
+        return (ChampHashSet<E>)EMPTY_SET;
+    }
+    
+    public static <E> ChampHashSet<E> empty(Identificator<? super E> identificator) {
+        if (identificator.equals(EMPTY_SET.identificator)) {
+            return empty();
+        }
+        return new ChampHashSet<>(0, ChampNode.EMPTY, identificator);
+    }
+    
+    public static <E> ChampHashSet<E> copyOf(Collection<E> collection) {
+        return ChampHashSet.<E>empty().withAll(collection);
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public Identificator<? super E> getIdentificator() {
+        return identificator;
+    }
+    
+    /**
+     * The depth of an element is the level of the node storing it. Nodes shared with other versions of the set
+     * are included.
+     */
+    @Override
+    public MemoryStats estimateFootprint() {
+        MemoryStats.Builder stats = MemoryStats.newBuilder().addObject(this);
+        root.addFootprint(stats, 0, WIDTH);
+        return stats.build();
+    }
+    
+    @Override
+    public boolean contains(E element) {
+        return findEqualOrNull(element) != null;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    @CheckForNull
+    public E findEqualOrNull(E element) {
+        return (E)root.find(identificator, element, identificator.hashCode(element), WIDTH, 0);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    @CheckForNull
+    public E getFirstOrNull() {
+        return (E)root.firstKey(WIDTH);
+    }
+    
+    @Override
+    public Iterator<E> iterator() {
+        return new ElementIterator<>(root);
+    }
+    
+    @Override
+    public ChampHashSet<E> with(E element) {
+        PreConditions.paramNotNull(element);
+        ChampNode newRoot = add(root, element, new ChampNode.AddCounter());
+        if (newRoot == root) {
+            return this;
+        }
+        return new ChampHashSet<>(size + 1, newRoot, identificator);
+    }
+    
+    private ChampNode add(ChampNode node, E element, ChampNode.AddCounter added) {
+        return node.<E, Object>updated(identificator, null, element, null, identificator.hashCode(element), 0, WIDTH,
+                added);
+    }
+    
+    @Override
+    public ChampHashSet<E> withAll(Iterable<? extends E> elements) {
+        ChampNode.AddCounter added = new ChampNode.AddCounter();
+        ChampNode newRoot = root;
+        for (E element: elements) {
+            PreConditions.paramNotNull(element);
+            newRoot = add(newRoot, element, added);
+        }
+        if (newRoot == root) {
+            return this;
+        }
+        return new ChampHashSet<>(size + added.count, newRoot, identificator);
+    }
+    
+    @Override
+    public ChampHashSet<E> without(E element) {
+        PreConditions.paramNotNull(element);
+        ChampNode newRoot = root.removed(identificator, element, identificator.hashCode(element), 0, WIDTH);
+        if (newRoot == root) {
+            return this;
+        }
+        return new ChampHashSet<>(size - 1, newRoot, identificator);
+    }
+    
+    @Override
+    public ChampHashSet<E> withoutAll(Iterable<? extends E> elements) {
+        ChampNode newRoot = root;
+        int newSize = size;
+        for (E element: elements) {
+            PreConditions.paramNotNull(element);
+            ChampNode node = newRoot.removed(identificator, element, identificator.hashCode(element), 0, WIDTH);
+            if (node != newRoot) {
+                newRoot = node;
+                newSize--;
+            }
+        }
+        if (newRoot == root) {
+            return this;
+        }
+        return new ChampHashSet<>(newSize, newRoot, identificator);
+    }
+    
+    @Override
+    public ChampHashSet<E> cleared() {
+        return empty(identificator);
+    }
+    
+    /**
+     * Returns an equal set which shares its nodes with the equal sub-trees of the other sets interned by the given
+     * {@code interner}. The layout only depends on the elements, so equal interned sets share their root and are
+     * compared in constant time.
+     */
+    public ChampHashSet<E> interned(NodeInterner interner) {
+        ChampNode newRoot = root.intern(interner, new ChampNode.Interning(identificator, null, WIDTH));
+        if (newRoot == root) {
+            return this;
+        }
+        return new ChampHashSet<>(size, newRoot, identificator);
+    }
+    
+    /**
+     * Compares other {@link ChampHashSet}s with the same identificator structurally.
+     */
+    @Override
+    public boolean equals(@CheckForNull Object object) {
+        if (object instanceof ChampHashSet) {
+            ChampHashSet<?> other = (ChampHashSet<?>)object;
+            if (identificator.equals(other.identificator)) {
+                return size == other.size && root.<E, Object>equivalent(other.root, identificator, null, WIDTH);
+            }
+        }
+        return super.equals(object);
+    }
+    
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+    
+    private static class ElementIterator<E> implements Iterator<E> {
+        
+        private final ChampNode.Cursor cursor;
+        
+        ElementIterator(ChampNode root) {
+            cursor = new ChampNode.Cursor(root, WIDTH);
+            cursor.advance();
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return cursor.hasCurrent();
+        }
+        
+        @SuppressWarnings("unchecked")
+        @Override
+        public E next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            E result = (E)cursor.currentKey();
+            cursor.advance();
+            return result;
+        }
+        
+    }
+    
+    public static <E> Builder<E> newBuilder() {
+        return newBuilder(CollectionUtil.getObjectIdentificator());
+    }
+    
+    public static <E> Builder<E> newBuilder(Identificator<? super E> identificator) {
+        return new Builder<>(identificator);
+    }
+    
+    @NotThreadSafe
+    public static final class Builder<E> extends AbstractCollectionBuilder<E, ChampHashSet<E>> {
+        
+        private final Identificator<? super E> identificator;
+        
+        @Nullable
+        private HashSet<E> set;
+        
+        private Builder(Identificator<? super E> identificator) {
+            this.identificator = identificator;
+            set = new HashSet<>(identificator);
+        }
+        
+        @Override
+        protected void _add(E element) {
+            set.add(element);
+        }
+        
+        @Override
+        protected ChampHashSet<E> _createCollection() {
+            return ChampHashSet.<E>empty(identificator).withAll(set);
+        }
+        
+        @Override
+        protected void _reset() {
+            set = new HashSet<>(identificator);
+        }
+    }
+    
+}
@@ -0,0 +1,694 @@
+package org.povworld.collection.persistent;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.povworld.collection.Identificator;
+import org.povworld.collection.common.MemoryStats;
+import org.povworld.collection.common.ObjectUtil;
+
+/**
+ * Node of a compressed hash-array mapped prefix-tree (CHAMP) used by {@link ChampHashSet} and {@link ChampHashMap}.
+ *
+ * <p>Each level consumes {@value #BITS} bits of the hash. A node has two bitmaps: The {@code dataMap} marks the hash
+ * fragments whose only entry is stored inline and the {@code nodeMap} marks the fragments which branch into a
+ * sub-node. The content array holds the inline entries in fragment order, each taking {@code width} slots (the key
+ * and, for maps, the value), followed by the sub-nodes in reverse fragment order. Once all 32 bits of the hash are
+ * used, a collision node stores the entries with equal hash values in its content array and both bitmaps are zero.
+ *
+ * <p>Removals keep the tree in canonical form: A sub-node which is left with a single entry is inlined into its
+ * parent. The layout therefore only depends on the contained entries and not on the order of the operations, which
+ * allows to compare two trees node by node with {@link #equivalent}.
+ */
+@Immutable
+final class ChampNode {
+    
+    static final int BITS = 5;
+    
+    private static final int MASK = (1 << BITS) - 1;
+    
+    private static final int HASH_SIZE = 32;
+    
+    /**
+     * Number of bitmap levels plus the collision level.
+     */
+    static final int MAX_HEIGHT = (HASH_SIZE + BITS - 1) / BITS + 1;
+    
+    /**
+     * Number of fragments of a hash value, i.e., the depth of the regions which are not split any further.
+     */
+    static final int FRAGMENT_COUNT = MAX_HEIGHT - 1;
+    
+    static final ChampNode EMPTY = new ChampNode(0, 0, new Object[0]);
+    
+    private final int dataMap;
+    
+    private final int nodeMap;
+    
+    private final Object[] content;
+    
+    private ChampNode(int dataMap, int nodeMap, Object[] content) {
+        this.dataMap = dataMap;
+        this.nodeMap = nodeMap;
+        this.content = content;
+    }
+    
+    /**
+     * Counts the entries added by {@link ChampNode#updated}.
+     */
+    @NotThreadSafe
+    static final class AddCounter {
+        int count = 0;
+    }
+    
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+    
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+    
+    private boolean isCollisionNode() {
+        return dataMap == 0 && nodeMap == 0;
+    }
+    
+    private int dataLength(int width) {
+        return isCollisionNode() ? content.length : width * Integer.bitCount(dataMap);
+    }
+    
+    private int nodeSlot(int bit) {
+        return content.length - 1 - index(nodeMap, bit);
+    }
+    
+    private boolean isSingleEntry(int width) {
+        return nodeMap == 0 && content.length == width;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <K> K key(int slot) {
+        return (K)content[slot];
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <V> V value(int slot) {
+        return (V)content[slot + 1];
+    }
+    
+    /**
+     * @return the slot at {@code offset} of the entry with the given {@code key}, i.e., 0 for the key and 1 for the
+     *         value, or null if there is no such entry
+     */
+    @CheckForNull
+    <K> Object find(Identificator<? super K> identificator, K key, int hash, int width, int offset) {
+        ChampNode node = this;
+        for (int shift = 0; shift < HASH_SIZE; shift += BITS) {
+            int bit = bit(hash, shift);
+            if ((node.dataMap & bit) != 0) {
+                int slot = width * index(node.dataMap, bit);
+                return identificator.equals(node.<K>key(slot), key) ? node.content[slot + offset] : null;
+            }
+            if ((node.nodeMap & bit) == 0) {
+                return null;
+            }
+            node = (ChampNode)node.content[node.nodeSlot(bit)];
+        }
+        int slot = node.collisionSlot(identificator, key, width);
+        return (slot < 0) ? null : node.content[slot + offset];
+    }
+    
+    private <K> int collisionSlot(Identificator<? super K> identificator, K key, int width) {
+        for (int slot = 0; slot < content.length; slot += width) {
+            if (identificator.equals(this.<K>key(slot), key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * @return the first key in iteration order or null if the node is empty
+     */
+    @CheckForNull
+    Object firstKey(int width) {
+        ChampNode node = this;
+        while (node.dataLength(width) == 0) {
+            if (node.content.length == 0) {
+                return null;
+            }
+            node = (ChampNode)node.content[0];
+        }
+        return node.content[0];
+    }
+    
+    /**
+     * Inserts the entry or replaces the value of an existing entry with the same key. The {@code valueIdentificator}
+     * and the {@code value} are ignored if {@code width} is 1.
+     *
+     * @return the new node or this node if the entry is already contained
+     */
+    <K, V> ChampNode updated(
+            Identificator<? super K> keyIdentificator,
+            @CheckForNull Identificator<? super V> valueIdentificator,
+            K key, @CheckForNull V value, int hash, int shift, int width, AddCounter added) {
+        if (shift >= HASH_SIZE) {
+            return updatedCollision(keyIdentificator, valueIdentificator, key, value, width, added);
+        }
+        int bit = bit(hash, shift);
+        if ((dataMap & bit) != 0) {
+            int slot = width * index(dataMap, bit);
+            K existingKey = key(slot);
+            if (keyIdentificator.equals(existingKey, key)) {
+                if (width == 1 || valueIdentificator.equals(this.<V>value(slot), value)) {
+                    return this;
+                }
+                return copyAndSet(slot + 1, value);
+            }
+            V existingValue = (width == 1) ? null : this.<V>value(slot);
+            ChampNode subNode = merge(existingKey, existingValue, keyIdentificator.hashCode(existingKey),
+                    key, value, hash, shift + BITS, width);
+            added.count++;
+            return copyAndMigrateToNode(bit, subNode, width);
+        }
+        if ((nodeMap & bit) != 0) {
+            int slot = nodeSlot(bit);
+            ChampNode subNode = (ChampNode)content[slot];
+            ChampNode newSubNode = subNode.updated(keyIdentificator, valueIdentificator, key, value, hash,
+                    shift + BITS, width, added);
+            if (newSubNode == subNode) {
+                return this;
+            }
+            return copyAndSet(slot, newSubNode);
+        }
+        added.count++;
+        return copyAndInsertEntry(bit, key, value, width);
+    }
+    
+    private <K, V> ChampNode updatedCollision(
+            Identificator<? super K> keyIdentificator,
+            @CheckForNull Identificator<? super V> valueIdentificator,
+            K key, @CheckForNull V value, int width, AddCounter added) {
+        int slot = collisionSlot(keyIdentificator, key, width);
+        if (slot >= 0) {
+            if (width == 1 || valueIdentificator.equals(this.<V>value(slot), value)) {
+                return this;
+            }
+            return copyAndSet(slot + 1, value);
+        }
+        Object[] newContent = Arrays.copyOf(content, content.length + width);
+        setEntry(newContent, content.length, key, value, width);
+        added.count++;
+        return new ChampNode(0, 0, newContent);
+    }
+    
+    /**
+     * Removes the entry with the given {@code key}. A returned node with a single entry is inlined by the caller,
+     * unless it is the root.
+     *
+     * @return the new node or this node if there is no entry with the given {@code key}
+     */
+    <K> ChampNode removed(Identificator<? super K> identificator, K key, int hash, int shift, int width) {
+        if (shift >= HASH_SIZE) {
+            int slot = collisionSlot(identificator, key, width);
+            return (slot < 0) ? this : new ChampNode(0, 0, removeSlots(content, slot, width));
+        }
+        int bit = bit(hash, shift);
+        if ((dataMap & bit) != 0) {
+            int slot = width * index(dataMap, bit);
+            if (!identificator.equals(this.<K>key(slot), key)) {
+                return this;
+            }
+            if (dataMap == bit && nodeMap == 0) {
+                return EMPTY;
+            }
+            return new ChampNode(dataMap ^ bit, nodeMap, removeSlots(content, slot, width));
+        }
+        if ((nodeMap & bit) != 0) {
+            int slot = nodeSlot(bit);
+            ChampNode subNode = (ChampNode)content[slot];
+            ChampNode newSubNode = subNode.removed(identificator, key, hash, shift + BITS, width);
+            if (newSubNode == subNode) {
+                return this;
+            }
+            if (!newSubNode.isSingleEntry(width)) {
+                return copyAndSet(slot, newSubNode);
+            }
+            if (shift > 0 && dataMap == 0 && content.length == 1) {
+                // This node would only contain the single entry, so it is passed on to be inlined higher up.
+                return newSubNode;
+            }
+            return copyAndMigrateToInline(bit, newSubNode, width);
+        }
+        return this;
+    }
+    
+    private static <K, V> ChampNode merge(K key0, @CheckForNull V value0, int hash0, K key1, @CheckForNull V value1,
+            int hash1, int shift, int width) {
+        if (shift >= HASH_SIZE) {
+            Object[] content = new Object[2 * width];
+            setEntry(content, 0, key0, value0, width);
+            setEntry(content, width, key1, value1, width);
+            return new ChampNode(0, 0, content);
+        }
+        int bit0 = bit(hash0, shift);
+        int bit1 = bit(hash1, shift);
+        if (bit0 == bit1) {
+            ChampNode subNode = merge(key0, value0, hash0, key1, value1, hash1, shift + BITS, width);
+            return new ChampNode(0, bit0, new Object[] {subNode});
+        }
+        Object[] content = new Object[2 * width];
+        if (Integer.compareUnsigned(bit0, bit1) < 0) {
+            setEntry(content, 0, key0, value0, width);
+            setEntry(content, width, key1, value1, width);
+        } else {
+            setEntry(content, 0, key1, value1, width);
+            setEntry(content, width, key0, value0, width);
+        }
+        return new ChampNode(bit0 | bit1, 0, content);
+    }
+    
+    private static void setEntry(Object[] content, int slot, Object key, @CheckForNull Object value, int width) {
+        content[slot] = key;
+        if (width == 2) {
+            content[slot + 1] = value;
+        }
+    }
+    
+    private static Object[] removeSlots(Object[] content, int slot, int count) {
+        Object[] newContent = new Object[content.length - count];
+        System.arraycopy(content, 0, newContent, 0, slot);
+        System.arraycopy(content, slot + count, newContent, slot, newContent.length - slot);
+        return newContent;
+    }
+    
+    private ChampNode copyAndSet(int slot, @CheckForNull Object object) {
+        Object[] newContent = content.clone();
+        newContent[slot] = object;
+        return new ChampNode(dataMap, nodeMap, newContent);
+    }
+    
+    private ChampNode copyAndInsertEntry(int bit, Object key, @CheckForNull Object value, int width) {
+        int slot = width * index(dataMap, bit);
+        Object[] newContent = new Object[content.length + width];
+        System.arraycopy(content, 0, newContent, 0, slot);
+        setEntry(newContent, slot, key, value, width);
+        System.arraycopy(content, slot, newContent, slot + width, content.length - slot);
+        return new ChampNode(dataMap | bit, nodeMap, newContent);
+    }
+    
+    /**
+     * Replaces the inline entry at {@code bit} by the given {@code subNode}.
+     */
+    private ChampNode copyAndMigrateToNode(int bit, ChampNode subNode, int width) {
+        int dataSlot = width * index(dataMap, bit);
+        // Number of sub-nodes stored behind the new one.
+        int lowerNodes = index(nodeMap, bit);
+        Object[] newContent = new Object[content.length - width + 1];
+        System.arraycopy(content, 0, newContent, 0, dataSlot);
+        System.arraycopy(content, dataSlot + width, newContent, dataSlot, content.length - lowerNodes - dataSlot - width);
+        newContent[newContent.length - 1 - lowerNodes] = subNode;
+        System.arraycopy(content, content.length - lowerNodes, newContent, newContent.length - lowerNodes, lowerNodes);
+        return new ChampNode(dataMap ^ bit, nodeMap | bit, newContent);
+    }
+    
+    /**
+     * Replaces the sub-node at {@code bit} by the single entry of the given {@code subNode}.
+     */
+    private ChampNode copyAndMigrateToInline(int bit, ChampNode subNode, int width) {
+        int dataSlot = width * index(dataMap, bit);
+        int lowerNodes = index(nodeMap, bit);
+        Object[] newContent = new Object[content.length - 1 + width];
+        System.arraycopy(content, 0, newContent, 0, dataSlot);
+        System.arraycopy(subNode.content, 0, newContent, dataSlot, width);
+        System.arraycopy(content, dataSlot, newContent, dataSlot + width, content.length - 1 - lowerNodes - dataSlot);
+        System.arraycopy(content, content.length - lowerNodes, newContent, newContent.length - lowerNodes, lowerNodes);
+        return new ChampNode(dataMap | bit, nodeMap ^ bit, newContent);
+    }
+    
+    /**
+     * Compares two canonical trees built with the same identificators. Shared sub-trees are skipped. The
+     * {@code valueIdentificator} is ignored if {@code width} is 1.
+     */
+    <K, V> boolean equivalent(ChampNode other, Identificator<? super K> keyIdentificator,
+            @CheckForNull Identificator<? super V> valueIdentificator, int width) {
+        if (this == other) {
+            return true;
+        }
+        if (dataMap != other.dataMap || nodeMap != other.nodeMap || content.length != other.content.length) {
+            return false;
+        }
+        if (isCollisionNode()) {
+            // The entries of collision nodes are kept in insertion order.
+            for (int slot = 0; slot < content.length; slot += width) {
+                int otherSlot = other.collisionSlot(keyIdentificator, this.<K>key(slot), width);
+                if (otherSlot < 0
+                        || !entryValuesEqual(valueIdentificator, slot, other.content[otherSlot + width - 1], width)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        int dataLength = dataLength(width);
+        for (int slot = 0; slot < dataLength; slot += width) {
+            if (!keyIdentificator.equals(this.<K>key(slot), other.<K>key(slot))
+                    || !entryValuesEqual(valueIdentificator, slot, other.content[slot + width - 1], width)) {
+                return false;
+            }
+        }
+        for (int slot = dataLength; slot < content.length; ++slot) {
+            if (!((ChampNode)content[slot]).equivalent((ChampNode)other.content[slot], keyIdentificator,
+                    valueIdentificator, width)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <V> boolean entryValuesEqual(@CheckForNull Identificator<? super V> valueIdentificator, int slot,
+            Object otherValue, int width) {
+        return width == 1 || valueIdentificator.equals(this.<V>value(slot), (V)otherValue);
+    }
+    
+    /**
+     * Replaces this tree by the equal tree cached in the {@code interner}, which adds the nodes it does not contain
+     * yet. The sub-nodes of a cached node are not visited.
+     */
+    ChampNode intern(NodeInterner interner, Interning type) {
+        ChampNode cached = interner.find(this, type);
+        if (cached != null) {
+            return cached;
+        }
+        Object[] newContent = null;
+        for (int slot = dataLength(type.width); slot < content.length; ++slot) {
+            ChampNode subNode = (ChampNode)content[slot];
+            ChampNode internedSubNode = subNode.intern(interner, type);
+            if (internedSubNode != subNode) {
+                if (newContent == null) {
+                    newContent = content.clone();
+                }
+                newContent[slot] = internedSubNode;
+            }
+        }
+        ChampNode node = (newContent == null) ? this : new ChampNode(dataMap, nodeMap, newContent);
+        return interner.intern(node, type);
+    }
+    
+    /**
+     * Content equality of the nodes of trees with the same identificators. The entries of collision nodes are
+     * compared in insertion order.
+     */
+    static final class Interning implements NodeInterner.NodeType<ChampNode> {
+        
+        private final Identificator<Object> keyIdentificator;
+        
+        @CheckForNull
+        private final Identificator<Object> valueIdentificator;
+        
+        private final int width;
+        
+        @SuppressWarnings("unchecked")
+        Interning(Identificator<?> keyIdentificator, @CheckForNull Identificator<?> valueIdentificator, int width) {
+            this.keyIdentificator = (Identificator<Object>)keyIdentificator;
+            this.valueIdentificator = (Identificator<Object>)valueIdentificator;
+            this.width = width;
+        }
+        
+        @Override
+        public int contentHash(ChampNode node) {
+            int hash = 31 * node.dataMap + node.nodeMap;
+            int dataLength = node.dataLength(width);
+            for (int slot = 0; slot < dataLength; slot += width) {
+                hash = 31 * hash + keyIdentificator.hashCode(node.content[slot]);
+                if (width == 2) {
+                    hash = 31 * hash + valueIdentificator.hashCode(node.content[slot + 1]);
+                }
+            }
+            for (int slot = dataLength; slot < node.content.length; ++slot) {
+                hash = 31 * hash + System.identityHashCode(node.content[slot]);
+            }
+            return hash;
+        }
+        
+        @Override
+        public boolean contentEquals(ChampNode node1, ChampNode node2) {
+            if (node1.dataMap != node2.dataMap || node1.nodeMap != node2.nodeMap
+                    || node1.content.length != node2.content.length) {
+                return false;
+            }
+            int dataLength = node1.dataLength(width);
+            for (int slot = 0; slot < dataLength; slot += width) {
+                if (!keyIdentificator.equals(node1.content[slot], node2.content[slot])) {
+                    return false;
+                }
+                if (width == 2 && !valueIdentificator.equals(node1.content[slot + 1], node2.content[slot + 1])) {
+                    return false;
+                }
+            }
+            for (int slot = dataLength; slot < node1.content.length; ++slot) {
+                if (node1.content[slot] != node2.content[slot]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        @Override
+        public boolean equals(@CheckForNull Object obj) {
+            if (!(obj instanceof Interning)) {
+                return false;
+            }
+            Interning other = (Interning)obj;
+            return width == other.width && keyIdentificator.equals(other.keyIdentificator)
+                    && ObjectUtil.objectEquals(valueIdentificator, other.valueIdentificator);
+        }
+        
+        @Override
+        public int hashCode() {
+            return 31 * keyIdentificator.hashCode() + width;
+        }
+    }
+    
+    /**
+     * Computes the digests of entries and sub-nodes for {@link MerkleDigests}.
+     */
+    interface Digester {
+        
+        long entryDigest(Object key, @CheckForNull Object value);
+        
+        /**
+         * @return the digest of the given sub-node, which may be cached
+         */
+        long nodeDigest(ChampNode node);
+        
+        /**
+         * @return the number of entries of the given sub-node, which may be cached
+         */
+        int nodeEntryCount(ChampNode node);
+    }
+    
+    /**
+     * @return the sum of the digests of the entries of this tree
+     */
+    long digest(Digester digester, int width) {
+        long digest = 0;
+        int dataLength = dataLength(width);
+        for (int slot = 0; slot < dataLength; slot += width) {
+            digest += digester.entryDigest(content[slot], (width == 1) ? null : content[slot + width - 1]);
+        }
+        for (int slot = dataLength; slot < content.length; ++slot) {
+            digest += digester.nodeDigest((ChampNode)content[slot]);
+        }
+        return digest;
+    }
+    
+    /**
+     * @return the number of entries of this tree
+     */
+    int entryCount(Digester digester, int width) {
+        int dataLength = dataLength(width);
+        int count = dataLength / width;
+        for (int slot = dataLength; slot < content.length; ++slot) {
+            count += digester.nodeEntryCount((ChampNode)content[slot]);
+        }
+        return count;
+    }
+    
+    /**
+     * Sets the digests and entry counts of the sub-regions of the region of the hash values which start with the
+     * lowest {@code depth * BITS} bits of {@code prefix}. The sub-region {@code i} is the one with the next hash
+     * fragment {@code i}.
+     */
+    <K> void regionDigests(Identificator<? super K> keyIdentificator, Digester digester, int prefix, int depth,
+            int width, long[] digests, int[] counts) {
+        Arrays.fill(digests, 0);
+        Arrays.fill(counts, 0);
+        int shift = depth * BITS;
+        int[] inlineSlot = new int[1];
+        ChampNode node = locateRegion(keyIdentificator, prefix, shift, width, inlineSlot);
+        if (node == null) {
+            return;
+        }
+        if (inlineSlot[0] >= 0) {
+            K key = node.key(inlineSlot[0]);
+            int fragment = (keyIdentificator.hashCode(key) >>> shift) & MASK;
+            digests[fragment] =
+                    digester.entryDigest(key, (width == 1) ? null : node.content[inlineSlot[0] + width - 1]);
+            counts[fragment] = 1;
+            return;
+        }
+        int map = node.dataMap;
+        for (int slot = 0; map != 0; slot += width) {
+            int bit = Integer.lowestOneBit(map);
+            map ^= bit;
+            int fragment = Integer.numberOfTrailingZeros(bit);
+            digests[fragment] =
+                    digester.entryDigest(node.content[slot], (width == 1) ? null : node.content[slot + width - 1]);
+            counts[fragment] = 1;
+        }
+        map = node.nodeMap;
+        while (map != 0) {
+            int bit = Integer.lowestOneBit(map);
+            map ^= bit;
+            int fragment = Integer.numberOfTrailingZeros(bit);
+            ChampNode subNode = (ChampNode)node.content[node.nodeSlot(bit)];
+            digests[fragment] = digester.nodeDigest(subNode);
+            counts[fragment] = digester.nodeEntryCount(subNode);
+        }
+    }
+    
+    /**
+     * Passes the entries to the {@code consumer} whose hash values start with the lowest {@code depth * BITS} bits of
+     * {@code prefix}. The {@code value} is null if {@code width} is 1.
+     */
+    <K> void forEachInRegion(Identificator<? super K> keyIdentificator, int prefix, int depth, int width,
+            BiConsumer<Object, Object> consumer) {
+        int[] inlineSlot = new int[1];
+        ChampNode node = locateRegion(keyIdentificator, prefix, depth * BITS, width, inlineSlot);
+        if (node == null) {
+            return;
+        }
+        if (inlineSlot[0] >= 0) {
+            consumer.accept(node.content[inlineSlot[0]], (width == 1) ? null : node.content[inlineSlot[0] + width - 1]);
+            return;
+        }
+        Cursor cursor = new Cursor(node, width);
+        while (cursor.advance()) {
+            consumer.accept(cursor.currentKey(), (width == 1) ? null : cursor.currentValue());
+        }
+    }
+    
+    /**
+     * Finds the node which holds the entries with the given hash prefix of {@code shift} bits. If the region only
+     * contains an entry which is stored inline higher up, its node is returned and its slot is stored in
+     * {@code inlineSlot}, otherwise {@code inlineSlot} is set to -1.
+     *
+     * @return the node or null if the region is empty
+     */
+    @CheckForNull
+    private <K> ChampNode locateRegion(Identificator<? super K> keyIdentificator, int prefix, int shift, int width,
+            int[] inlineSlot) {
+        inlineSlot[0] = -1;
+        ChampNode node = this;
+        for (int nodeShift = 0; nodeShift < shift; nodeShift += BITS) {
+            int bit = bit(prefix, nodeShift);
+            if ((node.dataMap & bit) != 0) {
+                int slot = width * index(node.dataMap, bit);
+                int prefixMask = (shift >= HASH_SIZE) ? -1 : (1 << shift) - 1;
+                if (((keyIdentificator.hashCode(node.<K>key(slot)) ^ prefix) & prefixMask) != 0) {
+                    return null;
+                }
+                inlineSlot[0] = slot;
+                return node;
+            }
+            if ((node.nodeMap & bit) == 0) {
+                return null;
+            }
+            node = (ChampNode)node.content[node.nodeSlot(bit)];
+        }
+        return node;
+    }
+    
+    void addFootprint(MemoryStats.Builder stats, int depth, int width) {
+        stats.addObject(this).addArray(content);
+        int dataLength = dataLength(width);
+        stats.addEntries(depth, dataLength / width);
+        for (int slot = dataLength; slot < content.length; ++slot) {
+            ((ChampNode)content[slot]).addFootprint(stats, depth + 1, width);
+        }
+    }
+    
+    /**
+     * Iterates the entries of a tree, visiting the inline entries of each node before its sub-nodes.
+     */
+    @NotThreadSafe
+    static final class Cursor {
+        
+        private final ChampNode[] nodes = new ChampNode[MAX_HEIGHT];
+        
+        private final int[] slots = new int[MAX_HEIGHT];
+        
+        private final int[] dataLengths = new int[MAX_HEIGHT];
+        
+        private final int width;
+        
+        private int depth = 0;
+        
+        @CheckForNull
+        private ChampNode currentNode = null;
+        
+        private int currentSlot = 0;
+        
+        Cursor(ChampNode root, int width) {
+            this.width = width;
+            nodes[0] = root;
+            dataLengths[0] = root.dataLength(width);
+        }
+        
+        /**
+         * @return false if there are no more entries
+         */
+        boolean advance() {
+            while (depth >= 0) {
+                ChampNode node = nodes[depth];
+                int slot = slots[depth];
+                if (slot < dataLengths[depth]) {
+                    slots[depth] = slot + width;
+                    currentNode = node;
+                    currentSlot = slot;
+                    return true;
+                }
+                if (slot < node.content.length) {
+                    slots[depth] = slot + 1;
+                    ChampNode subNode = (ChampNode)node.content[slot];
+                    depth++;
+                    nodes[depth] = subNode;
+                    slots[depth] = 0;
+                    dataLengths[depth] = subNode.dataLength(width);
+                } else {
+                    nodes[depth] = null;
+                    depth--;
+                }
+            }
+            currentNode = null;
+            return false;
+        }
+        
+        boolean hasCurrent() {
+            return currentNode != null;
+        }
+        
+        Object currentKey() {
+            return currentNode.content[currentSlot];
+        }
+        
+        Object currentValue() {
+            return currentNode.content[currentSlot + 1];
+        }
+    }
+    
+}
@@ -0,0 +1,46 @@
+package org.povworld.collection.persistent;
+
+import java.util.Arrays;
+
+/**
+ * Orders the keys of a bulk insertion into a hash trie by the hash fragments which select the table slots from the
+ * root downwards, so the keys which share a path from the root are adjacent.
+ */
+final class HashTrieBatchOrder {
+    
+    private HashTrieBatchOrder() {}
+    
+    /**
+     * @param hashes the hash values of the keys
+     * @param size the number of keys, which are the first elements of {@code hashes}
+     * @param hashBits the number of hash bits which select the slot of a table
+     * @return the indices of the keys in trie order, where keys with equal hash values keep their given order
+     */
+    static int[] sortedIndices(int[] hashes, int size, int hashBits) {
+        long[] order = new long[size];
+        for (int i = 0; i < size; ++i) {
+            // The index in the lower half keeps keys with equal hash values in the given order.
+            order[i] = ((long)(fragmentOrder(hashes[i], hashBits) ^ Integer.MIN_VALUE) << 32) | i;
+        }
+        Arrays.sort(order);
+        int[] indices = new int[size];
+        for (int i = 0; i < size; ++i) {
+            indices[i] = (int)order[i];
+        }
+        return indices;
+    }
+    
+    /**
+     * Reverses the order of the {@code hashBits} bit fragments of the {@code hash}, so that the unsigned order
+     * compares the fragment of the root first.
+     */
+    static int fragmentOrder(int hash, int hashBits) {
+        int result = 0;
+        for (int rshift = 0; rshift < 32; rshift += hashBits) {
+            int width = Math.min(hashBits, 32 - rshift);
+            result = (result << width) | ((hash >>> rshift) & ((1 << width) - 1));
+        }
+        return result;
+    }
+    
+}
@@ -0,0 +1,372 @@
+package org.povworld.collection.persistent;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.povworld.collection.Map;
+import org.povworld.collection.common.PreConditions;
+import org.povworld.collection.mutable.ArrayList;
+
+/**
+ * Merkle digests of {@link ChampHashMap}s, which allow to compare and synchronize the maps of different replicas by
+ * exchanging only the digests and entries of the regions in which they differ.
+ * <p>
+ * A region of depth {@code d} contains the entries whose key hash starts with a given prefix of {@code d} hash
+ * fragments. The layout of the tree only depends on the entries, so the regions correspond to the sub-nodes and
+ * inline entries of the tree on both sides. The digest of a region is the sum of the 64-bit digests of its entries,
+ * which are computed by a {@link ContentDigester} from the keys and values. The digests and entry counts of the nodes
+ * are cached weakly by their identity, so the digest of a changed version of a map is computed by only visiting the
+ * changed paths.
+ * <p>
+ * The digests must depend on the full content of the keys and values. Digests derived from hash codes would not
+ * detect a changed value with the same hash code as the old one, e.g., {@code "Aa"} and {@code "BB"}, nor two keys
+ * with equal hash codes which swap their values, as such keys share a region down to {@link #MAX_DEPTH}.
+ * <p>
+ * {@link #pull(ChampHashMap, Peer)} descends into the regions whose digests differ, so the number of exchanged
+ * digests and entries is proportional to the number of differing entries (times the depth of the tree).
+ */
+@ThreadSafe
+public final class MerkleDigests {
+    
+    /**
+     * Number of sub-regions of a region.
+     */
+    public static final int FANOUT = 1 << ChampNode.BITS;
+    
+    /**
+     * Depth of the regions which are not split any further. Their prefix is the full hash value.
+     */
+    public static final int MAX_DEPTH = ChampNode.FRAGMENT_COUNT;
+    
+    private static final int INITIAL_CAPACITY = 64;
+    
+    /**
+     * Computes the 64-bit digest of a key or value. Equal objects must have equal digests on all replicas, and the
+     * digests of different objects should only collide with negligible probability.
+     */
+    public interface ContentDigester {
+        
+        long digest(Object object);
+    }
+    
+    /**
+     * Digests and entry counts of the {@link MerkleDigests#FANOUT} sub-regions of a region. A region is empty if and
+     * only if its count is zero.
+     */
+    @Immutable
+    public static final class Regions {
+        
+        private final long[] digests;
+        
+        private final int[] counts;
+        
+        public Regions(long[] digests, int[] counts) {
+            PreConditions.paramCheck(digests, "One digest per sub-region required", digests.length == FANOUT);
+            PreConditions.paramCheck(counts, "One count per sub-region required", counts.length == FANOUT);
+            this.digests = digests.clone();
+            this.counts = counts.clone();
+        }
+        
+        public long getDigest(int fragment) {
+            return digests[fragment];
+        }
+        
+        public int getCount(int fragment) {
+            return counts[fragment];
+        }
+    }
+    
+    /**
+     * The replica side of the synchronization. The regions are given by the {@code prefix} of the hash values, of
+     * which the lowest {@code depth * 5} bits are used.
+     */
+    public interface Peer<K, V> {
+        
+        /**
+         * @return the digest of all entries
+         */
+        long digest();
+        
+        /**
+         * @return the number of entries
+         */
+        int size();
+        
+        /**
+         * @return the digests and entry counts of the sub-regions of the given region, which must have a depth below
+         *         {@link MerkleDigests#MAX_DEPTH}
+         */
+        Regions regionDigests(int prefix, int depth);
+        
+        /**
+         * @return the entries of the given region
+         */
+        Map<K, V> regionEntries(int prefix, int depth);
+    }
+    
+    private static final class Entry extends WeakReference<ChampNode> {
+        
+        final int hash;
+        
+        final long digest;
+        
+        final int entryCount;
+        
+        @CheckForNull
+        Entry next;
+        
+        Entry(ChampNode node, int hash, long digest, int entryCount, @CheckForNull Entry next,
+                ReferenceQueue<ChampNode> queue) {
+            super(node, queue);
+            this.hash = hash;
+            this.digest = digest;
+            this.entryCount = entryCount;
+            this.next = next;
+        }
+    }
+    
+    private final ContentDigester contentDigester;
+    
+    private final ReferenceQueue<ChampNode> queue = new ReferenceQueue<>();
+    
+    private Entry[] table = new Entry[INITIAL_CAPACITY];
+    
+    private int size = 0;
+    
+    /**
+     * Creates an instance which derives the entry digests from the digests of the keys and values computed by the
+     * given {@code contentDigester}.
+     */
+    public MerkleDigests(ContentDigester contentDigester) {
+        this.contentDigester = PreConditions.paramNotNull(contentDigester);
+    }
+    
+    /**
+     * @return the number of cached node digests, which may include nodes that are not reachable anymore but have not
+     *         been collected yet
+     */
+    public synchronized int cachedNodeCount() {
+        expungeCollectedEntries();
+        return size;
+    }
+    
+    /**
+     * @return the digest of all entries of the {@code map}, which is zero for the empty map
+     */
+    public <K, V> long digest(ChampHashMap<K, V> map) {
+        return new MapDigester().nodeDigest(map.getRoot());
+    }
+    
+    /**
+     * Returns a peer which answers the requests of {@link #pull(ChampHashMap, Peer)} from the given {@code map}, e.g.,
+     * to synchronize two maps within one process.
+     */
+    public <K, V> Peer<K, V> peer(ChampHashMap<K, V> map) {
+        return new LocalPeer<K, V>(map);
+    }
+    
+    /**
+     * Changes the {@code local} map to contain the same entries as the map of the {@code remote} peer. Only the
+     * regions whose digests differ are requested from the peer.
+     *
+     * @return the synchronized map, which shares all unchanged nodes with {@code local}
+     */
+    public <K, V> ChampHashMap<K, V> pull(ChampHashMap<K, V> local, Peer<K, V> remote) {
+        if (digest(local) == remote.digest() && local.keyCount() == remote.size()) {
+            return local;
+        }
+        if (remote.size() == 0) {
+            return local.cleared();
+        }
+        return pullRegion(local, remote, 0, 0);
+    }
+    
+    private <K, V> ChampHashMap<K, V> pullRegion(ChampHashMap<K, V> local, Peer<K, V> remote, int prefix, int depth) {
+        if (depth == MAX_DEPTH) {
+            return replaceRegion(local, remote.regionEntries(prefix, depth), prefix, depth);
+        }
+        Regions remoteRegions = remote.regionDigests(prefix, depth);
+        Regions localRegions = regionDigests(local, prefix, depth);
+        ChampHashMap<K, V> result = local;
+        for (int fragment = 0; fragment < FANOUT; ++fragment) {
+            if (localRegions.getDigest(fragment) == remoteRegions.getDigest(fragment)
+                    && localRegions.getCount(fragment) == remoteRegions.getCount(fragment)) {
+                continue;
+            }
+            int subPrefix = prefix | (fragment << (depth * ChampNode.BITS));
+            if (remoteRegions.getCount(fragment) == 0) {
+                result = replaceRegion(result, ChampHashMap.<K, V>empty(), subPrefix, depth + 1);
+            } else if (localRegions.getCount(fragment) == 0) {
+                result = replaceRegion(result, remote.regionEntries(subPrefix, depth + 1), subPrefix, depth + 1);
+            } else {
+                result = pullRegion(result, remote, subPrefix, depth + 1);
+            }
+        }
+        return result;
+    }
+    
+    private <K, V> ChampHashMap<K, V> replaceRegion(ChampHashMap<K, V> local, Map<K, V> remoteEntries, int prefix,
+            int depth) {
+        ChampHashMap<K, V> result = local;
+        for (K key: regionKeys(local, prefix, depth)) {
+            if (!remoteEntries.containsKey(key)) {
+                result = result.without(key);
+            }
+        }
+        return result.withAll(remoteEntries);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <K, V> ArrayList<K> regionKeys(ChampHashMap<K, V> map, int prefix, int depth) {
+        ArrayList<K> keys = new ArrayList<>();
+        map.getRoot().forEachInRegion(map.getKeyIdentificator(), prefix, depth, ChampHashMap.WIDTH,
+                (key, value) -> keys.push((K)key));
+        return keys;
+    }
+    
+    private <K, V> Regions regionDigests(ChampHashMap<K, V> map, int prefix, int depth) {
+        if (depth < 0 || depth >= MAX_DEPTH) {
+            throw new IllegalArgumentException("Region of depth " + depth + " cannot be split");
+        }
+        long[] digests = new long[FANOUT];
+        int[] counts = new int[FANOUT];
+        map.getRoot().regionDigests(map.getKeyIdentificator(), new MapDigester(), prefix, depth, ChampHashMap.WIDTH,
+                digests, counts);
+        return new Regions(digests, counts);
+    }
+    
+    private final class MapDigester implements ChampNode.Digester {
+        
+        @Override
+        public long entryDigest(Object key, @CheckForNull Object value) {
+            return contentDigester.digest(key) ^ Long.rotateLeft(contentDigester.digest(value), 29);
+        }
+        
+        @Override
+        public long nodeDigest(ChampNode node) {
+            return summary(node).digest;
+        }
+        
+        @Override
+        public int nodeEntryCount(ChampNode node) {
+            return summary(node).entryCount;
+        }
+        
+        private Entry summary(ChampNode node) {
+            Entry cached = lookup(node);
+            if (cached != null) {
+                return cached;
+            }
+            return store(node, node.digest(this, ChampHashMap.WIDTH), node.entryCount(this, ChampHashMap.WIDTH));
+        }
+    }
+    
+    private final class LocalPeer<K, V> implements Peer<K, V> {
+        
+        private final ChampHashMap<K, V> map;
+        
+        LocalPeer(ChampHashMap<K, V> map) {
+            this.map = map;
+        }
+        
+        @Override
+        public long digest() {
+            return MerkleDigests.this.digest(map);
+        }
+        
+        @Override
+        public int size() {
+            return map.keyCount();
+        }
+        
+        @Override
+        public Regions regionDigests(int prefix, int depth) {
+            return MerkleDigests.this.regionDigests(map, prefix, depth);
+        }
+        
+        @SuppressWarnings("unchecked")
+        @Override
+        public Map<K, V> regionEntries(int prefix, int depth) {
+            ArrayList<Object> keysAndValues = new ArrayList<>();
+            map.getRoot().forEachInRegion(map.getKeyIdentificator(), prefix, depth, ChampHashMap.WIDTH,
+                    (key, value) -> {
+                        keysAndValues.push(key);
+                        keysAndValues.push(value);
+                    });
+            ChampHashMap<K, V> entries = ChampHashMap.empty(map.getKeyIdentificator(), map.getValueIdentificator());
+            for (int i = 0; i < keysAndValues.size(); i += 2) {
+                entries = entries.with((K)keysAndValues.get(i), (V)keysAndValues.get(i + 1));
+            }
+            return entries;
+        }
+    }
+    
+    @CheckForNull
+    private synchronized Entry lookup(ChampNode node) {
+        int hash = System.identityHashCode(node);
+        for (Entry entry = table[indexFor(hash, table.length)]; entry != null; entry = entry.next) {
+            if (entry.get() == node) {
+                return entry;
+            }
+        }
+        return null;
+    }
+    
+    private synchronized Entry store(ChampNode node, long digest, int entryCount) {
+        expungeCollectedEntries();
+        if (size >= table.length - (table.length >> 2)) {
+            resize();
+        }
+        int hash = System.identityHashCode(node);
+        int index = indexFor(hash, table.length);
+        Entry entry = new Entry(node, hash, digest, entryCount, table[index], queue);
+        table[index] = entry;
+        size++;
+        return entry;
+    }
+    
+    private static int indexFor(int hash, int length) {
+        return (hash ^ (hash >>> 16)) & (length - 1);
+    }
+    
+    private void resize() {
+        Entry[] newTable = new Entry[2 * table.length];
+        for (Entry head: table) {
+            Entry entry = head;
+            while (entry != null) {
+                Entry next = entry.next;
+                int index = indexFor(entry.hash, newTable.length);
+                entry.next = newTable[index];
+                newTable[index] = entry;
+                entry = next;
+            }
+        }
+        table = newTable;
+    }
+    
+    private void expungeCollectedEntries() {
+        Object reference;
+        while ((reference = queue.poll()) != null) {
+            Entry collected = (Entry)reference;
+            int index = indexFor(collected.hash, table.length);
+            Entry previous = null;
+            for (Entry entry = table[index]; entry != null; entry = entry.next) {
+                if (entry == collected) {
+                    if (previous == null) {
+                        table[index] = entry.next;
+                    } else {
+                        previous.next = entry.next;
+                    }
+                    size--;
+                    break;
+                }
+                previous = entry;
+            }
+        }
+    }
+    
+}
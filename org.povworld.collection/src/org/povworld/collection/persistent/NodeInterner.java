@@ -0,0 +1,166 @@
+package org.povworld.collection.persistent;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Cache of the nodes of persistent collections, which lets equal sub-trees of independently built collections share
+ * their nodes (hash-consing).
+ * <p>
+ * A collection is interned bottom-up: A node is replaced by a cached node with equal content, where the children are
+ * compared by identity because they have been interned before. Nodes which are already cached are not descended
+ * into, so interning a changed version of an interned collection only visits the changed paths. The nodes are only
+ * weakly referenced by the cache, so it does not keep collections alive which are not used anymore.
+ * <p>
+ * One interner can be shared by collections of different types. Only nodes of the same {@link NodeType} are
+ * compared with each other.
+ *
+ * @see ChampHashSet#interned(NodeInterner)
+ * @see ChampHashMap#interned(NodeInterner)
+ * @see PersistentTreeMap#interned(NodeInterner)
+ */
+@ThreadSafe
+public final class NodeInterner {
+    
+    private static final int INITIAL_CAPACITY = 64;
+    
+    /**
+     * Defines the content equality of the nodes of one kind of collection. Types are compared with
+     * {@link Object#equals(Object)}, e.g., two maps with equal identificators can share their nodes.
+     */
+    interface NodeType<N> {
+        
+        /**
+         * @return the hash code of the content of the node, using identity hash codes for its children
+         */
+        int contentHash(N node);
+        
+        /**
+         * @return true if both nodes have equal entries and identical children
+         */
+        boolean contentEquals(N node1, N node2);
+    }
+    
+    private static final class Entry extends WeakReference<Object> {
+        
+        final int hash;
+        
+        final NodeType<?> type;
+        
+        @CheckForNull
+        Entry next;
+        
+        Entry(Object node, int hash, NodeType<?> type, @CheckForNull Entry next, ReferenceQueue<Object> queue) {
+            super(node, queue);
+            this.hash = hash;
+            this.type = type;
+            this.next = next;
+        }
+    }
+    
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    
+    private Entry[] table = new Entry[INITIAL_CAPACITY];
+    
+    private int size = 0;
+    
+    /**
+     * @return the number of cached nodes, which may include nodes that are not reachable anymore but have not been
+     *         collected yet
+     */
+    public synchronized int size() {
+        expungeCollectedEntries();
+        return size;
+    }
+    
+    /**
+     * @return the cached node with the same content as the given {@code node} or null if there is none
+     */
+    @CheckForNull
+    synchronized <N> N find(N node, NodeType<N> type) {
+        return find(node, type, type.contentHash(node));
+    }
+    
+    /**
+     * Returns the cached node with the same content as the given {@code node}. If there is none the {@code node} is
+     * added to the cache. Its children must have been interned before.
+     */
+    synchronized <N> N intern(N node, NodeType<N> type) {
+        int hash = type.contentHash(node);
+        N cached = find(node, type, hash);
+        if (cached != null) {
+            return cached;
+        }
+        expungeCollectedEntries();
+        if (size >= table.length - (table.length >> 2)) {
+            resize();
+        }
+        int index = indexFor(hash, table.length);
+        table[index] = new Entry(node, hash, type, table[index], queue);
+        size++;
+        return node;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @CheckForNull
+    private <N> N find(N node, NodeType<N> type, int hash) {
+        for (Entry entry = table[indexFor(hash, table.length)]; entry != null; entry = entry.next) {
+            if (entry.hash != hash) {
+                continue;
+            }
+            Object candidate = entry.get();
+            if (candidate == node) {
+                return node;
+            }
+            if (candidate != null && candidate.getClass() == node.getClass() && entry.type.equals(type)
+                    && type.contentEquals((N)candidate, node)) {
+                return (N)candidate;
+            }
+        }
+        return null;
+    }
+    
+    private static int indexFor(int hash, int length) {
+        return (hash ^ (hash >>> 16)) & (length - 1);
+    }
+    
+    private void resize() {
+        Entry[] newTable = new Entry[2 * table.length];
+        for (Entry head: table) {
+            Entry entry = head;
+            while (entry != null) {
+                Entry next = entry.next;
+                int index = indexFor(entry.hash, newTable.length);
+                entry.next = newTable[index];
+                newTable[index] = entry;
+                entry = next;
+            }
+        }
+        table = newTable;
+    }
+    
+    private void expungeCollectedEntries() {
+        Object reference;
+        while ((reference = queue.poll()) != null) {
+            Entry collected = (Entry)reference;
+            int index = indexFor(collected.hash, table.length);
+            Entry previous = null;
+            for (Entry entry = table[index]; entry != null; entry = entry.next) {
+                if (entry == collected) {
+                    if (previous == null) {
+                        table[index] = entry.next;
+                    } else {
+                        previous.next = entry.next;
+                    }
+                    size--;
+                    break;
+                }
+                previous = entry;
+            }
+        }
+    }
+    
+}
@@ -5,7 +5,6 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 import javax.annotation.CheckForNull;
-import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import org.povworld.collection.Collection;
@@ -35,6 +34,11 @@ public class PersistentArrayList<E> extends AbstractOrderedCollection<E> impleme
         return (Bucket<E>)EMPTY_BUCKET;
     }
     
+    @SuppressWarnings("unchecked")
+    private static <E> Bucket<E>[] newBucketArray(int length) {
+        return (Bucket<E>[])new Bucket<?>[length];
+    }
+    
     private interface Bucket<E> {
         E get(int index);
         
@@ -55,6 +59,46 @@ public class PersistentArrayList<E> extends AbstractOrderedCollection<E> impleme
         boolean findNext(BucketIterator<E> iterator);
         
         Bucket<E>[] split();
+        
+        /**
+         * Returns this bucket if it is editable, or an editable copy with room for {@code bucketSizeMax} entries.
+         */
+        EditableBucket<E> toEditable(int bucketSizeMax);
+        
+        /**
+         * Returns this bucket if it is not editable, or an immutable copy of it and its editable children. An editable
+         * bucket may hand its arrays over to the copy and must not be changed afterwards.
+         */
+        Bucket<E> freeze();
+    }
+    
+    /**
+     * A bucket of an {@link Editor}, which is changed in place. It is only reachable from the editor, and is replaced
+     * by an immutable copy when the editor is frozen. Its children may be shared, immutable buckets, which are
+     * replaced by editable copies when they are changed.
+     */
+    private interface EditableBucket<E> extends Bucket<E> {
+        
+        /**
+         * Inserts the {@code element} at the given {@code index}. The bucket must not be full.
+         */
+        void add(E element, int index, int bucketSizeMax);
+        
+        /**
+         * @return the replaced element
+         */
+        E set(int index, E element, int bucketSizeMax);
+        
+        /**
+         * @return the removed element
+         */
+        E remove(int index, int bucketSizeMax);
+        
+        /**
+         * Appends the entries of {@code other}, which has the same depth as this bucket. The result must not have more
+         * than {@code bucketSizeMax} entries.
+         */
+        void appendAll(Bucket<E> other, int bucketSizeMax);
     }
     
     private static class EmptyBucket<E> implements Bucket<E> {
@@ -112,6 +156,16 @@ public class PersistentArrayList<E> extends AbstractOrderedCollection<E> impleme
             throw Assert.fail("Empty bucket cannot be split");
         }
         
+        @Override
+        public EditableBucket<E> toEditable(int bucketSizeMax) {
+            return new EditableLeafBucket<E>(ArrayUtil.<E>unsafeCastedNewArray(bucketSizeMax), 0);
+        }
+        
+        @Override
+        public Bucket<E> freeze() {
+            return this;
+        }
+        
     }
     
     private static class LeafBucket<E> implements Bucket<E> {
@@ -186,7 +240,7 @@ public class PersistentArrayList<E> extends AbstractOrderedCollection<E> impleme
         @Override
         public Bucket<E>[] split() {
             int splitPoint = size() / 2;
-            Bucket<E>[] buckets = ArrayUtil.unsafeCast(new Bucket[2]);
+            Bucket<E>[] buckets = newBucketArray(2);
             buckets[0] = new LeafBucket<E>(Arrays.copyOf(elements, splitPoint));
             buckets[1] = new LeafBucket<E>(Arrays.copyOfRange(elements, splitPoint, elements.length));
             return buckets;
@@ -201,6 +255,348 @@ public class PersistentArrayList<E> extends AbstractOrderedCollection<E> impleme
             iterator.setCurrent(elements[index]);
             return true;
         }
+        
+        @Override
+        public EditableBucket<E> toEditable(int bucketSizeMax) {
+            E[] editableElements = Arrays.copyOf(elements, Math.max(bucketSizeMax, elements.length));
+            return new EditableLeafBucket<E>(editableElements, elements.length);
+        }
+        
+        @Override
+        public Bucket<E> freeze() {
+            return this;
+        }
+    }
+    
+    /**
+     * Base class for the editable buckets. The persistent operations are not used by the {@link Editor} and work on an
+     * immutable copy.
+     */
+    private static abstract class AbstractEditableBucket<E> implements EditableBucket<E> {
+        
+        @Override
+        public Bucket<E> with(E element, int bucketSizeMax) {
+            return freeze().with(element, bucketSizeMax);
+        }
+        
+        @Override
+        public Bucket<E> with(E element, int index, int bucketSizeMax) {
+            return freeze().with(element, index, bucketSizeMax);
+        }
+        
+        @Override
+        public Bucket<E> without(int index) {
+            return freeze().without(index);
+        }
+        
+        @Override
+        public Bucket<E> withReplacementAt(E element, int index) {
+            return freeze().withReplacementAt(element, index);
+        }
+        
+        @Override
+        public Bucket<E> withAllReplaced(E oldElement, E newElement) {
+            return freeze().withAllReplaced(oldElement, newElement);
+        }
+        
+        @Override
+        public EditableBucket<E> toEditable(int bucketSizeMax) {
+            return this;
+        }
+    }
+    
+    private static class EditableLeafBucket<E> extends AbstractEditableBucket<E> {
+        
+        private E[] elements;
+        
+        private int size;
+        
+        EditableLeafBucket(E[] elements, int size) {
+            this.elements = elements;
+            this.size = size;
+        }
+        
+        @Override
+        public E get(int index) {
+            return elements[index];
+        }
+        
+        @Override
+        public int size() {
+            return size;
+        }
+        
+        @Override
+        public int bucketSize() {
+            return size;
+        }
+        
+        @Override
+        public void add(E element, int index, int bucketSizeMax) {
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, 2 * size);
+            }
+            System.arraycopy(elements, index, elements, index + 1, size - index);
+            elements[index] = element;
+            size++;
+        }
+        
+        @Override
+        public E set(int index, E element, int bucketSizeMax) {
+            E oldElement = elements[index];
+            elements[index] = element;
+            return oldElement;
+        }
+        
+        @Override
+        public E remove(int index, int bucketSizeMax) {
+            E element = elements[index];
+            System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+            size--;
+            // Clear array entry to not prevent garbage collection of object.
+            elements[size] = null;
+            return element;
+        }
+        
+        @Override
+        public void appendAll(Bucket<E> other, int bucketSizeMax) {
+            int otherSize = other.size();
+            if (size + otherSize > elements.length) {
+                elements = Arrays.copyOf(elements, Math.max(bucketSizeMax, size + otherSize));
+            }
+            for (int i = 0; i < otherSize; ++i) {
+                elements[size + i] = other.get(i);
+            }
+            size += otherSize;
+        }
+        
+        @Override
+        public boolean findNext(BucketIterator<E> iterator) {
+            int index = iterator.getAndIncrementIndex();
+            if (index == size) {
+                return false;
+            }
+            iterator.setCurrent(elements[index]);
+            return true;
+        }
+        
+        @Override
+        public Bucket<E>[] split() {
+            int splitPoint = size / 2;
+            Bucket<E>[] buckets = newBucketArray(2);
+            E[] elements1 = ArrayUtil.unsafeCastedNewArray(elements.length);
+            System.arraycopy(elements, splitPoint, elements1, 0, size - splitPoint);
+            buckets[1] = new EditableLeafBucket<E>(elements1, size - splitPoint);
+            Arrays.fill(elements, splitPoint, size, null);
+            size = splitPoint;
+            buckets[0] = this;
+            return buckets;
+        }
+        
+        @Override
+        public Bucket<E> freeze() {
+            if (size == 0) {
+                return emptyBucket();
+            }
+            // A full leaf hands its array over, which is the common case for appended elements.
+            return new LeafBucket<E>((size == elements.length) ? elements : Arrays.copyOf(elements, size));
+        }
+    }
+    
+    private static class EditableInnerBucket<E> extends AbstractEditableBucket<E> {
+        
+        private final Bucket<E>[] buckets;
+        
+        private final int[] splitPositions;
+        
+        private int bucketCount;
+        
+        EditableInnerBucket(Bucket<E>[] buckets, int[] splitPositions, int bucketCount) {
+            this.buckets = buckets;
+            this.splitPositions = splitPositions;
+            this.bucketCount = bucketCount;
+        }
+        
+        /**
+         * Creates a new root with the two halves of the given bucket as children.
+         */
+        static <E> EditableInnerBucket<E> grow(EditableBucket<E> root, int bucketSizeMax) {
+            int capacity = Math.max(bucketSizeMax, 2);
+            Bucket<E>[] buckets = newBucketArray(capacity);
+            int[] splitPositions = new int[capacity];
+            int size = root.size();
+            Bucket<E>[] halves = root.split();
+            buckets[0] = halves[0];
+            buckets[1] = halves[1];
+            splitPositions[0] = halves[0].size();
+            splitPositions[1] = size;
+            return new EditableInnerBucket<E>(buckets, splitPositions, 2);
+        }
+        
+        @Override
+        public E get(int index) {
+            int position = findChildBucket(index);
+            return buckets[position].get(index - offset(position));
+        }
+        
+        @Override
+        public int size() {
+            return (bucketCount == 0) ? 0 : splitPositions[bucketCount - 1];
+        }
+        
+        @Override
+        public int bucketSize() {
+            return bucketCount;
+        }
+        
+        private int findChildBucket(int index) {
+            int position = Arrays.binarySearch(splitPositions, 0, bucketCount, index);
+            if (position < 0) {
+                return -position - 1;
+            } else {
+                return position + 1;
+            }
+        }
+        
+        private int offset(int position) {
+            return (position == 0) ? 0 : splitPositions[position - 1];
+        }
+        
+        private EditableBucket<E> editableChild(int position, int bucketSizeMax) {
+            EditableBucket<E> child = buckets[position].toEditable(bucketSizeMax);
+            buckets[position] = child;
+            return child;
+        }
+        
+        @Override
+        public void add(E element, int index, int bucketSizeMax) {
+            int position = Math.min(bucketCount - 1, findChildBucket(index));
+            EditableBucket<E> child = editableChild(position, bucketSizeMax);
+            if (child.bucketSize() >= bucketSizeMax) {
+                if (index == size() && (child instanceof EditableLeafBucket)) {
+                    // Starts a new leaf instead of splitting the last one, so the leaves of appended elements are full.
+                    buckets[bucketCount] =
+                            new EditableLeafBucket<E>(ArrayUtil.<E>unsafeCastedNewArray(bucketSizeMax), 0);
+                    splitPositions[bucketCount] = index;
+                    bucketCount++;
+                } else {
+                    splitChild(position, child);
+                }
+                position = Math.min(bucketCount - 1, findChildBucket(index));
+                child = (EditableBucket<E>)buckets[position];
+            }
+            child.add(element, index - offset(position), bucketSizeMax);
+            for (int i = position; i < bucketCount; ++i) {
+                splitPositions[i]++;
+            }
+        }
+        
+        private void splitChild(int position, EditableBucket<E> child) {
+            int offset = offset(position);
+            Bucket<E>[] halves = child.split();
+            System.arraycopy(buckets, position + 1, buckets, position + 2, bucketCount - position - 1);
+            System.arraycopy(splitPositions, position, splitPositions, position + 1, bucketCount - position);
+            buckets[position] = halves[0];
+            buckets[position + 1] = halves[1];
+            splitPositions[position] = offset + halves[0].size();
+            bucketCount++;
+        }
+        
+        @Override
+        public E set(int index, E element, int bucketSizeMax) {
+            int position = findChildBucket(index);
+            return editableChild(position, bucketSizeMax).set(index - offset(position), element, bucketSizeMax);
+        }
+        
+        @Override
+        public E remove(int index, int bucketSizeMax) {
+            int position = findChildBucket(index);
+            EditableBucket<E> child = editableChild(position, bucketSizeMax);
+            E element = child.remove(index - offset(position), bucketSizeMax);
+            for (int i = position; i < bucketCount; ++i) {
+                splitPositions[i]--;
+            }
+            if (child.size() == 0) {
+                System.arraycopy(buckets, position + 1, buckets, position, bucketCount - position - 1);
+                System.arraycopy(splitPositions, position + 1, splitPositions, position, bucketCount - position - 1);
+                bucketCount--;
+                buckets[bucketCount] = null;
+            } else if (child.bucketSize() < bucketSizeMax / 4) {
+                mergeChild(position, bucketSizeMax);
+            }
+            return element;
+        }
+        
+        /**
+         * Merges the child at the given {@code position} with a neighbour if the result is at most half full, so it is
+         * not split again by the next insertions.
+         */
+        private void mergeChild(int position, int bucketSizeMax) {
+            int left = (position == 0) ? 0 : position - 1;
+            int right = left + 1;
+            if (right == bucketCount || buckets[left].bucketSize() + buckets[right].bucketSize() > bucketSizeMax / 2) {
+                return;
+            }
+            editableChild(left, bucketSizeMax).appendAll(buckets[right], bucketSizeMax);
+            System.arraycopy(buckets, right + 1, buckets, right, bucketCount - right - 1);
+            System.arraycopy(splitPositions, right, splitPositions, left, bucketCount - right);
+            bucketCount--;
+            buckets[bucketCount] = null;
+        }
+        
+        @Override
+        public void appendAll(Bucket<E> other, int bucketSizeMax) {
+            EditableInnerBucket<E> editable = (EditableInnerBucket<E>)other.toEditable(bucketSizeMax);
+            int offset = size();
+            for (int i = 0; i < editable.bucketCount; ++i) {
+                buckets[bucketCount] = editable.buckets[i];
+                splitPositions[bucketCount] = offset + editable.splitPositions[i];
+                bucketCount++;
+            }
+        }
+        
+        @Override
+        public boolean findNext(BucketIterator<E> iterator) {
+            int idx;
+            while ((idx = iterator.getAndIncrementIndex()) < bucketCount) {
+                Bucket<E> bucket = buckets[idx];
+                iterator.push(bucket);
+                return bucket.findNext(iterator);
+            }
+            return false;
+        }
+        
+        @Override
+        public Bucket<E>[] split() {
+            int splitPoint = bucketCount / 2;
+            int offset = splitPositions[splitPoint - 1];
+            Bucket<E>[] buckets1 = newBucketArray(buckets.length);
+            int[] splitPositions1 = new int[splitPositions.length];
+            for (int i = splitPoint; i < bucketCount; ++i) {
+                buckets1[i - splitPoint] = buckets[i];
+                buckets[i] = null;
+                splitPositions1[i - splitPoint] = splitPositions[i] - offset;
+            }
+            Bucket<E>[] result = newBucketArray(2);
+            result[1] = new EditableInnerBucket<E>(buckets1, splitPositions1, bucketCount - splitPoint);
+            bucketCount = splitPoint;
+            result[0] = this;
+            return result;
+        }
+        
+        @Override
+        public Bucket<E> freeze() {
+            if (bucketCount == 0) {
+                return emptyBucket();
+            }
+            for (int i = 0; i < bucketCount; ++i) {
+                buckets[i] = buckets[i].freeze();
+            }
+            if (bucketCount == buckets.length) {
+                return new InnerBucket<E>(buckets, splitPositions);
+            }
+            return new InnerBucket<E>(Arrays.copyOf(buckets, bucketCount), Arrays.copyOf(splitPositions, bucketCount));
+        }
     }
     
     private static class InnerBucket<E> implements Bucket<E> {
@@ -351,7 +747,7 @@ public class PersistentArrayList<E> extends AbstractOrderedCollection<E> impleme
         @Override
         public Bucket<E>[] split() {
             int splitPoint = bucketSize() / 2;
-            Bucket<E>[] result = ArrayUtil.unsafeCast(new Bucket[2]);
+            Bucket<E>[] result = newBucketArray(2);
             int[] splitPositions0 = Arrays.copyOf(splitPositions, splitPoint);
             int[] splitPositions1 = new int[bucketSize() - splitPoint];
             for (int i = 0; i < splitPositions1.length; ++i) {
@@ -361,6 +757,18 @@ public class PersistentArrayList<E> extends AbstractOrderedCollection<E> impleme
             result[1] = new InnerBucket<E>(Arrays.copyOfRange(buckets, splitPoint, bucketSize()), splitPositions1);
             return result;
         }
+        
+        @Override
+        public EditableBucket<E> toEditable(int bucketSizeMax) {
+            int capacity = Math.max(bucketSizeMax, buckets.length);
+            return new EditableInnerBucket<E>(Arrays.copyOf(buckets, capacity), Arrays.copyOf(splitPositions, capacity),
+                    buckets.length);
+        }
+        
+        @Override
+        public Bucket<E> freeze() {
+            return this;
+        }
     }
     
     public static <E> PersistentArrayList<E> empty() {
@@ -483,15 +891,12 @@ public class PersistentArrayList<E> extends AbstractOrderedCollection<E> impleme
     
     @Override
     public PersistentArrayList<E> withAll(Collection<? extends E> elements) {
-        // TODO optimize
-        Bucket<E> newRoot = root;
-        for (E element: elements) {
-            newRoot = maybeGrowRoot(newRoot.with(element, bucketSizeMax));
-        }
-        if (newRoot == root) {
+        if (elements.isEmpty()) {
             return this;
         }
-        return new PersistentArrayList<>(newRoot, bucketSizeMax);
+        Editor<E> editor = edit();
+        editor.addAll(elements);
+        return editor.freeze();
     }
     
     private Bucket<E> maybeGrowRoot(Bucket<E> newRoot) {
@@ -556,6 +961,119 @@ public class PersistentArrayList<E> extends AbstractOrderedCollection<E> impleme
         return empty(bucketSizeMax);
     }
     
+    /**
+     * Returns an editor which starts with the elements of this list.
+     */
+    public Editor<E> edit() {
+        return new Editor<E>(root, bucketSizeMax);
+    }
+    
+    /**
+     * Changes an array list without copying the path to the root for each change: The buckets copied by the editor
+     * have room for {@code bucketSizeMax} entries and are changed in place by its later changes, until
+     * {@link #freeze()} returns the persistent list.
+     */
+    @NotThreadSafe
+    public static final class Editor<E> {
+        
+        private Bucket<E> root;
+        
+        private final int bucketSizeMax;
+        
+        private Editor(Bucket<E> root, int bucketSizeMax) {
+            this.root = root;
+            this.bucketSizeMax = bucketSizeMax;
+        }
+        
+        public int size() {
+            return root.size();
+        }
+        
+        public E get(int index) {
+            checkIndex(index, size());
+            return root.get(index);
+        }
+        
+        public void add(E element) {
+            add(element, size());
+        }
+        
+        /**
+         * Inserts the {@code element} at the given {@code index}. The elements at the following positions are shifted
+         * to the right.
+         */
+        public void add(E element, int index) {
+            PreConditions.paramNotNull(element);
+            checkIndex(index, size() + 1);
+            EditableBucket<E> editableRoot = root.toEditable(bucketSizeMax);
+            editableRoot.add(element, index, bucketSizeMax);
+            if (editableRoot.bucketSize() >= bucketSizeMax) {
+                editableRoot = EditableInnerBucket.grow(editableRoot, bucketSizeMax);
+            }
+            root = editableRoot;
+        }
+        
+        public void addAll(Iterable<? extends E> elements) {
+            for (E element: elements) {
+                add(element);
+            }
+        }
+        
+        /**
+         * Replaces the element at the given {@code index}.
+         *
+         * @return the replaced element
+         */
+        public E set(int index, E element) {
+            PreConditions.paramNotNull(element);
+            E oldElement = get(index);
+            if (!oldElement.equals(element)) {
+                EditableBucket<E> editableRoot = root.toEditable(bucketSizeMax);
+                editableRoot.set(index, element, bucketSizeMax);
+                root = editableRoot;
+            }
+            return oldElement;
+        }
+        
+        /**
+         * Removes the element at the given {@code index}. The elements at the following positions are shifted to the
+         * left.
+         *
+         * @return the removed element
+         */
+        public E removeElementAt(int index) {
+            checkIndex(index, size());
+            EditableBucket<E> editableRoot = root.toEditable(bucketSizeMax);
+            E element = editableRoot.remove(index, bucketSizeMax);
+            if (editableRoot.size() == 0) {
+                root = emptyBucket();
+            } else if ((editableRoot instanceof EditableInnerBucket) && editableRoot.bucketSize() == 1) {
+                root = ((EditableInnerBucket<E>)editableRoot).buckets[0];
+            } else {
+                root = editableRoot;
+            }
+            return element;
+        }
+        
+        private static void checkIndex(int index, int size) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException();
+            }
+        }
+        
+        /**
+         * Returns the current elements as a persistent list. The editor stays usable, its next changes copy the
+         * buckets shared with the returned list.
+         */
+        public PersistentArrayList<E> freeze() {
+            root = root.freeze();
+            if (root == EMPTY_BUCKET) {
+                return empty(bucketSizeMax);
+            }
+            return new PersistentArrayList<>(root, bucketSizeMax);
+        }
+    }
+    
     public static <E> Builder<E> newBuilder() {
         return newBuilder(DEFAULT_BUCKET_MAX_SIZE);
     }
@@ -569,35 +1087,30 @@ public class PersistentArrayList<E> extends AbstractOrderedCollection<E> impleme
         
         private final int bucketSizeMax;
         
-        @Nullable
-        private ArrayList<E> list = new ArrayList<>();
+        private Editor<E> editor;
         
         Builder(int bucketSizeMax) {
             this.bucketSizeMax = bucketSizeMax;
+            this.editor = PersistentArrayList.<E>empty(bucketSizeMax).edit();
         }
         
         @Override
         protected void _add(E element) {
-            list.push(element);
+            editor.add(element);
         }
         
         public boolean isEmpty() {
-            return list.isEmpty();
+            return editor.size() == 0;
         }
         
         @Override
         protected PersistentList<E> _createCollection() {
-            PersistentArrayList<E> result = empty(bucketSizeMax);
-            if (!list.isEmpty()) {
-                result = result.withAll(list);
-            }
-            list = null;
-            return result;
+            return editor.freeze();
         }
         
         @Override
         protected void _reset() {
-            list = new ArrayList<>();
+            editor = PersistentArrayList.<E>empty(bucketSizeMax).edit();
         }
         
     }
@@ -58,6 +58,10 @@ public class PersistentCollections {
         return PersistentHashSet.copyOf(collection);
     }
     
+    public static <E> ChampHashSet<E> champSetOf() {
+        return ChampHashSet.empty();
+    }
+    
     // PersistentOrderedSet
     
     public static <E> PersistentOrderedSet<E> orderedSetOf() {
@@ -139,6 +143,10 @@ public class PersistentCollections {
         return PersistentHashMap.empty();
     }
     
+    public static <K, V> ChampHashMap<K, V> champMapOf() {
+        return ChampHashMap.empty();
+    }
+    
     public static <K extends Comparable<K>, V> PersistentMap<K, V> treeMapOf(Class<K> keyClass) {
         return PersistentTreeMap.empty(keyClass);
     }
@@ -153,6 +161,11 @@ public class PersistentCollections {
         return PersistentMultiMapImpl.<K, V>empty();
     }
     
+    public static <K extends Comparable<K>, V extends Comparable<V>> PersistentMultiMap<K, V> treeMultiMapOf(
+            Class<K> keyClass, Class<V> valueClass) {
+        return PersistentTreeMultiMap.empty(keyClass, valueClass);
+    }
+    
     // Misc utility functions
     
     /**
@@ -17,6 +17,8 @@ import org.povworld.collection.common.AbstractKeySet;
 import org.povworld.collection.common.AbstractMap;
 import org.povworld.collection.common.Assert;
 import org.povworld.collection.common.EntryValueIterator;
+import org.povworld.collection.common.MemoryMeasurable;
+import org.povworld.collection.common.MemoryStats;
 import org.povworld.collection.common.PreConditions;
 import org.povworld.collection.immutable.ImmutableCollection;
 
@@ -25,7 +27,7 @@ import org.povworld.collection.immutable.ImmutableCollection;
  */
 // TODO Use same principle as in {@link PersistentHashSet}.
 @Immutable
-public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements PersistentMap<K, V> {
+public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements PersistentMap<K, V>, MemoryMeasurable {
     
     @SuppressWarnings("unchecked")
     public static <K, V> PersistentHashMap<K, V> empty() {
@@ -129,6 +131,16 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
                 Identificator<? super V> valueIdentificator,
                 K key, int hashvalue, V value, int rshift);
         
+        /**
+         * Inserts the entries of the {@code batch} from index {@code from} (inclusive) to {@code to} (exclusive).
+         * These entries share the hash bits below {@code rshift}, which lead to this bucket.
+         * @return an updated bucket or the same bucket when all key/value pairs were already contained
+         */
+        public Bucket<K, V> putAll(
+                Identificator<? super K> keyIdentificator,
+                Identificator<? super V> valueIdentificator,
+                Batch<K, V> batch, int from, int to, int rshift);
+        
         /**
          * NOTE: Returns {@code null} iff the new bucket would be empty!
          */
@@ -146,6 +158,49 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          */
         public K getFirstKeyOrNull();
         
+        public void addFootprint(MemoryStats.Builder stats, int depth);
+        
+    }
+    
+    /**
+     * Entries to be inserted with {@link Bucket#putAll}. The entries are sorted by the hash fragments which select
+     * the table slots from the root downwards, so the entries which share a path from the root are adjacent. This
+     * allows to insert them in a single descent which copies each touched bucket once.
+     */
+    protected static final class Batch<K, V> {
+        
+        private final K[] keys;
+        
+        private final V[] values;
+        
+        private final int[] hashValues;
+        
+        Batch(Identificator<? super K> keyIdentificator, Map<? extends K, ? extends V> map) {
+            int size = map.keyCount();
+            K[] unsortedKeys = createArray(size);
+            V[] unsortedValues = createArray(size);
+            int[] unsortedHashValues = new int[size];
+            EntryIterator<? extends K, ? extends V> iter = map.entryIterator();
+            for (int i = 0; iter.next(); ++i) {
+                unsortedKeys[i] = iter.getCurrentKey();
+                unsortedValues[i] = iter.getCurrentValue();
+                unsortedHashValues[i] = keyIdentificator.hashCode(unsortedKeys[i]);
+            }
+            int[] order = HashTrieBatchOrder.sortedIndices(unsortedHashValues, size, HASH_BITS);
+            keys = createArray(size);
+            values = createArray(size);
+            hashValues = new int[size];
+            for (int i = 0; i < size; ++i) {
+                int index = order[i];
+                keys[i] = unsortedKeys[index];
+                values[i] = unsortedValues[index];
+                hashValues[i] = unsortedHashValues[index];
+            }
+        }
+        
+        int size() {
+            return keys.length;
+        }
     }
     
     private static class EmptyBucket<K, V> implements Bucket<K, V> {
@@ -167,6 +222,17 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
             return new SingleEntryBucket<K, V>(key, hashvalue, value);
         }
         
+        @Override
+        public Bucket<K, V> putAll(Identificator<? super K> keyIdentificator, Identificator<? super V> valueIdentificator,
+                Batch<K, V> batch, int from, int to, int rshift) {
+            if (to - from == 1) {
+                return put(keyIdentificator, valueIdentificator, batch.keys[from], batch.hashValues[from], batch.values[from], rshift);
+            }
+            LeafBucket<K, V> leaf =
+                    new LeafBucket<K, V>(PersistentHashMap.<K>createArray(0), PersistentHashMap.<V>createArray(0), new int[0]);
+            return leaf.putAll(keyIdentificator, valueIdentificator, batch, from, to, rshift);
+        }
+        
         @Override
         public Bucket<K, V> remove(Identificator<? super K> identificator, K key, int hashvalue, int rshift) {
             return this;
@@ -187,6 +253,11 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
         public K getFirstKeyOrNull() {
             return null;
         }
+        
+        @Override
+        public void addFootprint(MemoryStats.Builder stats, int depth) {
+            // The empty bucket is shared.
+        }
     }
     
     private static class SingleEntryBucket<K, V> implements Bucket<K, V> {
@@ -235,6 +306,17 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
             }
         }
         
+        @Override
+        public Bucket<K, V> putAll(Identificator<? super K> keyIdentificator, Identificator<? super V> valueIdentificator,
+                Batch<K, V> batch, int from, int to, int rshift) {
+            if (to - from == 1) {
+                return put(keyIdentificator, valueIdentificator, batch.keys[from], batch.hashValues[from], batch.values[from], rshift);
+            }
+            LeafBucket<K, V> leaf = new LeafBucket<K, V>(arrayOf(key), arrayOf(value), new int[] {hashValue});
+            Bucket<K, V> newBucket = leaf.putAll(keyIdentificator, valueIdentificator, batch, from, to, rshift);
+            return (newBucket == leaf) ? this : newBucket;
+        }
+        
         @Override
         public Bucket<K, V> remove(Identificator<? super K> keyIdentificator, K key, int hashvalue, int rshift) {
             if (findKey(keyIdentificator, key, hashvalue, rshift) == null) {
@@ -262,6 +344,11 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
             return key;
         }
         
+        @Override
+        public void addFootprint(MemoryStats.Builder stats, int depth) {
+            stats.addObject(this).addEntry(depth);
+        }
+        
     }
     
     private static class LeafBucket<K, V> implements Bucket<K, V> {
@@ -304,7 +391,17 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          * @return the index of the key or {@code -insertionIndex} if the key is not present
          */
         private int indexOf(Identificator<? super K> identificator, K key, int hashvalue) {
-            int size = size();
+            return indexOf(identificator, keys, hashValues, keys.length, key, hashvalue);
+        }
+        
+        /**
+         * Searches the first {@code size} entries of the given arrays.
+         */
+        private static <K> int indexOf(Identificator<? super K> identificator, K[] keys, int[] hashValues, int size, K key,
+                int hashvalue) {
+            if (size == 0) {
+                return -1;
+            }
             // Do an interpolation step.
             int index = (int)(size * ((long)hashvalue - Integer.MIN_VALUE) >>> 32);
             
@@ -354,7 +451,8 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
             index = -index - 1;
             int newSize = keys.length + 1;
             if ((newSize > COMPACT_BUCKET_SPLIT_SIZE) && (rshift < 32)) {
-                Bucket<K, V>[] hashtable = buildHashtable(keyIdentificator, valueIdentificator, key, hashvalue, value, rshift);
+                Bucket<K, V>[] hashtable = buildHashtable(rshift);
+                putEntry(keyIdentificator, valueIdentificator, hashtable, key, hashvalue, value, rshift);
                 return new HashBucket<K, V>(hashtable, newSize);
             }
             K[] newKeys = Arrays.copyOf(keys, newSize);
@@ -373,8 +471,57 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
             return new LeafBucket<K, V>(newKeys, newValues, newHashValues);
         }
         
-        private Bucket<K, V>[] buildHashtable(Identificator<? super K> keyIdentificator, Identificator<? super V> valueIdentificator, K key,
-                int hashvalue, V value, int rshift) {
+        @Override
+        public Bucket<K, V> putAll(Identificator<? super K> keyIdentificator, Identificator<? super V> valueIdentificator,
+                Batch<K, V> batch, int from, int to, int rshift) {
+            if ((keys.length + to - from > COMPACT_BUCKET_SPLIT_SIZE) && (rshift < 32)) {
+                // Split first, so the batch gets partitioned instead of merged into an oversized leaf.
+                HashBucket<K, V> split = new HashBucket<K, V>(buildHashtable(rshift), keys.length);
+                Bucket<K, V> newBucket = split.putAll(keyIdentificator, valueIdentificator, batch, from, to, rshift);
+                return (newBucket == split) ? this : newBucket;
+            }
+            
+            // Merge the batch into copies of the arrays which have room for all entries.
+            int newSize = keys.length;
+            int capacity = newSize + to - from;
+            K[] newKeys = Arrays.copyOf(keys, capacity);
+            V[] newValues = Arrays.copyOf(values, capacity);
+            int[] newHashValues = Arrays.copyOf(hashValues, capacity);
+            boolean changed = false;
+            for (int i = from; i < to; ++i) {
+                K key = batch.keys[i];
+                V value = batch.values[i];
+                int hashvalue = batch.hashValues[i];
+                int index = indexOf(keyIdentificator, newKeys, newHashValues, newSize, key, hashvalue);
+                if (index >= 0) {
+                    // Compare with == not with equals as required by PersistentMap.put.
+                    if (newValues[index] != value) {
+                        newValues[index] = value;
+                        changed = true;
+                    }
+                    continue;
+                }
+                index = -index - 1;
+                System.arraycopy(newKeys, index, newKeys, index + 1, newSize - index);
+                System.arraycopy(newValues, index, newValues, index + 1, newSize - index);
+                System.arraycopy(newHashValues, index, newHashValues, index + 1, newSize - index);
+                newKeys[index] = key;
+                newValues[index] = value;
+                newHashValues[index] = hashvalue;
+                newSize++;
+                changed = true;
+            }
+            if (!changed) {
+                return this;
+            }
+            if (newSize == 1) {
+                return new SingleEntryBucket<K, V>(newKeys[0], newHashValues[0], newValues[0]);
+            }
+            return new LeafBucket<K, V>(Arrays.copyOf(newKeys, newSize), Arrays.copyOf(newValues, newSize),
+                    Arrays.copyOf(newHashValues, newSize));
+        }
+        
+        private Bucket<K, V>[] buildHashtable(int rshift) {
             // Compute the table index for each entry and build an array of key indices for each table index. 
             byte[] hits = new byte[HASH_TABLE_SIZE];
             byte[][] table = new byte[HASH_TABLE_SIZE][];
@@ -413,8 +560,6 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
                     hashtable[i] = new LeafBucket<K, V>(indexKeys, indexValues, indexHashes);
                 }
             }
-            
-            putEntry(keyIdentificator, valueIdentificator, hashtable, key, hashvalue, value, rshift);
             return hashtable;
         }
         
@@ -479,6 +624,12 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
             return keys[0];
         }
         
+        @Override
+        public void addFootprint(MemoryStats.Builder stats, int depth) {
+            stats.addObject(this).addArray(keys).addArray(values).addArray(hashValues.length, 4)
+                    .addEntries(depth, keys.length);
+        }
+        
     }
     
     private static class HashBucket<K, V> implements Bucket<K, V> {
@@ -536,6 +687,36 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
             }
         }
         
+        @Override
+        public Bucket<K, V> putAll(Identificator<? super K> keyIdentificator, Identificator<? super V> valueIdentificator,
+                Batch<K, V> batch, int from, int to, int rshift) {
+            Bucket<K, V>[] newTable = null;
+            int newSize = size;
+            int start = from;
+            while (start < to) {
+                // The entries going to the same sub-bucket are adjacent in the batch.
+                int index = tableIndex(batch.hashValues[start], rshift);
+                int end = start + 1;
+                while (end < to && tableIndex(batch.hashValues[end], rshift) == index) {
+                    end++;
+                }
+                Bucket<K, V> bucket = (hashtable[index] == null) ? PersistentHashMap.<K, V>emptyBucket() : hashtable[index];
+                Bucket<K, V> newBucket = bucket.putAll(keyIdentificator, valueIdentificator, batch, start, end, rshift + HASH_BITS);
+                if (newBucket != bucket) {
+                    if (newTable == null) {
+                        newTable = hashtable.clone();
+                    }
+                    newTable[index] = newBucket;
+                    newSize += newBucket.size() - bucket.size();
+                }
+                start = end;
+            }
+            if (newTable == null) {
+                return this;
+            }
+            return new HashBucket<K, V>(newTable, newSize);
+        }
+        
         @Override
         public Bucket<K, V> remove(Identificator<? super K> keyIdentificator, K key, int hashvalue, int rshift) {
             int index = tableIndex(hashvalue, rshift);
@@ -582,6 +763,16 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
             throw Assert.fail(HashBucket.class.getSimpleName() + " is empty");
         }
         
+        @Override
+        public void addFootprint(MemoryStats.Builder stats, int depth) {
+            stats.addObject(this).addArray(hashtable);
+            for (Bucket<K, V> bucket: hashtable) {
+                if (bucket != null) {
+                    bucket.addFootprint(stats, depth + 1);
+                }
+            }
+        }
+        
     }
     
     protected static class MapEntryIterator<K, V> implements EntryIterator<K, V> {
@@ -813,6 +1004,17 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
         return root.size();
     }
     
+    /**
+     * The depth of an entry is the level of its leaf bucket. Buckets shared with other versions of the map are
+     * included.
+     */
+    @Override
+    public MemoryStats estimateFootprint() {
+        MemoryStats.Builder stats = MemoryStats.newBuilder().addObject(this);
+        root.addFootprint(stats, 0);
+        return stats.build();
+    }
+    
     @Override
     public boolean containsKey(K key) {
         Identificator<? super K> keyIdentificator = getKeyIdentificator();
@@ -849,15 +1051,12 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
     
     @Override
     public PersistentHashMap<K, V> withAll(Map<? extends K, ? extends V> map) {
-        final Identificator<? super K> keyIdentificator = getKeyIdentificator();
-        final Identificator<? super V> valueIdentificator = getValueIdentificator();
-        Bucket<K, V> newRoot = root;
-        EntryIterator<? extends K, ? extends V> iter = map.entryIterator();
-        while (iter.next()) {
-            K key = iter.getCurrentKey();
-            V value = iter.getCurrentValue();
-            newRoot = newRoot.put(keyIdentificator, valueIdentificator, key, keyIdentificator.hashCode(key), value, 0);
+        if (map.isEmpty()) {
+            return this;
         }
+        final Identificator<? super K> keyIdentificator = getKeyIdentificator();
+        Batch<K, V> batch = new Batch<K, V>(keyIdentificator, map);
+        Bucket<K, V> newRoot = root.putAll(keyIdentificator, getValueIdentificator(), batch, 0, batch.size(), 0);
         if (newRoot == root) {
             return this;
         }
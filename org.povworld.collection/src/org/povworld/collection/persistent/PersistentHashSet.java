@@ -16,6 +16,8 @@ import org.povworld.collection.common.AbstractUnOrderedCollection;
 import org.povworld.collection.common.ArrayUtil;
 import org.povworld.collection.common.Assert;
 import org.povworld.collection.common.EmptyIterator;
+import org.povworld.collection.common.MemoryMeasurable;
+import org.povworld.collection.common.MemoryStats;
 import org.povworld.collection.common.PreConditions;
 import org.povworld.collection.mutable.ArrayList;
 import org.povworld.collection.mutable.HashSet;
@@ -34,7 +36,7 @@ import org.povworld.collection.mutable.HashSet;
  * <p>If too many entries with full 32-bit hash collision are present they will be put into a separate 
  * {@link CollisionBucket} which contains an array of colliding elements for each hash value. 
  */
-public class PersistentHashSet<E> extends AbstractUnOrderedCollection<E> implements PersistentSet<E> {
+public class PersistentHashSet<E> extends AbstractUnOrderedCollection<E> implements PersistentSet<E>, MemoryMeasurable {
     
     protected static final int HASH_BITS = 6;
     
@@ -83,6 +85,8 @@ public class PersistentHashSet<E> extends AbstractUnOrderedCollection<E> impleme
         boolean isFullLeaf();
         
         int leafSize();
+        
+        void addFootprint(MemoryStats.Builder stats, int depth);
     }
     
     private static int rawIndex(int hashvalue) {
@@ -134,6 +138,11 @@ public class PersistentHashSet<E> extends AbstractUnOrderedCollection<E> impleme
         public int leafSize() {
             return 0;
         }
+        
+        @Override
+        public void addFootprint(MemoryStats.Builder stats, int depth) {
+            // The empty bucket is shared.
+        }
     }
     
     static class InnerBucket<E> implements Bucket<E> {
@@ -147,6 +156,14 @@ public class PersistentHashSet<E> extends AbstractUnOrderedCollection<E> impleme
             this.occupied = occupied;
         }
         
+        @Override
+        public void addFootprint(MemoryStats.Builder stats, int depth) {
+            stats.addObject(this).addArray(buckets);
+            for (Bucket<E> bucket: buckets) {
+                bucket.addFootprint(stats, depth + 1);
+            }
+        }
+        
         @Override
         public Bucket<E> add(Identificator<? super E> identificator, E element, int hashValue, int rshift) {
             int rawIndex = rawIndex(hashValue >>> rshift);
@@ -360,6 +377,11 @@ public class PersistentHashSet<E> extends AbstractUnOrderedCollection<E> impleme
             return elements.length;
         }
         
+        @Override
+        public void addFootprint(MemoryStats.Builder stats, int depth) {
+            stats.addObject(this).addArray(elements).addArray(hashValues.length, 4).addEntries(depth, elements.length);
+        }
+        
         @Override
         public HashBucket<E> add(Identificator<? super E> identificator, E element, int hashvalue, int rshift) {
             int rawIndex = rawIndex(hashvalue);
@@ -652,6 +674,15 @@ public class PersistentHashSet<E> extends AbstractUnOrderedCollection<E> impleme
             this.hashBase = hashBase;
         }
         
+        @Override
+        public void addFootprint(MemoryStats.Builder stats, int depth) {
+            stats.addObject(this).addArray(elements);
+            for (E[] group: elements) {
+                stats.addArray(group);
+            }
+            stats.addEntries(depth, size);
+        }
+        
         @Override
         public E findEqualOrNull(Identificator<? super E> identificator, E element, int hashValue, int rshift) {
             int rawIndex = rawIndex(hashValue);
@@ -779,7 +810,8 @@ public class PersistentHashSet<E> extends AbstractUnOrderedCollection<E> impleme
     
     protected final Identificator<? super E> identificator;
     
-    private static class EmptyPersistentHashSet<E> extends AbstractUnOrderedCollection<E> implements PersistentSet<E> {
+    private static class EmptyPersistentHashSet<E> extends AbstractUnOrderedCollection<E> implements PersistentSet<E>,
+            MemoryMeasurable {
         
         private final Identificator<? super E> identificator;
         
@@ -792,6 +824,11 @@ public class PersistentHashSet<E> extends AbstractUnOrderedCollection<E> impleme
             return 0;
         }
         
+        @Override
+        public MemoryStats estimateFootprint() {
+            return MemoryStats.newBuilder().addObject(this).build();
+        }
+        
         @Override
         public Identificator<? super E> getIdentificator() {
             return identificator;
@@ -877,6 +914,17 @@ public class PersistentHashSet<E> extends AbstractUnOrderedCollection<E> impleme
         return size;
     }
     
+    /**
+     * The depth of an element is the level of its leaf bucket. Buckets shared with other versions of the set
+     * are included.
+     */
+    @Override
+    public MemoryStats estimateFootprint() {
+        MemoryStats.Builder stats = MemoryStats.newBuilder().addObject(this);
+        root.addFootprint(stats, 0);
+        return stats.build();
+    }
+    
     @Override
     public Identificator<? super E> getIdentificator() {
         return identificator;
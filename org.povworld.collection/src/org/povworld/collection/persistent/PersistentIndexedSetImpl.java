@@ -7,16 +7,13 @@ import javax.annotation.concurrent.NotThreadSafe;
 
 import org.povworld.collection.Collection;
 import org.povworld.collection.CollectionBuilder;
-import org.povworld.collection.List;
 import org.povworld.collection.common.AbstractCollectionBuilder;
 import org.povworld.collection.common.AbstractOrderedCollection;
 import org.povworld.collection.common.Assert;
 import org.povworld.collection.common.EmptyIterator;
 import org.povworld.collection.common.ObjectUtil;
 import org.povworld.collection.common.PreConditions;
-import org.povworld.collection.mutable.ArrayList;
 import org.povworld.collection.persistent.PersistentTreeList.ListTreeNode;
-import org.povworld.collection.persistent.PersistentTreeList.TreeListBuilder;
 
 public class PersistentIndexedSetImpl<E> extends AbstractOrderedCollection<E> implements PersistentIndexedSet<E> {
     
@@ -106,83 +103,61 @@ public class PersistentIndexedSetImpl<E> extends AbstractOrderedCollection<E> im
         }
     }
     
-    private static class NewNodeCollectingTreeListBuilder<E> extends TreeListBuilder<E> {
-        private final ArrayList<ListTreeNode<E>> newNodes;
-        private final ArrayList<ListTreeNode<E>> removedNodes;
-        
-        public NewNodeCollectingTreeListBuilder(int height) {
-            newNodes = new ArrayList<>(height); // TODO *2?
-            removedNodes = new ArrayList<>(height);
-        }
-        
-        @Override
-        public ListTreeNode<E> createSubTree(ListTreeNode<E> left, ListTreeNode<E> top, ListTreeNode<E> right) {
-            ListTreeNode<E> newNode = super.createSubTree(left, top, right);
-            removedNodes.add(top);
-            newNodes.push(newNode);
-            return newNode;
-        }
-        
-        @Override
-        protected ListTreeNode<E> createSubTree(E element) {
-            ListTreeNode<E> newNode = super.createSubTree(element);
-            newNodes.push(newNode);
-            return newNode;
-        }
+    /**
+     * Tree list whose elements carry order-maintenance labels increasing with their index. The labels are kept
+     * in a hash map, so an update changes the label of the new or removed element only, unless the labels
+     * around an inserted element are too dense and a window of neighbouring elements has to be relabeled. The
+     * index of an element is found by descending the tree comparing labels.
+     */
+    private static class IndexedPersistentTreeList<E> extends PersistentTreeList<E> {
         
-        @Override
-        protected void dispose(ListTreeNode<E> node) {
-            removedNodes.add(node);
-        }
+        // Labels are in the open interval (0, MAX_LABEL).
+        private static final long MAX_LABEL = Long.MAX_VALUE;
         
-    }
-    
-    private static class IndexedPersistentTreeList<E> extends PersistentTreeList<E> {
+        private static final long FIRST_LABEL = MAX_LABEL / 2;
         
-        private final PersistentMap<E, ListTreeNode<E>> nodeMap;
+        // Gap between the labels of elements inserted at the start or end, leaving room for insertions.
+        private static final long END_GAP = 1L << 32;
         
-        private final PersistentMap<ListTreeNode<E>, ListTreeNode<E>> parentMap;
+        private final PersistentMap<E, Long> labels;
         
         IndexedPersistentTreeList(E element) {
             super(new ListTreeNode<>(element));
-            this.nodeMap = PersistentHashMap.<E, ListTreeNode<E>>empty().with(element, root);
-            this.parentMap = PersistentHashMap.empty();
+            this.labels = PersistentHashMap.<E, Long>empty().with(element, FIRST_LABEL);
         }
         
-        IndexedPersistentTreeList(ListTreeNode<E> root, PersistentMap<E, ListTreeNode<E>> nodeMap,
-                PersistentMap<ListTreeNode<E>, ListTreeNode<E>> parentMap) {
+        IndexedPersistentTreeList(ListTreeNode<E> root, PersistentMap<E, Long> labels) {
             super(root);
-            this.nodeMap = nodeMap;
-            this.parentMap = parentMap;
-            Assert.assertEquals(root.size(), nodeMap.keyCount());
-            Assert.assertEquals(root.size() - 1, parentMap.keyCount());
+            this.labels = labels;
         }
         
-        public int indexOf(E element) {
-            ListTreeNode<E> node = nodeMap.get(element);
-            if (node == null) {
-                return -1;
-            }
-            return indexOf(node);
+        private long label(E element) {
+            return labels.get(element);
         }
         
-        private int indexOf(ListTreeNode<E> node) {
-            ListTreeNode<E> parent = parentMap.get(node);
-            if (parent == null) {
-                // this node is the root
-                return size(node.getLeft());
+        public int indexOf(E element) {
+            Long label = labels.get(element);
+            if (label == null) {
+                return -1;
             }
-            
-            if (parent.getLeft() == node) {
-                // node is left child
-                return indexOf(parent) - size(node.getRight()) - 1;
-            } else {
-                // node is right child
-                return indexOf(parent) + size(node.getLeft()) + 1;
+            int index = 0;
+            ListTreeNode<E> node = root;
+            while (true) {
+                long nodeLabel = label(node.getElement());
+                if (label < nodeLabel) {
+                    node = node.getLeft();
+                } else {
+                    index += size(node.getLeft());
+                    if (label == nodeLabel) {
+                        return index;
+                    }
+                    index++;
+                    node = node.getRight();
+                }
             }
         }
         
-        private static int size(ListTreeNode<?> node) {
+        private static int size(@CheckForNull ListTreeNode<?> node) {
             return (node == null) ? 0 : node.size();
         }
         
@@ -194,62 +169,74 @@ public class PersistentIndexedSetImpl<E> extends AbstractOrderedCollection<E> im
         @Override
         public IndexedPersistentTreeList<E> with(E element, int index) {
             PreConditions.paramNotNull(element);
-            NewNodeCollectingTreeListBuilder<E> treeListBuilder = new NewNodeCollectingTreeListBuilder<>(root.getHeight());
-            ListTreeNode<E> newRoot = treeListBuilder.insert(root, index, element);
-            PersistentMap<E, ListTreeNode<E>> newNodeMap =
-                    updateNodeMap(nodeMap, treeListBuilder.newNodes, treeListBuilder.newNodes);
-            PersistentMap<ListTreeNode<E>, ListTreeNode<E>> newParentMap =
-                    updateParentMap(parentMap, treeListBuilder.newNodes, treeListBuilder.removedNodes);
-            return new IndexedPersistentTreeList<E>(newRoot, newNodeMap, newParentMap);
+            ListTreeNode<E> newRoot = getTreeManager().insert(root, index, element);
+            long lower = (index == 0) ? 0 : label(get(index - 1));
+            long upper = (index == size()) ? MAX_LABEL : label(get(index));
+            long gap = upper - lower;
+            PersistentMap<E, Long> newLabels;
+            if (gap > 1) {
+                long label;
+                if (upper == MAX_LABEL) {
+                    label = lower + Math.min(END_GAP, gap / 2);
+                } else if (lower == 0) {
+                    label = upper - Math.min(END_GAP, gap / 2);
+                } else {
+                    label = lower + gap / 2;
+                }
+                newLabels = labels.with(element, label);
+            } else {
+                newLabels = relabel(element, index);
+            }
+            return new IndexedPersistentTreeList<E>(newRoot, newLabels);
+        }
+        
+        /**
+         * Labels the elements of the smallest window around the inserted {@code element} whose label range
+         * leaves gaps larger than the window size.
+         */
+        private PersistentMap<E, Long> relabel(E element, int index) {
+            int newSize = size() + 1;
+            for (int radius = 1;; radius *= 2) {
+                int start = Math.max(0, index - radius);
+                int end = (int)Math.min(newSize, (long)index + radius + 1);
+                // The indices before the inserted element are unchanged, the others are shifted by one.
+                long lower = (start == 0) ? 0 : label(get(start - 1));
+                long upper = (end == newSize) ? MAX_LABEL : label(get(end - 1));
+                int count = end - start;
+                long spacing = (upper - lower) / (count + 1);
+                if (spacing > count || (start == 0 && end == newSize)) {
+                    Assert.assertTrue(spacing > 0, "labels exhausted");
+                    PersistentMap<E, Long> newLabels = labels;
+                    for (int i = start; i < end; ++i) {
+                        E current = (i < index) ? get(i) : (i == index) ? element : get(i - 1);
+                        newLabels = newLabels.with(current, lower + (i - start + 1) * spacing);
+                    }
+                    return newLabels;
+                }
+            }
         }
         
         @Override
         @CheckForNull
         public IndexedPersistentTreeList<E> without(int index) {
-            NewNodeCollectingTreeListBuilder<E> treeListBuilder = new NewNodeCollectingTreeListBuilder<>(root.getHeight());
-            ListTreeNode<E> newRoot = treeListBuilder.remove(root, index);
+            E element = get(index);
+            ListTreeNode<E> newRoot = getTreeManager().remove(root, index);
             if (newRoot == null) {
                 return null;
             }
-            PersistentMap<E, ListTreeNode<E>> newNodeMap =
-                    updateNodeMap(nodeMap, treeListBuilder.newNodes, treeListBuilder.removedNodes);
-            PersistentMap<ListTreeNode<E>, ListTreeNode<E>> newParentMap =
-                    updateParentMap(parentMap, treeListBuilder.newNodes, treeListBuilder.removedNodes);
-            return new IndexedPersistentTreeList<E>(newRoot, newNodeMap, newParentMap);
-        }
-        
-        private PersistentMap<ListTreeNode<E>, ListTreeNode<E>> updateParentMap(
-                PersistentMap<ListTreeNode<E>, ListTreeNode<E>> parentMap,
-                List<ListTreeNode<E>> newNodes, List<ListTreeNode<E>> removedNodes) {
-            for (ListTreeNode<E> node: removedNodes) {
-                if (node.getLeft() != null) {
-                    parentMap = parentMap.without(node.getLeft());
-                }
-                if (node.getRight() != null) {
-                    parentMap = parentMap.without(node.getRight());
-                }
-            }
-            for (ListTreeNode<E> node: newNodes) {
-                if (node.getLeft() != null) {
-                    parentMap = parentMap.with(node.getLeft(), node);
-                }
-                if (node.getRight() != null) {
-                    parentMap = parentMap.with(node.getRight(), node);
-                }
-            }
-            return parentMap;
+            return new IndexedPersistentTreeList<E>(newRoot, labels.without(element));
         }
         
-        private PersistentMap<E, ListTreeNode<E>> updateNodeMap(PersistentMap<E, ListTreeNode<E>> nodeMap,
-                List<ListTreeNode<E>> newNodes, List<ListTreeNode<E>> removedNodes) {
-            for (ListTreeNode<E> node: removedNodes) {
-                // TODO add withoutAll
-                nodeMap = nodeMap.without(node.getElement());
-            }
-            for (ListTreeNode<E> node: newNodes) {
-                nodeMap = nodeMap.with(node.getElement(), node);
+        @Override
+        public void checkInvariants() {
+            super.checkInvariants();
+            Assert.assertEquals(size(), labels.keyCount());
+            long previous = 0;
+            for (E element: this) {
+                long label = label(element);
+                Assert.assertTrue(label > previous && label < MAX_LABEL, "labels not increasing");
+                previous = label;
             }
-            return nodeMap;
         }
         
     }
@@ -285,12 +272,19 @@ public class PersistentIndexedSetImpl<E> extends AbstractOrderedCollection<E> im
     
     @Override
     public boolean contains(E element) {
-        return treeList.nodeMap.containsKey(element);
+        return treeList.labels.containsKey(element);
     }
     
     @Override
     public E findEqualOrNull(E element) {
-        return treeList.nodeMap.keys().findEqualOrNull(element);
+        return treeList.labels.keys().findEqualOrNull(element);
+    }
+    
+    /**
+     * @return the index of the given {@code element} or -1 if it is not contained
+     */
+    public int indexOf(E element) {
+        return treeList.indexOf(element);
     }
     
     @Override
@@ -326,8 +320,8 @@ public class PersistentIndexedSetImpl<E> extends AbstractOrderedCollection<E> im
     public PersistentIndexedSet<E> withAll(Collection<? extends E> elements) {
         IndexedPersistentTreeList<E> newTreeList = treeList;
         for (E element: elements) {
-            if (!contains(element)) {
-                newTreeList = treeList.with(element);
+            if (!newTreeList.labels.containsKey(element)) {
+                newTreeList = newTreeList.with(element);
             }
         }
         if (newTreeList == treeList) {
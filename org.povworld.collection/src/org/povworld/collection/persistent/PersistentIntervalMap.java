@@ -6,10 +6,13 @@ import java.util.NoSuchElementException;
 import javax.annotation.CheckForNull;
 import javax.annotation.CheckReturnValue;
 import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
 
 import org.povworld.collection.Collection;
 import org.povworld.collection.EntryIterator;
+import org.povworld.collection.common.Assert;
 import org.povworld.collection.common.Interval;
+import org.povworld.collection.common.IntervalVisitor;
 import org.povworld.collection.common.PreConditions;
 import org.povworld.collection.mutable.ArrayList;
 import org.povworld.collection.tree.AbstractAvlTreeBuilder;
@@ -22,99 +25,123 @@ import org.povworld.collection.tree.TreeUtil;
 @Immutable
 public class PersistentIntervalMap<V> {
     
-    private static final class Entry<V> {
-        private final Interval interval;
-        private final V value;
-        
-        Entry(Interval interval, V value) {
-            this.interval = interval;
-            this.value = value;
-        }
-        
-        @Override
-        public String toString() {
-            return interval + "=" + value;
-        }
-        
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + interval.hashCode();
-            result = prime * result + value.hashCode();
-            return result;
-        }
-        
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (!(obj instanceof Entry))
-                return false;
-            Entry<?> other = (Entry<?>)obj;
-            if (interval == null) {
-                if (other.interval != null)
-                    return false;
-            } else if (!interval.equals(other.interval))
-                return false;
-            if (value == null) {
-                if (other.value != null)
-                    return false;
-            } else if (!value.equals(other.value))
-                return false;
-            return true;
-        }
-    }
+    private static final int[] NO_ENDS = new int[0];
     
+    private static final Object[] NO_VALUES = new Object[0];
+    
+    /**
+     * Tree node holding all intervals with the same start. The interval ends are stored inline in
+     * descending order together with the parallel array of values. This keeps the common case of
+     * few intervals per start compact and allows overlap queries to stop at the first end which is
+     * too small.
+     */
     @Immutable
     private static final class IntervalNode<V> extends AbstractImmutableAvlTreeNode<IntervalNode<V>> {
         
         final int start;
         final int max;
-        final PersistentSet<Entry<V>> entries;
-        
-        IntervalNode(Interval interval, V value) {
-            this(interval.getStart(), interval.getEnd(),
-                    PersistentHashSet.<Entry<V>>empty().with(new Entry<>(interval, value)), null, null);
-        }
+        final int[] ends;
+        final Object[] values;
         
-        IntervalNode(int start, int max, PersistentSet<Entry<V>> entries, IntervalNode<V> left, IntervalNode<V> right) {
+        IntervalNode(int start, int[] ends, Object[] values, @CheckForNull IntervalNode<V> left,
+                @CheckForNull IntervalNode<V> right) {
             super(left, right);
             this.start = start;
-            this.max = max;
-            this.entries = entries;
+            this.ends = ends;
+            this.values = values;
+            this.max = Math.max(ends[0], getMax(left, right));
         }
         
-        public IntervalNode<V> with(Interval interval, V value) {
-            PersistentSet<Entry<V>> newEntries = entries.with(new Entry<>(interval, value));
-            if (entries == newEntries) {
+        int size() {
+            return ends.length;
+        }
+        
+        @SuppressWarnings("unchecked")
+        V getValue(int index) {
+            return (V)values[index];
+        }
+        
+        public IntervalNode<V> with(int end, V value) {
+            int index = findFirstEndBelow(ends, ends.length, end);
+            if (runContains(ends, values, index, end, value)) {
                 return this;
             }
-            return new IntervalNode<V>(start, Math.max(interval.getEnd(), max), newEntries, left, right);
+            int[] newEnds = new int[ends.length + 1];
+            Object[] newValues = new Object[ends.length + 1];
+            System.arraycopy(ends, 0, newEnds, 0, index);
+            System.arraycopy(values, 0, newValues, 0, index);
+            newEnds[index] = end;
+            newValues[index] = value;
+            System.arraycopy(ends, index, newEnds, index + 1, ends.length - index);
+            System.arraycopy(values, index, newValues, index + 1, ends.length - index);
+            return new IntervalNode<V>(start, newEnds, newValues, left, right);
         }
         
         @CheckForNull
-        public IntervalNode<V> without(Interval interval, V value) {
-            PersistentSet<Entry<V>> newEntries = entries.without(new Entry<>(interval, value));
-            if (newEntries == entries) {
+        public IntervalNode<V> without(int end, V value) {
+            int index = indexOf(end, value);
+            if (index < 0) {
                 return this;
             }
-            if (newEntries.isEmpty()) {
+            if (ends.length == 1) {
                 return null;
             }
-            int newMax = Math.max(getMaxEnd(newEntries), getMax(left, right));
-            return new IntervalNode<V>(start, newMax, newEntries, left, right);
+            int[] newEnds = new int[ends.length - 1];
+            Object[] newValues = new Object[ends.length - 1];
+            System.arraycopy(ends, 0, newEnds, 0, index);
+            System.arraycopy(values, 0, newValues, 0, index);
+            System.arraycopy(ends, index + 1, newEnds, index, ends.length - index - 1);
+            System.arraycopy(values, index + 1, newValues, index, ends.length - index - 1);
+            return new IntervalNode<V>(start, newEnds, newValues, left, right);
+        }
+        
+        int indexOf(int end, Object value) {
+            for (int i = findFirstEndBelow(ends, ends.length, end) - 1; i >= 0 && ends[i] == end; --i) {
+                if (values[i].equals(value)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        
+        IntervalNode<V> withChildren(@CheckForNull IntervalNode<V> newLeft, @CheckForNull IntervalNode<V> newRight) {
+            return new IntervalNode<V>(start, ends, values, newLeft, newRight);
+        }
+        
+        IntervalNode<V> withEntries(int[] newEnds, Object[] newValues) {
+            return new IntervalNode<V>(start, newEnds, newValues, left, right);
+        }
+    }
+    
+    /**
+     * @return the index of the first entry in the descending {@code ends} whose end is smaller than
+     *         the given {@code end}, or {@code length} if there is none
+     */
+    private static int findFirstEndBelow(int[] ends, int length, int end) {
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ends[mid] >= end) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
         }
+        return low;
     }
     
-    private static <V> int getMaxEnd(Iterable<Entry<V>> entries) {
-        int max = Integer.MIN_VALUE;
-        for (Entry<V> entry: entries) {
-            max = Math.max(max, entry.interval.getEnd());
+    /**
+     * Checks whether the run of entries with the given {@code end} directly before {@code index} contains
+     * the given {@code value}.
+     */
+    private static boolean runContains(int[] ends, Object[] values, int index, int end, Object value) {
+        for (int i = index - 1; i >= 0 && ends[i] == end; --i) {
+            if (values[i].equals(value)) {
+                return true;
+            }
         }
-        return max;
+        return false;
     }
     
     private static int getMax(@CheckForNull IntervalNode<?> left, @CheckForNull IntervalNode<?> right) {
@@ -126,8 +153,7 @@ public class PersistentIntervalMap<V> {
     private class TreeManipulator extends AbstractAvlTreeBuilder<IntervalNode<V>> {
         @Override
         public IntervalNode<V> createSubTree(IntervalNode<V> left, IntervalNode<V> top, IntervalNode<V> right) {
-            int newMax = Math.max(getMaxEnd(top.entries), getMax(left, right));
-            return new IntervalNode<>(top.start, newMax, top.entries, left, right);
+            return top.withChildren(left, right);
         }
     }
     
@@ -180,10 +206,8 @@ public class PersistentIntervalMap<V> {
         }
         
         if (node.start < interval.getEnd()) {
-            for (Entry<V> entry: node.entries) {
-                if (entry.interval.getEnd() > interval.getStart()) {
-                    overlappers.add(entry.value);
-                }
+            for (int i = 0; i < node.size() && node.ends[i] > interval.getStart(); ++i) {
+                overlappers.add(node.getValue(i));
             }
         }
         
@@ -195,15 +219,163 @@ public class PersistentIntervalMap<V> {
         }
     }
     
+    /**
+     * Calls the {@code visitor} for every interval containing the given {@code point} in order of ascending
+     * interval start until the visitor returns false.
+     *
+     * @return false if the visitor stopped the iteration, true otherwise
+     */
+    public boolean visitOverlappers(int point, IntervalVisitor<? super V> visitor) {
+        return visitOverlappers(root, point, point + 1, visitor);
+    }
+    
+    /**
+     * Calls the {@code visitor} for every interval overlapping the given {@code interval} in order of ascending
+     * interval start until the visitor returns false.
+     *
+     * @return false if the visitor stopped the iteration, true otherwise
+     */
+    public boolean visitOverlappers(Interval interval, IntervalVisitor<? super V> visitor) {
+        return visitOverlappers(root, interval.getStart(), interval.getEnd(), visitor);
+    }
+    
+    private static <V> boolean visitOverlappers(@CheckForNull IntervalNode<V> root, int start, int end,
+            IntervalVisitor<? super V> visitor) {
+        IntervalNode<V> node = root;
+        while (node != null && node.max > start) {
+            if (!visitOverlappers(node.getLeft(), start, end, visitor)) {
+                return false;
+            }
+            if (node.start >= end) {
+                return true;
+            }
+            for (int i = 0; i < node.size() && node.ends[i] > start; ++i) {
+                if (!visitor.visit(node.start, node.ends[i], node.getValue(i))) {
+                    return false;
+                }
+            }
+            node = node.getRight();
+        }
+        return true;
+    }
+    
+    public int countOverlapping(int point) {
+        return countOverlapping(root, point, point + 1);
+    }
+    
+    public int countOverlapping(Interval interval) {
+        return countOverlapping(root, interval.getStart(), interval.getEnd());
+    }
+    
+    private static <V> int countOverlapping(@CheckForNull IntervalNode<V> root, int start, int end) {
+        int count = 0;
+        IntervalNode<V> node = root;
+        while (node != null && node.max > start) {
+            count += countOverlapping(node.getLeft(), start, end);
+            if (node.start >= end) {
+                break;
+            }
+            count += findFirstEndBelow(node.ends, node.size(), start + 1);
+            node = node.getRight();
+        }
+        return count;
+    }
+    
+    /**
+     * Calls the {@code visitor} for the interval nearest to the given {@code point}. If the point is
+     * contained in some interval, this is an interval containing the point. Otherwise, it is the interval
+     * with the smallest distance between the point and one of its boundaries. On ties, the interval before the
+     * point is preferred. The return value of the visitor is ignored.
+     *
+     * @return true if an interval has been visited, false if the map is empty
+     */
+    public boolean visitNearest(int point, IntervalVisitor<? super V> visitor) {
+        // Both candidates are nodes whose first entry is the one to report.
+        IntervalNode<V> before = findMaxEndStartingAtOrBefore(root, point);
+        IntervalNode<V> after = findFirstStartingAfter(root, point);
+        IntervalNode<V> nearest;
+        if (before == null) {
+            nearest = after;
+        } else if (after == null) {
+            nearest = before;
+        } else {
+            long distanceBefore = (long)point - before.ends[0] + 1;
+            long distanceAfter = (long)after.start - point;
+            nearest = (distanceBefore <= distanceAfter) ? before : after;
+        }
+        if (nearest == null) {
+            return false;
+        }
+        visitor.visit(nearest.start, nearest.ends[0], nearest.getValue(0));
+        return true;
+    }
+    
+    @CheckForNull
+    private static <V> IntervalNode<V> findMaxEndStartingAtOrBefore(@CheckForNull IntervalNode<V> root, int point) {
+        // Find the maximum end of all intervals starting at or before the point: Those are the
+        // nodes on the search path with start <= point together with their left sub-trees.
+        IntervalNode<V> best = null;
+        int bestEnd = Integer.MIN_VALUE;
+        boolean bestIsSubTree = false;
+        IntervalNode<V> node = root;
+        while (node != null) {
+            if (node.start > point) {
+                node = node.getLeft();
+                continue;
+            }
+            if (best == null || node.ends[0] > bestEnd) {
+                best = node;
+                bestEnd = node.ends[0];
+                bestIsSubTree = false;
+            }
+            IntervalNode<V> left = node.getLeft();
+            if (left != null && left.max > bestEnd) {
+                best = left;
+                bestEnd = left.max;
+                bestIsSubTree = true;
+            }
+            node = node.getRight();
+        }
+        if (!bestIsSubTree) {
+            return best;
+        }
+        // Descend into the sub-tree to locate the node holding the maximum.
+        node = best;
+        while (true) {
+            IntervalNode<V> left = node.getLeft();
+            if (left != null && left.max == bestEnd) {
+                node = left;
+            } else if (node.ends[0] == bestEnd) {
+                return node;
+            } else {
+                node = node.getRight();
+            }
+        }
+    }
+    
+    @CheckForNull
+    private static <V> IntervalNode<V> findFirstStartingAfter(@CheckForNull IntervalNode<V> root, int point) {
+        IntervalNode<V> result = null;
+        IntervalNode<V> node = root;
+        while (node != null) {
+            if (node.start > point) {
+                result = node;
+                node = node.getLeft();
+            } else {
+                node = node.getRight();
+            }
+        }
+        return result;
+    }
+    
     private static class IntervalEntryIterator<V> implements EntryIterator<Interval, V> {
         
         private final Iterator<IntervalNode<V>> subTreeIterator;
         
         @CheckForNull
-        private Iterator<Entry<V>> currentEntryIterator = null;
+        private IntervalNode<V> currentNode = null;
         
-        @CheckForNull
-        private Entry<V> currentEntry = null;
+        private int currentIndex = 0;
         
         public IntervalEntryIterator(@CheckForNull IntervalNode<V> root) {
             subTreeIterator = TreeUtil.iterateNodes(root);
@@ -211,32 +383,33 @@ public class PersistentIntervalMap<V> {
         
         @Override
         public boolean next() {
-            while (currentEntryIterator == null || !currentEntryIterator.hasNext()) {
-                if (!subTreeIterator.hasNext()) {
-                    currentEntryIterator = null;
-                    currentEntry = null;
-                    return false;
-                }
-                currentEntryIterator = subTreeIterator.next().entries.iterator();
+            if (currentNode != null && currentIndex + 1 < currentNode.size()) {
+                currentIndex++;
+                return true;
+            }
+            if (!subTreeIterator.hasNext()) {
+                currentNode = null;
+                return false;
             }
-            currentEntry = currentEntryIterator.next();
+            currentNode = subTreeIterator.next();
+            currentIndex = 0;
             return true;
         }
         
         @Override
         public Interval getCurrentKey() throws NoSuchElementException {
-            if (currentEntry == null) {
+            if (currentNode == null) {
                 throw new NoSuchElementException();
             }
-            return currentEntry.interval;
+            return new Interval(currentNode.start, currentNode.ends[currentIndex]);
         }
         
         @Override
         public V getCurrentValue() throws NoSuchElementException {
-            if (currentEntry == null) {
+            if (currentNode == null) {
                 throw new NoSuchElementException();
             }
-            return currentEntry.value;
+            return currentNode.getValue(currentIndex);
         }
     }
     
@@ -253,9 +426,11 @@ public class PersistentIntervalMap<V> {
         Path<IntervalNode<V>> pathToStart = pathTo(newRoot, interval.getStart());
         IntervalNode<V> end = pathToStart.getEnd();
         if (end == null) {
-            newRoot = manipulator.replace(pathToStart, new IntervalNode<V>(interval, value));
+            IntervalNode<V> newNode = new IntervalNode<V>(interval.getStart(), new int[] {interval.getEnd()},
+                    new Object[] {value}, null, null);
+            newRoot = manipulator.replace(pathToStart, newNode);
         } else {
-            IntervalNode<V> newNode = end.with(interval, value);
+            IntervalNode<V> newNode = end.with(interval.getEnd(), value);
             if (newNode == end) {
                 return this;
             }
@@ -272,7 +447,7 @@ public class PersistentIntervalMap<V> {
             return this;
         }
         
-        IntervalNode<V> newNode = end.without(interval, value);
+        IntervalNode<V> newNode = end.without(interval.getEnd(), value);
         if (newNode == end) {
             return this;
         }
@@ -286,6 +461,368 @@ public class PersistentIntervalMap<V> {
         return new PersistentIntervalMap<>(newRoot, size - 1);
     }
     
+    /**
+     * Adds all given entries. The entries are sorted and grouped by interval start first, so that every
+     * affected tree node is replaced only once. If many nodes are affected, the whole tree is rebuilt
+     * in linear time by merging the existing nodes with the new entries.
+     */
+    @CheckReturnValue
+    public PersistentIntervalMap<V> withAll(EntryIterator<Interval, ? extends V> entries) {
+        EntryBuffer<V> buffer = new EntryBuffer<>();
+        buffer.addAll(entries);
+        if (buffer.isEmpty()) {
+            return this;
+        }
+        buffer.sort();
+        if (shouldRebuild(buffer.countStarts())) {
+            return merge(buffer, true);
+        }
+        
+        IntervalNode<V> newRoot = root;
+        int newSize = size;
+        int groupStart = 0;
+        while (groupStart < buffer.size) {
+            int groupEnd = buffer.groupEnd(groupStart);
+            Path<IntervalNode<V>> pathToStart = pathTo(newRoot, buffer.starts[groupStart]);
+            IntervalNode<V> node = pathToStart.getEnd();
+            int oldCount = (node == null) ? 0 : node.size();
+            NodeEntries newEntries = (node == null) ? mergeEntries(NO_ENDS, NO_VALUES, buffer, groupStart, groupEnd)
+                    : mergeEntries(node.ends, node.values, buffer, groupStart, groupEnd);
+            if (newEntries.ends.length != oldCount) {
+                IntervalNode<V> newNode = (node == null)
+                        ? new IntervalNode<V>(buffer.starts[groupStart], newEntries.ends, newEntries.values, null, null)
+                        : node.withEntries(newEntries.ends, newEntries.values);
+                newRoot = manipulator.replace(pathToStart, newNode);
+                newSize += newEntries.ends.length - oldCount;
+            }
+            groupStart = groupEnd;
+        }
+        return (newSize == size) ? this : new PersistentIntervalMap<V>(newRoot, newSize);
+    }
+    
+    /**
+     * Removes all given entries. Like {@link #withAll(EntryIterator)}, every affected tree node is replaced
+     * only once, or the whole tree is rebuilt in linear time if many nodes are affected.
+     */
+    @CheckReturnValue
+    public PersistentIntervalMap<V> withoutAll(EntryIterator<Interval, ? extends V> entries) {
+        if (root == null) {
+            return this;
+        }
+        EntryBuffer<V> buffer = new EntryBuffer<>();
+        buffer.addAll(entries);
+        if (buffer.isEmpty()) {
+            return this;
+        }
+        buffer.sort();
+        if (shouldRebuild(buffer.countStarts())) {
+            return merge(buffer, false);
+        }
+        
+        IntervalNode<V> newRoot = root;
+        int newSize = size;
+        int groupStart = 0;
+        while (groupStart < buffer.size) {
+            int groupEnd = buffer.groupEnd(groupStart);
+            Path<IntervalNode<V>> pathToStart = pathTo(newRoot, buffer.starts[groupStart]);
+            IntervalNode<V> node = pathToStart.getEnd();
+            if (node != null) {
+                NodeEntries newEntries = removeEntries(node.ends, node.values, buffer, groupStart, groupEnd);
+                if (newEntries.ends.length != node.size()) {
+                    if (newEntries.ends.length == 0) {
+                        newRoot = manipulator.remove(pathToStart);
+                    } else {
+                        newRoot = manipulator.replace(pathToStart, node.withEntries(newEntries.ends, newEntries.values));
+                    }
+                    newSize -= node.size() - newEntries.ends.length;
+                }
+            }
+            groupStart = groupEnd;
+        }
+        return (newSize == size) ? this : new PersistentIntervalMap<V>(newRoot, newSize);
+    }
+    
+    private boolean shouldRebuild(int affectedNodes) {
+        // Each path copy costs about the tree height, a rebuild costs the number of nodes.
+        return (long)affectedNodes * AvlTreeNode.getHeight(root) >= size;
+    }
+    
+    private PersistentIntervalMap<V> merge(EntryBuffer<V> buffer, boolean add) {
+        NodeSequence<V> nodes = new NodeSequence<>();
+        Iterator<IntervalNode<V>> iterator = TreeUtil.iterateNodes(root);
+        IntervalNode<V> node = iterator.hasNext() ? iterator.next() : null;
+        int groupStart = 0;
+        int newSize = 0;
+        while (node != null || groupStart < buffer.size) {
+            NodeEntries entries;
+            int start;
+            if (groupStart == buffer.size || (node != null && node.start < buffer.starts[groupStart])) {
+                start = node.start;
+                entries = new NodeEntries(node.ends, node.values);
+                node = iterator.hasNext() ? iterator.next() : null;
+            } else {
+                int groupEnd = buffer.groupEnd(groupStart);
+                start = buffer.starts[groupStart];
+                boolean sameStart = node != null && node.start == start;
+                int[] ends = sameStart ? node.ends : NO_ENDS;
+                Object[] values = sameStart ? node.values : NO_VALUES;
+                entries = add ? mergeEntries(ends, values, buffer, groupStart, groupEnd)
+                        : removeEntries(ends, values, buffer, groupStart, groupEnd);
+                if (sameStart) {
+                    node = iterator.hasNext() ? iterator.next() : null;
+                }
+                groupStart = groupEnd;
+            }
+            if (entries.ends.length > 0) {
+                nodes.add(start, entries);
+                newSize += entries.ends.length;
+            }
+        }
+        if (newSize == size) {
+            return this;
+        }
+        return new PersistentIntervalMap<V>(nodes.buildTree(), newSize);
+    }
+    
+    private static final class NodeEntries {
+        final int[] ends;
+        final Object[] values;
+        
+        NodeEntries(int[] ends, Object[] values) {
+            this.ends = ends;
+            this.values = values;
+        }
+    }
+    
+    /**
+     * Merges the descending entries of a node with the buffer entries in {@code [from, to)}, which all
+     * have the same start and are sorted by descending end. Duplicates are dropped.
+     */
+    private static NodeEntries mergeEntries(int[] ends, Object[] values, EntryBuffer<?> buffer, int from, int to) {
+        int[] newEnds = new int[ends.length + to - from];
+        Object[] newValues = new Object[ends.length + to - from];
+        int count = 0;
+        int i = 0;
+        int j = from;
+        while (i < ends.length || j < to) {
+            if (j == to || (i < ends.length && ends[i] >= buffer.ends[j])) {
+                newEnds[count] = ends[i];
+                newValues[count] = values[i];
+                count++;
+                i++;
+            } else {
+                if (!runContains(newEnds, newValues, count, buffer.ends[j], buffer.values[j])) {
+                    newEnds[count] = buffer.ends[j];
+                    newValues[count] = buffer.values[j];
+                    count++;
+                }
+                j++;
+            }
+        }
+        if (count == ends.length) {
+            return new NodeEntries(ends, values);
+        }
+        return trim(newEnds, newValues, count);
+    }
+    
+    /**
+     * Removes the buffer entries in {@code [from, to)}, which all have the same start and are sorted by
+     * descending end, from the descending entries of a node.
+     */
+    private static NodeEntries removeEntries(int[] ends, Object[] values, EntryBuffer<?> buffer, int from, int to) {
+        int[] newEnds = new int[ends.length];
+        Object[] newValues = new Object[ends.length];
+        int count = 0;
+        int j = from;
+        for (int i = 0; i < ends.length; ++i) {
+            while (j < to && buffer.ends[j] > ends[i]) {
+                j++;
+            }
+            boolean removed = false;
+            for (int k = j; k < to && buffer.ends[k] == ends[i]; ++k) {
+                if (values[i].equals(buffer.values[k])) {
+                    removed = true;
+                    break;
+                }
+            }
+            if (!removed) {
+                newEnds[count] = ends[i];
+                newValues[count] = values[i];
+                count++;
+            }
+        }
+        if (count == ends.length) {
+            return new NodeEntries(ends, values);
+        }
+        return trim(newEnds, newValues, count);
+    }
+    
+    private static NodeEntries trim(int[] ends, Object[] values, int count) {
+        if (count == ends.length) {
+            return new NodeEntries(ends, values);
+        }
+        int[] trimmedEnds = new int[count];
+        Object[] trimmedValues = new Object[count];
+        System.arraycopy(ends, 0, trimmedEnds, 0, count);
+        System.arraycopy(values, 0, trimmedValues, 0, count);
+        return new NodeEntries(trimmedEnds, trimmedValues);
+    }
+    
+    /**
+     * Growable buffer of entries which can be sorted by ascending start and descending end.
+     */
+    @NotThreadSafe
+    private static final class EntryBuffer<V> {
+        int[] starts = new int[8];
+        int[] ends = new int[8];
+        Object[] values = new Object[8];
+        int size = 0;
+        boolean sorted = true;
+        
+        boolean isEmpty() {
+            return size == 0;
+        }
+        
+        void add(Interval interval, V value) {
+            PreConditions.paramNotNull(value);
+            if (size == starts.length) {
+                int newLength = 2 * size;
+                int[] newStarts = new int[newLength];
+                int[] newEnds = new int[newLength];
+                Object[] newValues = new Object[newLength];
+                System.arraycopy(starts, 0, newStarts, 0, size);
+                System.arraycopy(ends, 0, newEnds, 0, size);
+                System.arraycopy(values, 0, newValues, 0, size);
+                starts = newStarts;
+                ends = newEnds;
+                values = newValues;
+            }
+            if (size > 0 && compare(size - 1, interval.getStart(), interval.getEnd()) > 0) {
+                sorted = false;
+            }
+            starts[size] = interval.getStart();
+            ends[size] = interval.getEnd();
+            values[size] = value;
+            size++;
+        }
+        
+        void addAll(EntryIterator<Interval, ? extends V> entries) {
+            while (entries.next()) {
+                add(entries.getCurrentKey(), entries.getCurrentValue());
+            }
+        }
+        
+        private int compare(int index, int start, int end) {
+            if (starts[index] != start) {
+                return Integer.compare(starts[index], start);
+            }
+            return Integer.compare(end, ends[index]);
+        }
+        
+        void sort() {
+            if (sorted) {
+                return;
+            }
+            int[] order = new int[size];
+            for (int i = 0; i < size; ++i) {
+                order[i] = i;
+            }
+            mergeSort(order, new int[size], 0, size);
+            int[] sortedStarts = new int[size];
+            int[] sortedEnds = new int[size];
+            Object[] sortedValues = new Object[size];
+            for (int i = 0; i < size; ++i) {
+                int index = order[i];
+                sortedStarts[i] = starts[index];
+                sortedEnds[i] = ends[index];
+                sortedValues[i] = values[index];
+            }
+            starts = sortedStarts;
+            ends = sortedEnds;
+            values = sortedValues;
+            sorted = true;
+        }
+        
+        /**
+         * Sorts the entry indices {@code order[from]} to {@code order[to - 1]} stably, so equal intervals keep the
+         * order in which they have been added.
+         */
+        private void mergeSort(int[] order, int[] buffer, int from, int to) {
+            if (to - from < 2) {
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            mergeSort(order, buffer, from, mid);
+            mergeSort(order, buffer, mid, to);
+            System.arraycopy(order, from, buffer, from, to - from);
+            int left = from;
+            int right = mid;
+            for (int i = from; i < to; ++i) {
+                int next = (right == to) ? -1 : buffer[right];
+                if (next == -1 || (left < mid && compare(buffer[left], starts[next], ends[next]) <= 0)) {
+                    order[i] = buffer[left++];
+                } else {
+                    order[i] = buffer[right++];
+                }
+            }
+        }
+        
+        int groupEnd(int groupStart) {
+            int start = starts[groupStart];
+            int index = groupStart + 1;
+            while (index < size && starts[index] == start) {
+                index++;
+            }
+            return index;
+        }
+        
+        int countStarts() {
+            int count = 0;
+            for (int i = 0; i < size; i = groupEnd(i)) {
+                count++;
+            }
+            return count;
+        }
+    }
+    
+    /**
+     * Sequence of node contents in ascending start order from which a balanced tree is built in linear time.
+     */
+    @NotThreadSafe
+    private static final class NodeSequence<V> {
+        private int[] starts = new int[8];
+        private final ArrayList<NodeEntries> entries = new ArrayList<>();
+        
+        void add(int start, NodeEntries nodeEntries) {
+            int size = entries.size();
+            if (size == starts.length) {
+                int[] newStarts = new int[2 * size];
+                System.arraycopy(starts, 0, newStarts, 0, size);
+                starts = newStarts;
+            }
+            starts[size] = start;
+            entries.push(nodeEntries);
+        }
+        
+        @CheckForNull
+        IntervalNode<V> buildTree() {
+            return buildTree(0, entries.size());
+        }
+        
+        @CheckForNull
+        private IntervalNode<V> buildTree(int from, int to) {
+            if (from == to) {
+                return null;
+            }
+            // Splitting at the middle keeps the height difference of the children at most one.
+            int mid = (from + to) >>> 1;
+            IntervalNode<V> left = buildTree(from, mid);
+            IntervalNode<V> right = buildTree(mid + 1, to);
+            NodeEntries nodeEntries = entries.get(mid);
+            return new IntervalNode<V>(starts[mid], nodeEntries.ends, nodeEntries.values, left, right);
+        }
+    }
+    
     public int size() {
         return size;
     }
@@ -293,4 +830,60 @@ public class PersistentIntervalMap<V> {
     public boolean isEmpty() {
         return size == 0;
     }
+    
+    /**
+     * Checks the invariants of the tree. This method is useful for tests only.
+     */
+    public void checkInvariants() {
+        manipulator.checkInvariants(root);
+        int count = 0;
+        IntervalNode<V> previous = null;
+        Iterator<IntervalNode<V>> nodes = TreeUtil.iterateNodes(root);
+        while (nodes.hasNext()) {
+            IntervalNode<V> node = nodes.next();
+            Assert.assertTrue(previous == null || previous.start < node.start, "Order violation");
+            Assert.assertTrue(node.size() > 0, "Empty node");
+            for (int i = 1; i < node.size(); ++i) {
+                Assert.assertTrue(node.ends[i - 1] >= node.ends[i], "Ends not sorted");
+            }
+            Assert.assertEquals(Math.max(node.ends[0], getMax(node.getLeft(), node.getRight())), node.max);
+            count += node.size();
+            previous = node;
+        }
+        Assert.assertEquals(size, count);
+    }
+    
+    public static <V> Builder<V> newBuilder() {
+        return new Builder<>();
+    }
+    
+    /**
+     * Bulk loader for {@link PersistentIntervalMap}. If the entries are added in order of ascending interval
+     * start and descending interval end, which is the order of {@link PersistentIntervalMap#entryIterator()},
+     * the map is built in linear time. Otherwise, the entries get sorted first.
+     */
+    @NotThreadSafe
+    public static final class Builder<V> {
+        
+        private EntryBuffer<V> buffer = new EntryBuffer<>();
+        
+        private Builder() {}
+        
+        public Builder<V> add(Interval interval, V value) {
+            buffer.add(interval, value);
+            return this;
+        }
+        
+        public Builder<V> addAll(EntryIterator<Interval, ? extends V> entries) {
+            buffer.addAll(entries);
+            return this;
+        }
+        
+        public PersistentIntervalMap<V> build() {
+            buffer.sort();
+            PersistentIntervalMap<V> result = PersistentIntervalMap.<V>empty().merge(buffer, true);
+            buffer = new EntryBuffer<>();
+            return result;
+        }
+    }
 }
@@ -13,6 +13,7 @@ import org.povworld.collection.Collection;
 import org.povworld.collection.CollectionUtil;
 import org.povworld.collection.EntryIterator;
 import org.povworld.collection.Identificator;
+import org.povworld.collection.MultiMap;
 import org.povworld.collection.Set;
 import org.povworld.collection.common.AbstractKeySet;
 import org.povworld.collection.common.AbstractMap;
@@ -97,6 +98,13 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
          */
         public Bucket<K, V> putAll(Identificator<? super K> keyIdentificator, K insertKey, int insertKeyHash, Iterable<? extends V> values,
                 int rshift);
+                
+        /**
+         * Inserts the keys of the {@code batch} from index {@code from} (inclusive) to {@code to} (exclusive) with their
+         * values. These keys share the hash bits below {@code rshift}, which lead to this bucket.
+         * @return an updated bucket or the same bucket when all key/value pairs were already contained
+         */
+        public Bucket<K, V> putAll(Identificator<? super K> keyIdentificator, Batch<K, V> batch, int from, int to, int rshift);
         
         /**
          * NOTE: Returns {@code null} iff the new bucket would be empty!
@@ -130,6 +138,70 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
         
     }
     
+    /**
+     * Keys with their values to be inserted with {@link Bucket#putAll(Identificator, Batch, int, int, int)}. The keys
+     * are sorted by the hash fragments which select the table slots from the root downwards, so the keys which share a
+     * path from the root are adjacent.
+     */
+    protected static final class Batch<K, V> {
+        
+        private final K[] keys;
+        
+        private final int[] keyHashes;
+        
+        private final Iterable<? extends V>[] values;
+        
+        /**
+         * @param sort whether to sort the keys, which can be skipped if {@code map} iterates the keys grouped by their
+         *        path already
+         */
+        @SuppressWarnings("unchecked")
+        Batch(Identificator<? super K> keyIdentificator, MultiMap<? extends K, ? extends V> map, boolean sort) {
+            int capacity = map.keyCount();
+            Object[] unsortedKeys = new Object[capacity];
+            Object[] unsortedValues = new Object[capacity];
+            int[] unsortedHashes = new int[capacity];
+            int size = 0;
+            EntryIterator<? extends K, ? extends Set<? extends V>> iter = map.entryIterator();
+            while (iter.next()) {
+                Set<? extends V> values = iter.getCurrentValue();
+                if (values.isEmpty()) {
+                    continue;
+                }
+                unsortedKeys[size] = iter.getCurrentKey();
+                unsortedValues[size] = values;
+                unsortedHashes[size] = keyIdentificator.hashCode(iter.getCurrentKey());
+                size++;
+            }
+            int[] order = sort ? HashTrieBatchOrder.sortedIndices(unsortedHashes, size, HASH_BITS) : null;
+            keys = (K[])new Object[size];
+            keyHashes = new int[size];
+            values = (Iterable<? extends V>[])new Iterable<?>[size];
+            for (int i = 0; i < size; ++i) {
+                int index = (order == null) ? i : order[i];
+                keys[i] = (K)unsortedKeys[index];
+                keyHashes[i] = unsortedHashes[index];
+                values[i] = (Iterable<? extends V>)unsortedValues[index];
+            }
+        }
+        
+        int size() {
+            return keys.length;
+        }
+    }
+    
+    /**
+     * Inserts the keys of the {@code batch} one after the other, starting at the given {@code bucket}.
+     */
+    private static <K, V> Bucket<K, V> putAllSequentially(Bucket<K, V> bucket, Identificator<? super K> keyIdentificator,
+            Batch<K, V> batch, int from, int to, int rshift) {
+        Bucket<K, V> result = bucket;
+        for (int i = from; i < to; ++i) {
+            result = result.putAll(keyIdentificator, batch.keys[i], batch.keyHashes[i], batch.values[i], rshift);
+        }
+        return result;
+    }
+    
     // TODO actually use value identificator
     private static int valueHash(int hash) {
         return ObjectUtil.strengthenedHashcode(hash);
@@ -155,7 +227,7 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
         
         @Override
         public Bucket<K, V> put(Identificator<? super K> keyIdentificator, K key, int keyHash, V value, int rshift) {
-            return new SingleEntryBucket<K, V>(key, value, keyHash, valueHash(value.hashCode()));
+            return new SingleEntryBucket<K, V>(key, value, keyHash);
         }
         
         @Override
@@ -163,6 +235,19 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
             return createSingleKeyBucket(key, keyHash, values);
         }
         
+        @Override
+        public Bucket<K, V> putAll(Identificator<? super K> keyIdentificator, Batch<K, V> batch, int from, int to, int rshift) {
+            if ((to - from > HASHTABLE_SIZE) && (rshift < 32)) {
+                // Enough keys to fill a full size table, which can be partitioned in one step.
+                Bucket<K, V> result = new HashBucket<K, V>(HashBucket.<K, V>createHashtable(HASHTABLE_SIZE), 0)
+                        .putAll(keyIdentificator, batch, from, to, rshift);
+                // The keys of the batch are distinct for the identificator of the given map, which can still be
+                // equal for the keyIdentificator. A single remaining key is not kept in a table.
+                return (result.numberOfKeys() > 1) ? result : ((HashBucket<K, V>)result).singleChild();
+            }
+            return putAllSequentially(this, keyIdentificator, batch, from, to, rshift);
+        }
+        
         @Override
         public Bucket<K, V> remove(Identificator<? super K> identificator, K key, int keyHash, V value, int rshift) {
             return this;
@@ -186,21 +271,24 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
         
     }
     
+    /**
+     * Contains a single key with a single value. The bucket is also the value set returned for the key, so a
+     * {@link PersistentHashSet} is only created when a second value is added.
+     */
     private static class SingleEntryBucket<K, V> extends AbstractUnOrderedCollection<V> implements SingleKeyBucket<K, V>, PersistentSet<V> {
         
         private final K key;
         
         private final V value;
         
+        // NOTE: The hash of the value is not cached, as this keeps the bucket of a single valued key at 24 instead
+        // of 32 bytes with compressed references.
         private final int keyHash;
         
-        private final int valueHash;
-        
-        public SingleEntryBucket(K key, V value, int keyHash, int valueHash) {
+        public SingleEntryBucket(K key, V value, int keyHash) {
             this.key = key;
             this.value = value;
             this.keyHash = keyHash;
-            this.valueHash = valueHash;
         }
         
         @Override
@@ -219,7 +307,7 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
         
         private boolean containsValue(V value) {
             // TODO use value identificator for equals
-            return (this.valueHash == valueHash(value.hashCode())) && (this.value.equals(value));
+            return this.value.equals(value);
         }
         
         @Override
@@ -243,7 +331,7 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
             if (findKey(keyIdentificator, insertKey, insertKeyHash, rshift) != null) {
                 return putValueForSingleKey(insertValue);
             }
-            return HashBucket.create(this, new SingleEntryBucket<>(insertKey, insertValue, insertKeyHash, valueHash(insertValue.hashCode())), rshift);
+            return HashBucket.create(this, new SingleEntryBucket<>(insertKey, insertValue, insertKeyHash), rshift);
         }
         
         @Override
@@ -263,6 +351,11 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
             return HashBucket.create(this, createSingleKeyBucket(insertKey, insertKeyHash, values), rshift);
         }
         
+        @Override
+        public Bucket<K, V> putAll(Identificator<? super K> keyIdentificator, Batch<K, V> batch, int from, int to, int rshift) {
+            return putAllSequentially(this, keyIdentificator, batch, from, to, rshift);
+        }
+        
         @Override
         public SingleKeyBucket<K, V> putValuesForSingleKey(Iterable<? extends V> insertValues) {
             // TODO do in single step
@@ -418,7 +511,7 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
         }
         if (size == 1) {
             V value = root.getFirst();
-            return new SingleEntryBucket<>(key, value, keyHash, valueHash(value.hashCode()));
+            return new SingleEntryBucket<>(key, value, keyHash);
         } else {
             return new SingleKeyHashBucket<K, V>(key, keyHash, root, size);
         }
@@ -474,7 +567,7 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
                 return putValueForSingleKey(insertValue);
             }
             return PersistentMultiMapImpl2.HashBucket.create(this,
-                    new SingleEntryBucket<>(insertKey, insertValue, insertKeyHash, valueHash(insertValue.hashCode())), rshift);
+                    new SingleEntryBucket<>(insertKey, insertValue, insertKeyHash), rshift);
         }
         
         @Override
@@ -486,6 +579,12 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
             return PersistentMultiMapImpl2.HashBucket.create(this, createSingleKeyBucket(insertKey, insertKeyHash, values), rshift);
         }
         
+        @Override
+        public PersistentMultiMapImpl2.Bucket<K, V> putAll(Identificator<? super K> keyIdentificator,
+                PersistentMultiMapImpl2.Batch<K, V> batch, int from, int to, int rshift) {
+            return putAllSequentially(this, keyIdentificator, batch, from, to, rshift);
+        }
+        
         @Override
         public SingleKeyHashBucket<K, V> putValueForSingleKey(V insertValue) {
             Bucket<V> newRoot = addToRoot(root, insertValue);
@@ -539,7 +638,7 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
             // As we have always at least two values, there must be at least one left.
             if (size() == 2) {
                 V remaining = newRoot.getFirst();
-                return new SingleEntryBucket<K, V>(key, remaining, keyHash, valueHash(remaining.hashCode()));
+                return new SingleEntryBucket<K, V>(key, remaining, keyHash);
             }
             return new SingleKeyHashBucket<K, V>(key, keyHash, newRoot, size - 1);
         }
@@ -648,13 +747,25 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
             return hashtable.length != HASHTABLE_SIZE;
         }
         
+        /**
+         * @return the bucket of the single key of this table
+         */
+        Bucket<K, V> singleChild() {
+            Assert.assertTrue(keyCount == 1, "not a single key: %d", keyCount);
+            for (int i = 0;; ++i) {
+                if (hashtable[i] != null) {
+                    return hashtable[i];
+                }
+            }
+        }
+        
         @Override
         public Bucket<K, V> put(Identificator<? super K> keyIdentificator, K key, int keyHash, V value, int rshift) {
             int index = tableIndex(keyHash, rshift);
             Bucket<K, V> bucket = hashtable[index];
             if (bucket == null) {
                 Bucket<K, V>[] newTable = hashtable.clone();
-                newTable[index] = new SingleEntryBucket<K, V>(key, value, keyHash, valueHash(value.hashCode()));
+                newTable[index] = new SingleEntryBucket<K, V>(key, value, keyHash);
                 return new HashBucket<K, V>(newTable, keyCount + 1);
             }
             
@@ -666,7 +777,7 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
                 if ((newSize == HASHTABLE_SIZE) && (newTable[newIndex] != null)) {
                     newTable[newIndex] = newTable[newIndex].put(keyIdentificator, key, keyHash, value, rshift + HASH_BITS);
                 } else {
-                    newTable[newIndex] = new SingleEntryBucket<K, V>(key, value, keyHash, valueHash(value.hashCode()));
+                    newTable[newIndex] = new SingleEntryBucket<K, V>(key, value, keyHash);
                 }
                 return new HashBucket<K, V>(newTable, keyCount + 1);
             }
@@ -718,6 +829,43 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
             return new HashBucket<K, V>(newTable, newKeyCount);
         }
         
+        @Override
+        public Bucket<K, V> putAll(Identificator<? super K> keyIdentificator, Batch<K, V> batch, int from, int to, int rshift) {
+            if (isSmall()) {
+                // Small tables grow when a new key needs a slot, which is done by the single key insertion.
+                return putAllSequentially(this, keyIdentificator, batch, from, to, rshift);
+            }
+            Bucket<K, V>[] newTable = null;
+            int newKeyCount = keyCount;
+            int start = from;
+            while (start < to) {
+                // The keys going to the same sub-bucket are usually adjacent in the batch. Otherwise the sub-bucket is
+                // just updated once per run.
+                int index = tableIndex(batch.keyHashes[start], rshift);
+                int end = start + 1;
+                while (end < to && tableIndex(batch.keyHashes[end], rshift) == index) {
+                    end++;
+                }
+                Bucket<K, V> bucket = (newTable == null) ? hashtable[index] : newTable[index];
+                if (bucket == null) {
+                    bucket = emptyBucket();
+                }
+                Bucket<K, V> newBucket = bucket.putAll(keyIdentificator, batch, start, end, rshift + HASH_BITS);
+                if (newBucket != bucket) {
+                    if (newTable == null) {
+                        newTable = hashtable.clone();
+                    }
+                    newTable[index] = newBucket;
+                    newKeyCount += newBucket.numberOfKeys() - bucket.numberOfKeys();
+                }
+                start = end;
+            }
+            if (newTable == null) {
+                return this;
+            }
+            return new HashBucket<K, V>(newTable, newKeyCount);
+        }
+        
         private static int minSize(int hash1, int hash2, int rshift) {
             int cross = ((hash1 ^ hash2) >>> rshift) & HASH_MASK;
             int newSize = 2 * Integer.lowestOneBit(cross);
@@ -900,8 +1048,8 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
                     return replaceChild(i, newChild);
                 }
             }
-            SingleKeyBucket<K, V>[] newChildren = ArrayUtil.appendArrayElement(children, new SingleEntryBucket<K, V>(insertKey, insertValue,
-                    insertKeyHash, valueHash(insertValue.hashCode())));
+            SingleKeyBucket<K, V>[] newChildren =
+                    ArrayUtil.appendArrayElement(children, new SingleEntryBucket<K, V>(insertKey, insertValue, insertKeyHash));
             return new CollisionBucket<K, V>(keyHash, newChildren);
         }
         
@@ -916,6 +1064,11 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
             return newBucket;
         }
         
+        @Override
+        public Bucket<K, V> putAll(Identificator<? super K> keyIdentificator, Batch<K, V> batch, int from, int to, int rshift) {
+            return putAllSequentially(this, keyIdentificator, batch, from, to, rshift);
+        }
+        
         /**
          * Creates a new bucket with the child at {@code index} replaced by
          * {@code newChild}.  
@@ -1165,6 +1318,25 @@ public class PersistentMultiMapImpl2<K, V> extends AbstractMap<K, Set<V>> implem
         return new PersistentMultiMapImpl2<K, V>(keyIdentificator, newRoot);
     }
     
+    /**
+     * Adds all values of all keys of the given {@code map}. The keys are grouped by their path in the hash tree, so
+     * the tree is descended once and each touched full size table is copied once, instead of once per key.
+     * 
+     * <p>Returns an updated map or the same object if it stayed unchanged.
+     */
+    public PersistentMultiMapImpl2<K, V> withAll(MultiMap<? extends K, ? extends V> map) {
+        // Another multi-map of this class with the same hash values iterates the keys grouped by their path already.
+        boolean grouped = (map instanceof PersistentMultiMapImpl2) &&
+                keyIdentificator.equals(((PersistentMultiMapImpl2<?, ?>)map).keyIdentificator);
+        Batch<K, V> batch = new Batch<K, V>(keyIdentificator, map, !grouped);
+        if (batch.size() == 0) {
+            return this;
+        }
+        Bucket<K, V> newRoot = root.putAll(keyIdentificator, batch, 0, batch.size(), 0);
+        if (newRoot == root) return this;
+        return new PersistentMultiMapImpl2<K, V>(keyIdentificator, newRoot);
+    }
+    
     @Override
     public PersistentMultiMap<K, V> without(K key) {
         int keyHash = keyIdentificator.hashCode(key);
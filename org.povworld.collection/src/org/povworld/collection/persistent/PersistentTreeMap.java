@@ -4,6 +4,7 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.NotThreadSafe;
 
 import org.povworld.collection.CollectionUtil;
 import org.povworld.collection.Comparator;
@@ -13,18 +14,21 @@ import org.povworld.collection.Map;
 import org.povworld.collection.common.AbstractMap;
 import org.povworld.collection.common.AbstractOrderedCollection;
 import org.povworld.collection.common.EntryValueIterator;
+import org.povworld.collection.common.MemoryMeasurable;
+import org.povworld.collection.common.MemoryStats;
 import org.povworld.collection.common.PreConditions;
 import org.povworld.collection.immutable.ImmutableCollection;
 import org.povworld.collection.immutable.ImmutableCollections;
 import org.povworld.collection.immutable.ImmutableContainer;
+import org.povworld.collection.mutable.ArrayList;
 import org.povworld.collection.tree.ImmutableTreeMapNode;
 import org.povworld.collection.tree.Path;
 import org.povworld.collection.tree.ReverseTreeIterator;
 import org.povworld.collection.tree.TreeIterator;
 import org.povworld.collection.tree.TreeUtil;
 
-// TODO create PersistentMultiMap implementation based on tree which allows duplicate keys
-public class PersistentTreeMap<K, V, N extends ImmutableTreeMapNode<K, V, N>> extends AbstractMap<K, V> implements PersistentMap<K, V> {
+public class PersistentTreeMap<K, V, N extends ImmutableTreeMapNode<K, V, N>> extends AbstractMap<K, V> implements PersistentMap<K, V>,
+        MemoryMeasurable {
     
     public static <K, V, N extends ImmutableTreeMapNode<K, V, N>> Path<N> pathTo(N tree, K key, Comparator<? super K> comparator) {
         Path.Builder<N> builder = Path.newBuilder(tree, 12);
@@ -57,7 +61,7 @@ public class PersistentTreeMap<K, V, N extends ImmutableTreeMapNode<K, V, N>> ex
         }
         
         @SuppressWarnings("unchecked")
-        private <K, V, N extends ImmutableTreeMapNode<K, V, N>> TreeMapBuilder<K, V, N> get() {
+        <K, V, N extends ImmutableTreeMapNode<K, V, N>> TreeMapBuilder<K, V, N> get() {
             return (TreeMapBuilder<K, V, N>)builder;
         }
     }
@@ -85,6 +89,20 @@ public class PersistentTreeMap<K, V, N extends ImmutableTreeMapNode<K, V, N>> ex
         return new EmptyMap<>(keyComparator, balancer);
     }
     
+    public static <K, V> Editor<K, V, ?> newEditor(Comparator<? super K> keyComparator) {
+        return newEditor(keyComparator, BalancerType.AVL);
+    }
+    
+    public static <K, V> Editor<K, V, ?> newEditor(Comparator<? super K> keyComparator, BalancerType balancerType) {
+        TreeMapBuilder<K, V, ?> balancer = balancerType.get();
+        return newEditor(keyComparator, balancer);
+    }
+    
+    public static <K, V, N extends ImmutableTreeMapNode<K, V, N>> Editor<K, V, N> newEditor(Comparator<? super K> keyComparator,
+            TreeMapBuilder<K, V, N> balancer) {
+        return new Editor<K, V, N>(keyComparator, balancer, null, 0);
+    }
+    
     private final Comparator<? super K> keyComparator;
     
     private final TreeMapBuilder<K, V, N> builder;
@@ -121,6 +139,14 @@ public class PersistentTreeMap<K, V, N extends ImmutableTreeMapNode<K, V, N>> ex
         return size;
     }
     
+    /**
+     * Nodes shared with other versions of the map are included.
+     */
+    @Override
+    public MemoryStats estimateFootprint() {
+        return MemoryStats.newBuilder().addObject(this).addTree(root, 0).build();
+    }
+    
     @Override
     public boolean isEmpty() {
         return false;
@@ -157,11 +183,23 @@ public class PersistentTreeMap<K, V, N extends ImmutableTreeMapNode<K, V, N>> ex
         
         private final Iterator<N> subTreeIterator;
         
+        @CheckForNull
+        private final K toKey;
+        
+        @CheckForNull
+        private final Comparator<? super K> keyComparator;
+        
         @CheckForNull
         private N current = null;
         
         public MapEntryIterator(@CheckForNull N root) {
-            subTreeIterator = TreeUtil.iterateNodes(root);
+            this(TreeUtil.iterateNodes(root), null, null);
+        }
+        
+        MapEntryIterator(Iterator<N> subTreeIterator, @CheckForNull K toKey, @CheckForNull Comparator<? super K> keyComparator) {
+            this.subTreeIterator = subTreeIterator;
+            this.toKey = toKey;
+            this.keyComparator = keyComparator;
         }
         
         @Override
@@ -171,6 +209,10 @@ public class PersistentTreeMap<K, V, N extends ImmutableTreeMapNode<K, V, N>> ex
                 return false;
             }
             current = subTreeIterator.next();
+            if (toKey != null && keyComparator.compare(current.getKey(), toKey) >= 0) {
+                current = null;
+                return false;
+            }
             return true;
         }
         
@@ -193,6 +235,44 @@ public class PersistentTreeMap<K, V, N extends ImmutableTreeMapNode<K, V, N>> ex
         return new MapEntryIterator<K, V, N>(root);
     }
     
+    /**
+     * @return an iterator over the entries with a key {@code k} such that {@code fromKey <= k < toKey}, sorted by key
+     */
+    public EntryIterator<K, V> entryIterator(K fromKey, K toKey) {
+        PreConditions.paramNotNull(fromKey);
+        PreConditions.paramNotNull(toKey);
+        return new MapEntryIterator<K, V, N>(new NodeIterator<N>(seek(fromKey)), toKey, keyComparator);
+    }
+    
+    /**
+     * @return the stack of a {@link TreeIterator} which starts at the smallest key not less than {@code fromKey}
+     */
+    private ArrayList<N> seek(K fromKey) {
+        ArrayList<N> stack = new ArrayList<N>(TreeIterator.DEFAULT_HEIGHT);
+        N subTree = root;
+        while (subTree != null) {
+            if (keyComparator.compare(subTree.getKey(), fromKey) >= 0) {
+                stack.push(subTree);
+                subTree = subTree.getLeft();
+            } else {
+                subTree = subTree.getRight();
+            }
+        }
+        return stack;
+    }
+    
+    private static class NodeIterator<N extends ImmutableTreeMapNode<?, ?, N>> extends TreeIterator<N, N> {
+        
+        NodeIterator(ArrayList<N> stack) {
+            super(stack);
+        }
+        
+        @Override
+        protected N getElement(N node) {
+            return node;
+        }
+    }
+    
     private static class Keys<K, V, N extends ImmutableTreeMapNode<K, V, N>> extends AbstractOrderedCollection<K>
             implements ImmutableContainer<K> {
         
@@ -294,7 +374,8 @@ public class PersistentTreeMap<K, V, N extends ImmutableTreeMapNode<K, V, N>> ex
         return new Values();
     }
     
-    private static class EmptyMap<K, V, N extends ImmutableTreeMapNode<K, V, N>> extends AbstractMap<K, V> implements PersistentMap<K, V> {
+    private static class EmptyMap<K, V, N extends ImmutableTreeMapNode<K, V, N>> extends AbstractMap<K, V> implements PersistentMap<K, V>,
+            MemoryMeasurable {
         
         private final Comparator<? super K> keyComparator;
         
@@ -310,6 +391,11 @@ public class PersistentTreeMap<K, V, N extends ImmutableTreeMapNode<K, V, N>> ex
             return 0;
         }
         
+        @Override
+        public MemoryStats estimateFootprint() {
+            return MemoryStats.newBuilder().addObject(this).build();
+        }
+        
         @Override
         public boolean isEmpty() {
             return true;
@@ -372,16 +458,12 @@ public class PersistentTreeMap<K, V, N extends ImmutableTreeMapNode<K, V, N>> ex
         
         @Override
         public PersistentMap<K, V> withAll(Map<? extends K, ? extends V> map) {
-            PersistentMap<K, V> result = null;
-            EntryIterator<? extends K, ? extends V> iterator = map.entryIterator();
-            while (iterator.next()) {
-                if (result == null) {
-                    result = this.with(iterator.getCurrentKey(), iterator.getCurrentValue());
-                } else {
-                    result = result.with(iterator.getCurrentKey(), iterator.getCurrentValue());
-                }
+            if (map.isEmpty()) {
+                return this;
             }
-            return (result == null) ? this : result;
+            Editor<K, V, N> editor = new Editor<K, V, N>(keyComparator, balancer, null, 0);
+            editor.putAll(map);
+            return editor.freeze();
         }
         
         @Override
@@ -405,7 +487,7 @@ public class PersistentTreeMap<K, V, N extends ImmutableTreeMapNode<K, V, N>> ex
             if (getValueIdentificator().equals(end.getValue(), value)) {
                 return this;
             }
-            node = builder.createNode(end.getLeft(), end.getRight(), key, value);
+            node = builder.replaceEntry(end, key, value);
         } else {
             // Key was not found.
             node = builder.createNode(null, null, key, value);
@@ -432,16 +514,214 @@ public class PersistentTreeMap<K, V, N extends ImmutableTreeMapNode<K, V, N>> ex
     
     @Override
     public PersistentMap<K, V> withAll(Map<? extends K, ? extends V> map) {
-        PersistentMap<K, V> result = this;
-        EntryIterator<? extends K, ? extends V> iter = map.entryIterator();
-        while (iter.next()) {
-            result = result.with(iter.getCurrentKey(), iter.getCurrentValue());
+        Editor<K, V, N> editor = edit();
+        editor.putAll(map);
+        if (editor.root == root) {
+            return this;
         }
-        return result;
+        return editor.freeze();
     }
     
     @Override
     public PersistentMap<K, V> cleared() {
         return new EmptyMap<K, V, N>(keyComparator, builder);
     }
+    
+    /**
+     * Returns an equal map which shares its nodes with the equal sub-trees of the other tree maps interned by the given
+     * {@code interner}. Keys and values are compared with {@link Object#equals(Object)}. The shape of the tree
+     * depends on the order of the changes, so equal maps only share their root if they were built the same way.
+     */
+    public PersistentTreeMap<K, V, N> interned(NodeInterner interner) {
+        N newRoot = intern(root, interner);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentTreeMap<K, V, N>(keyComparator, newRoot, size, builder);
+    }
+    
+    private N intern(N node, NodeInterner interner) {
+        NodeInterner.NodeType<N> type = TreeNodeType.get();
+        N cached = interner.find(node, type);
+        if (cached != null) {
+            return cached;
+        }
+        N left = node.getLeft();
+        N right = node.getRight();
+        N internedLeft = (left == null) ? null : intern(left, interner);
+        N internedRight = (right == null) ? null : intern(right, interner);
+        if (internedLeft != left || internedRight != right) {
+            node = builder.createNode(internedLeft, internedRight, node.getKey(), node.getValue());
+        }
+        return interner.intern(node, type);
+    }
+    
+    /**
+     * Content equality of tree map nodes. The nodes of maps with different comparators can be shared, because nodes
+     * with equal entries and identical children have the same layout.
+     */
+    private static final class TreeNodeType<N extends ImmutableTreeMapNode<?, ?, N>> implements NodeInterner.NodeType<N> {
+        
+        private static final TreeNodeType<?> INSTANCE = new TreeNodeType<>();
+        
+        @SuppressWarnings("unchecked")
+        static <N extends ImmutableTreeMapNode<?, ?, N>> TreeNodeType<N> get() {
+            return (TreeNodeType<N>)INSTANCE;
+        }
+        
+        @Override
+        public int contentHash(N node) {
+            int hash = 31 * node.getKey().hashCode() + node.getValue().hashCode();
+            hash = 31 * hash + System.identityHashCode(node.getLeft());
+            return 31 * hash + System.identityHashCode(node.getRight());
+        }
+        
+        @Override
+        public boolean contentEquals(N node1, N node2) {
+            return node1.getLeft() == node2.getLeft() && node1.getRight() == node2.getRight()
+                    && node1.getKey().equals(node2.getKey()) && node1.getValue().equals(node2.getValue());
+        }
+    }
+    
+    /**
+     * Interned maps with equal entries often share their root, which is checked first. The root can also be shared
+     * by maps with different comparators, so it is only checked if the identificators are equal.
+     */
+    @Override
+    public boolean equals(@CheckForNull Object obj) {
+        if (obj instanceof PersistentTreeMap) {
+            PersistentTreeMap<?, ?, ?> other = (PersistentTreeMap<?, ?, ?>)obj;
+            if (other.root == root && keyComparator.equals(other.keyComparator)
+                    && getValueIdentificator().equals(other.getValueIdentificator())) {
+                return true;
+            }
+        }
+        return super.equals(obj);
+    }
+    
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+    
+    /**
+     * Returns an editor which starts with the entries of this map.
+     */
+    public Editor<K, V, N> edit() {
+        return new Editor<K, V, N>(keyComparator, builder, root, size);
+    }
+    
+    /**
+     * Changes a tree map without copying the path to the root for each change: The nodes created by the editor are
+     * changed in place by its later changes, until {@link #freeze()} returns the persistent map.
+     */
+    @NotThreadSafe
+    public static final class Editor<K, V, N extends ImmutableTreeMapNode<K, V, N>> {
+        
+        private final Comparator<? super K> keyComparator;
+        
+        private final TreeMapBuilder<K, V, N> builder;
+        
+        private final TreeMapBuilder<K, V, N> editingBuilder;
+        
+        @CheckForNull
+        private N root;
+        
+        private int size;
+        
+        private Editor(Comparator<? super K> keyComparator, TreeMapBuilder<K, V, N> builder, @CheckForNull N root, int size) {
+            this.keyComparator = keyComparator;
+            this.builder = builder;
+            this.editingBuilder = builder.editing();
+            this.root = root;
+            this.size = size;
+        }
+        
+        public int keyCount() {
+            return size;
+        }
+        
+        @CheckForNull
+        public V get(K key) {
+            N subTree = root;
+            while (subTree != null) {
+                int cmp = keyComparator.compare(subTree.getKey(), key);
+                if (cmp < 0) {
+                    subTree = subTree.getRight();
+                } else if (cmp > 0) {
+                    subTree = subTree.getLeft();
+                } else {
+                    return subTree.getValue();
+                }
+            }
+            return null;
+        }
+        
+        /**
+         * Assigns the given {@code value} with the given {@code key}.
+         *
+         * @return the value previously assigned with {@code key} or null
+         */
+        @CheckForNull
+        public V put(K key, V value) {
+            PreConditions.paramNotNull(key);
+            PreConditions.paramNotNull(value);
+            if (root == null) {
+                root = editingBuilder.createNode(null, null, key, value);
+                size = 1;
+                return null;
+            }
+            Path<N> path = PersistentTreeMap.pathTo(root, key, keyComparator);
+            N end = path.getEnd();
+            if (end == null) {
+                root = editingBuilder.replace(path, editingBuilder.createNode(null, null, key, value));
+                size++;
+                return null;
+            }
+            V oldValue = end.getValue();
+            if (!CollectionUtil.getObjectIdentificator().equals(oldValue, value)) {
+                root = editingBuilder.replace(path, editingBuilder.replaceEntry(end, key, value));
+            }
+            return oldValue;
+        }
+        
+        public void putAll(Map<? extends K, ? extends V> entries) {
+            EntryIterator<? extends K, ? extends V> iterator = entries.entryIterator();
+            while (iterator.next()) {
+                put(iterator.getCurrentKey(), iterator.getCurrentValue());
+            }
+        }
+        
+        /**
+         * Removes the mapping for the given {@code key}.
+         *
+         * @return the value previously assigned with {@code key} or null
+         */
+        @CheckForNull
+        public V remove(K key) {
+            if (root == null) {
+                return null;
+            }
+            Path<N> path = PersistentTreeMap.pathTo(root, key, keyComparator);
+            N end = path.getEnd();
+            if (end == null) {
+                return null;
+            }
+            root = editingBuilder.remove(path);
+            size--;
+            return end.getValue();
+        }
+        
+        /**
+         * Returns the current entries as a persistent map. The editor stays usable, its next changes copy the nodes
+         * shared with the returned map.
+         */
+        public PersistentMap<K, V> freeze() {
+            if (root == null) {
+                return new EmptyMap<K, V, N>(keyComparator, builder);
+            }
+            root = editingBuilder.freeze(root);
+            return new PersistentTreeMap<K, V, N>(keyComparator, root, size, builder);
+        }
+    }
 }
@@ -0,0 +1,673 @@
+package org.povworld.collection.persistent;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.CheckReturnValue;
+import javax.annotation.concurrent.Immutable;
+
+import org.povworld.collection.Collection;
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.Comparator;
+import org.povworld.collection.EntryIterator;
+import org.povworld.collection.Identificator;
+import org.povworld.collection.Set;
+import org.povworld.collection.common.AbstractMap;
+import org.povworld.collection.common.AbstractOrderedCollection;
+import org.povworld.collection.common.AbstractUnOrderedCollection;
+import org.povworld.collection.common.EntryValueIterator;
+import org.povworld.collection.common.PreConditions;
+import org.povworld.collection.immutable.ImmutableContainer;
+import org.povworld.collection.mutable.ArrayList;
+import org.povworld.collection.persistent.PersistentTreeMap.BalancerType;
+import org.povworld.collection.tree.ImmutableTreeMapNode;
+import org.povworld.collection.tree.Path;
+import org.povworld.collection.tree.ReverseTreeIterator;
+import org.povworld.collection.tree.TreeIterator;
+import org.povworld.collection.tree.TreeUtil;
+
+/**
+ * Persistent multi map that keeps its mappings sorted by key. Unlike a {@link PersistentTreeMap} that maps
+ * each key to a nested value set, every key/value pair is stored in a node of its own and the nodes are ordered
+ * by key first and by value second. Thus adding or removing a single key/value pair runs in O(log n) where n is
+ * the total number of pairs in the map, and pairs can be scanned in key order across key boundaries using
+ * {@link #flatEntryIterator(Object, Object)}.
+ * <p>
+ * The value comparator must be consistent with {@link Object#equals(Object)} as the value sets returned by
+ * {@link #get(Object)} use the object identificator for equality.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ * @param <N> the tree node type
+ */
+@Immutable
+public class PersistentTreeMultiMap<K, V, N extends ImmutableTreeMapNode<K, V, N>> extends AbstractMap<K, Set<V>>
+        implements PersistentMultiMap<K, V> {
+    
+    private static final int ESTIMATED_PATH_LENGTH = 12;
+    
+    public static <K extends Comparable<K>, V extends Comparable<V>> PersistentTreeMultiMap<K, V, ?> empty(
+            Class<K> keyClass, Class<V> valueClass) {
+        return empty(CollectionUtil.getDefaultComparator(keyClass), CollectionUtil.getDefaultComparator(valueClass));
+    }
+    
+    public static <K, V> PersistentTreeMultiMap<K, V, ?> empty(Comparator<? super K> keyComparator,
+            Comparator<? super V> valueComparator) {
+        return empty(keyComparator, valueComparator, BalancerType.AVL);
+    }
+    
+    public static <K, V> PersistentTreeMultiMap<K, V, ?> empty(Comparator<? super K> keyComparator,
+            Comparator<? super V> valueComparator, BalancerType balancerType) {
+        TreeMapBuilder<K, V, ?> builder = balancerType.get();
+        return empty(keyComparator, valueComparator, builder);
+    }
+    
+    public static <K, V, N extends ImmutableTreeMapNode<K, V, N>> PersistentTreeMultiMap<K, V, N> empty(
+            Comparator<? super K> keyComparator, Comparator<? super V> valueComparator, TreeMapBuilder<K, V, N> builder) {
+        return new PersistentTreeMultiMap<K, V, N>(PreConditions.paramNotNull(keyComparator),
+                PreConditions.paramNotNull(valueComparator), builder, null, 0, 0);
+    }
+    
+    private final Comparator<? super K> keyComparator;
+    
+    private final Comparator<? super V> valueComparator;
+    
+    private final TreeMapBuilder<K, V, N> builder;
+    
+    @CheckForNull
+    private final N root;
+    
+    private final int keyCount;
+    
+    private final int valueCount;
+    
+    private PersistentTreeMultiMap(Comparator<? super K> keyComparator, Comparator<? super V> valueComparator,
+            TreeMapBuilder<K, V, N> builder, @CheckForNull N root, int keyCount, int valueCount) {
+        this.keyComparator = keyComparator;
+        this.valueComparator = valueComparator;
+        this.builder = builder;
+        this.root = root;
+        this.keyCount = keyCount;
+        this.valueCount = valueCount;
+    }
+    
+    private int compare(N node, K key, V value) {
+        int cmp = keyComparator.compare(node.getKey(), key);
+        if (cmp != 0) {
+            return cmp;
+        }
+        return valueComparator.compare(node.getValue(), value);
+    }
+    
+    private boolean hasKey(@CheckForNull N node, K key) {
+        return node != null && keyComparator.compare(node.getKey(), key) == 0;
+    }
+    
+    private Path<N> pathTo(K key, V value) {
+        Path.Builder<N> path = Path.newBuilder(root, ESTIMATED_PATH_LENGTH);
+        N subTree = root;
+        while (subTree != null) {
+            int cmp = compare(subTree, key, value);
+            boolean left;
+            if (cmp > 0) {
+                subTree = subTree.getLeft();
+                left = true;
+            } else if (cmp < 0) {
+                subTree = subTree.getRight();
+                left = false;
+            } else { // cmp == 0
+                break;
+            }
+            path.append(left, subTree);
+        }
+        return path.build();
+    }
+    
+    @CheckForNull
+    private N find(K key, V value) {
+        N subTree = root;
+        while (subTree != null) {
+            int cmp = compare(subTree, key, value);
+            if (cmp > 0) {
+                subTree = subTree.getLeft();
+            } else if (cmp < 0) {
+                subTree = subTree.getRight();
+            } else {
+                return subTree;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Builds an iterator stack whose top is the smallest node with a key not less than {@code fromKey}.
+     */
+    private ArrayList<N> seek(K fromKey) {
+        ArrayList<N> stack = new ArrayList<N>(ESTIMATED_PATH_LENGTH);
+        N subTree = root;
+        while (subTree != null) {
+            if (keyComparator.compare(subTree.getKey(), fromKey) >= 0) {
+                stack.push(subTree);
+                subTree = subTree.getLeft();
+            } else {
+                subTree = subTree.getRight();
+            }
+        }
+        return stack;
+    }
+    
+    /**
+     * Checks the invariants of the tree. This method is useful for tests only.
+     */
+    public void checkInvariants() {
+        builder.checkInvariants(root);
+        Iterator<N> nodes = TreeUtil.iterateNodes(root);
+        N previous = null;
+        int keys = 0;
+        int values = 0;
+        while (nodes.hasNext()) {
+            N node = nodes.next();
+            if (previous != null) {
+                PreConditions.conditionCheck("Order violation", compare(previous, node.getKey(), node.getValue()) < 0);
+            }
+            if (previous == null || !hasKey(previous, node.getKey())) {
+                keys++;
+            }
+            values++;
+            previous = node;
+        }
+        PreConditions.conditionCheck("Wrong key count", keys == keyCount);
+        PreConditions.conditionCheck("Wrong value count", values == valueCount);
+    }
+    
+    @Override
+    public Identificator<? super K> getKeyIdentificator() {
+        return keyComparator;
+    }
+    
+    @Override
+    public Identificator<? super Set<V>> getValueIdentificator() {
+        return CollectionUtil.getObjectIdentificator();
+    }
+    
+    public Comparator<? super V> getValueComparator() {
+        return valueComparator;
+    }
+    
+    @Override
+    public int keyCount() {
+        return keyCount;
+    }
+    
+    /**
+     * @return the total number of key/value pairs in the map
+     */
+    public int valueCount() {
+        return valueCount;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return root == null;
+    }
+    
+    @Override
+    @CheckForNull
+    public K getFirstKeyOrNull() {
+        return (root == null) ? null : TreeUtil.getMinNode(root).getKey();
+    }
+    
+    @Override
+    public PersistentSet<V> get(K key) {
+        return new ValueSet(key);
+    }
+    
+    @Override
+    public boolean containsKey(K key) {
+        N subTree = root;
+        while (subTree != null) {
+            int cmp = keyComparator.compare(subTree.getKey(), key);
+            if (cmp > 0) {
+                subTree = subTree.getLeft();
+            } else if (cmp < 0) {
+                subTree = subTree.getRight();
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    @Override
+    public boolean contains(K key, V value) {
+        return find(key, value) != null;
+    }
+    
+    /**
+     * Runs in O(log n + m) where m is the number of values associated with the key.
+     */
+    @Override
+    public int numberOfValues(K key) {
+        int count = 0;
+        EntryIterator<K, V> iterator = flatEntryIterator(key);
+        while (iterator.next()) {
+            count++;
+        }
+        return count;
+    }
+    
+    @Override
+    public ImmutableContainer<K> keys() {
+        return new Keys();
+    }
+    
+    @Override
+    public Collection<Set<V>> values() {
+        return new Values();
+    }
+    
+    @Override
+    public EntryIterator<K, Set<V>> entryIterator() {
+        return new MultiMapEntryIterator(TreeUtil.iterateNodes(root));
+    }
+    
+    /**
+     * @return an iterator over all key/value pairs, sorted by key first and value second
+     */
+    public EntryIterator<K, V> flatEntryIterator() {
+        return new FlatEntryIterator(TreeUtil.iterateNodes(root), null);
+    }
+    
+    /**
+     * @return an iterator over all key/value pairs with a key {@code k} such that
+     *         {@code fromKey <= k < toKey}, sorted by key first and value second
+     */
+    public EntryIterator<K, V> flatEntryIterator(K fromKey, K toKey) {
+        PreConditions.paramNotNull(toKey);
+        return new FlatEntryIterator(new NodeIterator(seek(fromKey)), toKey);
+    }
+    
+    private EntryIterator<K, V> flatEntryIterator(final K key) {
+        return new FlatEntryIterator(new NodeIterator(seek(key)), null) {
+            @Override
+            protected boolean inRange(N node) {
+                return hasKey(node, key);
+            }
+        };
+    }
+    
+    @Override
+    public PersistentTreeMultiMap<K, V, N> with(K key, V value) {
+        PreConditions.paramNotNull(key);
+        PreConditions.paramNotNull(value);
+        Path<N> path = pathTo(key, value);
+        if (path.getEnd() != null) {
+            return this;
+        }
+        // The in-order neighbours of the new node are on the path, so the key is new iff no path node has it.
+        boolean newKey = true;
+        for (int i = 0; i < path.length(); ++i) {
+            if (hasKey(path.getNode(i), key)) {
+                newKey = false;
+                break;
+            }
+        }
+        N newRoot = builder.replace(path, builder.createNode(null, null, key, value));
+        return new PersistentTreeMultiMap<K, V, N>(keyComparator, valueComparator, builder, newRoot,
+                newKey ? keyCount + 1 : keyCount, valueCount + 1);
+    }
+    
+    @Override
+    public PersistentTreeMultiMap<K, V, N> withAll(K key, Iterable<? extends V> values) {
+        PersistentTreeMultiMap<K, V, N> result = this;
+        for (V value: values) {
+            result = result.with(key, value);
+        }
+        return result;
+    }
+    
+    @Override
+    public PersistentTreeMultiMap<K, V, N> without(K key) {
+        ArrayList<V> values = new ArrayList<V>();
+        EntryIterator<K, V> iterator = flatEntryIterator(key);
+        while (iterator.next()) {
+            values.push(iterator.getCurrentValue());
+        }
+        return withoutAll(key, values);
+    }
+    
+    @Override
+    public PersistentTreeMultiMap<K, V, N> without(K key, V value) {
+        Path<N> path = pathTo(key, value);
+        N end = path.getEnd();
+        if (end == null) {
+            return this;
+        }
+        // Other values for the key must be adjacent to the removed node in the tree order.
+        boolean keyRemains = (end.getLeft() != null && hasKey(TreeUtil.getMaxNode(end.getLeft()), key)) ||
+                (end.getRight() != null && hasKey(TreeUtil.getMinNode(end.getRight()), key));
+        for (int i = 0; !keyRemains && i < path.length(); ++i) {
+            keyRemains = hasKey(path.getNode(i), key);
+        }
+        N newRoot = builder.remove(path);
+        return new PersistentTreeMultiMap<K, V, N>(keyComparator, valueComparator, builder, newRoot,
+                keyRemains ? keyCount : keyCount - 1, valueCount - 1);
+    }
+    
+    @Override
+    public PersistentTreeMultiMap<K, V, N> withoutAll(K key, Collection<? extends V> values) {
+        PersistentTreeMultiMap<K, V, N> result = this;
+        for (V value: values) {
+            result = result.without(key, value);
+        }
+        return result;
+    }
+    
+    @Override
+    @CheckReturnValue
+    public PersistentTreeMultiMap<K, V, N> cleared() {
+        if (isEmpty()) {
+            return this;
+        }
+        return empty(keyComparator, valueComparator, builder);
+    }
+    
+    private class NodeIterator extends TreeIterator<N, N> {
+        
+        NodeIterator(ArrayList<N> stack) {
+            super(stack);
+        }
+        
+        @Override
+        protected N getElement(N node) {
+            return node;
+        }
+    }
+    
+    private class FlatEntryIterator implements EntryIterator<K, V> {
+        
+        private final Iterator<N> nodes;
+        
+        @CheckForNull
+        private final K toKey;
+        
+        @CheckForNull
+        private N current = null;
+        
+        FlatEntryIterator(Iterator<N> nodes, @CheckForNull K toKey) {
+            this.nodes = nodes;
+            this.toKey = toKey;
+        }
+        
+        protected boolean inRange(N node) {
+            return toKey == null || keyComparator.compare(node.getKey(), toKey) < 0;
+        }
+        
+        @Override
+        public boolean next() {
+            if (!nodes.hasNext()) {
+                current = null;
+                return false;
+            }
+            current = nodes.next();
+            if (!inRange(current)) {
+                current = null;
+                return false;
+            }
+            return true;
+        }
+        
+        @Override
+        public K getCurrentKey() throws NoSuchElementException {
+            if (current == null) throw new NoSuchElementException();
+            return current.getKey();
+        }
+        
+        @Override
+        public V getCurrentValue() throws NoSuchElementException {
+            if (current == null) throw new NoSuchElementException();
+            return current.getValue();
+        }
+    }
+    
+    private class MultiMapEntryIterator implements EntryIterator<K, Set<V>> {
+        
+        private final Iterator<N> nodes;
+        
+        @CheckForNull
+        private N current = null;
+        
+        MultiMapEntryIterator(Iterator<N> nodes) {
+            this.nodes = nodes;
+        }
+        
+        @Override
+        public boolean next() {
+            N previous = current;
+            do {
+                if (!nodes.hasNext()) {
+                    current = null;
+                    return false;
+                }
+                current = nodes.next();
+            } while (previous != null && hasKey(previous, current.getKey()));
+            return true;
+        }
+        
+        @Override
+        public K getCurrentKey() throws NoSuchElementException {
+            if (current == null) throw new NoSuchElementException();
+            return current.getKey();
+        }
+        
+        @Override
+        public Set<V> getCurrentValue() throws NoSuchElementException {
+            return get(getCurrentKey());
+        }
+    }
+    
+    private class Keys extends AbstractOrderedCollection<K> implements ImmutableContainer<K> {
+        
+        @Override
+        public Identificator<? super K> getIdentificator() {
+            return keyComparator;
+        }
+        
+        @Override
+        public boolean contains(K key) {
+            return containsKey(key);
+        }
+        
+        @Override
+        @CheckForNull
+        public K findEqualOrNull(K key) {
+            ArrayList<N> stack = seek(key);
+            if (stack.isEmpty() || !hasKey(stack.peek(), key)) {
+                return null;
+            }
+            return stack.peek().getKey();
+        }
+        
+        @Override
+        public int size() {
+            return keyCount;
+        }
+        
+        @Override
+        @CheckForNull
+        public K getFirstOrNull() {
+            return getFirstKeyOrNull();
+        }
+        
+        @Override
+        @CheckForNull
+        public K getLastOrNull() {
+            return (root == null) ? null : TreeUtil.getMaxNode(root).getKey();
+        }
+        
+        @Override
+        public Iterator<K> iterator() {
+            return new KeyIterator(TreeUtil.iterateNodes(root));
+        }
+        
+        @Override
+        public Iterator<K> reverseIterator() {
+            return new KeyIterator(new ReverseTreeIterator<N, N>(root, ESTIMATED_PATH_LENGTH) {
+                @Override
+                protected N getElement(N node) {
+                    return node;
+                }
+            });
+        }
+    }
+    
+    private class KeyIterator implements Iterator<K> {
+        
+        private final MultiMapEntryIterator entries;
+        
+        private boolean hasNext;
+        
+        KeyIterator(Iterator<N> nodes) {
+            entries = new MultiMapEntryIterator(nodes);
+            hasNext = entries.next();
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+        
+        @Override
+        public K next() {
+            if (!hasNext) throw new NoSuchElementException();
+            K key = entries.getCurrentKey();
+            hasNext = entries.next();
+            return key;
+        }
+    }
+    
+    private class Values implements Collection<Set<V>> {
+        
+        @Override
+        public int size() {
+            return keyCount;
+        }
+        
+        @Override
+        @CheckForNull
+        public Set<V> getFirstOrNull() {
+            K firstKey = getFirstKeyOrNull();
+            return (firstKey == null) ? null : get(firstKey);
+        }
+        
+        @Override
+        public Iterator<Set<V>> iterator() {
+            return new EntryValueIterator<>(entryIterator());
+        }
+    }
+    
+    /**
+     * View on the values associated with a single key. Modifications are applied to the
+     * underlying tree so each of them runs in O(log n).
+     */
+    private class ValueSet extends AbstractUnOrderedCollection<V> implements PersistentSet<V> {
+        
+        private final K key;
+        
+        private final int size;
+        
+        ValueSet(K key) {
+            this.key = key;
+            this.size = numberOfValues(key);
+        }
+        
+        @Override
+        public boolean contains(V value) {
+            return PersistentTreeMultiMap.this.contains(key, value);
+        }
+        
+        @Override
+        @CheckForNull
+        public V findEqualOrNull(V value) {
+            N node = find(key, value);
+            return (node == null) ? null : node.getValue();
+        }
+        
+        @Override
+        public int size() {
+            return size;
+        }
+        
+        @Override
+        public boolean isEmpty() {
+            return getFirstOrNull() == null;
+        }
+        
+        @Override
+        @CheckForNull
+        public V getFirstOrNull() {
+            ArrayList<N> stack = seek(key);
+            if (stack.isEmpty() || !hasKey(stack.peek(), key)) {
+                return null;
+            }
+            return stack.peek().getValue();
+        }
+        
+        @Override
+        public Iterator<V> iterator() {
+            final EntryIterator<K, V> entries = flatEntryIterator(key);
+            return new Iterator<V>() {
+                
+                private boolean hasNext = entries.next();
+                
+                @Override
+                public boolean hasNext() {
+                    return hasNext;
+                }
+                
+                @Override
+                public V next() {
+                    if (!hasNext) throw new NoSuchElementException();
+                    V value = entries.getCurrentValue();
+                    hasNext = entries.next();
+                    return value;
+                }
+            };
+        }
+        
+        private PersistentSet<V> valuesOf(PersistentTreeMultiMap<K, V, N> map) {
+            return (map == PersistentTreeMultiMap.this) ? this : map.get(key);
+        }
+        
+        @Override
+        public PersistentSet<V> with(V value) {
+            return valuesOf(PersistentTreeMultiMap.this.with(key, value));
+        }
+        
+        @Override
+        public PersistentSet<V> withAll(Iterable<? extends V> values) {
+            return valuesOf(PersistentTreeMultiMap.this.withAll(key, values));
+        }
+        
+        @Override
+        public PersistentSet<V> without(V value) {
+            return valuesOf(PersistentTreeMultiMap.this.without(key, value));
+        }
+        
+        @Override
+        public PersistentSet<V> withoutAll(Iterable<? extends V> values) {
+            PersistentTreeMultiMap<K, V, N> result = PersistentTreeMultiMap.this;
+            for (V value: values) {
+                result = result.without(key, value);
+            }
+            return valuesOf(result);
+        }
+        
+        @Override
+        public PersistentSet<V> cleared() {
+            return isEmpty() ? this : PersistentTreeMultiMap.this.cleared().get(key);
+        }
+    }
+    
+}
@@ -13,6 +13,8 @@ import org.povworld.collection.Identificator;
 import org.povworld.collection.common.AbstractCollectionBuilder;
 import org.povworld.collection.common.AbstractOrderedCollection;
 import org.povworld.collection.common.EmptyIterator;
+import org.povworld.collection.common.MemoryMeasurable;
+import org.povworld.collection.common.MemoryStats;
 import org.povworld.collection.common.ObjectUtil;
 import org.povworld.collection.common.PreConditions;
 import org.povworld.collection.tree.ImmutableTreeSetNode;
@@ -24,7 +26,7 @@ import org.povworld.collection.tree.TreeUtil;
 
 // TODO javadoc
 public class PersistentTreeSet<E, N extends ImmutableTreeSetNode<E, N>> extends AbstractOrderedCollection<E> implements
-        PersistentOrderedSet<E> {
+        PersistentOrderedSet<E>, MemoryMeasurable {
     
     public enum BalancerType {
         AVL(new AvlTreeSetBuilder<Object>()),
@@ -55,7 +57,22 @@ public class PersistentTreeSet<E, N extends ImmutableTreeSetNode<E, N>> extends
         return new EmptySet<>(comparator, balancer);
     }
     
-    private static class EmptySet<E, N extends ImmutableTreeSetNode<E, N>> extends AbstractOrderedCollection<E> implements PersistentOrderedSet<E> {
+    public static <E> Editor<E, ?> newEditor(Comparator<? super E> comparator) {
+        return newEditor(comparator, BalancerType.AVL);
+    }
+    
+    public static <E> Editor<E, ?> newEditor(Comparator<? super E> comparator, BalancerType balancerType) {
+        TreeSetBuilder<E, ?> balancer = balancerType.get();
+        return newEditor(comparator, balancer);
+    }
+    
+    public static <E, N extends ImmutableTreeSetNode<E, N>> Editor<E, N> newEditor(Comparator<? super E> comparator,
+            TreeSetBuilder<E, N> balancer) {
+        return new Editor<E, N>(balancer, comparator, null, 0);
+    }
+    
+    private static class EmptySet<E, N extends ImmutableTreeSetNode<E, N>> extends AbstractOrderedCollection<E> implements PersistentOrderedSet<E>,
+            MemoryMeasurable {
         
         private final Comparator<? super E> comparator;
         
@@ -76,6 +93,11 @@ public class PersistentTreeSet<E, N extends ImmutableTreeSetNode<E, N>> extends
             return 0;
         }
         
+        @Override
+        public MemoryStats estimateFootprint() {
+            return MemoryStats.newBuilder().addObject(this).build();
+        }
+        
         @Override
         @CheckForNull
         public E getFirstOrNull() {
@@ -115,15 +137,12 @@ public class PersistentTreeSet<E, N extends ImmutableTreeSetNode<E, N>> extends
         
         @Override
         public PersistentOrderedSet<E> withAll(Collection<? extends E> elements) {
-            PersistentOrderedSet<E> result = null;
-            for (E element: elements) {
-                if (result == null) {
-                    result = this.with(element);
-                } else {
-                    result = result.with(element);
-                }
+            if (elements.isEmpty()) {
+                return this;
             }
-            return (result == null) ? this : result;
+            Editor<E, N> editor = new Editor<E, N>(treeBuilder, comparator, null, 0);
+            editor.addAll(elements);
+            return editor.freeze();
         }
         
         @Override
@@ -198,6 +217,14 @@ public class PersistentTreeSet<E, N extends ImmutableTreeSetNode<E, N>> extends
         return size;
     }
     
+    /**
+     * Nodes shared with other versions of the set are included.
+     */
+    @Override
+    public MemoryStats estimateFootprint() {
+        return MemoryStats.newBuilder().addObject(this).addTree(root, 0).build();
+    }
+    
     @Override
     public boolean isEmpty() {
         return false;
@@ -244,8 +271,7 @@ public class PersistentTreeSet<E, N extends ImmutableTreeSetNode<E, N>> extends
     public PersistentOrderedSet<E> with(E element) {
         PreConditions.paramNotNull(element);
         N node = createNode(element);
-        Comparator<N> nodeComparator = createNodeComparator();
-        Path<N> path = treeBuilder.pathTo(root, node, nodeComparator);
+        Path<N> path = treeBuilder.pathTo(root, node, createNodeComparator());
         if (path.getEnd() != null) {
             return this;
         }
@@ -254,6 +280,11 @@ public class PersistentTreeSet<E, N extends ImmutableTreeSetNode<E, N>> extends
     }
     
     private Comparator<N> createNodeComparator() {
+        return createNodeComparator(comparator);
+    }
+    
+    private static <E, N extends ImmutableTreeSetNode<E, N>> Comparator<N> createNodeComparator(
+            final Comparator<? super E> comparator) {
         return new Comparator<N>() {
             @Override
             public boolean isIdentifiable(Object object) {
@@ -307,23 +338,25 @@ public class PersistentTreeSet<E, N extends ImmutableTreeSetNode<E, N>> extends
     @Override
     @CheckReturnValue
     public PersistentOrderedSet<E> withAll(Collection<? extends E> elements) {
-        PersistentOrderedSet<E> result = this;
-        for (E element: elements) {
-            PreConditions.paramNotNull(element);
-            result = result.with(element);
+        Editor<E, N> editor = edit();
+        editor.addAll(elements);
+        if (editor.root == root) {
+            return this;
         }
-        return result; // TODO make more efficient
+        return editor.freeze();
     }
     
     @Override
     @CheckReturnValue
     public PersistentOrderedSet<E> withoutAll(Collection<? extends E> elements) {
-        PersistentOrderedSet<E> result = this;
+        Editor<E, N> editor = edit();
         for (E element: elements) {
-            PreConditions.paramNotNull(element);
-            result = result.without(element);
+            editor.remove(element);
         }
-        return result; // TODO make more efficient
+        if (editor.root == root) {
+            return this;
+        }
+        return editor.freeze();
     }
     
     @Override
@@ -332,6 +365,117 @@ public class PersistentTreeSet<E, N extends ImmutableTreeSetNode<E, N>> extends
         return new EmptySet<E, N>(comparator, treeBuilder);
     }
     
+    /**
+     * Returns an editor which starts with the elements of this set.
+     */
+    public Editor<E, N> edit() {
+        return new Editor<E, N>(treeBuilder, comparator, root, size);
+    }
+    
+    /**
+     * Changes a tree set without copying the path to the root for each change: The nodes created by the editor are
+     * changed in place by its later changes, until {@link #freeze()} returns the persistent set.
+     */
+    @NotThreadSafe
+    public static final class Editor<E, N extends ImmutableTreeSetNode<E, N>> {
+        
+        private final TreeSetBuilder<E, N> treeBuilder;
+        
+        private final TreeSetBuilder<E, N> editingBuilder;
+        
+        private final Comparator<? super E> comparator;
+        
+        private final Comparator<N> nodeComparator;
+        
+        @CheckForNull
+        private N root;
+        
+        private int size;
+        
+        private Editor(TreeSetBuilder<E, N> treeBuilder, Comparator<? super E> comparator, @CheckForNull N root, int size) {
+            this.treeBuilder = treeBuilder;
+            this.editingBuilder = treeBuilder.editing();
+            this.comparator = comparator;
+            this.nodeComparator = createNodeComparator(comparator);
+            this.root = root;
+            this.size = size;
+        }
+        
+        public int size() {
+            return size;
+        }
+        
+        public boolean contains(E element) {
+            N subTree = root;
+            while (subTree != null) {
+                int cmp = comparator.compare(subTree.getElement(), element);
+                if (cmp < 0) {
+                    subTree = subTree.getRight();
+                } else if (cmp > 0) {
+                    subTree = subTree.getLeft();
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /**
+         * @return {@code true} if the element was not contained before
+         */
+        public boolean add(E element) {
+            PreConditions.paramNotNull(element);
+            if (root == null) {
+                root = editingBuilder.createNode(element);
+                size = 1;
+                return true;
+            }
+            N node = editingBuilder.createNode(element);
+            Path<N> path = editingBuilder.pathTo(root, node, nodeComparator);
+            if (path.getEnd() != null) {
+                return false;
+            }
+            root = editingBuilder.replace(path, node);
+            size++;
+            return true;
+        }
+        
+        public void addAll(Iterable<? extends E> elements) {
+            for (E element: elements) {
+                add(element);
+            }
+        }
+        
+        /**
+         * @return {@code true} if the element was contained before
+         */
+        public boolean remove(E element) {
+            PreConditions.paramNotNull(element);
+            if (root == null) {
+                return false;
+            }
+            Path<N> path = editingBuilder.pathTo(root, treeBuilder.createNode(element), nodeComparator);
+            if (path.getEnd() == null) {
+                return false;
+            }
+            root = editingBuilder.remove(path);
+            size--;
+            return true;
+        }
+        
+        /**
+         * Returns the current elements as a persistent set. The editor stays usable, its next changes copy the nodes
+         * shared with the returned set.
+         */
+        public PersistentOrderedSet<E> freeze() {
+            if (root == null) {
+                return new EmptySet<E, N>(comparator, treeBuilder);
+            }
+            root = editingBuilder.freeze(root);
+            return new PersistentTreeSet<E, N>(treeBuilder, comparator, root, size);
+        }
+    }
+    
     public static <E> Builder<E> newBuilder(Comparator<? super E> comparator) {
         return new Builder<>(comparator);
     }
@@ -343,29 +487,35 @@ public class PersistentTreeSet<E, N extends ImmutableTreeSetNode<E, N>> extends
     @NotThreadSafe
     public static final class Builder<E> extends AbstractCollectionBuilder<E, PersistentOrderedSet<E>> {
         
-        private PersistentOrderedSet<E> set;
+        private final Comparator<? super E> comparator;
+        
+        private final BalancerType balancer;
+        
+        private Editor<E, ?> editor;
         
         public Builder(Comparator<? super E> comparator) {
             this(comparator, BalancerType.AVL);
         }
         
         public Builder(Comparator<? super E> comparator, BalancerType balancer) {
-            set = empty(comparator, balancer);
+            this.comparator = comparator;
+            this.balancer = balancer;
+            editor = newEditor(comparator, balancer);
         }
         
         @Override
         protected void _add(E element) {
-            set = set.with(element);
+            editor.add(element);
         }
         
         @Override
         protected PersistentOrderedSet<E> _createCollection() {
-            return set;
+            return editor.freeze();
         }
         
         @Override
         protected void _reset() {
-            set = set.cleared();
+            editor = newEditor(comparator, balancer);
         }
     }
     
@@ -0,0 +1,299 @@
+package org.povworld.collection.persistent;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.povworld.collection.EntryIterator;
+import org.povworld.collection.common.PreConditions;
+import org.povworld.collection.mutable.ArrayList;
+import org.povworld.collection.mutable.IdentityHashMap;
+
+/**
+ * Software transactional memory for references to immutable values, typically persistent collections. It updates
+ * several references atomically, so invariants which span multiple collections hold without a global lock.
+ * <p>
+ * A {@link Transaction} records the versions of the references it reads and buffers its writes. All reads of a
+ * transaction see the same snapshot: Reading a reference which has been committed after the transaction started
+ * is a conflict. On commit, the written references are locked, the read references are validated to be unchanged,
+ * and the written values are published with the next version of the clock of this instance. Read-only transactions
+ * commit without locking.
+ * <p>
+ * A conflicting transaction is retried after a randomized exponential backoff. The transaction function may
+ * therefore run several times and should not have side effects other than writes to the references. It must not
+ * catch the exception which signals a conflict, i.e., must not catch {@link RuntimeException}s thrown by
+ * {@link Transaction#get(Ref)}.
+ */
+@ThreadSafe
+public final class Stm {
+    
+    // Number of retries which only yield before the thread is parked.
+    private static final int YIELD_RETRIES = 4;
+    
+    private static final long MIN_BACKOFF_NANOS = 1000;
+    
+    private static final long MAX_BACKOFF_NANOS = 1000000;
+    
+    private final AtomicLong clock = new AtomicLong();
+    
+    private final LongAdder commits = new LongAdder();
+    
+    private final LongAdder conflicts = new LongAdder();
+    
+    /**
+     * Committed value of a reference. A cell with an owner is locked by a committing transaction.
+     */
+    private static final class Cell<T> {
+        
+        final T value;
+        
+        final long version;
+        
+        @CheckForNull
+        final Transaction owner;
+        
+        Cell(T value, long version, @CheckForNull Transaction owner) {
+            this.value = value;
+            this.version = version;
+            this.owner = owner;
+        }
+    }
+    
+    /**
+     * Transactional reference to an immutable value.
+     *
+     * @param <T> the value type
+     */
+    @ThreadSafe
+    public static final class Ref<T> {
+        
+        private final Stm stm;
+        
+        private final AtomicReference<Cell<T>> cell;
+        
+        private Ref(Stm stm, T value) {
+            this.stm = stm;
+            this.cell = new AtomicReference<>(new Cell<T>(value, 0, null));
+        }
+        
+        /**
+         * @return the latest committed value
+         */
+        public T get() {
+            return cell.get().value;
+        }
+        
+        private boolean tryLock(Transaction owner) {
+            Cell<T> current = cell.get();
+            return current.owner == null
+                    && cell.compareAndSet(current, new Cell<T>(current.value, current.version, owner));
+        }
+        
+        private void unlock() {
+            Cell<T> current = cell.get();
+            cell.set(new Cell<T>(current.value, current.version, null));
+        }
+        
+        @SuppressWarnings("unchecked")
+        private void publish(Object value, long version) {
+            cell.set(new Cell<T>((T)value, version, null));
+        }
+    }
+    
+    /**
+     * Signals that a transaction has to be retried.
+     */
+    private static final class ConflictException extends RuntimeException {
+        
+        private static final long serialVersionUID = 1L;
+        
+        static final ConflictException INSTANCE = new ConflictException();
+        
+        private ConflictException() {
+            super("Transaction conflict", null, false, false);
+        }
+    }
+    
+    /**
+     * One attempt of running a transaction function. It can only be used within the function.
+     */
+    @NotThreadSafe
+    public final class Transaction {
+        
+        private final long readVersion;
+        
+        private final IdentityHashMap<Ref<?>, Cell<?>> reads = new IdentityHashMap<>();
+        
+        private final IdentityHashMap<Ref<?>, Object> writes = new IdentityHashMap<>();
+        
+        private boolean active = true;
+        
+        private boolean conflicted = false;
+        
+        private Transaction(long readVersion) {
+            this.readVersion = readVersion;
+        }
+        
+        /**
+         * @return the value of the {@code ref} as written by this transaction or else as committed when the
+         *         transaction started
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T get(Ref<T> ref) {
+            checkAccess(ref);
+            Object written = writes.get(ref);
+            if (written != null) {
+                return (T)written;
+            }
+            Cell<?> read = reads.get(ref);
+            if (read != null) {
+                return (T)read.value;
+            }
+            Cell<T> cell = ref.cell.get();
+            if (cell.owner != null || cell.version > readVersion) {
+                conflicted = true;
+                throw ConflictException.INSTANCE;
+            }
+            reads.put(ref, cell);
+            return cell.value;
+        }
+        
+        /**
+         * Sets the value of the {@code ref}, which becomes visible to other threads when the transaction commits.
+         */
+        public <T> void set(Ref<T> ref, T value) {
+            checkAccess(ref);
+            PreConditions.paramNotNull(value);
+            writes.put(ref, value);
+        }
+        
+        /**
+         * Sets the value of the {@code ref} to the result of the {@code function} applied to its current value.
+         *
+         * @return the new value
+         */
+        public <T> T update(Ref<T> ref, UnaryOperator<T> function) {
+            T value = function.apply(get(ref));
+            set(ref, value);
+            return value;
+        }
+        
+        private void checkAccess(Ref<?> ref) {
+            PreConditions.conditionCheck("Transaction is not active", active);
+            PreConditions.paramCheck(ref, "Reference of other Stm", ref.stm == Stm.this);
+        }
+        
+        private boolean commit() {
+            if (conflicted) {
+                return false;
+            }
+            if (writes.isEmpty()) {
+                return true;
+            }
+            ArrayList<Ref<?>> locked = new ArrayList<>(writes.keyCount());
+            for (Ref<?> ref: writes.keys()) {
+                if (!ref.tryLock(this)) {
+                    unlockAll(locked);
+                    return false;
+                }
+                locked.push(ref);
+            }
+            long writeVersion = clock.incrementAndGet();
+            // If no other transaction has committed in the meantime, the reads are still valid.
+            if (writeVersion != readVersion + 1 && !readsValid()) {
+                unlockAll(locked);
+                return false;
+            }
+            EntryIterator<Ref<?>, Object> iterator = writes.entryIterator();
+            while (iterator.next()) {
+                iterator.getCurrentKey().publish(iterator.getCurrentValue(), writeVersion);
+            }
+            return true;
+        }
+        
+        private boolean readsValid() {
+            EntryIterator<Ref<?>, Cell<?>> iterator = reads.entryIterator();
+            while (iterator.next()) {
+                Cell<?> current = iterator.getCurrentKey().cell.get();
+                if (current.version != iterator.getCurrentValue().version
+                        || (current.owner != null && current.owner != this)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        private void unlockAll(ArrayList<Ref<?>> locked) {
+            for (Ref<?> ref: locked) {
+                ref.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Creates a new reference with the given initial {@code value}.
+     */
+    public <T> Ref<T> newRef(T value) {
+        PreConditions.paramNotNull(value);
+        return new Ref<T>(this, value);
+    }
+    
+    /**
+     * Runs the {@code function} in a transaction and commits its writes atomically. The function is retried until it
+     * commits without a conflict. Any other exception thrown by the function aborts the transaction without
+     * publishing its writes and is passed on to the caller.
+     *
+     * @return the result of the function in the committed attempt
+     */
+    public <R> R atomically(Function<? super Transaction, ? extends R> function) {
+        PreConditions.paramNotNull(function);
+        for (int retry = 0;; ++retry) {
+            Transaction transaction = new Transaction(clock.get());
+            try {
+                R result = function.apply(transaction);
+                if (transaction.commit()) {
+                    commits.increment();
+                    return result;
+                }
+            } catch (ConflictException e) {
+                // Retried below.
+            } finally {
+                transaction.active = false;
+            }
+            conflicts.increment();
+            backoff(retry);
+        }
+    }
+    
+    private static void backoff(int retry) {
+        if (retry < YIELD_RETRIES) {
+            Thread.yield();
+            return;
+        }
+        long maxNanos = MIN_BACKOFF_NANOS << Math.min(retry - YIELD_RETRIES, 10);
+        LockSupport.parkNanos(1 + ThreadLocalRandom.current().nextLong(Math.min(maxNanos, MAX_BACKOFF_NANOS)));
+    }
+    
+    /**
+     * @return the number of committed transactions
+     */
+    public long getCommitCount() {
+        return commits.sum();
+    }
+    
+    /**
+     * @return the number of transaction attempts which have been retried because of a conflict
+     */
+    public long getConflictCount() {
+        return conflicts.sum();
+    }
+    
+}
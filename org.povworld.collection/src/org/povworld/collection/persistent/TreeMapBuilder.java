@@ -7,4 +7,30 @@ import org.povworld.collection.tree.TreeBuilder;
 
 public interface TreeMapBuilder<K, V, N extends ImmutableTreeMapNode<K, V, N>> extends TreeBuilder<N> {
     public N createNode(@CheckForNull N left, @CheckForNull N right, K key, V value);
+    
+    /**
+     * Creates a node with the children of the given {@code node} and the given key and value.
+     */
+    public default N replaceEntry(N node, K key, V value) {
+        return createNode(node.getLeft(), node.getRight(), key, value);
+    }
+    
+    /**
+     * Returns a builder for an edit session. Its nodes are changed in place by its later operations until they are
+     * replaced by {@link #freeze(ImmutableTreeMapNode)}, so the trees must not be shared before. Builders which do
+     * not support this return themselves.
+     */
+    public default TreeMapBuilder<K, V, N> editing() {
+        return this;
+    }
+    
+    /**
+     * Replaces the nodes of the given tree which were created by an {@link #editing()} builder with immutable nodes.
+     *
+     * @return the immutable tree, which shares all other nodes with the given tree
+     */
+    @CheckForNull
+    public default N freeze(@CheckForNull N tree) {
+        return tree;
+    }
 }
\ No newline at end of file
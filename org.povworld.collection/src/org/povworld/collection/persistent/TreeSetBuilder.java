@@ -1,5 +1,7 @@
 package org.povworld.collection.persistent;
 
+import javax.annotation.CheckForNull;
+
 import org.povworld.collection.tree.ImmutableTreeSetNode;
 import org.povworld.collection.tree.TreeBuilder;
 
@@ -10,4 +12,23 @@ public interface TreeSetBuilder<E, N extends ImmutableTreeSetNode<E, N>> extends
      */
     public N createNode(E element);
     
+    /**
+     * Returns a builder for an edit session. Its nodes are changed in place by its later operations until they are
+     * replaced by {@link #freeze(ImmutableTreeSetNode)}, so the trees must not be shared before. Builders which do
+     * not support this return themselves.
+     */
+    public default TreeSetBuilder<E, N> editing() {
+        return this;
+    }
+    
+    /**
+     * Replaces the nodes of the given tree which were created by an {@link #editing()} builder with immutable nodes.
+     *
+     * @return the immutable tree, which shares all other nodes with the given tree
+     */
+    @CheckForNull
+    public default N freeze(@CheckForNull N tree) {
+        return tree;
+    }
+    
 }
\ No newline at end of file
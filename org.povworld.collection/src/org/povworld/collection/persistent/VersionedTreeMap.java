@@ -0,0 +1,195 @@
+package org.povworld.collection.persistent;
+
+import java.util.Arrays;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.Comparator;
+import org.povworld.collection.EntryIterator;
+import org.povworld.collection.Map;
+import org.povworld.collection.common.PreConditions;
+
+/**
+ * History of the versions of a {@link PersistentTreeMap}.
+ * <p>
+ * Each commit creates a new version with the next version number. The versions share all unchanged nodes by path
+ * copying, so a change only costs its copied path. The roots are stored by version number, so the map of a version
+ * is found in constant time and historic point and range queries take {@code O(log n)} like on the latest map.
+ * Versions older than a watermark can be discarded, which releases the nodes which are not shared with the retained
+ * versions.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+@NotThreadSafe
+public final class VersionedTreeMap<K, V> {
+    
+    private static final int INITIAL_CAPACITY = 16;
+    
+    private final Comparator<? super K> keyComparator;
+    
+    private PersistentMap<K, V>[] versions = newArray(INITIAL_CAPACITY);
+    
+    // Index of the oldest retained version in the versions array.
+    private int start = 0;
+    
+    private int count = 1;
+    
+    private long oldestVersion = 0;
+    
+    private VersionedTreeMap(Comparator<? super K> keyComparator) {
+        this.keyComparator = keyComparator;
+        this.versions[0] = PersistentTreeMap.empty(keyComparator);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <K, V> PersistentMap<K, V>[] newArray(int length) {
+        return (PersistentMap<K, V>[])new PersistentMap<?, ?>[length];
+    }
+    
+    /**
+     * Creates a history whose version 0 is the empty map.
+     */
+    public static <K extends Comparable<K>, V> VersionedTreeMap<K, V> create(Class<K> keyClass) {
+        return new VersionedTreeMap<K, V>(CollectionUtil.getDefaultComparator(keyClass));
+    }
+    
+    /**
+     * Creates a history whose version 0 is the empty map.
+     */
+    public static <K, V> VersionedTreeMap<K, V> create(Comparator<? super K> keyComparator) {
+        return new VersionedTreeMap<K, V>(keyComparator);
+    }
+    
+    public long getLatestVersion() {
+        return oldestVersion + count - 1;
+    }
+    
+    /**
+     * @return the oldest version which has not been discarded
+     */
+    public long getOldestVersion() {
+        return oldestVersion;
+    }
+    
+    /**
+     * @return the number of retained versions
+     */
+    public int versionCount() {
+        return count;
+    }
+    
+    public PersistentMap<K, V> getLatest() {
+        return versions[start + count - 1];
+    }
+    
+    /**
+     * @throws IllegalArgumentException if the {@code version} has not been committed yet or has been discarded
+     */
+    public PersistentMap<K, V> get(long version) {
+        PreConditions.paramCheck(version, "Unknown version", version >= oldestVersion && version <= getLatestVersion());
+        return versions[start + (int)(version - oldestVersion)];
+    }
+    
+    /**
+     * @return the value of the {@code key} in the given {@code version} or null if it had no value
+     */
+    @CheckForNull
+    public V get(K key, long version) {
+        return get(version).get(key);
+    }
+    
+    /**
+     * @return an iterator over the entries of the given {@code version} with a key {@code k} such that
+     *         {@code fromKey <= k < toKey}, sorted by key
+     */
+    public EntryIterator<K, V> entryIterator(K fromKey, K toKey, long version) {
+        PersistentMap<K, V> map = get(version);
+        if (map.isEmpty()) {
+            return map.entryIterator();
+        }
+        return ((PersistentTreeMap<K, V, ?>)map).entryIterator(fromKey, toKey);
+    }
+    
+    /**
+     * Adds the given {@code map} as the latest version. It shares its nodes with the other versions if it has been
+     * derived from one of them, other maps are copied into a tree map.
+     *
+     * @return the number of the new version
+     */
+    public long commit(PersistentMap<K, V> map) {
+        PersistentMap<K, V> version = map;
+        // Empty tree maps are not PersistentTreeMaps either, but copying them is cheap.
+        if (!isTreeMap(map)) {
+            version = versions[start].cleared().withAll(map);
+        }
+        if (start + count == versions.length) {
+            ensureCapacity();
+        }
+        versions[start + count] = version;
+        count++;
+        return getLatestVersion();
+    }
+    
+    private boolean isTreeMap(PersistentMap<K, V> map) {
+        return (map instanceof PersistentTreeMap) && keyComparator.equals(map.getKeyIdentificator());
+    }
+    
+    private void ensureCapacity() {
+        if (start >= versions.length / 2) {
+            // Reuse the space of the discarded versions.
+            System.arraycopy(versions, start, versions, 0, count);
+            Arrays.fill(versions, count, start + count, null);
+        } else {
+            versions = Arrays.copyOf(versions, 2 * versions.length);
+        }
+        start = 0;
+    }
+    
+    /**
+     * Commits the latest map with the given entry.
+     *
+     * @return the number of the new version
+     */
+    public long put(K key, V value) {
+        return commit(getLatest().with(key, value));
+    }
+    
+    /**
+     * Commits the latest map with all given entries as one version.
+     *
+     * @return the number of the new version
+     */
+    public long putAll(Map<? extends K, ? extends V> entries) {
+        return commit(getLatest().withAll(entries));
+    }
+    
+    /**
+     * Commits the latest map without the given key.
+     *
+     * @return the number of the new version
+     */
+    public long remove(K key) {
+        return commit(getLatest().without(key));
+    }
+    
+    /**
+     * Discards the versions older than the {@code watermark}, which becomes the oldest version.
+     *
+     * @throws IllegalArgumentException if the {@code watermark} is newer than the latest version
+     */
+    public void discardVersionsBefore(long watermark) {
+        PreConditions.paramCheck(watermark, "Watermark is newer than the latest version", watermark <= getLatestVersion());
+        if (watermark <= oldestVersion) {
+            return;
+        }
+        int discarded = (int)(watermark - oldestVersion);
+        Arrays.fill(versions, start, start + discarded, null);
+        start += discarded;
+        count -= discarded;
+        oldestVersion = watermark;
+    }
+    
+}
@@ -0,0 +1,53 @@
+package test.org.povworld.collection.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.povworld.collection.common.KeyedStringIdentificator;
+
+/**
+ * Unit tests for {@link KeyedStringIdentificator}.
+ */
+public class KeyedStringIdentificatorTest {
+    
+    @Test
+    public void equality() {
+        KeyedStringIdentificator identificator = new KeyedStringIdentificator(1, 2);
+        assertTrue(identificator.equals("abc", new String("abc")));
+        assertFalse(identificator.equals("abc", "abd"));
+        assertTrue(identificator.isIdentifiable("abc"));
+        assertFalse(identificator.isIdentifiable(1));
+        assertEquals(identificator.hashCode("abcdefghij"), identificator.hashCode(new String("abcdefghij")));
+    }
+    
+    @Test
+    public void stringHashCollisionsDoNotCollide() {
+        // "Aa" and "BB" have the same String.hashCode(), so do all strings composed of them with the same length.
+        KeyedStringIdentificator identificator = KeyedStringIdentificator.withRandomKey();
+        assertEquals("AaBB".hashCode(), "BBAa".hashCode());
+        assertNotEquals(identificator.hashCode("AaBB"), identificator.hashCode("BBAa"));
+        assertNotEquals(identificator.hashCode("Aa"), identificator.hashCode("BB"));
+    }
+    
+    @Test
+    public void lengthIsHashed() {
+        KeyedStringIdentificator identificator = new KeyedStringIdentificator(1, 2);
+        assertNotEquals(identificator.hashCode(""), identificator.hashCode("\0"));
+        assertNotEquals(identificator.hashCode("abcd"), identificator.hashCode("abcd\0"));
+        assertNotEquals(identificator.hashCode("abc"), identificator.hashCode("abc\0"));
+    }
+    
+    @Test
+    public void keyChangesHashCodes() {
+        KeyedStringIdentificator identificator1 = new KeyedStringIdentificator(1, 2);
+        KeyedStringIdentificator identificator2 = new KeyedStringIdentificator(1, 3);
+        assertNotEquals(identificator1.hashCode("abc"), identificator2.hashCode("abc"));
+        assertNotEquals(identificator1, identificator2);
+        assertEquals(identificator1, new KeyedStringIdentificator(1, 2));
+        assertEquals(identificator1.hashCode(), new KeyedStringIdentificator(1, 2).hashCode());
+    }
+    
+}
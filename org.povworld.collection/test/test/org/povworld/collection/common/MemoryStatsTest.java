@@ -0,0 +1,159 @@
+package test.org.povworld.collection.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.common.MemoryMeasurable;
+import org.povworld.collection.common.MemoryStats;
+import org.povworld.collection.mutable.ArrayList;
+import org.povworld.collection.mutable.HashMap;
+import org.povworld.collection.mutable.HashSet;
+import org.povworld.collection.mutable.HashTableLayout;
+import org.povworld.collection.mutable.TreeList;
+import org.povworld.collection.mutable.TreeMap;
+import org.povworld.collection.mutable.TreeSet;
+import org.povworld.collection.persistent.PersistentHashMap;
+import org.povworld.collection.persistent.PersistentHashSet;
+import org.povworld.collection.persistent.PersistentMap;
+import org.povworld.collection.persistent.PersistentOrderedSet;
+import org.povworld.collection.persistent.PersistentSet;
+import org.povworld.collection.persistent.PersistentTreeMap;
+import org.povworld.collection.persistent.PersistentTreeSet;
+
+/**
+ * Unit tests for {@link MemoryStats}.
+ */
+public class MemoryStatsTest {
+    
+    private static final int SIZE = 5000;
+    
+    private static class Node {
+        @SuppressWarnings("unused")
+        private Object reference;
+        
+        @SuppressWarnings("unused")
+        private long value;
+        
+        @SuppressWarnings("unused")
+        private byte flag;
+    }
+    
+    @Test
+    public void sizes() {
+        // 12 bytes header, 4 bytes reference, 8 bytes long and one byte, aligned to 8 bytes.
+        assertEquals(32, MemoryStats.shallowBytes(new Node()));
+        assertEquals(16, MemoryStats.shallowBytes(new Object()));
+        assertEquals(16, MemoryStats.arrayBytes(0, 4));
+        assertEquals(24, MemoryStats.arrayBytes(3, 1));
+        assertEquals(56, MemoryStats.arrayBytes(10, 4));
+    }
+    
+    @Test
+    public void builder() {
+        MemoryStats stats = MemoryStats.newBuilder().addObject(new Node()).addArray(new Object[10]).addSlots(10)
+                .addEntries(0, 3).addEntry(2).build();
+        assertEquals(88, stats.getRetainedBytes());
+        assertEquals(2, stats.getNodeCount());
+        assertEquals(0.4, stats.getLoadFactor(), 0);
+        assertEquals(2, stats.getMaxDepth());
+        assertEquals(3, stats.getEntryCountAtDepth(0));
+        assertEquals(0, stats.getEntryCountAtDepth(1));
+        assertEquals(1, stats.getEntryCountAtDepth(2));
+        assertEquals(0, stats.getEntryCountAtDepth(3));
+        assertEquals(0.5, stats.getAverageDepth(), 0);
+    }
+    
+    @Test
+    public void empty() {
+        MemoryStats stats = MemoryStats.newBuilder().build();
+        assertEquals(0, stats.getRetainedBytes());
+        assertEquals(-1, stats.getMaxDepth());
+        assertTrue(Double.isNaN(stats.getLoadFactor()));
+        assertEquals(0, stats.getAverageDepth(), 0);
+    }
+    
+    @Test
+    public void mutableCollections() {
+        ArrayList<Integer> list = new ArrayList<>();
+        HashSet<Integer> linearSet = new HashSet<>();
+        HashSet<Integer> groupedSet = new HashSet<>(CollectionUtil.getObjectIdentificator(), 0, HashTableLayout.GROUPED);
+        HashMap<Integer, Integer> map = new HashMap<>(0, HashTableLayout.INCREMENTAL_LINEAR_PROBING);
+        TreeSet<Integer> treeSet = TreeSet.create(Integer.class);
+        TreeMap<Integer, Integer> treeMap = TreeMap.create(Integer.class);
+        TreeList<Integer> treeList = new TreeList<>();
+        for (int i = 0; i < SIZE; ++i) {
+            list.push(i);
+            linearSet.add(i);
+            groupedSet.add(i);
+            map.put(i, i);
+            treeSet.add(i);
+            treeMap.put(i, i);
+            treeList.add(i % 100);
+        }
+        checkStats(list, SIZE);
+        checkStats(linearSet, SIZE);
+        checkStats(groupedSet, SIZE);
+        checkStats(map, SIZE);
+        checkStats(treeSet, SIZE);
+        checkStats(treeMap, SIZE);
+        checkStats(treeList, SIZE);
+        
+        assertEquals(0, list.estimateFootprint().getMaxDepth());
+        assertTrue(linearSet.estimateFootprint().getLoadFactor() <= 0.5);
+        assertTrue(treeSet.estimateFootprint().getMaxDepth() < 2 * 13);
+        assertTrue(Double.isNaN(treeMap.estimateFootprint().getLoadFactor()));
+        // The array of the list holds at least one reference per element.
+        assertTrue(list.estimateFootprint().getRetainedBytes() >= 4 * SIZE);
+        // Each tree node holds at least two children and the element.
+        assertTrue(treeSet.estimateFootprint().getRetainedBytes() >= 24 * SIZE);
+    }
+    
+    @Test
+    public void smallHashMap() {
+        HashMap<String, String> map = new HashMap<>();
+        map.put("a", "1");
+        map.put("b", "2");
+        MemoryStats stats = map.estimateFootprint();
+        assertEquals(1, stats.getEntryCountAtDepth(0));
+        assertEquals(1, stats.getEntryCountAtDepth(1));
+        assertEquals(3, stats.getNodeCount());
+    }
+    
+    @Test
+    public void persistentCollections() {
+        PersistentSet<Integer> set = PersistentHashSet.empty();
+        PersistentMap<Integer, Integer> map = PersistentHashMap.empty();
+        PersistentOrderedSet<Integer> treeSet = PersistentTreeSet.<Integer>empty(CollectionUtil.getDefaultComparator(Integer.class));
+        PersistentMap<Integer, Integer> treeMap = PersistentTreeMap.empty(Integer.class);
+        checkStats((MemoryMeasurable)set, 0);
+        checkStats((MemoryMeasurable)map, 0);
+        checkStats((MemoryMeasurable)treeSet, 0);
+        checkStats((MemoryMeasurable)treeMap, 0);
+        for (int i = 0; i < SIZE; ++i) {
+            set = set.with(i);
+            map = map.with(i, i);
+            treeSet = treeSet.with(i);
+            treeMap = treeMap.with(i, i);
+        }
+        checkStats((MemoryMeasurable)set, SIZE);
+        checkStats((MemoryMeasurable)map, SIZE);
+        checkStats((MemoryMeasurable)treeSet, SIZE);
+        checkStats((MemoryMeasurable)treeMap, SIZE);
+        assertTrue(((MemoryMeasurable)set).estimateFootprint().getMaxDepth() >= 1);
+    }
+    
+    private static void checkStats(MemoryMeasurable collection, int size) {
+        MemoryStats stats = collection.estimateFootprint();
+        long entries = 0;
+        for (int depth = 0; depth <= stats.getMaxDepth(); ++depth) {
+            entries += stats.getEntryCountAtDepth(depth);
+        }
+        assertEquals(size, entries);
+        assertTrue(stats.getNodeCount() >= 1);
+        assertTrue(stats.getRetainedBytes() >= 16 * stats.getNodeCount());
+        assertTrue(Double.isNaN(stats.getLoadFactor()) || stats.getLoadFactor() <= 1);
+    }
+    
+}
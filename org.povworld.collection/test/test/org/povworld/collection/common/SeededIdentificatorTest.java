@@ -0,0 +1,113 @@
+package test.org.povworld.collection.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.Identificator;
+import org.povworld.collection.common.IdentityIdentificator;
+import org.povworld.collection.common.SeededIdentificator;
+import org.povworld.collection.mutable.HashSet;
+import org.povworld.collection.persistent.ChampHashSet;
+
+/**
+ * Unit tests for {@link SeededIdentificator}.
+ */
+public class SeededIdentificatorTest {
+    
+    @Test
+    public void delegatesEquality() {
+        Identificator<Object> identificator = new SeededIdentificator<>(CollectionUtil.getObjectIdentificator(), 7);
+        assertTrue(identificator.equals("a", new String("a")));
+        assertFalse(identificator.equals("a", "b"));
+        assertTrue(identificator.isIdentifiable("a"));
+        assertEquals(identificator.hashCode("a"), identificator.hashCode(new String("a")));
+    }
+    
+    @Test
+    public void seedChangesHashCodes() {
+        Identificator<Object> identificator1 = new SeededIdentificator<>(CollectionUtil.getObjectIdentificator(), 7);
+        Identificator<Object> identificator2 = new SeededIdentificator<>(CollectionUtil.getObjectIdentificator(), 8);
+        int equalHashCodes = 0;
+        for (int i = 0; i < 100; ++i) {
+            if (identificator1.hashCode(i) == identificator2.hashCode(i)) {
+                equalHashCodes++;
+            }
+        }
+        assertEquals(0, equalHashCodes);
+    }
+    
+    @Test
+    public void spreadsUpperBits() {
+        Identificator<Integer> shifted = new Identificator<Integer>() {
+            @Override
+            public boolean isIdentifiable(Object object) {
+                return object instanceof Integer;
+            }
+            
+            @Override
+            public boolean equals(Integer object1, Integer object2) {
+                return object1.equals(object2);
+            }
+            
+            @Override
+            public int hashCode(Integer object) {
+                return object << 20;
+            }
+        };
+        Identificator<Integer> identificator = SeededIdentificator.withRandomSeed(shifted);
+        boolean[] used = new boolean[256];
+        int distinct = 0;
+        for (int i = 0; i < 256; ++i) {
+            int bucket = identificator.hashCode(i) & 0xFF;
+            if (!used[bucket]) {
+                used[bucket] = true;
+                distinct++;
+            }
+        }
+        // About 1 - 1/e of the buckets are expected to be used.
+        assertTrue(distinct > 128);
+    }
+    
+    @Test
+    public void equalsAndHashCode() {
+        Identificator<Object> identificator1 = new SeededIdentificator<>(CollectionUtil.getObjectIdentificator(), 1);
+        Identificator<Object> identificator2 = new SeededIdentificator<>(CollectionUtil.getObjectIdentificator(), 1);
+        assertEquals(identificator1, identificator2);
+        assertEquals(identificator1.hashCode(), identificator2.hashCode());
+        assertNotEquals(identificator1, new SeededIdentificator<>(CollectionUtil.getObjectIdentificator(), 12345));
+        assertNotEquals(identificator1, new SeededIdentificator<>(IdentityIdentificator.getInstance(), 1));
+    }
+    
+    @Test
+    public void setsWithDifferentSeeds() {
+        // Collections are only equal if their identificators are, which requires equal seeds.
+        Identificator<Object> objects = CollectionUtil.getObjectIdentificator();
+        ChampHashSet<Integer> set1 = ChampHashSet.empty(new SeededIdentificator<>(objects, 1));
+        ChampHashSet<Integer> set2 = ChampHashSet.empty(new SeededIdentificator<>(objects, 1));
+        ChampHashSet<Integer> set3 = ChampHashSet.empty(new SeededIdentificator<>(objects, 12345));
+        for (int i = 0; i < 100; ++i) {
+            set1 = set1.with(i);
+            set2 = set2.with(99 - i);
+            set3 = set3.with(i);
+        }
+        assertEquals(set1, set2);
+        assertNotEquals(set1, set3);
+    }
+    
+    @Test
+    public void usableInHashSet() {
+        HashSet<Object> set = new HashSet<>(SeededIdentificator.withRandomSeed(CollectionUtil.getObjectIdentificator()));
+        for (int i = 0; i < 1000; ++i) {
+            set.add(i);
+        }
+        for (int i = 0; i < 1000; ++i) {
+            assertTrue(set.contains(i));
+        }
+        assertFalse(set.contains(1000));
+    }
+    
+}
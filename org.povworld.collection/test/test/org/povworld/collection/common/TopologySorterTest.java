@@ -1,15 +1,24 @@
 package test.org.povworld.collection.common;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.povworld.collection.CollectionUtil.indexOf;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.povworld.collection.CollectionBuilder;
 import org.povworld.collection.CollectionUtil;
 import org.povworld.collection.List;
 import org.povworld.collection.common.TopologySorter;
+import org.povworld.collection.common.TopologySorter.CyclicTopologyException;
 import org.povworld.collection.common.TopologySorter.Topology;
 import org.povworld.collection.immutable.ImmutableCollections;
 import org.povworld.collection.mutable.ArrayList;
@@ -97,6 +106,112 @@ public class TopologySorterTest {
         assertTrue("" + indexOf(actual, "a") + "<" + indexOf(actual, "c"), indexOf(actual, "a") < indexOf(actual, "c"));
     }
     
+    @Test
+    public void levels() {
+        // a -> b -> c
+        //   \> d -/
+        //   e
+        parents.put("b", "a");
+        parents.put("d", "a");
+        parents.putAll("c", CollectionUtil.wrap("b", "d"));
+        TopologySorter<String> sorter = TopologySorter.create(new TestTopology(), CollectionUtil.wrap("c", "e"));
+        assertEquals(5, sorter.size());
+        assertFalse(sorter.hasCycles());
+        assertEquals(ImmutableCollections.listOf(
+                ImmutableCollections.listOf("e", "a"),
+                ImmutableCollections.listOf("b", "d"),
+                ImmutableCollections.listOf("c")), sorter.getLevels());
+    }
+    
+    @Test
+    public void reportCycles() {
+        parents.putAll("a", ImmutableCollections.listOf("r", "b"));
+        parents.putAll("b", ImmutableCollections.listOf("r", "a"));
+        parents.putAll("c", ImmutableCollections.listOf("r", "d", "a"));
+        parents.putAll("d", ImmutableCollections.listOf("c", "d"));
+        parents.putAll("e", ImmutableCollections.listOf("e"));
+        TopologySorter<String> sorter = TopologySorter.create(new TestTopology(), CollectionUtil.wrap("c", "e"));
+        assertTrue(sorter.hasCycles());
+        assertEquals(ImmutableCollections.listOf(
+                ImmutableCollections.listOf("a", "b"),
+                ImmutableCollections.listOf("c", "d")), sorter.getCycles());
+        try {
+            sorter.getLevels();
+            fail();
+        } catch (CyclicTopologyException e) {
+            assertSame(sorter.getCycles(), e.getCycles());
+        }
+    }
+    
+    @Test
+    public void sortDeepChain() {
+        int depth = 200000;
+        Topology<Integer> chain = child -> (child == 0) ? ImmutableCollections.listOf() : ImmutableCollections.listOf(child - 1);
+        List<Integer> actual = TopologySorter.sort(chain, ImmutableCollections.listOf(depth - 1), ArrayList.<Integer>newBuilder());
+        assertEquals(depth, actual.size());
+        for (int i = 0; i < depth; ++i) {
+            assertEquals(i, actual.get(i).intValue());
+        }
+    }
+    
+    @Test
+    public void execute() throws InterruptedException {
+        // Node i has the parents i / 2 and i / 3.
+        Topology<Integer> topology = child -> (child == 0) ? ImmutableCollections.listOf()
+                : ImmutableCollections.listOf(child / 2, child / 3);
+        ArrayList<Integer> roots = new ArrayList<>();
+        for (int i = 0; i < 5000; ++i) {
+            roots.push(i);
+        }
+        TopologySorter<Integer> sorter = TopologySorter.create(topology, roots);
+        ConcurrentHashMap<Integer, Integer> finished = new ConcurrentHashMap<>();
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            sorter.execute(node -> {
+                for (Integer parent: topology.getParents(node)) {
+                    if (!parent.equals(node)) {
+                        assertTrue(finished.containsKey(parent));
+                    }
+                }
+                assertTrue(finished.put(node, counter.incrementAndGet()) == null);
+            }, executor);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(5000, finished.size());
+    }
+    
+    @Test
+    public void executePropagatesFailure() throws InterruptedException {
+        parents.put("b", "a");
+        parents.put("c", "b");
+        TopologySorter<String> sorter = TopologySorter.create(new TestTopology(), CollectionUtil.wrap("c"));
+        ArrayList<String> executed = new ArrayList<>();
+        IllegalStateException failure = new IllegalStateException();
+        try {
+            sorter.execute(node -> {
+                synchronized (executed) {
+                    executed.push(node);
+                }
+                if (node.equals("b")) {
+                    throw failure;
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+        assertEquals(ImmutableCollections.listOf("a", "b"), executed);
+    }
+    
+    @Test(expected = CyclicTopologyException.class)
+    public void executeCyclic() throws InterruptedException {
+        parents.put("a", "b");
+        parents.put("b", "a");
+        TopologySorter.create(new TestTopology(), CollectionUtil.wrap("a")).execute(node -> fail());
+    }
+    
     private List<String> sort(String... roots) {
         return TopologySorter.sort(new TestTopology(), CollectionUtil.wrap(roots), resultBuilder);
     }
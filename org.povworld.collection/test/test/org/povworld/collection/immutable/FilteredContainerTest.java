@@ -0,0 +1,81 @@
+package test.org.povworld.collection.immutable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.common.IdentityIdentificator;
+import org.povworld.collection.immutable.BloomFilter;
+import org.povworld.collection.immutable.FilteredContainer;
+import org.povworld.collection.mutable.HashSet;
+
+/**
+ * Unit tests for {@link FilteredContainer}.
+ */
+public class FilteredContainerTest {
+    
+    private static HashSet<String> createSet(int size) {
+        HashSet<String> set = new HashSet<>();
+        for (int i = 0; i < size; ++i) {
+            set.add("element" + i);
+        }
+        return set;
+    }
+    
+    @Test
+    public void delegates() {
+        HashSet<String> set = createSet(100);
+        FilteredContainer<String> container = FilteredContainer.withBloomFilter(set);
+        assertEquals(100, container.size());
+        assertFalse(container.isEmpty());
+        assertEquals(set.toString(), container.toString());
+        assertEquals(set.getIdentificator(), container.getIdentificator());
+        int count = 0;
+        for (String element: container) {
+            assertTrue(set.contains(element));
+            count++;
+        }
+        assertEquals(100, count);
+    }
+    
+    @Test
+    public void lookups() {
+        HashSet<String> set = createSet(1000);
+        for (FilteredContainer<String> container: CollectionUtil.wrap(FilteredContainer.withBloomFilter(set),
+                FilteredContainer.withXorFilter(set))) {
+            for (int i = 0; i < 1000; ++i) {
+                String element = new String("element" + i);
+                assertTrue(container.contains(element));
+                assertSame(set.findEqualOrNull(element), container.findEqualOrNull(element));
+                assertFalse(container.contains("other" + i));
+                assertNull(container.findEqualOrNull("other" + i));
+            }
+        }
+    }
+    
+    @Test
+    public void missesSkipContainer() {
+        HashSet<String> set = spy(createSet(1000));
+        FilteredContainer<String> container = FilteredContainer.withXorFilter(set);
+        for (int i = 0; i < 1000; ++i) {
+            container.contains("other" + i);
+        }
+        verify(set, atMost(20)).contains(Mockito.anyString());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void filterOfOtherIdentificator() {
+        HashSet<String> identitySet = new HashSet<>(IdentityIdentificator.<String>getInstance());
+        identitySet.add("element0");
+        new FilteredContainer<>(createSet(10), BloomFilter.of(identitySet));
+    }
+    
+}
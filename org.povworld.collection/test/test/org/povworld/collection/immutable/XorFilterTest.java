@@ -0,0 +1,94 @@
+package test.org.povworld.collection.immutable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.povworld.collection.common.IdentityIdentificator;
+import org.povworld.collection.immutable.XorFilter;
+import org.povworld.collection.mutable.HashSet;
+
+/**
+ * Unit tests for {@link XorFilter}.
+ */
+public class XorFilterTest {
+    
+    private static HashSet<Integer> range(int from, int to) {
+        HashSet<Integer> set = new HashSet<>();
+        for (int i = from; i < to; ++i) {
+            set.add(i);
+        }
+        return set;
+    }
+    
+    @Test
+    public void empty() {
+        XorFilter<Integer> filter = XorFilter.of(new HashSet<Integer>());
+        int positives = 0;
+        for (int i = 0; i < 1000; ++i) {
+            if (filter.mightContain(i)) {
+                positives++;
+            }
+        }
+        assertTrue(positives <= 20);
+    }
+    
+    @Test
+    public void noFalseNegatives() {
+        for (int size: new int[] {1, 2, 3, 10, 100, 1000, 100000}) {
+            XorFilter<Integer> filter = XorFilter.of(range(0, size));
+            for (int i = 0; i < size; ++i) {
+                assertTrue(filter.mightContain(i));
+            }
+        }
+    }
+    
+    @Test
+    public void falsePositiveRate() {
+        int size = 100000;
+        XorFilter<Integer> filter = XorFilter.of(range(0, size));
+        int falsePositives = 0;
+        for (int i = size; i < 2 * size; ++i) {
+            if (filter.mightContain(i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 0.006 * size);
+        assertTrue(filter.getSizeInBytes() < 2 * size);
+    }
+    
+    @Test
+    public void customIdentificator() {
+        HashSet<String> set = new HashSet<>(IdentityIdentificator.<String>getInstance());
+        String[] strings = new String[1000];
+        for (int i = 0; i < strings.length; ++i) {
+            strings[i] = String.valueOf(i);
+            set.add(strings[i]);
+        }
+        XorFilter<String> filter = XorFilter.of(set);
+        assertEquals(IdentityIdentificator.getInstance(), filter.getIdentificator());
+        int positives = 0;
+        for (int i = 0; i < strings.length; ++i) {
+            assertTrue(filter.mightContain(strings[i]));
+            if (filter.mightContain(new String(strings[i]))) {
+                positives++;
+            }
+        }
+        assertFalse(positives > 50);
+    }
+    
+    @Test
+    public void equalHashCodes() {
+        HashSet<String> set = new HashSet<>();
+        // "Aa" and "BB" have the same hash code.
+        set.add("Aa");
+        set.add("BB");
+        set.add("C");
+        XorFilter<String> filter = XorFilter.of(set);
+        assertTrue(filter.mightContain("Aa"));
+        assertTrue(filter.mightContain("BB"));
+        assertTrue(filter.mightContain("C"));
+    }
+    
+}
@@ -0,0 +1,213 @@
+package test.org.povworld.collection.mutable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.povworld.collection.mutable.ArrayList;
+import org.povworld.collection.mutable.BoundedCache;
+import org.povworld.collection.mutable.BoundedCache.EvictionPolicy;
+
+import com.google.common.truth.Truth;
+
+/**
+ * Unit tests for {@link BoundedCache}.
+ */
+public class BoundedCacheTest {
+    
+    private final ArrayList<String> evicted = new ArrayList<>();
+    
+    private <V> BoundedCache<String, V> create(EvictionPolicy policy, int maximumSize) {
+        BoundedCache<String, V> cache = new BoundedCache<>(policy, maximumSize);
+        cache.setEvictionListener((key, value) -> evicted.push(key + "=" + value));
+        return cache;
+    }
+    
+    @Test
+    public void emptyCache() {
+        BoundedCache<String, Integer> cache = create(EvictionPolicy.LEAST_RECENTLY_USED, 3);
+        assertTrue(cache.isEmpty());
+        assertEquals(0, cache.size());
+        assertNull(cache.get("foo"));
+        assertNull(cache.peek("foo"));
+        assertFalse(cache.containsKey("foo"));
+        assertEquals(1, cache.getMissCount());
+        Truth.assertThat(cache.keysInEvictionOrder()).isEmpty();
+        cache.testInvariants();
+    }
+    
+    @Test
+    public void leastRecentlyUsed() {
+        BoundedCache<String, Integer> cache = create(EvictionPolicy.LEAST_RECENTLY_USED, 3);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        Truth.assertThat(cache.keysInEvictionOrder()).containsExactly("b", "c", "a").inOrder();
+        
+        cache.put("d", 4);
+        cache.testInvariants();
+        Truth.assertThat(evicted).containsExactly("b=2");
+        Truth.assertThat(cache.keysInEvictionOrder()).containsExactly("c", "a", "d").inOrder();
+        
+        assertEquals(Integer.valueOf(3), cache.put("c", 33));
+        cache.put("e", 5);
+        Truth.assertThat(evicted).containsExactly("b=2", "a=1").inOrder();
+        Truth.assertThat(cache.keysInEvictionOrder()).containsExactly("d", "c", "e").inOrder();
+        assertEquals(3, cache.size());
+        assertEquals(2, cache.getEvictionCount());
+    }
+    
+    @Test
+    public void peekDoesNotRecordAccess() {
+        BoundedCache<String, Integer> cache = create(EvictionPolicy.LEAST_RECENTLY_USED, 2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        assertEquals(Integer.valueOf(1), cache.peek("a"));
+        cache.put("c", 3);
+        Truth.assertThat(evicted).containsExactly("a=1");
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+    
+    @Test
+    public void leastFrequentlyUsed() {
+        BoundedCache<String, Integer> cache = create(EvictionPolicy.LEAST_FREQUENTLY_USED, 3);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+        cache.testInvariants();
+        Truth.assertThat(cache.keysInEvictionOrder()).containsExactly("c", "b", "a").inOrder();
+        
+        cache.put("d", 4);
+        cache.testInvariants();
+        Truth.assertThat(evicted).containsExactly("c=3");
+        
+        // The new entry has the lowest frequency and is evicted next.
+        cache.put("e", 5);
+        Truth.assertThat(evicted).containsExactly("c=3", "d=4").inOrder();
+        
+        cache.get("e");
+        cache.get("e");
+        cache.put("f", 6);
+        cache.testInvariants();
+        Truth.assertThat(evicted).containsExactly("c=3", "d=4", "b=2").inOrder();
+        Truth.assertThat(cache.keysInEvictionOrder()).containsExactly("f", "a", "e").inOrder();
+    }
+    
+    @Test
+    public void weightBasedEviction() {
+        BoundedCache<String, String> cache = new BoundedCache<>(EvictionPolicy.LEAST_RECENTLY_USED, 10,
+                (key, value) -> value.length());
+        cache.setEvictionListener((key, value) -> evicted.push(key));
+        cache.put("a", "xxxx");
+        cache.put("b", "xxxx");
+        assertEquals(8, cache.getWeight());
+        cache.put("c", "xxx");
+        Truth.assertThat(evicted).containsExactly("a");
+        assertEquals(7, cache.getWeight());
+        
+        cache.put("b", "x");
+        assertEquals(4, cache.getWeight());
+        cache.testInvariants();
+        
+        cache.put("big", "xxxxxxxxxxxx");
+        Truth.assertThat(evicted).containsExactly("a", "big").inOrder();
+        Truth.assertThat(cache.keysInEvictionOrder()).containsExactly("c", "b").inOrder();
+        assertEquals(4, cache.getWeight());
+    }
+    
+    @Test
+    public void oversizedEntryDoesNotFlushCache() {
+        BoundedCache<String, String> cache = new BoundedCache<>(EvictionPolicy.LEAST_RECENTLY_USED, 10,
+                (key, value) -> value.length());
+        cache.setEvictionListener((key, value) -> evicted.push(key + "=" + value));
+        cache.put("a", "xx");
+        cache.put("b", "xx");
+        cache.put("c", "xx");
+        
+        assertNull(cache.put("big", "xxxxxxxxxxx"));
+        Truth.assertThat(evicted).containsExactly("big=xxxxxxxxxxx");
+        assertFalse(cache.containsKey("big"));
+        assertEquals(3, cache.size());
+        assertEquals(6, cache.getWeight());
+        
+        // Updating an entry to an oversized value only evicts that entry.
+        assertEquals("xx", cache.put("b", "yyyyyyyyyyy"));
+        Truth.assertThat(evicted).containsExactly("big=xxxxxxxxxxx", "b=yyyyyyyyyyy").inOrder();
+        Truth.assertThat(cache.keysInEvictionOrder()).containsExactly("a", "c").inOrder();
+        assertEquals(4, cache.getWeight());
+        assertEquals(2, cache.getEvictionCount());
+        cache.testInvariants();
+    }
+    
+    @Test
+    public void statistics() {
+        BoundedCache<String, Integer> cache = create(EvictionPolicy.LEAST_RECENTLY_USED, 3);
+        cache.put("a", 1);
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        cache.resetStatistics();
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+    
+    @Test
+    public void removeAndClearDoNotNotify() {
+        BoundedCache<String, Integer> cache = create(EvictionPolicy.LEAST_FREQUENTLY_USED, 3);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.get("b");
+        assertEquals(Integer.valueOf(2), cache.remove("b"));
+        assertNull(cache.remove("b"));
+        cache.testInvariants();
+        assertEquals(1, cache.size());
+        
+        cache.clear();
+        cache.testInvariants();
+        assertTrue(cache.isEmpty());
+        Truth.assertThat(evicted).isEmpty();
+        
+        cache.put("c", 3);
+        assertEquals(Integer.valueOf(3), cache.get("c"));
+    }
+    
+    @Test
+    public void randomOperations() {
+        Random random = new Random(17);
+        for (EvictionPolicy policy: EvictionPolicy.values()) {
+            BoundedCache<String, Integer> cache = create(policy, 50);
+            for (int i = 0; i < 10000; ++i) {
+                String key = String.valueOf(random.nextInt(200));
+                switch (random.nextInt(3)) {
+                    case 0:
+                        cache.put(key, i);
+                        break;
+                    case 1:
+                        cache.get(key);
+                        break;
+                    default:
+                        if (random.nextInt(10) == 0) {
+                            cache.remove(key);
+                        }
+                }
+                assertTrue(cache.size() <= 50);
+            }
+            cache.testInvariants();
+            assertEquals(evicted.size(), cache.getEvictionCount());
+            evicted.clear();
+        }
+    }
+    
+}
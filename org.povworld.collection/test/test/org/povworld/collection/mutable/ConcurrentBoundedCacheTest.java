@@ -0,0 +1,245 @@
+package test.org.povworld.collection.mutable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.povworld.collection.Identificator;
+import org.povworld.collection.mutable.ArrayList;
+import org.povworld.collection.mutable.ConcurrentBoundedCache;
+
+import com.google.common.truth.Truth;
+
+/**
+ * Unit tests for {@link ConcurrentBoundedCache}.
+ */
+public class ConcurrentBoundedCacheTest {
+    
+    private static final Identificator<String> CASE_INSENSITIVE = new Identificator<String>() {
+        @Override
+        public boolean isIdentifiable(Object object) {
+            return object instanceof String;
+        }
+        
+        @Override
+        public boolean equals(String string1, String string2) {
+            return string1.equalsIgnoreCase(string2);
+        }
+        
+        @Override
+        public int hashCode(String string) {
+            return string.toLowerCase().hashCode();
+        }
+    };
+    
+    private final ArrayList<String> evicted = new ArrayList<>();
+    
+    private final AtomicLong time = new AtomicLong(12345);
+    
+    private ConcurrentBoundedCache.Builder<String, Integer> builder(int maximumSize) {
+        return ConcurrentBoundedCache.<String, Integer>newBuilder()
+                .maximumSize(maximumSize)
+                .ticker(time::get)
+                .evictionListener((key, value) -> {
+                    synchronized (evicted) {
+                        evicted.push(key + "=" + value);
+                    }
+                });
+    }
+    
+    @Test
+    public void putGetRemove() {
+        ConcurrentBoundedCache<String, Integer> cache = builder(10).build();
+        assertNull(cache.get("a"));
+        assertNull(cache.put("a", 1));
+        assertNull(cache.put("b", 2));
+        assertEquals(Integer.valueOf(1), cache.put("a", 11));
+        assertEquals(Integer.valueOf(11), cache.get("a"));
+        assertEquals(Integer.valueOf(2), cache.get("b"));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        
+        assertEquals(Integer.valueOf(2), cache.remove("b"));
+        assertNull(cache.remove("b"));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.size());
+        cache.testInvariants();
+        Truth.assertThat(evicted).isEmpty();
+    }
+    
+    @Test
+    public void keyIdentificator() {
+        ConcurrentBoundedCache<String, Integer> cache = builder(10).keyIdentificator(CASE_INSENSITIVE).build();
+        cache.put("Foo", 1);
+        assertEquals(Integer.valueOf(1), cache.get("FOO"));
+        assertEquals(Integer.valueOf(1), cache.put("foo", 2));
+        assertEquals(1, cache.size());
+        assertEquals(Integer.valueOf(2), cache.remove("fOO"));
+        assertEquals(0, cache.size());
+        cache.testInvariants();
+    }
+    
+    @Test
+    public void zeroMaximumSize() {
+        ConcurrentBoundedCache<String, Integer> cache = builder(0).build();
+        cache.put("a", 1);
+        cache.cleanUp();
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        Truth.assertThat(evicted).containsExactly("a=1");
+        cache.testInvariants();
+    }
+    
+    @Test
+    public void sizeIsBounded() {
+        ConcurrentBoundedCache<String, Integer> cache = builder(100).build();
+        for (int i = 0; i < 1000; ++i) {
+            cache.put("k" + i, i);
+        }
+        cache.cleanUp();
+        assertEquals(100, cache.size());
+        assertEquals(900, cache.getEvictionCount());
+        assertEquals(900, evicted.size());
+        cache.testInvariants();
+    }
+    
+    @Test
+    public void frequentlyUsedEntriesSurviveScan() {
+        ConcurrentBoundedCache<String, Integer> cache = builder(100).build();
+        for (int i = 0; i < 50; ++i) {
+            cache.put("hot" + i, i);
+        }
+        for (int round = 0; round < 5; ++round) {
+            for (int i = 0; i < 50; ++i) {
+                cache.get("hot" + i);
+            }
+            cache.cleanUp();
+        }
+        // A scan of keys which are used only once must not flush the hot entries which are still in use, even
+        // though the scan would push them out of a plain LRU cache between two uses.
+        for (int i = 0; i < 10000; ++i) {
+            cache.put("cold" + i, i);
+            if (i % 4 == 0) {
+                cache.get("hot" + ((i / 4) % 50));
+            }
+        }
+        cache.cleanUp();
+        int hotCount = 0;
+        for (int i = 0; i < 50; ++i) {
+            if (cache.get("hot" + i) != null) {
+                hotCount++;
+            }
+        }
+        // The admission is probabilistic, a plain LRU cache would not retain any of them.
+        assertTrue("hot entries retained: " + hotCount, hotCount >= 45);
+        cache.testInvariants();
+    }
+    
+    @Test
+    public void expireAfterWrite() {
+        ConcurrentBoundedCache<String, Integer> cache = builder(10).expireAfterWrite(10, TimeUnit.SECONDS).build();
+        cache.put("a", 1);
+        time.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        cache.put("b", 2);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        
+        time.addAndGet(TimeUnit.SECONDS.toNanos(6));
+        assertNull(cache.get("a"));
+        assertEquals(Integer.valueOf(2), cache.get("b"));
+        cache.cleanUp();
+        assertEquals(1, cache.size());
+        Truth.assertThat(evicted).containsExactly("a=1");
+        
+        // Writing renews the entry.
+        time.addAndGet(TimeUnit.SECONDS.toNanos(3));
+        assertEquals(Integer.valueOf(2), cache.put("b", 22));
+        time.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        assertEquals(Integer.valueOf(22), cache.get("b"));
+        time.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertNull(cache.get("b"));
+        cache.cleanUp();
+        assertEquals(0, cache.size());
+        cache.testInvariants();
+    }
+    
+    @Test
+    public void expireAfterAccess() {
+        ConcurrentBoundedCache<String, Integer> cache = builder(10).expireAfterAccess(1, TimeUnit.MINUTES).build();
+        cache.put("a", 1);
+        cache.put("b", 2);
+        for (int i = 0; i < 5; ++i) {
+            time.addAndGet(TimeUnit.SECONDS.toNanos(40));
+            assertEquals(Integer.valueOf(1), cache.get("a"));
+            cache.cleanUp();
+        }
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.size());
+        Truth.assertThat(evicted).containsExactly("b=2");
+        
+        time.addAndGet(TimeUnit.HOURS.toNanos(3));
+        cache.cleanUp();
+        assertEquals(0, cache.size());
+        cache.testInvariants();
+    }
+    
+    @Test
+    public void expiredEntryCanBeAddedAgain() {
+        ConcurrentBoundedCache<String, Integer> cache = builder(10).expireAfterWrite(1, TimeUnit.SECONDS).build();
+        cache.put("a", 1);
+        time.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertNull(cache.put("a", 2));
+        assertEquals(Integer.valueOf(2), cache.get("a"));
+        cache.testInvariants();
+        assertEquals(1, cache.size());
+    }
+    
+    @Test
+    public void concurrentAccess() throws InterruptedException {
+        ConcurrentBoundedCache<String, Integer> cache = builder(200).build();
+        Thread[] threads = new Thread[4];
+        Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < threads.length; ++t) {
+            int seed = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 50000; ++i) {
+                        String key = String.valueOf(random.nextInt(1000));
+                        int operation = random.nextInt(10);
+                        if (operation < 6) {
+                            Integer value = cache.get(key);
+                            assertTrue(value == null || value.toString().equals(key));
+                        } else if (operation < 9) {
+                            cache.put(key, Integer.valueOf(key));
+                        } else {
+                            cache.remove(key);
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new AssertionError(failure[0]);
+            }
+        }
+        cache.testInvariants();
+        assertTrue(cache.size() <= 200);
+        assertEquals(evicted.size(), cache.getEvictionCount());
+    }
+    
+}
@@ -0,0 +1,85 @@
+package test.org.povworld.collection.mutable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.povworld.collection.mutable.CopyOnWriteHashMap;
+import org.povworld.collection.mutable.HashMap;
+import org.povworld.collection.persistent.PersistentMap;
+
+/**
+ * Unit tests for {@link CopyOnWriteHashMap}.
+ */
+public class CopyOnWriteHashMapTest {
+    
+    @Test
+    public void putAndRemove() {
+        CopyOnWriteHashMap<String, Integer> map = new CopyOnWriteHashMap<>();
+        assertTrue(map.isEmpty());
+        assertNull(map.put("a", 1));
+        assertEquals(Integer.valueOf(1), map.put("a", 2));
+        assertNull(map.put("b", 3));
+        assertEquals(Integer.valueOf(2), map.get("a"));
+        assertEquals(2, map.keyCount());
+        
+        PersistentMap<String, Integer> snapshot = map.snapshot();
+        assertEquals(Integer.valueOf(2), map.remove("a"));
+        assertNull(map.remove("a"));
+        assertFalse(map.containsKey("a"));
+        assertEquals(Integer.valueOf(2), snapshot.get("a"));
+        
+        HashMap<String, Integer> entries = new HashMap<>();
+        entries.put("b", 4);
+        entries.put("c", 5);
+        map.putAll(entries);
+        assertEquals(Integer.valueOf(4), map.get("b"));
+        assertEquals(2, map.keyCount());
+        map.clear();
+        assertTrue(map.isEmpty());
+    }
+    
+    @Test
+    public void concurrentWriters() throws InterruptedException {
+        int keys = 2000;
+        CopyOnWriteHashMap<Integer, Integer> map = new CopyOnWriteHashMap<>();
+        Thread[] threads = new Thread[4];
+        Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < threads.length; ++t) {
+            int offset = t * keys;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < keys; ++i) {
+                        assertNull(map.put(offset + i, i));
+                        assertEquals(Integer.valueOf(i), map.put(offset + i, -i));
+                    }
+                    for (int i = 0; i < keys; i += 2) {
+                        assertEquals(Integer.valueOf(-i), map.remove(offset + i));
+                    }
+                } catch (Throwable e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new AssertionError(failure[0]);
+            }
+        }
+        assertEquals(threads.length * keys / 2, map.keyCount());
+        for (int t = 0; t < threads.length; ++t) {
+            for (int i = 1; i < keys; i += 2) {
+                assertEquals(Integer.valueOf(-i), map.get(t * keys + i));
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,114 @@
+package test.org.povworld.collection.mutable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+import org.povworld.collection.immutable.ImmutableCollections;
+import org.povworld.collection.mutable.CopyOnWriteHashSet;
+import org.povworld.collection.persistent.PersistentSet;
+
+/**
+ * Unit tests for {@link CopyOnWriteHashSet}.
+ */
+public class CopyOnWriteHashSetTest {
+    
+    @Test
+    public void addAndRemove() {
+        CopyOnWriteHashSet<String> set = new CopyOnWriteHashSet<>();
+        assertTrue(set.isEmpty());
+        assertTrue(set.add("a"));
+        assertFalse(set.add("a"));
+        assertTrue(set.add("b"));
+        assertTrue(set.contains("a"));
+        assertEquals(2, set.size());
+        
+        PersistentSet<String> snapshot = set.snapshot();
+        assertTrue(set.remove("a"));
+        assertFalse(set.remove("a"));
+        assertFalse(set.contains("a"));
+        assertTrue(snapshot.contains("a"));
+        assertEquals(2, snapshot.size());
+        
+        assertEquals(2, set.addAll(ImmutableCollections.listOf("a", "b", "c")));
+        assertEquals(2, set.removeAll(ImmutableCollections.listOf("a", "c", "d")));
+        assertEquals(1, set.size());
+        set.clear();
+        assertTrue(set.isEmpty());
+    }
+    
+    @Test
+    public void concurrentWriters() throws InterruptedException {
+        int elements = 1000;
+        CopyOnWriteHashSet<Integer> set = new CopyOnWriteHashSet<>();
+        // Every thread adds and removes each element, a successful add must be followed by one successful remove.
+        AtomicIntegerArray added = new AtomicIntegerArray(elements);
+        AtomicIntegerArray removed = new AtomicIntegerArray(elements);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < elements; ++i) {
+                    if (set.add(i)) {
+                        added.incrementAndGet(i);
+                    }
+                }
+                for (int i = 0; i < elements; ++i) {
+                    if (set.remove(i)) {
+                        removed.incrementAndGet(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        assertTrue(set.isEmpty());
+        for (int i = 0; i < elements; ++i) {
+            assertEquals(added.get(i), removed.get(i));
+            assertTrue(added.get(i) >= 1);
+        }
+    }
+    
+    private static final class Poison {
+        
+        @Override
+        public int hashCode() {
+            throw new IllegalStateException();
+        }
+    }
+    
+    @Test
+    public void failingOperationOnlyFailsItself() throws InterruptedException {
+        int elements = 500;
+        CopyOnWriteHashSet<Object> set = new CopyOnWriteHashSet<>();
+        AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            int offset = t * elements;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < elements; ++i) {
+                    set.add(offset + i);
+                    if (i % 10 == 0) {
+                        try {
+                            set.add(new Poison());
+                        } catch (IllegalStateException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        assertEquals(threads.length * elements, set.size());
+        assertEquals(threads.length * elements / 10, failures.get());
+    }
+    
+}
@@ -0,0 +1,132 @@
+package test.org.povworld.collection.mutable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.mutable.CountMinSketch;
+import org.povworld.collection.mutable.HashBag;
+
+/**
+ * Unit tests for {@link CountMinSketch}.
+ */
+public class CountMinSketchTest {
+    
+    @Test
+    public void empty() {
+        CountMinSketch<String> sketch = new CountMinSketch<>(4, 100);
+        assertTrue(sketch.isEmpty());
+        assertEquals(128, sketch.getWidth());
+        assertEquals(4, sketch.getDepth());
+        assertEquals(0, sketch.getCount("foo"));
+    }
+    
+    @Test
+    public void exactWithoutCollisions() {
+        CountMinSketch<String> sketch = new CountMinSketch<>(4, 1 << 12);
+        sketch.add("a");
+        sketch.add("a");
+        sketch.add("b", 5);
+        sketch.add("c", 0);
+        assertEquals(2, sketch.getCount("a"));
+        assertEquals(5, sketch.getCount("b"));
+        assertEquals(0, sketch.getCount("c"));
+        assertEquals(7, sketch.getTotalCount());
+    }
+    
+    @Test
+    public void errorBounds() {
+        double epsilon = 0.001;
+        CountMinSketch<Integer> sketch =
+                CountMinSketch.withErrorBounds(CollectionUtil.getObjectIdentificator(), epsilon, 0.99);
+        HashBag<Integer> exact = new HashBag<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 100000; ++i) {
+            // Skewed distribution.
+            int element = (int)Math.abs(random.nextGaussian() * 1000);
+            sketch.add(element);
+            exact.add(element);
+        }
+        int violations = 0;
+        for (int element = 0; element < 10000; ++element) {
+            long estimate = sketch.getCount(element);
+            assertTrue(estimate >= exact.getCount(element));
+            if (estimate > exact.getCount(element) + epsilon * sketch.getTotalCount()) {
+                violations++;
+            }
+        }
+        assertTrue("violations: " + violations, violations <= 100);
+    }
+    
+    @Test
+    public void merge() {
+        CountMinSketch<String> sketch1 = new CountMinSketch<>(3, 64);
+        CountMinSketch<String> sketch2 = new CountMinSketch<>(3, 64);
+        CountMinSketch<String> combined = new CountMinSketch<>(3, 64);
+        for (int i = 0; i < 1000; ++i) {
+            String element = String.valueOf(i % 37);
+            (i % 2 == 0 ? sketch1 : sketch2).add(element);
+            combined.add(element);
+        }
+        sketch1.merge(sketch2);
+        assertArrayEquals(combined.toByteArray(), sketch1.toByteArray());
+        assertEquals(1000, sketch1.getTotalCount());
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void mergeDifferentDimensions() {
+        new CountMinSketch<String>(3, 64).merge(new CountMinSketch<String>(4, 64));
+    }
+    
+    @Test
+    public void serialize() {
+        CountMinSketch<String> sketch = new CountMinSketch<>(5, 1000);
+        for (int i = 0; i < 500; ++i) {
+            sketch.add("e" + i, i);
+        }
+        byte[] bytes = sketch.toByteArray();
+        CountMinSketch<String> copy = CountMinSketch.fromByteArray(bytes, CollectionUtil.getObjectIdentificator());
+        assertEquals(sketch.getTotalCount(), copy.getTotalCount());
+        for (int i = 0; i < 500; ++i) {
+            assertEquals(sketch.getCount("e" + i), copy.getCount("e" + i));
+        }
+        assertArrayEquals(bytes, copy.toByteArray());
+        
+        // Mostly empty counters take a single byte.
+        assertTrue(new CountMinSketch<String>(5, 1000).toByteArray().length < 5 * 1024 + 16);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void deserializeTruncated() {
+        byte[] bytes = new CountMinSketch<String>(2, 8).toByteArray();
+        CountMinSketch.fromByteArray(Arrays.copyOf(bytes, bytes.length - 1),
+                CollectionUtil.getObjectIdentificator());
+    }
+    
+    @Test
+    public void deserializeForgedHeader() {
+        // Header of a sketch with 2^30 counters followed by a few bytes only.
+        assertInvalid(ByteBuffer.allocate(12).put((byte)1).putInt(1 << 10).putInt(1 << 20).array());
+        // The number of counters overflows int.
+        assertInvalid(ByteBuffer.allocate(12).put((byte)1).putInt(1 << 20).putInt(1 << 20).array());
+        assertInvalid(ByteBuffer.allocate(12).put((byte)1).putInt(-1).putInt(8).array());
+        assertInvalid(new byte[] {1, 0, 0});
+    }
+    
+    private static void assertInvalid(byte[] bytes) {
+        try {
+            CountMinSketch.fromByteArray(bytes, CollectionUtil.getObjectIdentificator());
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+    
+}
@@ -0,0 +1,31 @@
+package test.org.povworld.collection.mutable;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.povworld.collection.mutable.HashMap;
+import org.povworld.collection.mutable.HashTableLayout;
+
+/**
+ * Unit tests for {@link HashMap} with the {@link HashTableLayout#GROUPED} layout.
+ */
+public class GroupedHashMapTest extends HashMapTest {
+    
+    @Override
+    protected HashMap<String, Integer> empty() {
+        return new HashMap<String, Integer>(0, HashTableLayout.GROUPED);
+    }
+    
+    @Override
+    protected <K> HashMap<K, Integer> empty(Class<K> keyClass) {
+        return new HashMap<K, Integer>(0, HashTableLayout.GROUPED);
+    }
+    
+    @Test
+    public void randomOperations() {
+        Random random = new Random(42);
+        // Multiples of 1024 only differ in the upper bits of the hash code.
+        assertRandomOperations(empty(Integer.class), random, 50000, i -> random.nextInt(1000) * 1024);
+    }
+    
+}
@@ -0,0 +1,35 @@
+package test.org.povworld.collection.mutable;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.mutable.HashSet;
+import org.povworld.collection.mutable.HashTableLayout;
+
+import test.org.povworld.collection.ChosenHash;
+
+/**
+ * Unit tests for {@link HashSet} with the {@link HashTableLayout#GROUPED} layout.
+ */
+public class GroupedHashSetMutationTest extends HashSetMutationTest {
+    
+    @Override
+    protected HashSet<Integer> create() {
+        return new HashSet<Integer>(CollectionUtil.getObjectIdentificator(), 0, HashTableLayout.GROUPED);
+    }
+    
+    @Test
+    public void randomOperations() {
+        Random random = new Random(42);
+        // Few distinct hash codes produce long probe sequences and many deleted markers.
+        for (int hashCount: new int[] {3, 100, 100000}) {
+            HashSet<ChosenHash> set = new HashSet<>(CollectionUtil.getObjectIdentificator(), 0, HashTableLayout.GROUPED);
+            assertRandomOperations(set, random, 20000, i -> {
+                int value = random.nextInt(500);
+                return new ChosenHash(String.valueOf(value), value % hashCount);
+            });
+        }
+    }
+    
+}
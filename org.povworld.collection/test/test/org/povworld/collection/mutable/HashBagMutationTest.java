@@ -1,10 +1,19 @@
 package test.org.povworld.collection.mutable;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
 
 import org.junit.Test;
 import org.povworld.collection.Collection;
+import org.povworld.collection.EntryIterator;
+import org.povworld.collection.immutable.ImmutableCollections;
+import org.povworld.collection.mutable.ArrayList;
 import org.povworld.collection.mutable.HashBag;
+import org.povworld.collection.mutable.HashMap;
 
 /**
  * Mutation tests for {@link HashBag}.
@@ -129,4 +138,115 @@ public class HashBagMutationTest extends AbstractMutableCollectionTest<HashBag<I
         assertEquals(create(3, 5), bag);
     }
     
+    @Test
+    public void addWithCount() {
+        HashBag<Integer> bag = create(1, 2);
+        assertEquals(4, bag.add(1, 3));
+        assertEquals(2, bag.add(3, 2));
+        assertEquals(0, bag.add(4, 0));
+        assertFalse(bag.contains(4));
+        assertEquals(7, bag.size());
+        assertEquals(3, bag.getNumberOfDifferentElements());
+        assertEquals(create(1, 1, 1, 1, 2, 3, 3), bag);
+    }
+    
+    @Test
+    public void addWithCountOverflow() {
+        HashBag<String> bag = new HashBag<>();
+        bag.add("a", Integer.MAX_VALUE - 1);
+        try {
+            bag.add("a", 2);
+            fail();
+        } catch (ArithmeticException e) {
+            // expected
+        }
+        try {
+            bag.add("b", 2);
+            fail();
+        } catch (ArithmeticException e) {
+            // expected
+        }
+        assertEquals(Integer.MAX_VALUE - 1, bag.size());
+        assertEquals(Integer.MAX_VALUE - 1, bag.getCount("a"));
+        assertFalse(bag.contains("b"));
+    }
+    
+    @Test
+    public void addAllEntries() {
+        HashMap<Integer, Integer> counts = new HashMap<>();
+        counts.put(1, 3);
+        counts.put(5, 2);
+        HashBag<Integer> bag = create(1);
+        bag.addAll(counts.entryIterator());
+        assertEquals(create(1, 1, 1, 1, 5, 5), bag);
+    }
+    
+    @Test
+    public void merge() {
+        HashBag<Integer> bag = create(1, 2, 2);
+        bag.merge(create(2, 3, 3, 3));
+        assertEquals(create(1, 2, 2, 2, 3, 3, 3), bag);
+        bag.merge(bag);
+        assertEquals(14, bag.size());
+        assertEquals(6, bag.getCount(3));
+    }
+    
+    @Test
+    public void topK() {
+        HashBag<Integer> bag = create(1, 2, 2, 3, 3, 3, 4, 4, 4, 4, 5);
+        assertEquals(ImmutableCollections.listOf(4, 3, 2), bag.topK(3));
+        assertEquals(ImmutableCollections.listOf(), bag.topK(0));
+        assertEquals(5, bag.topK(10).size());
+        assertEquals(Integer.valueOf(4), bag.topK(10).get(0));
+    }
+    
+    @Test
+    public void entriesByCount() {
+        HashBag<Integer> bag = create(7, 8, 8, 9, 9, 9);
+        EntryIterator<Integer, Integer> iterator = bag.entriesByCount();
+        ArrayList<Integer> elements = new ArrayList<>();
+        ArrayList<Integer> counts = new ArrayList<>();
+        while (iterator.next()) {
+            elements.push(iterator.getCurrentKey());
+            counts.push(iterator.getCurrentValue());
+        }
+        assertEquals(ImmutableCollections.listOf(9, 8, 7), elements);
+        assertEquals(ImmutableCollections.listOf(3, 2, 1), counts);
+    }
+    
+    @Test
+    public void randomOperations() {
+        Random random = new Random(3);
+        HashBag<Integer> bag = create();
+        int[] expected = new int[500];
+        int size = 0;
+        for (int i = 0; i < 50000; ++i) {
+            int element = random.nextInt(expected.length);
+            switch (random.nextInt(4)) {
+                case 0:
+                    size -= expected[element];
+                    assertEquals(expected[element], bag.removeAllOccurrences(element));
+                    expected[element] = 0;
+                    break;
+                case 1:
+                    assertEquals(expected[element] == 0 ? -1 : expected[element] - 1, bag.remove(element));
+                    if (expected[element] > 0) {
+                        expected[element]--;
+                        size--;
+                    }
+                    break;
+                default:
+                    int count = random.nextInt(3);
+                    expected[element] += count;
+                    size += count;
+                    assertEquals(expected[element], bag.add(element, count));
+            }
+        }
+        assertEquals(size, bag.size());
+        for (int element = 0; element < expected.length; ++element) {
+            assertEquals(expected[element], bag.getCount(element));
+            assertTrue(bag.contains(element) == (expected[element] > 0));
+        }
+    }
+    
 }
@@ -1,6 +1,10 @@
 package test.org.povworld.collection.mutable;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.povworld.collection.CollectionUtil.wrap;
 
 import org.junit.Test;
@@ -9,6 +13,7 @@ import org.povworld.collection.immutable.ImmutableCollections;
 import org.povworld.collection.mutable.HashList;
 
 import test.org.povworld.collection.AbstractListTest;
+import test.org.povworld.collection.ChosenHash;
 
 /**
  * Unit tests for {@link HashList}.
@@ -58,4 +63,27 @@ public class HashListTest extends AbstractListTest<HashList<String>> {
         assertEquals(elements, list4);
         assertEquals(elements, list5);
     }
+    
+    @Test
+    public void setThresholds() {
+        for (int threshold: new int[] {0, 1, 5, 28, Integer.MAX_VALUE}) {
+            HashList<ChosenHash> list = new HashList<>(0, threshold);
+            assertEquals(threshold, list.getSetThreshold());
+            for (int i = 0; i < 40; ++i) {
+                // Every other element has the same hash code as its predecessor.
+                list.add(new ChosenHash("e" + i, i / 2));
+                for (int j = 0; j <= i; ++j) {
+                    ChosenHash element = new ChosenHash("e" + j, j / 2);
+                    assertTrue(list.contains(element));
+                    assertSame(list.get(j), list.findEqualOrNull(element));
+                }
+                assertFalse(list.contains(new ChosenHash("e" + (i + 1), i / 2)));
+                assertNull(list.findEqualOrNull(new ChosenHash("x", 0)));
+            }
+            list.clear();
+            assertFalse(list.contains(new ChosenHash("e0", 0)));
+            list.add(new ChosenHash("e0", 0));
+            assertTrue(list.contains(new ChosenHash("e0", 0)));
+        }
+    }
 }
@@ -1,11 +1,20 @@
 package test.org.povworld.collection.mutable;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
 import java.util.Iterator;
+import java.util.Random;
+import java.util.function.IntFunction;
 
 import org.junit.Test;
+import org.povworld.collection.EntryIterator;
+import org.povworld.collection.common.KeyedStringIdentificator;
 import org.povworld.collection.mutable.HashMap;
 
 import test.org.povworld.collection.AbstractMapTest;
+import test.org.povworld.collection.ChosenHash;
 
 /**
  * Unit tests for {@link HashMap}.
@@ -42,4 +51,88 @@ public class HashMapTest extends AbstractMapTest<HashMap<String, Integer>> {
         iterator.remove();
     }
     
+    
+    @Test
+    public void equalHashCodes() {
+        HashMap<ChosenHash, Integer> map = empty(ChosenHash.class);
+        for (int i = 0; i < 300; ++i) {
+            assertNull(map.put(new ChosenHash("k" + i, 42), i));
+        }
+        for (int i = 0; i < 300; ++i) {
+            assertEquals(Integer.valueOf(i), map.get(new ChosenHash("k" + i, 42)));
+            assertNull(map.get(new ChosenHash("x" + i, 42)));
+        }
+        for (int i = 0; i < 300; i += 2) {
+            assertEquals(Integer.valueOf(i), map.remove(new ChosenHash("k" + i, 42)));
+        }
+        assertEquals(150, map.keyCount());
+        for (int i = 1; i < 300; i += 2) {
+            assertEquals(Integer.valueOf(i), map.get(new ChosenHash("k" + i, 42)));
+        }
+    }
+    
+    @Test
+    public void keyIdentificator() {
+        KeyedStringIdentificator identificator = new KeyedStringIdentificator(1, 2);
+        HashMap<String, Integer> map = new HashMap<>(identificator);
+        assertSame(identificator, map.getKeyIdentificator());
+        // All 1024 keys have the same String.hashCode().
+        for (int i = 0; i < 1024; ++i) {
+            assertNull(map.put(collidingString(i), i));
+        }
+        assertEquals(1024, map.keyCount());
+        for (int i = 0; i < 1024; ++i) {
+            assertEquals(Integer.valueOf(i), map.get(collidingString(i)));
+        }
+    }
+    
+    private static String collidingString(int bits) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < 10; ++i) {
+            result.append(((bits >> i) & 1) == 0 ? "Aa" : "BB");
+        }
+        return result.toString();
+    }
+    
+    protected <K> HashMap<K, Integer> empty(Class<K> keyClass) {
+        return new HashMap<K, Integer>();
+    }
+    
+    /**
+     * Applies random puts, removes and lookups of the keys returned by {@code keys} for the operation index to the
+     * {@code map} and to a {@link java.util.HashMap}, and checks that both agree.
+     */
+    protected static <K> void assertRandomOperations(HashMap<K, Integer> map, Random random, int operations,
+            IntFunction<K> keys) {
+        java.util.HashMap<K, Integer> expected = new java.util.HashMap<>();
+        for (int i = 0; i < operations; ++i) {
+            K key = keys.apply(i);
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                case 1:
+                    assertEquals(expected.get(key), map.get(key));
+                    break;
+                default:
+                    assertEquals(expected.put(key, i), map.put(key, i));
+                    break;
+            }
+            assertEquals(expected.size(), map.keyCount());
+        }
+        assertEntries(expected, map);
+    }
+    
+    protected static <K> void assertEntries(java.util.HashMap<K, Integer> expected, HashMap<K, Integer> map) {
+        EntryIterator<K, Integer> iterator = map.entryIterator();
+        int count = 0;
+        while (iterator.next()) {
+            assertEquals(expected.get(iterator.getCurrentKey()), iterator.getCurrentValue());
+            count++;
+        }
+        assertEquals(expected.size(), count);
+        for (K key: expected.keySet()) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
 }
@@ -1,5 +1,12 @@
 package test.org.povworld.collection.mutable;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.function.IntFunction;
+
 import org.povworld.collection.Collection;
 import org.povworld.collection.mutable.HashSet;
 
@@ -43,4 +50,37 @@ public class HashSetMutationTest extends AbstractMutableCollectionTest<HashSet<I
     protected HashSet<Integer> create() {
         return new HashSet<Integer>();
     }
+    
+    /**
+     * Applies random adds, removes and lookups of the elements returned by {@code elements} for the operation index
+     * to the {@code set} and to a {@link java.util.HashSet}, and checks that both agree.
+     */
+    protected static <E> void assertRandomOperations(HashSet<E> set, Random random, int operations,
+            IntFunction<E> elements) {
+        java.util.HashSet<E> expected = new java.util.HashSet<>();
+        for (int i = 0; i < operations; ++i) {
+            E element = elements.apply(i);
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.remove(element), set.remove(element));
+                    break;
+                case 1:
+                    assertEquals(expected.contains(element), set.contains(element));
+                    break;
+                default:
+                    assertEquals(expected.add(element), set.add(element));
+                    break;
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (E element: expected) {
+            assertSame(element, set.findEqualOrNull(element));
+        }
+        int count = 0;
+        for (E element: set) {
+            assertTrue(expected.contains(element));
+            count++;
+        }
+        assertEquals(expected.size(), count);
+    }
 }
@@ -11,11 +11,14 @@ import java.util.Random;
 
 import org.junit.Test;
 import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.Identificator;
+import org.povworld.collection.common.KeyedStringIdentificator;
 import org.povworld.collection.immutable.ImmutableCollections;
 import org.povworld.collection.mutable.HashSet;
 import org.povworld.collection.mutable.MutableCollections;
 
 import test.org.povworld.collection.AbstractSetTest;
+import test.org.povworld.collection.ChosenHash;
 
 public class HashSetTest extends AbstractSetTest<HashSet<String>> {
     
@@ -94,4 +97,66 @@ public class HashSetTest extends AbstractSetTest<HashSet<String>> {
         assertEquals(collectionEmpty, collectionLarge);
     }
     
+    @Test(timeout = 10000)
+    public void badlyDistributedHashCodes() {
+        // All hash codes share their lower 16 bits, without mixing every insertion would probe all elements.
+        HashSet<Integer> set = new HashSet<>(new Identificator<Integer>() {
+            @Override
+            public boolean isIdentifiable(Object object) {
+                return object instanceof Integer;
+            }
+            
+            @Override
+            public boolean equals(Integer object1, Integer object2) {
+                return object1.equals(object2);
+            }
+            
+            @Override
+            public int hashCode(Integer object) {
+                return object << 16;
+            }
+        });
+        int count = 60000;
+        for (int i = 0; i < count; ++i) {
+            assertTrue(set.add(i));
+        }
+        assertEquals(count, set.size());
+        for (int i = 0; i < count; ++i) {
+            assertTrue(set.contains(i));
+            assertTrue(set.remove(i));
+        }
+        assertTrue(set.isEmpty());
+    }
+    
+    @Test
+    public void equalHashCodes() {
+        HashSet<ChosenHash> set = new HashSet<>();
+        for (int i = 0; i < 300; ++i) {
+            assertTrue(set.add(new ChosenHash("e" + i, 42)));
+        }
+        for (int i = 0; i < 300; ++i) {
+            assertTrue(set.contains(new ChosenHash("e" + i, 42)));
+            assertFalse(set.contains(new ChosenHash("x" + i, 42)));
+        }
+        for (int i = 0; i < 300; i += 2) {
+            assertTrue(set.remove(new ChosenHash("e" + i, 42)));
+        }
+        assertEquals(150, set.size());
+        for (int i = 1; i < 300; i += 2) {
+            assertTrue(set.contains(new ChosenHash("e" + i, 42)));
+        }
+    }
+    
+    @Test
+    public void keyedStringIdentificator() {
+        HashSet<String> set = new HashSet<>(KeyedStringIdentificator.withRandomKey());
+        for (int i = 0; i < 1000; ++i) {
+            assertTrue(set.add("e" + i));
+        }
+        for (int i = 0; i < 1000; ++i) {
+            assertTrue(set.contains("e" + i));
+            assertFalse(set.contains("x" + i));
+        }
+    }
+    
 }
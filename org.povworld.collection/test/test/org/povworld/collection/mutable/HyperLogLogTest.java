@@ -0,0 +1,92 @@
+package test.org.povworld.collection.mutable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.mutable.HyperLogLog;
+
+/**
+ * Unit tests for {@link HyperLogLog}.
+ */
+public class HyperLogLogTest {
+    
+    private static void assertEstimate(long expected, long actual, double tolerance) {
+        assertTrue("expected " + expected + " but was " + actual, Math.abs(actual - expected) <= tolerance * expected);
+    }
+    
+    @Test
+    public void empty() {
+        HyperLogLog<String> hyperLogLog = new HyperLogLog<>();
+        assertTrue(hyperLogLog.isEmpty());
+        assertEquals(0, hyperLogLog.estimateSize());
+    }
+    
+    @Test
+    public void smallCardinalities() {
+        HyperLogLog<String> hyperLogLog = new HyperLogLog<>();
+        assertTrue(hyperLogLog.add("foo"));
+        assertFalse(hyperLogLog.add("foo"));
+        assertFalse(hyperLogLog.isEmpty());
+        assertEquals(1, hyperLogLog.estimateSize());
+        for (int i = 0; i < 100; ++i) {
+            hyperLogLog.add("e" + i);
+            hyperLogLog.add("e" + i);
+        }
+        assertEquals(101, hyperLogLog.estimateSize());
+    }
+    
+    @Test
+    public void largeCardinalities() {
+        HyperLogLog<Integer> hyperLogLog = new HyperLogLog<>();
+        for (int i = 0; i < 1000000; ++i) {
+            hyperLogLog.add(i);
+            if (i % 10 == 0) {
+                hyperLogLog.add(i / 10);
+            }
+        }
+        assertEstimate(1000000, hyperLogLog.estimateSize(), 0.03);
+    }
+    
+    @Test
+    public void merge() {
+        HyperLogLog<Integer> even = new HyperLogLog<>(CollectionUtil.getObjectIdentificator(), 12);
+        HyperLogLog<Integer> odd = new HyperLogLog<>(CollectionUtil.getObjectIdentificator(), 12);
+        for (int i = 0; i < 200000; ++i) {
+            (i % 2 == 0 ? even : odd).add(i);
+            // Overlap
+            odd.add(2 * (i % 1000));
+        }
+        even.merge(odd);
+        assertEstimate(200000, even.estimateSize(), 0.05);
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void mergeDifferentPrecision() {
+        new HyperLogLog<String>(CollectionUtil.getObjectIdentificator(), 10)
+                .merge(new HyperLogLog<String>(CollectionUtil.getObjectIdentificator(), 11));
+    }
+    
+    @Test
+    public void serialize() {
+        HyperLogLog<Integer> hyperLogLog = new HyperLogLog<>(CollectionUtil.getObjectIdentificator(), 10);
+        for (int i = 0; i < 5000; ++i) {
+            hyperLogLog.add(i);
+        }
+        byte[] bytes = hyperLogLog.toByteArray();
+        assertEquals(2 + 1024 * 6 / 8, bytes.length);
+        HyperLogLog<Integer> copy = HyperLogLog.fromByteArray(bytes, CollectionUtil.getObjectIdentificator());
+        assertEquals(10, copy.getPrecision());
+        assertEquals(hyperLogLog.estimateSize(), copy.estimateSize());
+        assertArrayEquals(bytes, copy.toByteArray());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPrecision() {
+        new HyperLogLog<String>(CollectionUtil.getObjectIdentificator(), 3);
+    }
+    
+}
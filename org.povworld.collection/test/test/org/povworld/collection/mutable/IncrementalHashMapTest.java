@@ -0,0 +1,64 @@
+package test.org.povworld.collection.mutable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.povworld.collection.mutable.HashMap;
+import org.povworld.collection.mutable.HashTableLayout;
+
+/**
+ * Unit tests for {@link HashMap} with the {@link HashTableLayout#INCREMENTAL_LINEAR_PROBING} layout.
+ */
+public class IncrementalHashMapTest extends HashMapTest {
+    
+    @Override
+    protected HashMap<String, Integer> empty() {
+        return new HashMap<String, Integer>(0, HashTableLayout.INCREMENTAL_LINEAR_PROBING);
+    }
+    
+    @Override
+    protected <K> HashMap<K, Integer> empty(Class<K> keyClass) {
+        return new HashMap<K, Integer>(0, HashTableLayout.INCREMENTAL_LINEAR_PROBING);
+    }
+    
+    @Test
+    public void randomOperations() {
+        Random random = new Random(42);
+        // The map grows and shrinks across several migrations.
+        assertRandomOperations(empty(Integer.class), random, 100000, i -> random.nextInt((i < 50000) ? 20000 : 2000));
+    }
+    
+    @Test
+    public void updateAndRemoveWhileMigrating() {
+        HashMap<Integer, Integer> map = empty(Integer.class);
+        java.util.HashMap<Integer, Integer> expected = new java.util.HashMap<>();
+        // Growing beyond 768 keys starts migrating the table of 1024 slots, 800 keys leave it unfinished.
+        for (int i = 0; i < 800; ++i) {
+            map.put(i, i);
+            expected.put(i, i);
+        }
+        assertEntries(expected, map);
+        for (int i = 0; i < 800; i += 2) {
+            assertEquals(Integer.valueOf(i), map.put(i, -i));
+            expected.put(i, -i);
+        }
+        for (int i = 0; i < 800; i += 3) {
+            assertEquals(expected.remove(i), map.remove(i));
+            assertNull(map.get(i));
+        }
+        assertEquals(expected.size(), map.keyCount());
+        assertEntries(expected, map);
+        
+        // Removing almost all keys ends up in the small table searched linearly.
+        for (int i = 0; i < 799; ++i) {
+            assertEquals(expected.remove(i), map.remove(i));
+        }
+        assertEntries(expected, map);
+        assertTrue(map.containsKey(799));
+    }
+    
+}
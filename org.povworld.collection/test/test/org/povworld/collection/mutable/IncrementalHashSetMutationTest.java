@@ -0,0 +1,53 @@
+package test.org.povworld.collection.mutable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.mutable.HashSet;
+import org.povworld.collection.mutable.HashTableLayout;
+
+/**
+ * Unit tests for {@link HashSet} with the {@link HashTableLayout#INCREMENTAL_LINEAR_PROBING} layout.
+ */
+public class IncrementalHashSetMutationTest extends HashSetMutationTest {
+    
+    @Override
+    protected HashSet<Integer> create() {
+        return new HashSet<Integer>(CollectionUtil.getObjectIdentificator(), 0,
+                HashTableLayout.INCREMENTAL_LINEAR_PROBING);
+    }
+    
+    @Test
+    public void randomOperations() {
+        Random random = new Random(42);
+        // The set grows and shrinks across several migrations.
+        assertRandomOperations(create(), random, 100000, i -> random.nextInt((i < 50000) ? 20000 : 2000));
+    }
+    
+    @Test
+    public void iterateAndRemoveWhileMigrating() {
+        HashSet<Integer> set = create();
+        int count = 0;
+        // Growing beyond 512 elements starts migrating the table of 1024 slots, 600 elements leave it unfinished.
+        while (count < 600) {
+            set.add(count++);
+        }
+        java.util.HashSet<Integer> seen = new java.util.HashSet<>();
+        for (Integer element: set) {
+            assertTrue(seen.add(element));
+        }
+        assertEquals(count, seen.size());
+        for (int i = 0; i < count; i += 2) {
+            assertTrue(set.remove(i));
+        }
+        assertEquals(count / 2, set.size());
+        for (int i = 0; i < count; ++i) {
+            assertEquals(i % 2 == 1, set.contains(i));
+        }
+    }
+    
+}
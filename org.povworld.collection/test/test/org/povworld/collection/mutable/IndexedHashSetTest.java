@@ -1,5 +1,10 @@
 package test.org.povworld.collection.mutable;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
 import org.povworld.collection.mutable.IndexedHashSet;
 
 import test.org.povworld.collection.AbstractOrderedSetTest;
@@ -12,4 +17,25 @@ public class IndexedHashSetTest extends AbstractOrderedSetTest<IndexedHashSet<St
     public IndexedHashSetTest() {
         super(IndexedHashSet.<String>newBuilder());
     }
+    
+    @Test
+    public void setElement() {
+        for (int size: new int[] {5, 50}) {
+            IndexedHashSet<String> set = new IndexedHashSet<>();
+            for (int i = 0; i < size; ++i) {
+                set.add("e" + i);
+            }
+            assertEquals("e3", set.set(3, "x"));
+            assertFalse(set.contains("e3"));
+            assertTrue(set.contains("x"));
+            assertFalse(set.add("x"));
+            assertTrue(set.add("e3"));
+            assertEquals(size + 1, set.size());
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeSetThreshold() {
+        new IndexedHashSet<String>(0, -1);
+    }
 }
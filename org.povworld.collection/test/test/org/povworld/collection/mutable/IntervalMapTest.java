@@ -2,6 +2,7 @@ package test.org.povworld.collection.mutable;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.HashSet;
@@ -12,6 +13,7 @@ import org.povworld.collection.CollectionUtil;
 import org.povworld.collection.EntryIterator;
 import org.povworld.collection.Map;
 import org.povworld.collection.common.Interval;
+import org.povworld.collection.common.IntervalVisitor;
 import org.povworld.collection.mutable.ArrayList;
 import org.povworld.collection.mutable.HashBag;
 import org.povworld.collection.mutable.HashMap;
@@ -357,4 +359,138 @@ public class IntervalMapTest {
         }
     }
     
+    private static String format(int start, int end, String value) {
+        return start + "_" + end + "=" + value;
+    }
+    
+    private static IntervalVisitor<String> collectInto(ArrayList<String> visited) {
+        return (start, end, value) -> {
+            visited.push(format(start, end, value));
+            return true;
+        };
+    }
+    
+    @Test
+    public void visitOverlappers() {
+        assertTrue(map.add(new Interval(10, 20), "a"));
+        assertTrue(map.add(new Interval(12, 40), "b"));
+        assertTrue(map.add(new Interval(30, 40), "c"));
+        assertTrue(map.add(new Interval(42, 50), "d"));
+        
+        ArrayList<String> visited = new ArrayList<>();
+        assertTrue(map.visitOverlappers(new Interval(15, 35), collectInto(visited)));
+        Truth.assertThat(visited).containsExactly("10_20=a", "12_40=b", "30_40=c").inOrder();
+        
+        visited.clear();
+        assertTrue(map.visitOverlappers(32, collectInto(visited)));
+        Truth.assertThat(visited).containsExactly("12_40=b", "30_40=c").inOrder();
+        
+        visited.clear();
+        assertFalse(map.visitOverlappers(new Interval(0, 100), (start, end, value) -> {
+            visited.push(value);
+            return visited.size() < 2;
+        }));
+        Truth.assertThat(visited).containsExactly("a", "b").inOrder();
+        
+        assertTrue(map.visitOverlappers(new Interval(50, 60), (start, end, value) -> false));
+    }
+    
+    @Test
+    public void countOverlapping() {
+        Random random = new Random(7);
+        ArrayList<Interval> intervals = generateRandomIntervals(random, 100, 30, 1000);
+        for (int i = 0; i < intervals.size(); ++i) {
+            assertTrue(map.add(intervals.get(i), String.valueOf(i)));
+        }
+        
+        assertEquals(0, map.countOverlapping(-5));
+        for (int point = 0; point < 140; point += 3) {
+            Interval test = new Interval(point, point + 5);
+            int expectedPoint = 0;
+            int expectedInterval = 0;
+            for (Interval interval: intervals) {
+                if (interval.contains(point)) {
+                    expectedPoint++;
+                }
+                if (interval.overlaps(test)) {
+                    expectedInterval++;
+                }
+            }
+            assertEquals(expectedPoint, map.countOverlapping(point));
+            assertEquals(expectedInterval, map.countOverlapping(test));
+        }
+    }
+    
+    private String nearest(int point) {
+        ArrayList<String> visited = new ArrayList<>();
+        if (!map.visitNearest(point, collectInto(visited))) {
+            return null;
+        }
+        assertEquals(1, visited.size());
+        return visited.getFirst();
+    }
+    
+    @Test
+    public void visitNearest() {
+        assertNull(nearest(5));
+        
+        assertTrue(map.add(new Interval(10, 20), "a"));
+        assertTrue(map.add(new Interval(30, 40), "b"));
+        assertTrue(map.add(new Interval(50, 51), "c"));
+        assertTrue(map.add(new Interval(60, 100), "d"));
+        
+        assertEquals("10_20=a", nearest(-100));
+        assertEquals("10_20=a", nearest(14));
+        assertEquals("10_20=a", nearest(21));
+        assertEquals("30_40=b", nearest(39));
+        assertEquals("30_40=b", nearest(44));
+        assertEquals("50_51=c", nearest(45));
+        assertEquals("50_51=c", nearest(51));
+        assertEquals("50_51=c", nearest(55));
+        assertEquals("60_100=d", nearest(56));
+        assertEquals("60_100=d", nearest(1000));
+    }
+    
+    @Test
+    public void visitNearestContained() {
+        assertTrue(map.add(new Interval(0, 100), "a"));
+        assertTrue(map.add(new Interval(10, 20), "b"));
+        assertTrue(map.add(new Interval(-10, 0), "b"));
+        
+        assertEquals("0_100=a", nearest(50));
+        assertEquals("0_100=a", nearest(0));
+        assertEquals("0_100=a", nearest(100));
+        assertEquals("-10_0=b", nearest(-1));
+    }
+    
+    private static int distance(Interval interval, int point) {
+        if (interval.contains(point)) {
+            return 0;
+        }
+        return (point < interval.getStart()) ? interval.getStart() - point : point - interval.getEnd() + 1;
+    }
+    
+    @Test
+    public void visitNearestLargeCollection() {
+        Random random = new Random(13);
+        ArrayList<Interval> intervals = generateRandomIntervals(random, 1000, 10, 100);
+        for (int i = 0; i < intervals.size(); ++i) {
+            assertTrue(map.add(intervals.get(i), String.valueOf(i)));
+        }
+        
+        for (int point = -20; point < 1020; point += 7) {
+            int expected = Integer.MAX_VALUE;
+            for (Interval interval: intervals) {
+                expected = Math.min(expected, distance(interval, point));
+            }
+            int current = point;
+            int[] actual = new int[1];
+            assertTrue(map.visitNearest(point, (start, end, value) -> {
+                actual[0] = distance(new Interval(start, end), current);
+                return true;
+            }));
+            assertEquals(expected, actual[0]);
+        }
+    }
+    
 }
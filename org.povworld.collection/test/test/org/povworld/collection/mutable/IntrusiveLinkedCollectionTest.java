@@ -117,6 +117,40 @@ public class IntrusiveLinkedCollectionTest
         collection.moveToFront(link3);
     }
     
+    @Test
+    public void moveToBack() {
+        collection.moveToBack(link3);
+        assertEquals(ImmutableCollections.listOf(link1, link2, link3), collection);
+        
+        collection.moveToBack(link2);
+        assertEquals(ImmutableCollections.listOf(link1, link3, link2), collection);
+        
+        collection.moveToBack(link1);
+        assertEquals(ImmutableCollections.listOf(link3, link2, link1), collection);
+        assertEquals(3, collection.size());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void moveToBackFailsForDetachedLink() {
+        collection.remove(link1);
+        collection.moveToBack(link1);
+    }
+    
+    @Test
+    public void insertAfter() {
+        StringLink link4 = new StringLink(4, "4");
+        StringLink link5 = new StringLink(5, "5");
+        collection.insertAfter(link1, link4);
+        collection.insertAfter(link3, link5);
+        assertEquals(ImmutableCollections.listOf(link1, link4, link2, link3, link5), collection);
+        assertEquals(5, collection.size());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void insertAfterFailsForAttachedLink() {
+        collection.insertAfter(link1, link3);
+    }
+    
     @Test
     public void reinsertLinksAfterRemove() {
         collection.remove(link1);
@@ -0,0 +1,113 @@
+package test.org.povworld.collection.mutable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.annotation.CheckForNull;
+
+import org.junit.Test;
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.EntryIterator;
+import org.povworld.collection.common.LongInterval;
+import org.povworld.collection.mutable.ArrayList;
+import org.povworld.collection.mutable.LongIntervalMap;
+
+import com.google.common.truth.Truth;
+
+/**
+ * Unit tests for {@link LongIntervalMap}.
+ */
+public class LongIntervalMapTest {
+    
+    private static final long BASE = 1L << 40;
+    
+    private LongIntervalMap<String> map = LongIntervalMap.create(String.class);
+    
+    @Test
+    public void emptyMap() {
+        assertEquals(0, map.size());
+        assertTrue(map.isEmpty());
+        assertTrue(CollectionUtil.isEmpty(map.getOverlappers(42)));
+        assertEquals(0, map.countOverlapping(new LongInterval(-BASE, BASE)));
+        assertFalse(map.entryIterator().next());
+        assertNull(nearest(0));
+    }
+    
+    @Test
+    public void overlappers() {
+        assertTrue(map.add(new LongInterval(BASE + 10, BASE + 60), "10_60"));
+        assertTrue(map.add(new LongInterval(BASE + 20, BASE + 50), "20_50"));
+        assertTrue(map.add(new LongInterval(BASE + 70, BASE + 80), "70_80"));
+        assertFalse(map.add(new LongInterval(BASE + 70, BASE + 80), "70_80"));
+        
+        assertEquals(3, map.size());
+        Truth.assertThat(map.getOverlappers(BASE + 5)).isEmpty();
+        Truth.assertThat(map.getOverlappers(BASE + 20)).containsExactly("10_60", "20_50");
+        Truth.assertThat(map.getOverlappers(new LongInterval(BASE + 55, BASE + 75))).containsExactly("10_60", "70_80");
+        assertEquals(2, map.countOverlapping(BASE + 30));
+        assertEquals(3, map.countOverlapping(new LongInterval(BASE, 2 * BASE)));
+        
+        ArrayList<String> visited = new ArrayList<>();
+        assertFalse(map.visitOverlappers(new LongInterval(BASE, 2 * BASE), (start, end, value) -> {
+            visited.push(value);
+            return !value.equals("20_50");
+        }));
+        Truth.assertThat(visited).containsExactly("10_60", "20_50").inOrder();
+        
+        EntryIterator<LongInterval, String> it = map.entryIterator();
+        assertTrue(it.next());
+        assertEquals(new LongInterval(BASE + 10, BASE + 60), it.getCurrentKey());
+        assertEquals("10_60", it.getCurrentValue());
+    }
+    
+    @Test
+    public void remove() {
+        assertTrue(map.add(new LongInterval(BASE + 10, BASE + 60), "10_60"));
+        assertTrue(map.add(new LongInterval(BASE + 20, BASE + 50), "20_50"));
+        
+        assertFalse(map.remove(new LongInterval(BASE + 10, BASE + 60), "20_50"));
+        assertTrue(map.remove(new LongInterval(BASE + 10, BASE + 60), "10_60"));
+        assertEquals(1, map.size());
+        Truth.assertThat(map.getOverlappers(BASE + 15)).isEmpty();
+        Truth.assertThat(map.getOverlappers(BASE + 25)).containsExactly("20_50");
+    }
+    
+    @CheckForNull
+    private String nearest(long point) {
+        ArrayList<String> visited = new ArrayList<>();
+        if (!map.visitNearest(point, (start, end, value) -> {
+            visited.push(value);
+            return true;
+        })) {
+            return null;
+        }
+        assertEquals(1, visited.size());
+        return visited.getFirst();
+    }
+    
+    @Test
+    public void visitNearest() {
+        assertTrue(map.add(new LongInterval(BASE + 10, BASE + 20), "a"));
+        assertTrue(map.add(new LongInterval(BASE + 30, BASE + 40), "b"));
+        
+        assertEquals("a", nearest(Long.MIN_VALUE));
+        assertEquals("a", nearest(BASE + 15));
+        assertEquals("a", nearest(BASE + 24));
+        assertEquals("b", nearest(BASE + 25));
+        assertEquals("b", nearest(Long.MAX_VALUE));
+    }
+    
+    @Test
+    public void visitNearestExtremeDistances() {
+        assertTrue(map.add(new LongInterval(Long.MIN_VALUE, Long.MIN_VALUE + 1), "min"));
+        assertTrue(map.add(new LongInterval(Long.MAX_VALUE - 1, Long.MAX_VALUE), "max"));
+        
+        assertEquals("min", nearest(-1));
+        assertEquals("max", nearest(0));
+        assertEquals("min", nearest(Long.MIN_VALUE));
+        assertEquals("max", nearest(Long.MAX_VALUE - 1));
+    }
+    
+}
@@ -1,9 +1,9 @@
 package test.org.povworld.collection.mutable;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import org.junit.Test;
-import org.povworld.collection.common.AssertionFailure;
 import org.povworld.collection.immutable.ImmutableCollections;
 import org.povworld.collection.mutable.ArrayList;
 import org.povworld.collection.mutable.OrderedHashMap;
@@ -35,14 +35,11 @@ public class OrderedHashMapTest extends AbstractMapTest<OrderedHashMap<String, I
         return map;
     }
     
-    @Override
-    protected boolean supportsRemove() {
-        return false;
-    }
-    
     @Override
     protected OrderedHashMap<String, Integer> remove(OrderedHashMap<String, Integer> map, String key) {
-        throw new AssertionFailure();
+        map.remove(key);
+        map.testInvariants();
+        return map;
     }
     
     @Override
@@ -83,4 +80,34 @@ public class OrderedHashMapTest extends AbstractMapTest<OrderedHashMap<String, I
         TestUtil.verifyRemoveByIterator(map.reverseKeyIterable());
     }
     
+    @Test
+    public void removeKeepsOrder() {
+        assertEquals(Integer.valueOf(2), map.remove("bar"));
+        assertNull(map.remove("bar"));
+        map.put("bar", 4);
+        ArrayList<String> actual = TestUtil.verifyIterable(map.keyIterable(), ArrayList.<String>newBuilder());
+        assertEquals(ImmutableCollections.listOf("foo", "lulu", "bar"), actual);
+    }
+    
+    @Test
+    public void accessOrder() {
+        OrderedHashMap<String, Integer> accessOrdered = new OrderedHashMap<>(4, true);
+        accessOrdered.put("foo", 1);
+        accessOrdered.put("bar", 2);
+        accessOrdered.put("lulu", 3);
+        
+        assertEquals(Integer.valueOf(1), accessOrdered.get("foo"));
+        assertNull(accessOrdered.get("unknown"));
+        accessOrdered.put("bar", 4);
+        accessOrdered.testInvariants();
+        
+        ArrayList<String> actual = TestUtil.verifyIterable(accessOrdered.keyIterable(), ArrayList.<String>newBuilder());
+        assertEquals(ImmutableCollections.listOf("lulu", "foo", "bar"), actual);
+        assertEquals("lulu", accessOrdered.keys().getFirst());
+        
+        // Insertion order is not affected by accesses.
+        map.get("foo");
+        assertEquals("foo", map.keys().getFirst());
+    }
+    
 }
@@ -0,0 +1,191 @@
+package test.org.povworld.collection.mutable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.common.TopologySorter.CyclicTopologyException;
+import org.povworld.collection.immutable.ImmutableCollections;
+import org.povworld.collection.mutable.ArrayList;
+import org.povworld.collection.mutable.TopologicalOrder;
+
+import com.google.common.truth.Truth;
+
+/**
+ * Unit tests for {@link TopologicalOrder}.
+ */
+public class TopologicalOrderTest {
+    
+    @Test
+    public void empty() {
+        TopologicalOrder<String> order = new TopologicalOrder<>();
+        assertTrue(order.isEmpty());
+        assertNull(order.getFirstOrNull());
+        assertNull(order.getLastOrNull());
+        Truth.assertThat(order).isEmpty();
+        order.checkInvariants();
+    }
+    
+    @Test
+    public void addElements() {
+        TopologicalOrder<String> order = new TopologicalOrder<>();
+        assertTrue(order.add("a"));
+        assertTrue(order.add("b"));
+        assertFalse(order.add("a"));
+        assertEquals(ImmutableCollections.listOf("a", "b"), order);
+        Iterator<String> reverseIterator = order.reverseIterator();
+        assertEquals("b", reverseIterator.next());
+        assertEquals("a", reverseIterator.next());
+        assertFalse(reverseIterator.hasNext());
+    }
+    
+    @Test
+    public void addEdgeReorders() {
+        TopologicalOrder<String> order = new TopologicalOrder<>();
+        for (String element: ImmutableCollections.listOf("a", "b", "c", "d", "e")) {
+            order.add(element);
+        }
+        assertTrue(order.addEdge("b", "c"));
+        assertFalse(order.addEdge("b", "c"));
+        assertEquals(ImmutableCollections.listOf("a", "b", "c", "d", "e"), order);
+        
+        // d moves before b and its child c, the positions of a and e are not affected.
+        assertTrue(order.addEdge("d", "b"));
+        assertEquals(ImmutableCollections.listOf("a", "d", "b", "c", "e"), order);
+        order.checkInvariants();
+        
+        assertTrue(order.addEdge("e", "a"));
+        order.checkInvariants();
+        assertTrue(order.isBefore("e", "a"));
+        assertTrue(order.isBefore("d", "b"));
+        assertTrue(order.isBefore("b", "c"));
+        assertTrue(order.containsEdge("e", "a"));
+        assertFalse(order.containsEdge("a", "e"));
+    }
+    
+    @Test
+    public void addEdgeAddsElements() {
+        TopologicalOrder<String> order = new TopologicalOrder<>();
+        order.addEdge("b", "a");
+        order.addEdge("c", "b");
+        assertEquals(ImmutableCollections.listOf("c", "b", "a"), order);
+        order.checkInvariants();
+    }
+    
+    @Test
+    public void rejectCycle() {
+        TopologicalOrder<String> order = new TopologicalOrder<>();
+        order.addEdge("a", "b");
+        order.addEdge("b", "c");
+        order.addEdge("c", "d");
+        try {
+            order.addEdge("d", "b");
+            fail();
+        } catch (CyclicTopologyException e) {
+            assertEquals(ImmutableCollections.listOf(ImmutableCollections.listOf("b", "c", "d")), e.getCycles());
+        }
+        assertFalse(order.containsEdge("d", "b"));
+        assertEquals(ImmutableCollections.listOf("a", "b", "c", "d"), order);
+        order.checkInvariants();
+        
+        try {
+            order.addEdge("e", "e");
+            fail();
+        } catch (CyclicTopologyException e) {
+            assertFalse(order.contains("e"));
+        }
+        
+        // The edge can be added once the path is broken.
+        assertTrue(order.removeEdge("b", "c"));
+        assertFalse(order.removeEdge("b", "c"));
+        order.addEdge("d", "b");
+        order.checkInvariants();
+        assertTrue(order.isBefore("d", "b"));
+    }
+    
+    @Test
+    public void removeElements() {
+        TopologicalOrder<Integer> order = new TopologicalOrder<>();
+        for (int i = 0; i < 100; ++i) {
+            order.add(i);
+        }
+        for (int i = 1; i < 100; ++i) {
+            order.addEdge(i, i - 1);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            assertTrue(order.remove(i));
+        }
+        assertFalse(order.remove(0));
+        order.checkInvariants();
+        assertEquals(50, order.size());
+        
+        // Triggers a compaction.
+        for (int i = 100; i < 200; ++i) {
+            order.addEdge(i, 1);
+        }
+        order.checkInvariants();
+        assertEquals(150, order.size());
+        assertEquals(Integer.valueOf(1), order.getLast());
+    }
+    
+    @Test
+    public void randomEdges() {
+        Random random = new Random(7);
+        int count = 60;
+        TopologicalOrder<Integer> order = new TopologicalOrder<>();
+        boolean[][] edges = new boolean[count][count];
+        for (int i = 0; i < 2000; ++i) {
+            int parent = random.nextInt(count);
+            int child = random.nextInt(count);
+            if (random.nextInt(4) == 0) {
+                assertEquals(edges[parent][child], order.removeEdge(parent, child));
+                edges[parent][child] = false;
+            } else {
+                boolean cyclic = (parent == child) || isReachable(edges, child, parent);
+                try {
+                    assertEquals(!edges[parent][child], order.addEdge(parent, child));
+                    assertFalse(cyclic);
+                    edges[parent][child] = true;
+                } catch (CyclicTopologyException e) {
+                    assertTrue(cyclic);
+                }
+            }
+            order.checkInvariants();
+        }
+        ArrayList<Integer> list = ArrayList.<Integer>newBuilder().addAll(order).build();
+        for (int parent = 0; parent < count; ++parent) {
+            for (int child = 0; child < count; ++child) {
+                if (edges[parent][child]) {
+                    assertTrue(CollectionUtil.indexOf(list, parent) < CollectionUtil.indexOf(list, child));
+                }
+            }
+        }
+    }
+    
+    private static boolean isReachable(boolean[][] edges, int from, int to) {
+        boolean[] visited = new boolean[edges.length];
+        ArrayList<Integer> stack = ArrayList.of(from);
+        visited[from] = true;
+        while (!stack.isEmpty()) {
+            int node = stack.pop();
+            if (node == to) {
+                return true;
+            }
+            for (int next = 0; next < edges.length; ++next) {
+                if (edges[node][next] && !visited[next]) {
+                    visited[next] = true;
+                    stack.push(next);
+                }
+            }
+        }
+        return false;
+    }
+    
+}
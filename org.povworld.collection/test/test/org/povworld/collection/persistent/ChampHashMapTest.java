@@ -0,0 +1,109 @@
+package test.org.povworld.collection.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.povworld.collection.EntryIterator;
+import org.povworld.collection.Map;
+import org.povworld.collection.mutable.HashMap;
+import org.povworld.collection.persistent.ChampHashMap;
+import org.povworld.collection.persistent.PersistentHashMap;
+import org.povworld.collection.persistent.PersistentMap;
+
+import test.org.povworld.collection.ChosenHash;
+
+/**
+ * Unit tests for {@link ChampHashMap}.
+ */
+public class ChampHashMapTest extends AbstractPersistentMapTest {
+    
+    @Override
+    protected PersistentMap<String, Integer> empty() {
+        return ChampHashMap.<String, Integer>empty();
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test(expected = NullPointerException.class)
+    public void withAllRejectsNullValue() {
+        EntryIterator<String, Integer> iterator = Mockito.mock(EntryIterator.class);
+        Mockito.when(iterator.next()).thenReturn(true, false);
+        Mockito.when(iterator.getCurrentKey()).thenReturn("a");
+        Map<String, Integer> map = Mockito.mock(Map.class);
+        Mockito.when(map.entryIterator()).thenReturn(iterator);
+        ChampHashMap.<String, Integer>empty().withAll(map);
+    }
+    
+    @Test
+    public void collisions() {
+        ChosenHash keyA = new ChosenHash("A", -7);
+        ChosenHash keyB = new ChosenHash("B", -7);
+        ChosenHash keyC = new ChosenHash("C", -7 ^ (1 << 31));
+        
+        ChampHashMap<ChosenHash, Integer> map = ChampHashMap.<ChosenHash, Integer>empty()
+                .with(keyA, 1).with(keyB, 2).with(keyC, 3);
+        assertEquals(3, map.keyCount());
+        assertEquals(Integer.valueOf(1), map.get(keyA));
+        assertEquals(Integer.valueOf(2), map.get(keyB));
+        assertEquals(Integer.valueOf(3), map.get(keyC));
+        
+        assertSame(map, map.with(keyB, 2));
+        map = map.with(keyB, 4);
+        assertEquals(3, map.keyCount());
+        assertEquals(Integer.valueOf(4), map.get(keyB));
+        
+        map = map.without(keyA);
+        assertNull(map.get(keyA));
+        assertEquals(ChampHashMap.<ChosenHash, Integer>empty().with(keyC, 3).with(keyB, 4), map);
+    }
+    
+    @Test
+    public void canonicalEquality() {
+        Random random = new Random(7);
+        ChampHashMap<Integer, Integer> map1 = ChampHashMap.empty();
+        for (int i = 0; i < 1000; ++i) {
+            map1 = map1.with(i, i % 10);
+        }
+        ChampHashMap<Integer, Integer> map2 = ChampHashMap.empty();
+        for (int i = 0; i < 3000; ++i) {
+            map2 = map2.with(random.nextInt(3000), 1);
+        }
+        for (int i = 0; i < 3000; ++i) {
+            map2 = (i < 1000) ? map2.with(i, i % 10) : map2.without(i);
+        }
+        
+        assertEquals(map1, map2);
+        assertEquals(map1.hashCode(), map2.hashCode());
+        assertEquals(map1.estimateFootprint().getNodeCount(), map2.estimateFootprint().getNodeCount());
+        assertNotEquals(map1, map2.with(5, 6));
+    }
+    
+    @Test
+    public void randomOperations() {
+        Random random = new Random(13);
+        HashMap<Integer, Integer> reference = new HashMap<>();
+        ChampHashMap<Integer, Integer> map = ChampHashMap.empty();
+        for (int i = 0; i < 20000; ++i) {
+            Integer key = random.nextInt(3000);
+            if (random.nextInt(3) == 0) {
+                reference.remove(key);
+                map = map.without(key);
+            } else {
+                reference.put(key, i);
+                map = map.with(key, i);
+            }
+        }
+        assertEquals(reference.keyCount(), map.keyCount());
+        assertEquals(reference, map);
+        PersistentMap<Integer, Integer> copy = PersistentHashMap.<Integer, Integer>empty().withAll(map);
+        assertEquals(copy, map);
+        assertEquals(map, copy);
+        assertEquals(copy.hashCode(), map.hashCode());
+    }
+    
+}
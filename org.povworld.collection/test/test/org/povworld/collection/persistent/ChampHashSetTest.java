@@ -0,0 +1,130 @@
+package test.org.povworld.collection.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.common.MemoryStats;
+import org.povworld.collection.mutable.ArrayList;
+import org.povworld.collection.mutable.HashSet;
+import org.povworld.collection.persistent.ChampHashSet;
+import org.povworld.collection.persistent.PersistentHashSet;
+import org.povworld.collection.persistent.PersistentSet;
+
+import test.org.povworld.collection.ChosenHash;
+
+/**
+ * Unit tests for {@link ChampHashSet}.
+ */
+public class ChampHashSetTest extends AbstractPersistentSetTest<ChampHashSet<String>> {
+    
+    public ChampHashSetTest() {
+        super(ChampHashSet.<String>newBuilder(CollectionUtil.getObjectIdentificator()));
+    }
+    
+    @Test
+    public void consecutiveHashes() {
+        int count = 1000;
+        ArrayList<ChosenHash> elements = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            elements.push(new ChosenHash(String.valueOf(i), i));
+        }
+        
+        ChampHashSet<ChosenHash> set = ChampHashSet.<ChosenHash>empty().withAll(elements);
+        assertEquals(count, set.size());
+        for (ChosenHash element: elements) {
+            assertTrue(set.contains(element));
+        }
+        assertEquals(PersistentHashSet.<ChosenHash>empty().withAll(elements), set);
+    }
+    
+    @Test
+    public void collisions() {
+        ChosenHash keyA = new ChosenHash("A", 56);
+        ChosenHash keyB = new ChosenHash("B", 56);
+        ChosenHash keyC = new ChosenHash("C", 56);
+        ChosenHash keyD = new ChosenHash("D", 56 + (1 << 30));
+        
+        ChampHashSet<ChosenHash> set = ChampHashSet.<ChosenHash>empty().with(keyA).with(keyB).with(keyD);
+        assertEquals(3, set.size());
+        assertTrue(set.contains(keyA));
+        assertTrue(set.contains(keyB));
+        assertFalse(set.contains(keyC));
+        
+        set = set.with(keyC).without(keyA);
+        assertEquals(3, set.size());
+        assertEquals(keyB, set.findEqualOrNull(new ChosenHash("B", 56)));
+        assertTrue(set.contains(keyC));
+        assertTrue(set.contains(keyD));
+        
+        set = set.without(keyB).without(keyD);
+        assertEquals(ChampHashSet.<ChosenHash>empty().with(keyC), set);
+        assertEquals(keyC, set.getFirstOrNull());
+        assertTrue(set.without(keyC).isEmpty());
+    }
+    
+    @Test
+    public void canonicalFormAfterRemovals() {
+        Random random = new Random(5);
+        ArrayList<ChosenHash> elements = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            // Few distinct hash values to get deep paths and collision nodes.
+            elements.push(new ChosenHash(String.valueOf(i), random.nextInt(500) * 0x10001));
+        }
+        ChampHashSet<ChosenHash> all = ChampHashSet.<ChosenHash>empty().withAll(elements);
+        
+        ChampHashSet<ChosenHash> expected = ChampHashSet.empty();
+        ChampHashSet<ChosenHash> actual = all;
+        for (int i = 0; i < elements.size(); ++i) {
+            if (i % 3 == 0) {
+                expected = expected.with(elements.get(i));
+            } else {
+                actual = actual.without(elements.get(i));
+            }
+        }
+        
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, actual);
+        assertEquals(expected.hashCode(), actual.hashCode());
+        MemoryStats expectedStats = expected.estimateFootprint();
+        MemoryStats actualStats = actual.estimateFootprint();
+        assertEquals(expectedStats.getNodeCount(), actualStats.getNodeCount());
+        assertEquals(expectedStats.getRetainedBytes(), actualStats.getRetainedBytes());
+        
+        assertNotEquals(expected, actual.without(elements.get(0)));
+    }
+    
+    @Test
+    public void randomOperations() {
+        Random random = new Random(11);
+        HashSet<Integer> reference = new HashSet<>();
+        ChampHashSet<Integer> set = ChampHashSet.empty();
+        for (int i = 0; i < 20000; ++i) {
+            Integer element = random.nextInt(3000);
+            if (random.nextInt(3) == 0) {
+                reference.remove(element);
+                set = set.without(element);
+            } else {
+                reference.add(element);
+                set = set.with(element);
+            }
+        }
+        assertEquals(reference.size(), set.size());
+        int count = 0;
+        for (Integer element: set) {
+            assertTrue(reference.contains(element));
+            count++;
+        }
+        assertEquals(reference.size(), count);
+        PersistentSet<Integer> copy = PersistentHashSet.<Integer>empty().withAll(reference);
+        assertEquals(copy, set);
+        assertEquals(set, copy);
+        assertEquals(copy.hashCode(), set.hashCode());
+    }
+    
+}
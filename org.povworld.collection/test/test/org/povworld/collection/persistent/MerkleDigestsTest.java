@@ -0,0 +1,181 @@
+package test.org.povworld.collection.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.povworld.collection.Map;
+import org.povworld.collection.persistent.ChampHashMap;
+import org.povworld.collection.persistent.MerkleDigests;
+
+import test.org.povworld.collection.ChosenHash;
+
+/**
+ * Unit tests for {@link MerkleDigests}.
+ */
+public class MerkleDigestsTest {
+    
+    private final MerkleDigests digests = new MerkleDigests(MerkleDigestsTest::fnv64);
+    
+    /**
+     * Counts the digests and entries which are requested from a peer.
+     */
+    private static class CountingPeer<K, V> implements MerkleDigests.Peer<K, V> {
+        
+        private final MerkleDigests.Peer<K, V> peer;
+        
+        int digestCount = 0;
+        
+        int entryCount = 0;
+        
+        CountingPeer(MerkleDigests.Peer<K, V> peer) {
+            this.peer = peer;
+        }
+        
+        @Override
+        public long digest() {
+            digestCount++;
+            return peer.digest();
+        }
+        
+        @Override
+        public int size() {
+            return peer.size();
+        }
+        
+        @Override
+        public MerkleDigests.Regions regionDigests(int prefix, int depth) {
+            digestCount += MerkleDigests.FANOUT;
+            return peer.regionDigests(prefix, depth);
+        }
+        
+        @Override
+        public Map<K, V> regionEntries(int prefix, int depth) {
+            Map<K, V> result = peer.regionEntries(prefix, depth);
+            entryCount += result.keyCount();
+            return result;
+        }
+    }
+    
+    @Test
+    public void digestOnlyDependsOnEntries() {
+        ChampHashMap<Integer, String> map1 = ChampHashMap.empty();
+        ChampHashMap<Integer, String> map2 = ChampHashMap.empty();
+        for (int i = 0; i < 1000; ++i) {
+            map1 = map1.with(i, "v" + i);
+            map2 = map2.with(999 - i, "v" + (999 - i));
+        }
+        assertEquals(0, digests.digest(ChampHashMap.<Integer, String>empty()));
+        assertEquals(digests.digest(map1), digests.digest(map2));
+        assertNotEquals(digests.digest(map1), digests.digest(map1.with(5, "x")));
+        assertNotEquals(digests.digest(map1), digests.digest(map1.without(5)));
+        assertEquals(digests.digest(map1), digests.digest(map1.with(5, "x").with(5, "v5")));
+    }
+    
+    @Test
+    public void changedMapOnlyDigestsChangedPath() {
+        ChampHashMap<Integer, Integer> map = ChampHashMap.empty();
+        for (int i = 0; i < 10000; ++i) {
+            map = map.with(i, i);
+        }
+        digests.digest(map);
+        int cachedNodes = digests.cachedNodeCount();
+        digests.digest(map.with(17, 0));
+        assertTrue(digests.cachedNodeCount() - cachedNodes <= map.estimateFootprint().getMaxDepth() + 1);
+    }
+    
+    @Test
+    public void pullTransfersDelta() {
+        Random random = new Random(3);
+        ChampHashMap<Integer, Integer> replica = ChampHashMap.empty();
+        for (int i = 0; i < 20000; ++i) {
+            replica = replica.with(i, i);
+        }
+        ChampHashMap<Integer, Integer> source = replica;
+        for (int i = 0; i < 10; ++i) {
+            source = source.with(random.nextInt(20000), -i);
+            source = source.without(random.nextInt(20000));
+            source = source.with(20000 + i, i);
+        }
+        
+        CountingPeer<Integer, Integer> peer = new CountingPeer<>(digests.peer(source));
+        ChampHashMap<Integer, Integer> pulled = digests.pull(replica, peer);
+        assertEquals(source, pulled);
+        assertEquals(digests.digest(source), digests.digest(pulled));
+        assertTrue(peer.entryCount <= 30);
+        assertTrue(peer.digestCount <= 30 * MerkleDigests.MAX_DEPTH * MerkleDigests.FANOUT);
+        
+        CountingPeer<Integer, Integer> samePeer = new CountingPeer<>(digests.peer(source));
+        assertSame(pulled, digests.pull(pulled, samePeer));
+        assertEquals(1, samePeer.digestCount);
+    }
+    
+    @Test
+    public void pullFromEmptyAndToEmpty() {
+        ChampHashMap<String, Integer> map = ChampHashMap.empty();
+        for (int i = 0; i < 500; ++i) {
+            map = map.with("key" + i, i);
+        }
+        ChampHashMap<String, Integer> empty = ChampHashMap.empty();
+        assertEquals(map, digests.pull(empty, digests.peer(map)));
+        assertEquals(empty, digests.pull(map, digests.peer(empty)));
+    }
+    
+    @Test
+    public void pullCollisions() {
+        ChosenHash keyA = new ChosenHash("A", 42);
+        ChosenHash keyB = new ChosenHash("B", 42);
+        ChosenHash keyC = new ChosenHash("C", 42);
+        ChosenHash keyD = new ChosenHash("D", 42 | (1 << 30));
+        ChampHashMap<ChosenHash, Integer> replica = ChampHashMap.<ChosenHash, Integer>empty()
+                .with(keyA, 1).with(keyB, 2).with(keyD, 4);
+        ChampHashMap<ChosenHash, Integer> source = replica.without(keyA).with(keyB, 5).with(keyC, 3);
+        
+        ChampHashMap<ChosenHash, Integer> pulled = digests.pull(replica, digests.peer(source));
+        assertEquals(source, pulled);
+        assertEquals(3, pulled.keyCount());
+        assertEquals(Integer.valueOf(5), pulled.get(keyB));
+    }
+    
+    @Test
+    public void emptyRegionIsNotConfusedWithZeroDigest() {
+        // A content digester under which the digests of all regions are zero, so only the counts differ.
+        MerkleDigests zeroDigests = new MerkleDigests(object -> 0);
+        ChampHashMap<Integer, Integer> replica = ChampHashMap.<Integer, Integer>empty().with(1, 1).with(2, 2);
+        ChampHashMap<Integer, Integer> source = replica.without(2);
+        assertEquals(source, zeroDigests.pull(replica, zeroDigests.peer(source)));
+        assertEquals(ChampHashMap.<Integer, Integer>empty().with(2, 2),
+                zeroDigests.pull(ChampHashMap.<Integer, Integer>empty(), zeroDigests.peer(replica.without(1))));
+    }
+    
+    @Test
+    public void pullValueWithSameHashCode() {
+        // "Aa" and "BB" have the same hash code.
+        ChampHashMap<Integer, String> replica = ChampHashMap.<Integer, String>empty().with(1, "Aa").with(2, "x");
+        ChampHashMap<Integer, String> source = replica.with(1, "BB");
+        assertNotEquals(digests.digest(replica), digests.digest(source));
+        assertEquals(source, digests.pull(replica, digests.peer(source)));
+    }
+    
+    @Test
+    public void pullKeysWithSameHashCodeSwappingValues() {
+        ChampHashMap<String, Integer> replica = ChampHashMap.<String, Integer>empty().with("Aa", 1).with("BB", 2);
+        ChampHashMap<String, Integer> source = ChampHashMap.<String, Integer>empty().with("Aa", 2).with("BB", 1);
+        assertNotEquals(digests.digest(replica), digests.digest(source));
+        assertEquals(source, digests.pull(replica, digests.peer(source)));
+    }
+    
+    private static long fnv64(Object object) {
+        String string = object.getClass().getName() + ':' + object;
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < string.length(); ++i) {
+            hash = (hash ^ string.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+    
+}
@@ -0,0 +1,140 @@
+package test.org.povworld.collection.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.Comparator;
+import org.povworld.collection.common.MemoryStats;
+import org.povworld.collection.common.ReverseComparator;
+import org.povworld.collection.persistent.ChampHashMap;
+import org.povworld.collection.persistent.ChampHashSet;
+import org.povworld.collection.persistent.NodeInterner;
+import org.povworld.collection.persistent.PersistentMap;
+import org.povworld.collection.persistent.PersistentTreeMap;
+
+/**
+ * Unit tests for {@link NodeInterner}.
+ */
+public class NodeInternerTest {
+    
+    @Test
+    public void equalSetsShareAllNodes() {
+        NodeInterner interner = new NodeInterner();
+        ChampHashSet<Integer> set1 = ChampHashSet.empty();
+        ChampHashSet<Integer> set2 = ChampHashSet.empty();
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; ++i) {
+            set1 = set1.with(i);
+            set2 = set2.with(random.nextInt(4000));
+        }
+        for (int i = 0; i < 4000; ++i) {
+            set2 = (i < 2000) ? set2.with(i) : set2.without(i);
+        }
+        
+        ChampHashSet<Integer> interned1 = set1.interned(interner);
+        int cachedNodes = interner.size();
+        ChampHashSet<Integer> interned2 = set2.interned(interner);
+        assertEquals(cachedNodes, interner.size());
+        assertEquals(set1, interned1);
+        assertEquals(interned1, interned2);
+        assertSame(interned1, interned1.interned(interner));
+    }
+    
+    @Test
+    public void changedSetOnlyAddsChangedPath() {
+        NodeInterner interner = new NodeInterner();
+        ChampHashSet<String> set = ChampHashSet.empty();
+        for (int i = 0; i < 5000; ++i) {
+            set = set.with("element" + i);
+        }
+        set = set.interned(interner);
+        int cachedNodes = interner.size();
+        
+        ChampHashSet<String> changed = set.with("new").interned(interner);
+        MemoryStats stats = changed.estimateFootprint();
+        assertTrue(interner.size() - cachedNodes <= stats.getMaxDepth() + 1);
+        assertTrue(changed.contains("new"));
+        assertEquals(set.size() + 1, changed.size());
+        assertEquals(set, changed.without("new").interned(interner));
+    }
+    
+    @Test
+    public void maps() {
+        NodeInterner interner = new NodeInterner();
+        ChampHashMap<String, Integer> map1 = ChampHashMap.empty();
+        ChampHashMap<String, Integer> map2 = ChampHashMap.empty();
+        for (int i = 0; i < 1000; ++i) {
+            map1 = map1.with("key" + i, i);
+            map2 = map2.with("key" + (999 - i), 999 - i);
+        }
+        map1 = map1.interned(interner);
+        int cachedNodes = interner.size();
+        map2 = map2.interned(interner);
+        assertEquals(cachedNodes, interner.size());
+        assertEquals(map1, map2);
+        
+        ChampHashMap<String, Integer> map3 = map2.with("key5", 6).interned(interner);
+        assertNotEquals(map1, map3);
+        assertEquals(Integer.valueOf(6), map3.get("key5"));
+        assertEquals(Integer.valueOf(5), map1.get("key5"));
+    }
+    
+    @Test
+    public void treeMaps() {
+        NodeInterner interner = new NodeInterner();
+        PersistentTreeMap<String, Integer, ?> map1 = buildTreeMap(500);
+        PersistentTreeMap<String, Integer, ?> map2 = buildTreeMap(500);
+        
+        PersistentTreeMap<String, Integer, ?> interned1 = map1.interned(interner);
+        int cachedNodes = interner.size();
+        assertEquals(500, cachedNodes);
+        PersistentTreeMap<String, Integer, ?> interned2 = map2.interned(interner);
+        assertEquals(cachedNodes, interner.size());
+        assertEquals(map2, interned2);
+        assertEquals(interned1, interned2);
+        interned2.checkInvariants();
+        
+        // Equal sub-trees of a different map are shared as well.
+        PersistentTreeMap<String, Integer, ?> interned3 = buildTreeMap(1000).interned(interner);
+        assertTrue(interner.size() < cachedNodes + 1000);
+        interned3.checkInvariants();
+        assertEquals(Integer.valueOf(700), interned3.get(key(700)));
+    }
+    
+    @Test
+    public void treeMapsWithDifferentComparators() {
+        NodeInterner interner = new NodeInterner();
+        // Orders the keys like the default comparator, but is not equal to it.
+        Comparator<String> comparator = new ReverseComparator<>(
+                new ReverseComparator<>(CollectionUtil.getDefaultComparator(String.class)));
+        PersistentTreeMap<String, Integer, ?> map1 = buildTreeMap(100).interned(interner);
+        PersistentTreeMap<String, Integer, ?> map2 = buildTreeMap(100, comparator).interned(interner);
+        assertEquals(Integer.valueOf(50), map2.get(key(50)));
+        assertNotEquals(map1, map2);
+        assertNotEquals(map2, map1);
+        assertEquals(map2, buildTreeMap(100, comparator));
+    }
+    
+    private static PersistentTreeMap<String, Integer, ?> buildTreeMap(int size) {
+        return buildTreeMap(size, CollectionUtil.getDefaultComparator(String.class));
+    }
+    
+    private static PersistentTreeMap<String, Integer, ?> buildTreeMap(int size, Comparator<? super String> comparator) {
+        PersistentMap<String, Integer> map = PersistentTreeMap.empty(comparator);
+        for (int i = 0; i < size; ++i) {
+            map = map.with(key(i), i);
+        }
+        return (PersistentTreeMap<String, Integer, ?>)map;
+    }
+    
+    private static String key(int i) {
+        return String.format("key%04d", i);
+    }
+    
+}
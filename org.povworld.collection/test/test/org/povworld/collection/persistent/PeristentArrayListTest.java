@@ -2,6 +2,8 @@ package test.org.povworld.collection.persistent;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Random;
+
 import org.junit.Test;
 import org.povworld.collection.persistent.PersistentArrayList;
 import org.povworld.collection.persistent.PersistentCollections;
@@ -25,4 +27,78 @@ public class PeristentArrayListTest extends AbstractPersistentListTest<Persisten
         assertEquals("a", list.get(0));
     }
     
+    @Test
+    public void editor() {
+        Random random = new Random(9);
+        PersistentArrayList.Editor<String> editor = PersistentArrayList.<String>empty(4).edit();
+        PersistentList<String> expected = PersistentArrayList.empty();
+        PersistentList<String> frozen = editor.freeze();
+        PersistentList<String> expectedFrozen = expected;
+        for (int i = 0; i < 3000; ++i) {
+            String element = String.valueOf(i);
+            int operation = random.nextInt(4);
+            if (operation == 0 && !expected.isEmpty()) {
+                int index = random.nextInt(expected.size());
+                assertEquals(expected.get(index), editor.removeElementAt(index));
+                expected = expected.without(index);
+            } else if (operation == 1 && !expected.isEmpty()) {
+                int index = random.nextInt(expected.size());
+                assertEquals(expected.get(index), editor.set(index, element));
+                expected = expected.withReplacementAt(element, index);
+            } else if (operation == 2) {
+                int index = random.nextInt(expected.size() + 1);
+                editor.add(element, index);
+                expected = expected.with(element, index);
+            } else {
+                editor.add(element);
+                expected = expected.with(element);
+            }
+            assertEquals(expected.size(), editor.size());
+            if (i % 300 == 0) {
+                // Later changes of the editor must not leak into the frozen lists.
+                assertEquals(expectedFrozen, frozen);
+                frozen = editor.freeze();
+                expectedFrozen = expected;
+            }
+        }
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.get(i), editor.get(i));
+        }
+        assertEquals(expected, editor.freeze());
+        
+        while (editor.size() > 0) {
+            editor.removeElementAt(random.nextInt(editor.size()));
+        }
+        assertEquals(PersistentArrayList.empty(), editor.freeze());
+    }
+    
+    @Test
+    public void editorRemovesMostElements() {
+        for (int bucketSizeMax: new int[] {8, 60}) {
+            Random random = new Random(bucketSizeMax);
+            PersistentArrayList.Editor<String> editor = PersistentArrayList.<String>empty(bucketSizeMax).edit();
+            PersistentList<String> expected = PersistentArrayList.empty();
+            for (int i = 0; i < 5000; ++i) {
+                editor.add(String.valueOf(i));
+                expected = expected.with(String.valueOf(i));
+            }
+            PersistentList<String> frozen = editor.freeze();
+            while (editor.size() > 10) {
+                int index = random.nextInt(editor.size());
+                assertEquals(expected.get(index), editor.removeElementAt(index));
+                expected = expected.without(index);
+                if (editor.size() % 1000 == 0) {
+                    assertEquals(expected, editor.freeze());
+                }
+            }
+            assertEquals(expected, editor.freeze());
+            assertEquals(5000, frozen.size());
+            assertEquals("4999", frozen.get(4999));
+            for (int i = 0; i < 1000; ++i) {
+                editor.add(String.valueOf(i), random.nextInt(editor.size() + 1));
+            }
+            assertEquals(1010, editor.freeze().size());
+        }
+    }
+    
 }
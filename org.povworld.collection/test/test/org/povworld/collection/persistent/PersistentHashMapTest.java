@@ -4,10 +4,15 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Random;
+
 import org.junit.Test;
+import org.povworld.collection.EntryIterator;
 import org.povworld.collection.mutable.ArrayList;
+import org.povworld.collection.mutable.HashMap;
 import org.povworld.collection.persistent.PersistentHashMap;
 import org.povworld.collection.persistent.PersistentMap;
 
@@ -119,4 +124,29 @@ public class PersistentHashMapTest extends AbstractPersistentMapTest {
         assertEquals("C", map.get(keyC));
     }
     
+    @Test
+    public void withAllBatch() {
+        Random random = new Random(17);
+        PersistentMap<Integer, Integer> base = PersistentHashMap.empty();
+        for (int i = 0; i < 2000; ++i) {
+            base = base.with(random.nextInt(5000), i);
+        }
+        for (int size: new int[] {1, 2, 20, 200, 3000}) {
+            HashMap<Integer, Integer> batch = new HashMap<>();
+            for (int i = 0; i < size; ++i) {
+                batch.put(random.nextInt(5000), random.nextInt(3));
+            }
+            PersistentMap<Integer, Integer> expected = base;
+            EntryIterator<Integer, Integer> iter = batch.entryIterator();
+            while (iter.next()) {
+                expected = expected.with(iter.getCurrentKey(), iter.getCurrentValue());
+            }
+            PersistentMap<Integer, Integer> actual = base.withAll(batch);
+            assertEquals(expected.keyCount(), actual.keyCount());
+            assertEquals(expected, actual);
+            assertEquals(actual, PersistentHashMap.<Integer, Integer>empty().withAll(actual));
+            assertSame(actual, actual.withAll(batch));
+        }
+    }
+    
 }
@@ -2,6 +2,8 @@ package test.org.povworld.collection.persistent;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Random;
+
 import org.junit.Test;
 import org.povworld.collection.OrderedSet;
 import org.povworld.collection.common.ObjectUtil;
@@ -77,4 +79,57 @@ public class PersistentIndexedSetTest extends AbstractPersistentOrderedSetTest<P
         collectionThree.withoutElementAt(3);
     }
     
+    @Test
+    public void indexOf() {
+        PersistentIndexedSetImpl<String> set = (PersistentIndexedSetImpl<String>)collectionThree;
+        assertEquals(0, set.indexOf("one"));
+        assertEquals(1, set.indexOf("two"));
+        assertEquals(2, set.indexOf("three"));
+        assertEquals(-1, set.indexOf("four"));
+    }
+    
+    @Test
+    public void insertAtSamePosition() {
+        // Exhausts the labels between the first two elements many times.
+        PersistentIndexedSet<Integer> set = PersistentIndexedSetImpl.<Integer>empty().with(-1).with(-2);
+        for (int i = 0; i < 1000; ++i) {
+            set = set.with(i, 1);
+        }
+        ((PersistentIndexedSetImpl<Integer>)set).checkInvariants();
+        assertEquals(Integer.valueOf(-1), set.get(0));
+        assertEquals(Integer.valueOf(999), set.get(1));
+        assertEquals(Integer.valueOf(0), set.get(1000));
+        assertEquals(Integer.valueOf(-2), set.get(1001));
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(1000 - i, ((PersistentIndexedSetImpl<Integer>)set).indexOf(i));
+        }
+    }
+    
+    @Test
+    public void randomOperations() {
+        Random random = new Random(3);
+        PersistentIndexedSet<Integer> set = PersistentIndexedSetImpl.empty();
+        java.util.ArrayList<Integer> expected = new java.util.ArrayList<>();
+        for (int i = 0; i < 5000; ++i) {
+            Integer element = random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                set = set.without(element);
+                expected.remove(element);
+            } else if (!expected.contains(element)) {
+                // Inserting near the start exhausts the labels there.
+                int index = random.nextBoolean() ? random.nextInt(Math.min(3, expected.size() + 1))
+                        : random.nextInt(expected.size() + 1);
+                set = set.with(element, index);
+                expected.add(index, element);
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        PersistentIndexedSetImpl<Integer> indexedSet = (PersistentIndexedSetImpl<Integer>)set;
+        indexedSet.checkInvariants();
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.get(i), set.get(i));
+            assertEquals(i, indexedSet.indexOf(expected.get(i)));
+        }
+    }
+    
 }
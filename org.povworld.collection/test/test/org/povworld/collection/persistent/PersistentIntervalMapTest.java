@@ -2,16 +2,19 @@ package test.org.povworld.collection.persistent;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.HashSet;
 import java.util.Random;
+import java.util.Set;
 
 import org.junit.Test;
 import org.povworld.collection.EntryIterator;
 import org.povworld.collection.Map;
 import org.povworld.collection.common.Interval;
+import org.povworld.collection.common.IntervalVisitor;
 import org.povworld.collection.mutable.ArrayList;
 import org.povworld.collection.mutable.HashBag;
 import org.povworld.collection.mutable.HashMap;
@@ -355,4 +358,277 @@ public class PersistentIntervalMapTest {
         }
     }
     
+    private static String format(int start, int end, String value) {
+        return start + "_" + end + "=" + value;
+    }
+    
+    private static IntervalVisitor<String> collectInto(ArrayList<String> visited) {
+        return (start, end, value) -> {
+            visited.push(format(start, end, value));
+            return true;
+        };
+    }
+    
+    @Test
+    public void visitOverlappers() {
+        map = map.with(new Interval(10, 20), "a");
+        map = map.with(new Interval(12, 40), "b");
+        map = map.with(new Interval(30, 40), "c");
+        map = map.with(new Interval(42, 50), "d");
+        
+        ArrayList<String> visited = new ArrayList<>();
+        assertTrue(map.visitOverlappers(new Interval(15, 35), collectInto(visited)));
+        Truth.assertThat(visited).containsExactly("10_20=a", "12_40=b", "30_40=c").inOrder();
+        
+        visited.clear();
+        assertTrue(map.visitOverlappers(32, collectInto(visited)));
+        Truth.assertThat(visited).containsExactly("12_40=b", "30_40=c").inOrder();
+        
+        visited.clear();
+        assertFalse(map.visitOverlappers(new Interval(0, 100), (start, end, value) -> {
+            visited.push(value);
+            return visited.size() < 2;
+        }));
+        Truth.assertThat(visited).containsExactly("a", "b").inOrder();
+        
+        assertTrue(map.visitOverlappers(new Interval(50, 60), (start, end, value) -> false));
+    }
+    
+    @Test
+    public void countOverlapping() {
+        Random random = new Random(7);
+        ArrayList<Interval> intervals = generateRandomIntervals(random, 100, 30, 1000);
+        for (int i = 0; i < intervals.size(); ++i) {
+            map = map.with(intervals.get(i), String.valueOf(i));
+        }
+        
+        assertEquals(0, map.countOverlapping(-5));
+        for (int point = 0; point < 140; point += 3) {
+            Interval test = new Interval(point, point + 5);
+            int expectedPoint = 0;
+            int expectedInterval = 0;
+            for (Interval interval: intervals) {
+                if (interval.contains(point)) {
+                    expectedPoint++;
+                }
+                if (interval.overlaps(test)) {
+                    expectedInterval++;
+                }
+            }
+            assertEquals(expectedPoint, map.countOverlapping(point));
+            assertEquals(expectedInterval, map.countOverlapping(test));
+        }
+    }
+    
+    private String nearest(int point) {
+        ArrayList<String> visited = new ArrayList<>();
+        if (!map.visitNearest(point, collectInto(visited))) {
+            return null;
+        }
+        assertEquals(1, visited.size());
+        return visited.getFirst();
+    }
+    
+    @Test
+    public void visitNearest() {
+        assertNull(nearest(5));
+        
+        map = map.with(new Interval(10, 20), "a");
+        map = map.with(new Interval(30, 40), "b");
+        map = map.with(new Interval(50, 51), "c");
+        map = map.with(new Interval(60, 100), "d");
+        
+        assertEquals("10_20=a", nearest(-100));
+        assertEquals("10_20=a", nearest(14));
+        assertEquals("10_20=a", nearest(21));
+        assertEquals("30_40=b", nearest(39));
+        assertEquals("30_40=b", nearest(44));
+        assertEquals("50_51=c", nearest(45));
+        assertEquals("50_51=c", nearest(51));
+        assertEquals("50_51=c", nearest(55));
+        assertEquals("60_100=d", nearest(56));
+        assertEquals("60_100=d", nearest(1000));
+    }
+    
+    @Test
+    public void visitNearestContained() {
+        map = map.with(new Interval(0, 100), "a");
+        map = map.with(new Interval(10, 20), "b");
+        map = map.with(new Interval(-10, 0), "b");
+        
+        assertEquals("0_100=a", nearest(50));
+        assertEquals("0_100=a", nearest(0));
+        assertEquals("0_100=a", nearest(100));
+        assertEquals("-10_0=b", nearest(-1));
+    }
+    
+    private static int distance(Interval interval, int point) {
+        if (interval.contains(point)) {
+            return 0;
+        }
+        return (point < interval.getStart()) ? interval.getStart() - point : point - interval.getEnd() + 1;
+    }
+    
+    @Test
+    public void visitNearestLargeCollection() {
+        Random random = new Random(13);
+        ArrayList<Interval> intervals = generateRandomIntervals(random, 1000, 10, 100);
+        for (int i = 0; i < intervals.size(); ++i) {
+            map = map.with(intervals.get(i), String.valueOf(i));
+        }
+        
+        for (int point = -20; point < 1020; point += 7) {
+            int expected = Integer.MAX_VALUE;
+            for (Interval interval: intervals) {
+                expected = Math.min(expected, distance(interval, point));
+            }
+            int current = point;
+            int[] actual = new int[1];
+            assertTrue(map.visitNearest(point, (start, end, value) -> {
+                actual[0] = distance(new Interval(start, end), current);
+                return true;
+            }));
+            assertEquals(expected, actual[0]);
+        }
+    }
+    
+    private static Set<String> entries(PersistentIntervalMap<String> map) {
+        HashSet<String> entries = new HashSet<>();
+        EntryIterator<Interval, String> it = map.entryIterator();
+        while (it.next()) {
+            assertTrue(entries.add(it.getCurrentKey() + "=" + it.getCurrentValue()));
+        }
+        return entries;
+    }
+    
+    private PersistentIntervalMap<String> createIncrementally(ArrayList<Interval> intervals) {
+        PersistentIntervalMap<String> result = PersistentIntervalMap.empty();
+        for (int i = 0; i < intervals.size(); ++i) {
+            result = result.with(intervals.get(i), String.valueOf(i % 50));
+        }
+        return result;
+    }
+    
+    private static EntryIterator<Interval, String> entryIterator(ArrayList<Interval> intervals) {
+        PersistentIntervalMap.Builder<String> builder = PersistentIntervalMap.newBuilder();
+        for (int i = 0; i < intervals.size(); ++i) {
+            builder.add(intervals.get(i), String.valueOf(i % 50));
+        }
+        return builder.build().entryIterator();
+    }
+    
+    @Test
+    public void builder() {
+        PersistentIntervalMap<String> empty = PersistentIntervalMap.<String>newBuilder().build();
+        assertTrue(empty.isEmpty());
+        
+        ArrayList<Interval> intervals = generateRandomIntervals(new Random(3), 100, 20, 1000);
+        PersistentIntervalMap<String> expected = createIncrementally(intervals);
+        
+        PersistentIntervalMap.Builder<String> builder = PersistentIntervalMap.newBuilder();
+        for (int i = 0; i < intervals.size(); ++i) {
+            builder.add(intervals.get(i), String.valueOf(i % 50));
+        }
+        PersistentIntervalMap<String> unsorted = builder.build();
+        unsorted.checkInvariants();
+        assertEquals(expected.size(), unsorted.size());
+        assertEquals(entries(expected), entries(unsorted));
+        
+        PersistentIntervalMap<String> sorted = PersistentIntervalMap.<String>newBuilder()
+                .addAll(unsorted.entryIterator()).build();
+        sorted.checkInvariants();
+        assertEquals(entries(expected), entries(sorted));
+        
+        for (int point = 0; point < 120; point += 7) {
+            Truth.assertThat(sorted.getOverlappers(point)).containsExactlyElementsIn(expected.getOverlappers(point));
+        }
+    }
+    
+    @Test
+    public void withAll() {
+        map = map.with(new Interval(10, 20), "a");
+        map = map.with(new Interval(30, 40), "b");
+        
+        PersistentIntervalMap<String> batch = PersistentIntervalMap.<String>newBuilder()
+                .add(new Interval(10, 20), "a")
+                .add(new Interval(10, 30), "c")
+                .add(new Interval(10, 20), "d")
+                .build();
+        PersistentIntervalMap<String> result = map.withAll(batch.entryIterator());
+        result.checkInvariants();
+        assertEquals(4, result.size());
+        Truth.assertThat(entries(result)).containsExactly("[10,20)=a", "[10,30)=c", "[10,20)=d", "[30,40)=b");
+        
+        assertSame(result, result.withAll(batch.entryIterator()));
+        assertSame(map, map.withAll(PersistentIntervalMap.<String>empty().entryIterator()));
+    }
+    
+    @Test
+    public void withAllLarge() {
+        Random random = new Random(5);
+        ArrayList<Interval> intervals1 = generateRandomIntervals(random, 1000, 20, 2000);
+        ArrayList<Interval> intervals2 = generateRandomIntervals(random, 1000, 20, 2000);
+        PersistentIntervalMap<String> map1 = createIncrementally(intervals1);
+        
+        // Few new entries are inserted node by node, many new entries trigger a rebuild.
+        for (int count: new int[] {1, 10, 2000}) {
+            ArrayList<Interval> added = new ArrayList<>();
+            for (int i = 0; i < count; ++i) {
+                added.push(intervals2.get(i));
+            }
+            PersistentIntervalMap<String> expected = map1;
+            for (int i = 0; i < added.size(); ++i) {
+                expected = expected.with(added.get(i), String.valueOf(i % 50));
+            }
+            PersistentIntervalMap<String> actual = map1.withAll(entryIterator(added));
+            actual.checkInvariants();
+            assertEquals(expected.size(), actual.size());
+            assertEquals(entries(expected), entries(actual));
+        }
+    }
+    
+    @Test
+    public void withoutAll() {
+        map = map.with(new Interval(10, 20), "a");
+        map = map.with(new Interval(10, 30), "c");
+        map = map.with(new Interval(30, 40), "b");
+        
+        PersistentIntervalMap<String> batch = PersistentIntervalMap.<String>newBuilder()
+                .add(new Interval(10, 20), "a")
+                .add(new Interval(10, 20), "x")
+                .add(new Interval(30, 40), "b")
+                .add(new Interval(50, 60), "b")
+                .build();
+        PersistentIntervalMap<String> result = map.withoutAll(batch.entryIterator());
+        result.checkInvariants();
+        assertEquals(1, result.size());
+        Truth.assertThat(entries(result)).containsExactly("[10,30)=c");
+        
+        assertSame(result, result.withoutAll(batch.entryIterator()));
+        assertSame(map, map.withoutAll(PersistentIntervalMap.<String>empty().entryIterator()));
+    }
+    
+    @Test
+    public void withoutAllLarge() {
+        Random random = new Random(9);
+        ArrayList<Interval> intervals = generateRandomIntervals(random, 1000, 20, 2000);
+        PersistentIntervalMap<String> map1 = createIncrementally(intervals);
+        
+        for (int count: new int[] {1, 10, 1000, 2000}) {
+            ArrayList<Interval> removed = new ArrayList<>();
+            for (int i = 0; i < count; ++i) {
+                removed.push(intervals.get(i));
+            }
+            PersistentIntervalMap<String> expected = map1;
+            for (int i = 0; i < removed.size(); ++i) {
+                expected = expected.without(removed.get(i), String.valueOf(i % 50));
+            }
+            PersistentIntervalMap<String> actual = map1.withoutAll(entryIterator(removed));
+            actual.checkInvariants();
+            assertEquals(expected.size(), actual.size());
+            assertEquals(entries(expected), entries(actual));
+        }
+        assertTrue(map1.withoutAll(map1.entryIterator()).isEmpty());
+    }
+    
 }
@@ -5,6 +5,8 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Random;
+
 import javax.annotation.CheckForNull;
 
 import org.junit.Test;
@@ -16,6 +18,7 @@ import org.povworld.collection.Set;
 import org.povworld.collection.immutable.ImmutableCollections;
 import org.povworld.collection.persistent.PersistentCollections;
 import org.povworld.collection.persistent.PersistentMultiMap;
+import org.povworld.collection.persistent.PersistentMultiMapImpl;
 import org.povworld.collection.persistent.PersistentMultiMapImpl2;
 import org.povworld.collection.persistent.PersistentSet;
 
@@ -241,4 +244,52 @@ public class PersistentMultiMapImpl2Test extends AbstractPersistentMultiMapTest<
         
         assertSame(testIdentificator, map.getKeyIdentificator());
     }
+    
+    @Test
+    public void withAllKeysEqualForIdentificator() {
+        PersistentMultiMap<String, Integer> batch = PersistentMultiMapImpl2.empty();
+        for (int i = 0; i < 64; ++i) {
+            // All case variants of "abcdef".
+            StringBuilder key = new StringBuilder();
+            for (int c = 0; c < 6; ++c) {
+                key.append((char)((((i >> c) & 1) == 0) ? 'a' + c : 'A' + c));
+            }
+            batch = batch.with(key.toString(), i);
+        }
+        PersistentMultiMapImpl2<String, Integer> map =
+                PersistentMultiMapImpl2.<String, Integer>empty(new TestIdentificator()).withAll(batch);
+        assertEquals(1, map.keyCount());
+        assertEquals(64, map.get("ABCDEF").size());
+        assertTrue(map.without("Abcdef").isEmpty());
+    }
+    
+    @Test
+    public void withAllMultiMap() {
+        Random random = new Random(19);
+        PersistentMultiMapImpl2<Integer, Integer> base = PersistentMultiMapImpl2.empty();
+        for (int i = 0; i < 500; ++i) {
+            base = base.with(random.nextInt(1000), random.nextInt(4));
+        }
+        for (int size: new int[] {1, 10, 100, 2000}) {
+            PersistentMultiMap<Integer, Integer> batch = PersistentMultiMapImpl2.empty();
+            PersistentMultiMap<Integer, Integer> otherBatch = PersistentMultiMapImpl.empty();
+            for (int i = 0; i < size; ++i) {
+                int key = random.nextInt(1000);
+                int value = random.nextInt(4);
+                batch = batch.with(key, value);
+                otherBatch = otherBatch.with(key, value);
+            }
+            PersistentMultiMap<Integer, Integer> expected = base;
+            EntryIterator<Integer, ? extends Set<Integer>> iter = batch.entryIterator();
+            while (iter.next()) {
+                expected = expected.withAll(iter.getCurrentKey(), iter.getCurrentValue());
+            }
+            PersistentMultiMapImpl2<Integer, Integer> actual = base.withAll(batch);
+            assertEquals(expected.keyCount(), actual.keyCount());
+            assertEquals(expected, actual);
+            assertEquals(expected, base.withAll(otherBatch));
+            assertSame(actual, actual.withAll(batch));
+            assertEquals(batch, PersistentMultiMapImpl2.<Integer, Integer>empty().withAll(batch));
+        }
+    }
 }
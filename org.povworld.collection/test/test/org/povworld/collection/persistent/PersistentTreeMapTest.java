@@ -1,12 +1,16 @@
 package test.org.povworld.collection.persistent;
 
+import static org.junit.Assert.assertEquals;
+
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Random;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
+import org.povworld.collection.CollectionUtil;
 import org.povworld.collection.common.ObjectUtil;
 import org.povworld.collection.persistent.PersistentMap;
 import org.povworld.collection.persistent.PersistentTreeMap;
@@ -42,6 +46,49 @@ public class PersistentTreeMapTest extends AbstractPersistentMapTest {
         checkInvariants(mapLarge);
     }
     
+    @Test
+    public void editor() {
+        Random random = new Random(3);
+        PersistentTreeMap.Editor<String, Integer, ?> editor =
+                PersistentTreeMap.newEditor(CollectionUtil.getDefaultComparator(String.class), balancer);
+        PersistentMap<String, Integer> expected = empty();
+        PersistentMap<String, Integer> frozen = editor.freeze();
+        PersistentMap<String, Integer> expectedFrozen = expected;
+        for (int i = 0; i < 3000; ++i) {
+            String key = String.valueOf(random.nextInt(300));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.get(key), editor.remove(key));
+                expected = expected.without(key);
+            } else {
+                assertEquals(expected.get(key), editor.put(key, i % 7));
+                expected = expected.with(key, i % 7);
+            }
+            assertEquals(expected.keyCount(), editor.keyCount());
+            if (i % 300 == 0) {
+                // Later changes of the editor must not leak into the frozen maps.
+                assertEquals(expectedFrozen, frozen);
+                frozen = editor.freeze();
+                expectedFrozen = expected;
+                checkInvariants(frozen);
+            }
+        }
+        assertEquals(expected, editor.freeze());
+        checkInvariants(editor.freeze());
+    }
+    
+    @Test
+    public void editDoesNotChangeSource() {
+        PersistentTreeMap<String, Integer, ?> treeMap = (PersistentTreeMap<String, Integer, ?>)mapLarge;
+        PersistentMap<String, Integer> copy = empty().withAll(treeMap);
+        PersistentTreeMap.Editor<String, Integer, ?> editor = treeMap.edit();
+        String firstKey = treeMap.getFirstKeyOrNull();
+        editor.put(firstKey, -1);
+        editor.remove(treeMap.keys().getFirstOrNull());
+        editor.put("new", 1);
+        assertEquals(copy, treeMap);
+        assertEquals(treeMap.without(firstKey).with("new", 1), editor.freeze());
+    }
+    
     private void checkInvariants(PersistentMap<String, Integer> map) {
         PersistentTreeMap<?, ?, ?> treeMap = ObjectUtil.castOrNull(map, PersistentTreeMap.class);
         if (treeMap != null) {
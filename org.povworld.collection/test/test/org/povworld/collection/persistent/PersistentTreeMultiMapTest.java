@@ -0,0 +1,138 @@
+package test.org.povworld.collection.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+import org.povworld.collection.Collection;
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.Comparator;
+import org.povworld.collection.EntryIterator;
+import org.povworld.collection.List;
+import org.povworld.collection.OrderedCollection;
+import org.povworld.collection.common.ObjectUtil;
+import org.povworld.collection.immutable.ImmutableCollections;
+import org.povworld.collection.mutable.ArrayList;
+import org.povworld.collection.persistent.PersistentMultiMap;
+import org.povworld.collection.persistent.PersistentTreeMultiMap;
+
+/**
+ * Unit tests for {@link PersistentTreeMultiMap}.
+ */
+public class PersistentTreeMultiMapTest extends AbstractPersistentMultiMapTest<PersistentMultiMap<String, Integer>> {
+    
+    @Override
+    protected PersistentMultiMap<String, Integer> create() {
+        return empty();
+    }
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Comparator<T> naturalOrder() {
+        return (Comparator<T>)CollectionUtil.getDefaultComparator((Class)Comparable.class);
+    }
+    
+    @Override
+    protected <K, V> PersistentMultiMap<K, V> empty() {
+        return PersistentTreeMultiMap.empty(PersistentTreeMultiMapTest.<K>naturalOrder(),
+                PersistentTreeMultiMapTest.<V>naturalOrder());
+    }
+    
+    @Override
+    protected PersistentMultiMap<String, Integer> set(PersistentMultiMap<String, Integer> map, String key,
+            Collection<Integer> values) {
+        return map.without(key).withAll(key, values);
+    }
+    
+    @Override
+    protected void assertValues(Collection<Integer> expectedValues, Collection<Integer> actualValues) {
+        assertEquals(ImmutableCollections.asSet(expectedValues), actualValues);
+    }
+    
+    @Override
+    protected void assertKeySet(Collection<String> expected, Collection<String> actual) {
+        List<String> sortedExpectations = CollectionUtil.sort(expected);
+        assertEquals(sortedExpectations.size(), actual.size());
+        assertTrue(CollectionUtil.iteratesEqualSequence(sortedExpectations, actual));
+    }
+    
+    private static PersistentTreeMultiMap<?, ?, ?> tree(PersistentMultiMap<?, ?> map) {
+        return ObjectUtil.castOrNull(map, PersistentTreeMultiMap.class);
+    }
+    
+    private static List<String> flatEntries(EntryIterator<String, Integer> iterator) {
+        ArrayList<String> result = new ArrayList<>();
+        while (iterator.next()) {
+            result.push(iterator.getCurrentKey() + "=" + iterator.getCurrentValue());
+        }
+        return result;
+    }
+    
+    @Test
+    public void invariants() {
+        tree(mapEmpty).checkInvariants();
+        tree(mapSingleEntry).checkInvariants();
+        tree(mapThreeKeys).checkInvariants();
+        tree(mapLarge).checkInvariants();
+        tree(mapLarge.without("10").without("11", 3).with("12", 0)).checkInvariants();
+    }
+    
+    @Test
+    public void valueCount() {
+        assertEquals(0, tree(mapEmpty).valueCount());
+        assertEquals(6, tree(mapThreeKeys).valueCount());
+        assertEquals(5, tree(mapThreeKeys.without("one", 2)).valueCount());
+        assertEquals(3, tree(mapThreeKeys.without("three")).valueCount());
+        assertEquals(7, tree(mapThreeKeys.with("one", 7)).valueCount());
+    }
+    
+    @Test
+    public void keyCountWithSharedNeighbours() {
+        PersistentMultiMap<String, Integer> map = mapEmpty;
+        for (int i = 0; i < 50; ++i) {
+            map = map.with(String.valueOf(i % 5), i);
+        }
+        assertEquals(5, map.keyCount());
+        for (int i = 0; i < 50; i += 2) {
+            map = map.without(String.valueOf(i % 5), i);
+        }
+        assertEquals(5, map.keyCount());
+        for (int i = 1; i < 50; i += 2) {
+            map = map.without(String.valueOf(i % 5), i);
+            tree(map).checkInvariants();
+        }
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.keyCount());
+    }
+    
+    @Test
+    public void flatEntryIterator() {
+        @SuppressWarnings("unchecked")
+        PersistentTreeMultiMap<String, Integer, ?> map = (PersistentTreeMultiMap<String, Integer, ?>)tree(mapThreeKeys);
+        assertEquals(ImmutableCollections.listOf("one=2", "three=2", "three=3", "three=5", "two=2", "two=3"),
+                flatEntries(map.flatEntryIterator()));
+        assertEquals(ImmutableCollections.listOf("three=2", "three=3", "three=5"),
+                flatEntries(map.flatEntryIterator("p", "tw")));
+        assertEquals(ImmutableCollections.listOf("one=2", "three=2", "three=3", "three=5"),
+                flatEntries(map.flatEntryIterator("one", "two")));
+        assertEquals(ImmutableCollections.listOf("two=2", "two=3"),
+                flatEntries(map.flatEntryIterator("tw", "z")));
+        assertEquals(ImmutableCollections.<String>listOf(), flatEntries(map.flatEntryIterator("a", "o")));
+        assertEquals(ImmutableCollections.<String>listOf(), flatEntries(map.flatEntryIterator("z", "zz")));
+        assertFalse(map.flatEntryIterator("two", "two").next());
+    }
+    
+    @Test
+    public void reverseKeys() {
+        OrderedCollection<String> keys = ObjectUtil.castOrNull(mapThreeKeys.keys(), OrderedCollection.class);
+        assertEquals("two", keys.getLast());
+        Iterator<String> iterator = keys.reverseIterator();
+        assertEquals("two", iterator.next());
+        assertEquals("three", iterator.next());
+        assertEquals("one", iterator.next());
+        assertFalse(iterator.hasNext());
+    }
+    
+}
@@ -1,8 +1,12 @@
 package test.org.povworld.collection.persistent;
 
+import static org.junit.Assert.assertEquals;
+
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Random;
 
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
@@ -27,8 +31,11 @@ public class PersistentTreeSetTest extends AbstractPersistentOrderedSetTest<Pers
         return Arrays.asList(new Object[][] {{BalancerType.AVL}, {BalancerType.NON_BALANCED}});
     }
     
+    private final BalancerType balancer;
+    
     public PersistentTreeSetTest(BalancerType balancer) {
         super(PersistentTreeSet.newBuilder(CollectionUtil.getDefaultComparator(String.class), balancer));
+        this.balancer = balancer;
     }
     
     @Override
@@ -45,7 +52,37 @@ public class PersistentTreeSetTest extends AbstractPersistentOrderedSetTest<Pers
     protected OrderedSet<String> setOf(String... elements) {
         return TreeSet.newBuilder(String.class).addAll(CollectionUtil.wrap(elements)).build();
     }
-
+    
+    @Test
+    public void editor() {
+        Random random = new Random(5);
+        PersistentTreeSet.Editor<String, ?> editor =
+                PersistentTreeSet.newEditor(CollectionUtil.getDefaultComparator(String.class), balancer);
+        PersistentOrderedSet<String> expected = PersistentTreeSet.empty(CollectionUtil.getDefaultComparator(String.class));
+        PersistentOrderedSet<String> frozen = editor.freeze();
+        PersistentOrderedSet<String> expectedFrozen = expected;
+        for (int i = 0; i < 3000; ++i) {
+            String element = String.valueOf(random.nextInt(300));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.contains(element), editor.remove(element));
+                expected = expected.without(element);
+            } else {
+                assertEquals(!expected.contains(element), editor.add(element));
+                expected = expected.with(element);
+            }
+            assertEquals(expected.size(), editor.size());
+            if (i % 300 == 0) {
+                // Later changes of the editor must not leak into the frozen sets.
+                assertEquals(expectedFrozen, frozen);
+                frozen = editor.freeze();
+                expectedFrozen = expected;
+                checkInvariants(frozen);
+            }
+        }
+        assertEquals(expected, editor.freeze());
+        checkInvariants(editor.freeze());
+    }
+    
     @Override
     protected void checkInvariants(PersistentOrderedSet<?> set) {
         PersistentTreeSet<?, ?> treeSet = ObjectUtil.castOrNull(set, PersistentTreeSet.class);
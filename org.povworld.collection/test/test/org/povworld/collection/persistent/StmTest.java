@@ -0,0 +1,201 @@
+package test.org.povworld.collection.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.povworld.collection.persistent.ChampHashMap;
+import org.povworld.collection.persistent.ChampHashSet;
+import org.povworld.collection.persistent.Stm;
+import org.povworld.collection.persistent.Stm.Ref;
+
+/**
+ * Unit tests for {@link Stm}.
+ */
+public class StmTest {
+    
+    private final Stm stm = new Stm();
+    
+    @Test
+    public void readOwnWrites() {
+        Ref<ChampHashSet<String>> ref = stm.newRef(ChampHashSet.<String>empty());
+        int size = stm.atomically(transaction -> {
+            transaction.update(ref, set -> set.with("a"));
+            assertTrue(ref.get().isEmpty());
+            transaction.update(ref, set -> set.with("b"));
+            return transaction.get(ref).size();
+        });
+        assertEquals(2, size);
+        assertEquals(2, ref.get().size());
+        assertEquals(1, stm.getCommitCount());
+        assertEquals(0, stm.getConflictCount());
+    }
+    
+    @Test
+    public void exceptionAbortsTransaction() {
+        Ref<ChampHashSet<String>> ref = stm.newRef(ChampHashSet.<String>empty());
+        try {
+            stm.atomically(transaction -> {
+                transaction.update(ref, set -> set.with("a"));
+                throw new IllegalStateException();
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertTrue(ref.get().isEmpty());
+        assertEquals(0, stm.getCommitCount());
+    }
+    
+    @Test
+    public void transactionOnlyUsableWithinFunction() {
+        Ref<String> ref = stm.newRef("a");
+        Stm.Transaction leaked = stm.atomically(transaction -> transaction);
+        try {
+            leaked.get(ref);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void refOfOtherStm() {
+        Ref<String> ref = new Stm().newRef("a");
+        stm.atomically(transaction -> transaction.get(ref));
+    }
+    
+    @Test
+    public void conflictingCommitIsRetried() {
+        Ref<Integer> source = stm.newRef(10);
+        Ref<Integer> target = stm.newRef(0);
+        AtomicInteger attempts = new AtomicInteger();
+        stm.atomically(transaction -> {
+            int amount = transaction.get(source);
+            if (attempts.incrementAndGet() == 1) {
+                runInOtherThread(() -> stm.atomically(other -> other.update(source, value -> value - 3)));
+            }
+            transaction.set(source, 0);
+            transaction.update(target, value -> value + amount);
+            return null;
+        });
+        assertEquals(2, attempts.get());
+        assertEquals(Integer.valueOf(0), source.get());
+        assertEquals(Integer.valueOf(7), target.get());
+        assertEquals(1, stm.getConflictCount());
+        assertEquals(2, stm.getCommitCount());
+    }
+    
+    @Test
+    public void staleReadIsRetried() {
+        Ref<Integer> ref1 = stm.newRef(1);
+        Ref<Integer> ref2 = stm.newRef(1);
+        AtomicInteger attempts = new AtomicInteger();
+        int sum = stm.atomically(transaction -> {
+            int value1 = transaction.get(ref1);
+            if (attempts.incrementAndGet() == 1) {
+                runInOtherThread(() -> stm.atomically(other -> {
+                    other.set(ref1, 2);
+                    other.set(ref2, 2);
+                    return null;
+                }));
+            }
+            return value1 + transaction.get(ref2);
+        });
+        assertEquals(4, sum);
+        assertEquals(2, attempts.get());
+    }
+    
+    private static void runInOtherThread(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+    
+    @Test
+    public void concurrentTransfers() throws InterruptedException {
+        int accounts = 20;
+        Ref<ChampHashMap<Integer, Integer>> left = stm.newRef(ChampHashMap.<Integer, Integer>empty());
+        Ref<ChampHashMap<Integer, Integer>> right = stm.newRef(ChampHashMap.<Integer, Integer>empty());
+        stm.atomically(transaction -> {
+            for (int i = 0; i < accounts; ++i) {
+                int account = i;
+                transaction.update(left, map -> map.with(account, 100));
+            }
+            return null;
+        });
+        
+        Thread[] threads = new Thread[4];
+        Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < threads.length; ++t) {
+            int seed = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 5000; ++i) {
+                        int account = random.nextInt(accounts);
+                        if (random.nextInt(4) == 0) {
+                            assertEquals(Integer.valueOf(100 * accounts), stm.atomically(transaction -> total(
+                                    transaction.get(left), transaction.get(right))));
+                            continue;
+                        }
+                        stm.atomically(transaction -> {
+                            // Moves one unit of the account from the left to the right map.
+                            ChampHashMap<Integer, Integer> from = transaction.get(left);
+                            Integer balance = from.get(account);
+                            if (balance == null || balance == 0) {
+                                return null;
+                            }
+                            transaction.set(left, from.with(account, balance - 1));
+                            transaction.update(right, to -> {
+                                Integer moved = to.get(account);
+                                return to.with(account, (moved == null) ? 1 : moved + 1);
+                            });
+                            return null;
+                        });
+                    }
+                } catch (Throwable e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new AssertionError(failure[0]);
+            }
+        }
+        assertEquals(100 * accounts, total(left.get(), right.get()));
+        for (int i = 0; i < accounts; ++i) {
+            Integer moved = right.get().get(i);
+            assertEquals(100, left.get().get(i) + ((moved == null) ? 0 : moved));
+        }
+        assertNull(left.get().get(accounts));
+    }
+    
+    private static int total(ChampHashMap<Integer, Integer> left, ChampHashMap<Integer, Integer> right) {
+        int total = 0;
+        for (Integer value: left.values()) {
+            total += value;
+        }
+        for (Integer value: right.values()) {
+            total += value;
+        }
+        return total;
+    }
+    
+}
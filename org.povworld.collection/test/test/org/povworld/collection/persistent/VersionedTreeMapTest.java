@@ -0,0 +1,173 @@
+package test.org.povworld.collection.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.povworld.collection.CollectionUtil;
+import org.povworld.collection.EntryIterator;
+import org.povworld.collection.Identificator;
+import org.povworld.collection.persistent.ChampHashMap;
+import org.povworld.collection.persistent.PersistentTreeMap;
+import org.povworld.collection.persistent.VersionedTreeMap;
+
+/**
+ * Unit tests for {@link VersionedTreeMap}.
+ */
+public class VersionedTreeMapTest {
+    
+    @Test
+    public void pointQueries() {
+        VersionedTreeMap<Integer, String> history = VersionedTreeMap.create(Integer.class);
+        assertEquals(0, history.getLatestVersion());
+        assertTrue(history.getLatest().isEmpty());
+        
+        assertEquals(1, history.put(1, "a"));
+        assertEquals(2, history.put(2, "b"));
+        assertEquals(3, history.put(1, "c"));
+        assertEquals(4, history.remove(2));
+        
+        assertNull(history.get(1, 0));
+        assertEquals("a", history.get(1, 1));
+        assertEquals("a", history.get(1, 2));
+        assertEquals("b", history.get(2, 2));
+        assertEquals("c", history.get(1, 3));
+        assertEquals("b", history.get(2, 3));
+        assertNull(history.get(2, 4));
+        assertEquals(1, history.get(4).keyCount());
+        assertEquals(5, history.versionCount());
+    }
+    
+    @Test
+    public void rangeQueries() {
+        VersionedTreeMap<Integer, Integer> history = VersionedTreeMap.create(Integer.class);
+        for (int i = 0; i < 100; ++i) {
+            history.put(i, i);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            history.remove(i);
+        }
+        
+        assertRange(history.entryIterator(10, 20, 50), 10, 20, 1);
+        assertRange(history.entryIterator(10, 20, 100), 10, 20, 1);
+        assertRange(history.entryIterator(10, 20, 150), 11, 20, 2);
+        assertRange(history.entryIterator(-5, 3, 150), 1, 3, 2);
+        assertRange(history.entryIterator(95, 200, 150), 95, 100, 2);
+        assertRange(history.entryIterator(45, 60, 45), 45, 45, 1);
+        assertRange(history.entryIterator(20, 10, 100), 20, 20, 1);
+        assertFalse(history.entryIterator(0, 10, 0).next());
+    }
+    
+    private static void assertRange(EntryIterator<Integer, Integer> iterator, int from, int to, int step) {
+        for (int i = from; i < to; i += step) {
+            assertTrue(iterator.next());
+            assertEquals(Integer.valueOf(i), iterator.getCurrentKey());
+            assertEquals(Integer.valueOf(i), iterator.getCurrentValue());
+        }
+        assertFalse(iterator.next());
+    }
+    
+    @Test
+    public void putAllIsOneVersion() {
+        VersionedTreeMap<String, Integer> history = VersionedTreeMap.create(String.class);
+        history.put("x", 0);
+        ChampHashMap<String, Integer> entries = ChampHashMap.<String, Integer>empty().with("a", 1).with("b", 2);
+        assertEquals(2, history.putAll(entries));
+        assertEquals(3, history.get(2).keyCount());
+        assertNull(history.get("a", 1));
+    }
+    
+    @Test
+    public void commitCopiesOtherMaps() {
+        VersionedTreeMap<String, Integer> history = VersionedTreeMap.create(String.class);
+        ChampHashMap<String, Integer> map = ChampHashMap.<String, Integer>empty().with("b", 2).with("a", 1);
+        assertEquals(1, history.commit(map));
+        assertTrue(history.getLatest() instanceof PersistentTreeMap);
+        assertEquals(2, history.getLatest().keyCount());
+        
+        EntryIterator<String, Integer> iterator = history.entryIterator("a", "c", 1);
+        assertTrue(iterator.next());
+        assertEquals("a", iterator.getCurrentKey());
+        assertTrue(iterator.next());
+        assertEquals("b", iterator.getCurrentKey());
+        assertFalse(iterator.next());
+    }
+    
+    @Test
+    public void commitCopiesEmptyMaps() {
+        VersionedTreeMap<String, Integer> history = VersionedTreeMap.create(String.class);
+        // An empty map with the key comparator of the history as identificator, which is not a tree map.
+        Identificator<? super String> keyIdentificator = history.getLatest().getKeyIdentificator();
+        ChampHashMap<String, Integer> empty =
+                ChampHashMap.<String, Integer>empty(keyIdentificator, CollectionUtil.getObjectIdentificator());
+        assertEquals(1, history.commit(empty));
+        assertFalse(history.getLatest() instanceof ChampHashMap);
+        assertEquals(2, history.put("a", 1));
+        assertTrue(history.getLatest() instanceof PersistentTreeMap);
+        EntryIterator<String, Integer> iterator = history.entryIterator("a", "b", 2);
+        assertTrue(iterator.next());
+        assertEquals("a", iterator.getCurrentKey());
+        assertFalse(iterator.next());
+    }
+    
+    @Test
+    public void discardVersions() {
+        VersionedTreeMap<Integer, Integer> history = VersionedTreeMap.create(Integer.class);
+        for (int i = 0; i < 10; ++i) {
+            history.put(i, i);
+        }
+        history.discardVersionsBefore(4);
+        assertEquals(4, history.getOldestVersion());
+        assertEquals(7, history.versionCount());
+        assertEquals(Integer.valueOf(3), history.get(3, 4));
+        assertNull(history.get(4, 4));
+        
+        // An older watermark does not change anything.
+        history.discardVersionsBefore(2);
+        assertEquals(4, history.getOldestVersion());
+        
+        try {
+            history.get(3);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            history.get(11);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            history.discardVersionsBefore(11);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        
+        history.discardVersionsBefore(10);
+        assertEquals(1, history.versionCount());
+        assertEquals(10, history.getLatest().keyCount());
+    }
+    
+    @Test
+    public void manyVersions() {
+        VersionedTreeMap<Integer, Integer> history = VersionedTreeMap.create(Integer.class);
+        for (int i = 1; i <= 1000; ++i) {
+            history.put(i % 50, i);
+            if (i % 100 == 0) {
+                history.discardVersionsBefore(i - 30);
+            }
+        }
+        assertEquals(1000, history.getLatestVersion());
+        assertEquals(970, history.getOldestVersion());
+        for (long version = 970; version <= 1000; ++version) {
+            assertEquals(Integer.valueOf((int)version), history.get((int)(version % 50), version));
+            assertEquals(50, history.get(version).keyCount());
+        }
+    }
+    
+}